@@ -52,6 +52,20 @@ final class CallInfo
     this.nresults = nresults;
   }
 
+  /**
+   * Reinitialises a record for reuse, as if freshly constructed with
+   * the same arguments.
+   */
+  void reset(int func, int base, int top, int nresults)
+  {
+    this.savedpc = 0;
+    this.func = func;
+    this.base = base;
+    this.top = top;
+    this.nresults = nresults;
+    this.tailcalls = 0;
+  }
+
   /** Setter for savedpc. */
   void setSavedpc(int pc)
   {
@@ -30,8 +30,6 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.Enumeration;
-import java.util.Stack;
-import java.util.Vector;
 
 /**
  * <p>
@@ -115,25 +113,29 @@ public final class Lua
   /** Instruction to resume execution at.  Index into code array. */
   private int savedpc;  // = 0;
   /**
-   * Vector of CallInfo records.  Actually it's a Stack which is a
-   * subclass of Vector, but it mostly the Vector methods that are used.
+   * Array of CallInfo records, used as a stack.  Only the first
+   * <var>civSize</var> entries are live; records above that are kept
+   * around to be reused by {@link #inc_ci} so that calls do not
+   * allocate.
    */
-  private Stack<Object> civ = new Stack<Object>();
+  private CallInfo[] civ = new CallInfo[8];
+  private int civSize = 1;
   {
-    civ.addElement(new CallInfo());
+    civ[0] = new CallInfo();
   }
   /** CallInfo record for currently active function. */
   private CallInfo ci()
   {
-    return (CallInfo)civ.lastElement();
+    return civ[civSize - 1];
   }
 
   /** Open Upvalues.  All UpVal objects that reference the VM stack.
-   * openupval is a java.util.Vector of UpVal stored in order of stack
-   * slot index: higher stack indexes are stored at higher Vector
-   * positions.
+   * openupval is an array of UpVal stored in order of stack slot
+   * index: higher stack indexes are stored at higher array positions.
+   * Only the first <var>openupvalSize</var> entries are live.
    */
-  private Vector<Object> openupval = new Vector<Object>();
+  private UpVal[] openupval = new UpVal[8];
+  private int openupvalSize;
 
   int hookcount;
   int basehookcount;
@@ -177,10 +179,41 @@ public final class Lua
   static final Object NUMBER = new Object();
 
   /**
-   * Spare Slot used for a temporary.
+   * Spare Slot used for a temporary.  Only used by the static
+   * conversion helpers; the VM proper uses {@link #spare}.
    */
   private static final Slot SPARE_SLOT = new Slot();
 
+  /**
+   * Per-thread spare Slot used by table access.  Never live across a
+   * call back into Lua.
+   */
+  private final Slot spare = new Slot();
+
+  /**
+   * Pool of temporary Slots for API entry points and metamethod
+   * results.  Slots are taken with {@link #tempSlot} and given back
+   * (in LIFO order) with {@link #releaseTemp}, so re-entrant calls get
+   * distinct slots and nothing is allocated in the steady state.
+   */
+  private Slot[] tempSlots = new Slot[8];
+  private int tempTop;
+
+  /**
+   * Small integral numbers are interned by {@link #valueOfNumber}.
+   */
+  private static final int NUMBER_CACHE_LOW = -128;
+  private static final int NUMBER_CACHE_HIGH = 1023;
+  private static final Double[] NUMBER_CACHE =
+      new Double[NUMBER_CACHE_HIGH - NUMBER_CACHE_LOW + 1];
+  static
+  {
+    for (int i = 0; i < NUMBER_CACHE.length; ++i)
+    {
+      NUMBER_CACHE[i] = new Double(i + NUMBER_CACHE_LOW);
+    }
+  }
+
   /**
    * Registry key for loaded modules.
    */
@@ -585,10 +618,18 @@ public final class Lua
    */
   public Object getTable(Object t, Object k)
   {
-    Slot s = new Slot(k);
-    Slot v = new Slot();
-    vmGettable(t, s, v);
-    return v.asObject();
+    Slot s = tempSlot();
+    Slot v = tempSlot();
+    try
+    {
+      s.setObject(k);
+      vmGettable(t, s, v);
+      return v.asObject();
+    }
+    finally
+    {
+      releaseTemp(2);
+    }
   }
 
   /**
@@ -758,9 +799,18 @@ public final class Lua
    */
   public boolean lessThan(Object o1, Object o2)
   {
-    Slot a = new Slot(o1);
-    Slot b = new Slot(o2);
-    return vmLessthan(a, b);
+    Slot a = tempSlot();
+    Slot b = tempSlot();
+    try
+    {
+      a.setObject(o1);
+      b.setObject(o2);
+      return vmLessthan(a, b);
+    }
+    finally
+    {
+      releaseTemp(2);
+    }
   }
 
   /**
@@ -947,7 +997,7 @@ public final class Lua
     apiChecknelems(nargs+1);
     int restoreStack = stackSize - (nargs + 1);
     // Most of this code comes from luaD_pcall
-    int restoreCi = civ.size();
+    int restoreCi = civSize;
     int oldnCcalls = nCcalls;
     Object old_errfunc = errfunc;
     errfunc = ef;
@@ -962,7 +1012,7 @@ public final class Lua
       fClose(restoreStack);   // close eventual pending closures
       dSeterrorobj(e.errorStatus, restoreStack);
       nCcalls = oldnCcalls;
-      civ.setSize(restoreCi);
+      civSize = restoreCi;
       CallInfo ci = ci();
       base = ci.base();
       savedpc = ci.savedpc();
@@ -974,7 +1024,7 @@ public final class Lua
       fClose(restoreStack);     // close eventual pending closures
       dSeterrorobj(ERRMEM, restoreStack);
       nCcalls = oldnCcalls;
-      civ.setSize(restoreCi);
+      civSize = restoreCi;
       CallInfo ci = ci();
       base = ci.base();
       savedpc = ci.savedpc();
@@ -1042,8 +1092,10 @@ public final class Lua
    */
   public void pushNumber(double d)
   {
-    // :todo: optimise to avoid creating Double instance
-    push(new Double(d));
+    int i = stackSize;
+    stacksetsize(i+1);
+    stack[i].r = NUMBER;
+    stack[i].d = d;
   }
 
   /**
@@ -1151,7 +1203,7 @@ public final class Lua
     {
       if (status != 0)
         return resume_error("cannot resume dead coroutine");
-      else if (civ.size() != 1)
+      else if (civSize != 1)
         return resume_error("cannot resume non-suspended coroutine");
     }
     // assert errfunc == 0 && nCcalls == 0;
@@ -1162,7 +1214,7 @@ protect:
       int firstArg = stackSize - narg;
       if (status == 0)  // start coroutine?
       {
-        // assert civ.size() == 1 && firstArg > base);
+        // assert civSize == 1 && firstArg > base);
         if (vmPrecall(firstArg - 1, MULTRET) != PCRLUA)
           break protect;
       }
@@ -1180,7 +1232,7 @@ protect:
         else    // yielded inside a hook: just continue its execution
           base = ci().base();
       }
-      vmExecute(civ.size() - 1);
+      vmExecute(civSize - 1);
     }
     catch (LuaError e)
     {
@@ -1239,8 +1291,16 @@ protect:
    */
   public void setField(Object t, String name, Object v)
   {
-    Slot s = new Slot(name);
-    vmSettable(t, s, v);
+    Slot s = tempSlot();
+    try
+    {
+      s.setObject(name);
+      vmSettable(t, s, v);
+    }
+    finally
+    {
+      releaseTemp(1);
+    }
   }
 
   /**
@@ -1282,8 +1342,16 @@ protect:
    */
   public void setGlobal(String name, Object value)
   {
-    Slot s = new Slot(name);
-    vmSettable(global, s, value);
+    Slot s = tempSlot();
+    try
+    {
+      s.setObject(name);
+      vmSettable(global, s, value);
+    }
+    finally
+    {
+      releaseTemp(1);
+    }
   }
 
   /**
@@ -1294,8 +1362,16 @@ protect:
    */
   public void setTable(Object t, Object k, Object v)
   {
-    Slot s = new Slot(k);
-    vmSettable(t, s, v);
+    Slot s = tempSlot();
+    try
+    {
+      s.setObject(k);
+      vmSettable(t, s, v);
+    }
+    finally
+    {
+      releaseTemp(1);
+    }
   }
 
   /**
@@ -1541,7 +1617,13 @@ protect:
    */
   public static Object valueOfNumber(double d)
   {
-    // :todo: consider interning "common" numbers, like 0, 1, -1, etc.
+    int i = (int)d;
+    // Negative zero must keep its identity as a distinct Double.
+    if (i == d && i >= NUMBER_CACHE_LOW && i <= NUMBER_CACHE_HIGH &&
+        (i != 0 || 1 / d > 0))
+    {
+      return NUMBER_CACHE[i - NUMBER_CACHE_LOW];
+    }
     return new Double(d);
   }
 
@@ -2082,7 +2164,7 @@ protect:
     // :todo: complete me
     if (ar.ici() > 0)   // no tail call?
     {
-      callinfo = (CallInfo)civ.elementAt(ar.ici());
+      callinfo = civ[ar.ici()];
       f = stack[callinfo.function()].r;
       //# assert isFunction(f)
     }
@@ -2113,9 +2195,9 @@ protect:
   {
     int ici;    // Index of CallInfo
 
-    for (ici=civ.size()-1; level > 0 && ici > 0; --ici)
+    for (ici=civSize-1; level > 0 && ici > 0; --ici)
     {
-      CallInfo ci = (CallInfo)civ.elementAt(ici);
+      CallInfo ci = civ[ici];
       --level;
       if (isLua(ci))                    // Lua function?
       {
@@ -2149,6 +2231,68 @@ protect:
     hookmask = mask;
   }
 
+  /**
+   * Count hook that raises an error once its deadline has passed.
+   */
+  private static final class DeadlineHook implements Hook
+  {
+    long deadline;
+
+    public int luaHook(Lua L, Debug ar)
+    {
+      if (System.nanoTime() - deadline > 0)
+      {
+        L.error("time budget exceeded");
+      }
+      return 0;
+    }
+  }
+
+  private DeadlineHook deadlineHook;
+  // Debug hook suspended while the deadline is armed.
+  private Hook savedHook;
+  private int savedHookmask;
+  private int savedHookcount;
+
+  /**
+   * Arms a watchdog that makes the running Lua code raise an error
+   * once <var>deadline</var> (in {@link System#nanoTime} units) has
+   * passed.  The clock is checked every <var>count</var> VM
+   * instructions.  Any debug hook is suspended until
+   * {@link #clearDeadline} disarms the watchdog and restores it.
+   * @param deadline  time after which Lua code fails.
+   * @param count     number of instructions between checks.
+   */
+  public void setDeadline(long deadline, int count)
+  {
+    if (deadlineHook == null)
+    {
+      deadlineHook = new DeadlineHook();
+    }
+    if (hook != deadlineHook)
+    {
+      savedHook = hook;
+      savedHookmask = hookmask;
+      savedHookcount = basehookcount;
+    }
+    deadlineHook.deadline = deadline;
+    setHook(deadlineHook, MASKCOUNT, count);
+  }
+
+  /**
+   * Disarms the watchdog set by {@link #setDeadline}, restoring the
+   * debug hook it suspended.
+   */
+  public void clearDeadline()
+  {
+    if (deadlineHook == null || hook != deadlineHook)
+    {
+      return;
+    }
+    setHook(savedHook, savedHookmask, savedHookcount);
+    savedHook = null;
+  }
+
   /**
    * @return true is okay, false otherwise (for example, error).
    */
@@ -2255,7 +2399,7 @@ protect:
     {
       int top = stackSize;
       int ci_top = ci().top();
-      int ici = civ.size() - 1;
+      int ici = civSize - 1;
       if (event == HOOKTAILRET) // not supported yet
       {
         ici = 0;
@@ -2322,17 +2466,18 @@ protect:
    */
   private void fClose(int level)
   {
-    int i = openupval.size();
+    int i = openupvalSize;
     while (--i >= 0)
     {
-      UpVal uv = (UpVal)openupval.elementAt(i);
+      UpVal uv = openupval[i];
       if (uv.offset() < level)
       {
         break;
       }
       uv.close();
+      openupval[i] = null;
     }
-    openupval.setSize(i+1);
+    openupvalSize = i+1;
     return;
   }
 
@@ -2342,10 +2487,10 @@ protect:
      * We search from the end of the Vector towards the beginning,
      * looking for an UpVal for the required stack-slot.
      */
-    int i = openupval.size();
+    int i = openupvalSize;
     while (--i >= 0)
     {
-      UpVal uv = (UpVal)openupval.elementAt(i);
+      UpVal uv = openupval[i];
       if (uv.offset() == idx)
       {
         return uv;
@@ -2358,7 +2503,15 @@ protect:
     // i points to be position _after_ which we want to insert a new
     // UpVal (it's -1 when we want to insert at the beginning).
     UpVal uv = new UpVal(idx, stack[idx]);
-    openupval.insertElementAt(uv, i+1);
+    if (openupvalSize == openupval.length)
+    {
+      UpVal[] newOpen = new UpVal[2 * openupval.length];
+      System.arraycopy(openupval, 0, newOpen, 0, openupvalSize);
+      openupval = newOpen;
+    }
+    System.arraycopy(openupval, i+1, openupval, i+2, openupvalSize - (i+1));
+    openupval[i+1] = uv;
+    ++openupvalSize;
     return uv;
   }
 
@@ -2925,9 +3078,16 @@ protect:
       {
         return false;
       }
-      Slot s = new Slot();
-      callTMres(s, tm, a, b);   // call TM
-      return !isFalse(s.r);
+      Slot s = tempSlot();
+      try
+      {
+        callTMres(s, tm, a, b);   // call TM
+        return !isFalse(s.r);
+      }
+      finally
+      {
+        releaseTemp(1);
+      }
     }
     return false;
   }
@@ -3011,8 +3171,7 @@ reentry:
           case OP_GETUPVAL:
           {
             int b = ARGB(i);
-            // :todo: optimise path
-            setObjectAt(function.upVal(b).getValue(), base+a);
+            function.upVal(b).getSlot(stack[base+a]);
             continue;
           }
           case OP_GETGLOBAL:
@@ -3031,7 +3190,7 @@ reentry:
           case OP_SETUPVAL:
           {
             UpVal uv = function.upVal(ARGB(i));
-            uv.setValue(objectAt(base+a));
+            uv.setSlot(stack[base+a]);
             continue;
           }
           case OP_SETGLOBAL:
@@ -3340,7 +3499,7 @@ reentry:
               case PCRLUA:
               {
                 // tail call: put new frame in place of previous one.
-                CallInfo ci = (CallInfo)civ.elementAt(civ.size()-2);
+                CallInfo ci = civ[civSize-2];
                 int func = ci.function();
                 CallInfo fci = ci();    // Fresh CallInfo
                 int pfunc = fci.function();
@@ -3592,12 +3751,12 @@ reentry:
       if (t instanceof LuaTable)        // 't' is a table?
       {
         LuaTable h = (LuaTable)t;
-        h.getlua(key, SPARE_SLOT);
+        h.getlua(key, spare);
 
-        if (SPARE_SLOT.r != NIL)
+        if (spare.r != NIL)
         {
-          val.r = SPARE_SLOT.r;
-          val.d = SPARE_SLOT.d;
+          val.r = spare.r;
+          val.d = spare.d;
           return;
         }
         tm = tagmethod(h, "__index");
@@ -3616,8 +3775,8 @@ reentry:
       }
       if (isFunction(tm))
       {
-        SPARE_SLOT.setObject(t);
-        callTMres(val, tm, SPARE_SLOT, key);
+        spare.setObject(t);
+        callTMres(val, tm, spare, key);
         return;
       }
       t = tm;     // else repeat with 'tm'
@@ -3812,8 +3971,8 @@ reentry:
       if (t instanceof LuaTable) // 't' is a table
       {
         LuaTable h = (LuaTable)t;
-        h.getlua(key, SPARE_SLOT);
-        if (SPARE_SLOT.r != NIL)   // result is not nil?
+        h.getlua(key, spare);
+        if (spare.r != NIL)   // result is not nil?
         {
           h.putlua(this, key, val);
           return;
@@ -3937,9 +4096,16 @@ reentry:
     {
       return -1;
     }
-    Slot s = new Slot();
-    callTMres(s, tm1, p1, p2);
-    return isFalse(s.r) ? 0 : 1;
+    Slot s = tempSlot();
+    try
+    {
+      callTMres(s, tm1, p1, p2);
+      return isFalse(s.r) ? 0 : 1;
+    }
+    finally
+    {
+      releaseTemp(1);
+    }
   }
 
   private void callTM(Object f, Object p1, Slot p2, Object p3)
@@ -4253,16 +4419,65 @@ reentry:
   /** Make new CallInfo record. */
   private CallInfo inc_ci(int func, int baseArg, int top, int nresults)
   {
-    CallInfo ci = new CallInfo(func, baseArg, top, nresults);
-    civ.addElement(ci);
+    if (civSize == civ.length)
+    {
+      CallInfo[] newCiv = new CallInfo[2 * civ.length];
+      System.arraycopy(civ, 0, newCiv, 0, civSize);
+      civ = newCiv;
+    }
+    CallInfo ci = civ[civSize];
+    if (ci == null)
+    {
+      ci = new CallInfo(func, baseArg, top, nresults);
+      civ[civSize] = ci;
+    }
+    else
+    {
+      ci.reset(func, baseArg, top, nresults);
+    }
+    ++civSize;
     return ci;
   }
 
-  /** Pop topmost CallInfo record and return it. */
+  /**
+   * Pop topmost CallInfo record and return it.  The record stays
+   * valid until the next {@link #inc_ci}.
+   */
   private CallInfo dec_ci()
   {
-    CallInfo ci = (CallInfo)civ.pop();
-    return ci;
+    return civ[--civSize];
+  }
+
+  /**
+   * Takes a temporary Slot from the pool.  Must be paired with
+   * {@link #releaseTemp}.
+   */
+  private Slot tempSlot()
+  {
+    if (tempTop == tempSlots.length)
+    {
+      Slot[] newTemp = new Slot[2 * tempSlots.length];
+      System.arraycopy(tempSlots, 0, newTemp, 0, tempTop);
+      tempSlots = newTemp;
+    }
+    Slot s = tempSlots[tempTop];
+    if (s == null)
+    {
+      s = new Slot();
+      tempSlots[tempTop] = s;
+    }
+    ++tempTop;
+    return s;
+  }
+
+  /** Gives back the <var>n</var> most recently taken temporary Slots. */
+  private void releaseTemp(int n)
+  {
+    tempTop -= n;
+    for (int i = tempTop; i < tempTop + n; ++i)
+    {
+      tempSlots[i].r = null;    // don't retain garbage
+    }
   }
 
   /** Equivalent to resume_error from ldo.c */
@@ -4285,7 +4500,7 @@ reentry:
     {
       return r;
     }
-    return new Double(stack[idx].d);
+    return valueOfNumber(stack[idx].d);
   }
 
   /**
@@ -240,7 +240,7 @@ public final class LuaTable extends java.util.Hashtable<Object, Object>
       System.arraycopy(array, 0, newarray, 0, array.length);
       for (int i=array.length; i<nasize; ++i)
       {
-        Object key = new Double(i+1);
+        Object key = Lua.valueOfNumber(i+1);
         Object v = super.remove(key);
         if (v == null)
         {
@@ -257,7 +257,7 @@ public final class LuaTable extends java.util.Hashtable<Object, Object>
       {
         if (array[i] != Lua.NIL)
         {
-          Object key = new Double(i+1);
+          Object key = Lua.valueOfNumber(i+1);
           super.put(key, array[i]);
         }
       }
@@ -432,7 +432,7 @@ public final class LuaTable extends java.util.Hashtable<Object, Object>
     {
       return array[k-1];
     }
-    Object r = super.get(new Double(k));
+    Object r = super.get(Lua.valueOfNumber(k));
     if (r == null)
     {
       return Lua.NIL;
@@ -546,7 +546,7 @@ public final class LuaTable extends java.util.Hashtable<Object, Object>
     // The key can never be NIL so putlua will never notice that its L
     // argument is null.
     // :todo: optimisation to avoid putlua checking for array part again
-    putlua(null, new Double(k), v);
+    putlua(null, Lua.valueOfNumber(k), v);
   }
 
   /**
@@ -650,7 +650,7 @@ final class Enum implements Enumeration<Object>
     if (i < t.sizeArray)
     {
       ++i;      // array index i corresponds to key i+1
-      r = new Double(i);
+      r = Lua.valueOfNumber(i);
       inci();
     }
     else
@@ -48,7 +48,7 @@ final class Slot
   {
     if (r == Lua.NUMBER)
     {
-      return new Double(d);
+      return Lua.valueOfNumber(d);
     }
     return r;
   }
@@ -91,6 +91,26 @@ final class UpVal
     s.setObject(o);
   }
 
+  /**
+   * Copies the underlying value into <var>dst</var> without boxing
+   * numbers.
+   */
+  void getSlot(Slot dst)
+  {
+    dst.r = s.r;
+    dst.d = s.d;
+  }
+
+  /**
+   * Copies <var>src</var> into the underlying value without boxing
+   * numbers.
+   */
+  void setSlot(Slot src)
+  {
+    s.r = src.r;
+    s.d = src.d;
+  }
+
   /**
    * The offset.
    */
@@ -52,16 +52,24 @@ public class DiskImage implements SRDumpable
     private byte[] blankPage;
     private byte[] diskID;
     private RandomAccessFile image;
-    private static ImageLibrary library;
+    private static volatile ImageLibrary library;
+    private static final ThreadLocal<ImageLibrary> threadLibrary = new ThreadLocal<ImageLibrary>();
 
     public static void setLibrary(ImageLibrary lib)
     {
         library = lib;
     }
 
+    //Override the library for PCs created or loaded on this thread. Null reverts to the global one.
+    public static void setThreadLibrary(ImageLibrary lib)
+    {
+        threadLibrary.set(lib);
+    }
+
     public static ImageLibrary getLibrary()
     {
-        return library;
+        ImageLibrary lib = threadLibrary.get();
+        return (lib != null) ? lib : library;
     }
 
     public void finalize()
@@ -162,7 +170,7 @@ public class DiskImage implements SRDumpable
     {
         input.objectCreated(this);
         byte[] id = input.loadArrayByte();
-        String fileName = library.lookupFileName(id);
+        String fileName = getLibrary().lookupFileName(id);
         if(fileName == null)
             throw new IOException("No disk with ID " + (new ImageLibrary.ByteArray(id)) + " found.");
         commonConstructor(fileName);
@@ -178,7 +186,7 @@ public class DiskImage implements SRDumpable
 
     public DiskImage(String diskName, boolean dummy) throws IOException
     {
-        String fileName = library.searchFileName(diskName);
+        String fileName = getLibrary().searchFileName(diskName);
         if(fileName == null)
             throw new IOException(diskName + ": No such image in Library.");
         commonConstructor(fileName);
@@ -154,14 +154,14 @@ public class ImageLibrary
         recursiveHandleDirectory("", "", f);
     }
 
-    public String lookupFileName(String res)
+    public synchronized String lookupFileName(String res)
     {
         if(!fileToID.containsKey(res))
             return null;
         return directoryPrefix + res;
     }
 
-    public String lookupFileName(byte[] resource)
+    public synchronized String lookupFileName(byte[] resource)
     {
         ByteArray res = new ByteArray(resource);
         if(!idToFile.containsKey(res)) {
@@ -210,7 +210,7 @@ public class ImageLibrary
         return lookupFileName(resource);
     }
 
-    public byte[] canonicalNameFor(String resource)
+    public synchronized byte[] canonicalNameFor(String resource)
     {
         if(resource == null)
             return null;
@@ -230,7 +230,7 @@ public class ImageLibrary
         return bytes;   //The name is canonical.
     }
 
-    public void insertFileName(ByteArray resource, String fileName, String imageName) throws IOException
+    public synchronized void insertFileName(ByteArray resource, String fileName, String imageName) throws IOException
     {
         RandomAccessFile r = new RandomAccessFile(fileName, "r");
         ByteArray id = getIdentifierForImageAsArray(r, fileName);
@@ -274,7 +274,7 @@ public class ImageLibrary
     }
 
     //type is bitmask. Bit 0 is blank, bit 1 is floppes, bit 2 is HDDs, bit3 is CDROMs, Bit 4 is BIOS
-    public String[] imagesByType(long type)
+    public synchronized String[] imagesByType(long type)
     {
         String[] ret = new String[10];
         int entries = 0;
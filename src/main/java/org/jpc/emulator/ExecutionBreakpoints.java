@@ -0,0 +1,238 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.util.*;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
+import org.jpc.emulator.memory.Memory;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.emulator.memory.codeblock.BreakpointChecker;
+import org.jpc.emulator.memory.codeblock.CodeBlockManager;
+import org.jpc.emulator.processor.Processor;
+
+/**
+ * Execution breakpoints on linear or physical addresses, with hit counts.
+ * <p>
+ * Codeblocks are split so each breakpoint starts a block, which checks the
+ * breakpoints once when entered; other code runs without any checks.  Split
+ * blocks end where the unsplit ones would, so counting breakpoints doesn't
+ * change interrupt timing.  A trap stop starts a new codeblock after it, as
+ * other trace stops do.  A
+ * physical breakpoint splits blocks on its page only, a linear one on every
+ * page at the same page offset (as any page may get mapped there).
+ * <p>
+ * Changes take effect through <code>applyPending</code>, which drops the
+ * existing codeblocks and must be called while the PC isn't executing.
+ * Breakpoints are not saved and get reapplied by <code>attach</code> after a
+ * state is loaded.
+ */
+public class ExecutionBreakpoints implements BreakpointChecker
+{
+    private static class Breakpoint
+    {
+        long address;
+        boolean physical;
+        boolean trap;
+        long hits;
+        Memory page;
+    }
+
+    private final List<Breakpoint> breakpoints;
+    private volatile boolean pending;
+    private PhysicalAddressSpace physical;
+    private CodeBlockManager manager;
+    private TraceTrap traceTrap;
+    //Offsets for pages without physical breakpoints (null if none) and for pages with them.
+    private volatile int[] linearOffsets;
+    private volatile Map<Memory, int[]> pageOffsets;
+    private long resumeInstructions;
+    private long resumeAddress;
+
+    public ExecutionBreakpoints()
+    {
+        breakpoints = new ArrayList<Breakpoint>();
+        pageOffsets = new IdentityHashMap<Memory, int[]>();
+        resumeInstructions = -1;
+    }
+
+    //Attach to new PC (or null).
+    public synchronized void attach(PC pc)
+    {
+        if(pc != null) {
+            physical = (PhysicalAddressSpace)pc.getComponent(PhysicalAddressSpace.class);
+            manager = physical.getCodeBlockManager();
+            traceTrap = pc.getTraceTrap();
+        } else {
+            physical = null;
+            manager = null;
+            traceTrap = null;
+        }
+        resumeInstructions = -1;
+        pending = true;
+    }
+
+    public synchronized void addBreakpoint(long address, boolean isPhysical, boolean trap)
+    {
+        if(address < 0 || address > 0xFFFFFFFFL)
+            throw new IllegalArgumentException("Bad breakpoint address");
+        Breakpoint b = new Breakpoint();
+        b.address = address;
+        b.physical = isPhysical;
+        b.trap = trap;
+        breakpoints.add(b);
+        pending = true;
+    }
+
+    //Removes breakpoints at address. Returns number removed.
+    public synchronized int removeBreakpoint(long address, boolean isPhysical)
+    {
+        int removed = 0;
+        Iterator<Breakpoint> i = breakpoints.iterator();
+        while(i.hasNext()) {
+            Breakpoint b = i.next();
+            if(b.address == address && b.physical == isPhysical) {
+                i.remove();
+                removed++;
+            }
+        }
+        pending = true;
+        return removed;
+    }
+
+    public synchronized void clearBreakpoints()
+    {
+        breakpoints.clear();
+        pending = true;
+    }
+
+    public synchronized void resetHits()
+    {
+        for(Breakpoint b : breakpoints)
+            b.hits = 0;
+    }
+
+    //Address, physical flag, trap flag and hit count of every breakpoint.
+    public synchronized long[][] getBreakpoints()
+    {
+        long[][] ret = new long[breakpoints.size()][];
+        for(int i = 0; i < ret.length; i++) {
+            Breakpoint b = breakpoints.get(i);
+            ret[i] = new long[]{b.address, b.physical ? 1 : 0, b.trap ? 1 : 0, b.hits};
+        }
+        return ret;
+    }
+
+    /**
+     * Applies changes made since last call, if any.  Must not be called while
+     * the PC is executing.
+     */
+    public void applyPending()
+    {
+        if(!pending)
+            return;
+        synchronized(this) {
+            pending = false;
+            if(physical == null)
+                return;
+
+            SortedSet<Integer> linear = new TreeSet<Integer>();
+            Map<Memory, SortedSet<Integer>> pages = new IdentityHashMap<Memory, SortedSet<Integer>>();
+            for(Breakpoint b : breakpoints) {
+                int offset = (int)b.address & 0xFFF;
+                b.page = null;
+                if(!b.physical) {
+                    linear.add(Integer.valueOf(offset));
+                    continue;
+                }
+                LazyCodeBlockMemory page = physical.getCodePage((int)b.address);
+                if(page == null) {
+                    System.err.println("Warning: No code can run at physical address " +
+                        Long.toHexString(b.address) + ".");
+                    continue;
+                }
+                b.page = page;
+                SortedSet<Integer> s = pages.get(page);
+                if(s == null)
+                    pages.put(page, s = new TreeSet<Integer>());
+                s.add(Integer.valueOf(offset));
+            }
+
+            Map<Memory, int[]> newPageOffsets = new IdentityHashMap<Memory, int[]>();
+            for(Map.Entry<Memory, SortedSet<Integer>> e : pages.entrySet()) {
+                SortedSet<Integer> s = e.getValue();
+                s.addAll(linear);
+                newPageOffsets.put(e.getKey(), toArray(s));
+            }
+            pageOffsets = newPageOffsets;
+            linearOffsets = linear.isEmpty() ? null : toArray(linear);
+
+            physical.clearCodeBlocks();
+            manager.setBreakpointChecker(breakpoints.isEmpty() ? null : this);
+        }
+    }
+
+    private static int[] toArray(SortedSet<Integer> s)
+    {
+        int[] ret = new int[s.size()];
+        int i = 0;
+        for(Integer x : s)
+            ret[i++] = x.intValue();
+        return ret;
+    }
+
+    public int[] getBreakOffsets(Memory page)
+    {
+        int[] offsets = pageOffsets.get(page);
+        return (offsets != null) ? offsets : linearOffsets;
+    }
+
+    public void blockEntered(Processor cpu, Memory page, int offset, int chained)
+    {
+        long linear = cpu.getInstructionPointer() & 0xFFFFFFFFL;
+        long executed = cpu.instructionsExecuted + chained;
+        //Resuming from trap at this very breakpoint.
+        if(executed == resumeInstructions && linear == resumeAddress)
+            return;
+
+        boolean trap = false;
+        synchronized(this) {
+            for(Breakpoint b : breakpoints)
+                if(b.physical ? (b.page == page && ((int)b.address & 0xFFF) == offset) : b.address == linear) {
+                    b.hits++;
+                    trap |= b.trap;
+                }
+        }
+        if(trap && traceTrap != null) {
+            resumeInstructions = executed;
+            resumeAddress = linear;
+            traceTrap.doPotentialTrap(TraceTrap.TRACE_STOP_BREAKPOINT);
+        }
+    }
+}
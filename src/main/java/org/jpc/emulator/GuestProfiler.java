@@ -0,0 +1,257 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Collects per-codeblock execution statistics and periodic EIP samples from
+ * the execution loops in <code>PC</code>.
+ * <p>
+ * Blocks are keyed by mode, linear start address and physical start address,
+ * so the same code mapped at different addresses (or different code at the
+ * same linear address) is kept apart.  Nothing here is saved with the machine
+ * state and attaching or detaching a profiler never affects emulation.
+ */
+public class GuestProfiler
+{
+    public static final int MODE_REAL = 0;
+    public static final int MODE_PROTECTED = 1;
+    public static final int MODE_VIRTUAL8086 = 2;
+    private static final String[] MODE_NAMES = {"real", "protected", "vm86"};
+
+    private final Map<BlockStats, BlockStats> blocks;
+    private final Map<BlockStats, BlockStats> samples;
+    private final BlockStats probe;
+    private long sampleInterval;
+    private long sinceSample;
+    private long totalBlocks;
+    private long totalInstructions;
+    private long totalNanos;
+    private long totalSamples;
+
+    private static class BlockStats
+    {
+        int mode;
+        int linear;
+        long physical;
+        long executions;
+        long instructions;
+        long nanos;
+
+        BlockStats(int mode, int linear, long physical)
+        {
+            this.mode = mode;
+            this.linear = linear;
+            this.physical = physical;
+        }
+
+        public int hashCode()
+        {
+            return linear * 31 + (int)physical * 7 + mode;
+        }
+
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof BlockStats))
+                return false;
+            BlockStats b = (BlockStats)o;
+            return b.linear == linear && b.physical == physical && b.mode == mode;
+        }
+    }
+
+    /**
+     * Creates a profiler taking an EIP sample every <code>sampleInterval</code>
+     * guest instructions.
+     * @param sampleInterval instructions between samples, 0 to disable sampling.
+     */
+    public GuestProfiler(long sampleInterval)
+    {
+        blocks = new HashMap<BlockStats, BlockStats>();
+        samples = new HashMap<BlockStats, BlockStats>();
+        probe = new BlockStats(0, 0, 0);
+        this.sampleInterval = sampleInterval;
+    }
+
+    public synchronized void setSampleInterval(long interval)
+    {
+        sampleInterval = interval;
+        sinceSample = 0;
+    }
+
+    public synchronized void reset()
+    {
+        blocks.clear();
+        samples.clear();
+        sinceSample = 0;
+        totalBlocks = totalInstructions = totalNanos = totalSamples = 0;
+    }
+
+    /**
+     * Records one execution of a codeblock.
+     * @param mode one of the <code>MODE_</code> constants.
+     * @param linear linear address of the first instruction.
+     * @param physical physical address of the first instruction, -1 if not mapped.
+     * @param instructions number of x86 instructions the block retired.
+     * @param nanos host time spent executing the block.
+     */
+    public synchronized void blockExecuted(int mode, int linear, long physical, int instructions, long nanos)
+    {
+        BlockStats b = lookup(blocks, mode, linear, physical);
+        b.executions++;
+        b.instructions += instructions;
+        b.nanos += nanos;
+        totalBlocks++;
+        totalInstructions += instructions;
+        totalNanos += nanos;
+
+        if(sampleInterval <= 0)
+            return;
+        //Samples land on the block that was running when the interval expired.
+        sinceSample += instructions;
+        while(sinceSample >= sampleInterval) {
+            sinceSample -= sampleInterval;
+            lookup(samples, mode, linear, physical).executions++;
+            totalSamples++;
+        }
+    }
+
+    private BlockStats lookup(Map<BlockStats, BlockStats> map, int mode, int linear, long physical)
+    {
+        probe.mode = mode;
+        probe.linear = linear;
+        probe.physical = physical;
+        BlockStats b = map.get(probe);
+        if(b == null) {
+            b = new BlockStats(mode, linear, physical);
+            map.put(b, b);
+        }
+        return b;
+    }
+
+    public synchronized long getTotalInstructions()
+    {
+        return totalInstructions;
+    }
+
+    public synchronized long getTotalBlocks()
+    {
+        return totalBlocks;
+    }
+
+    /**
+     * Writes the hottest blocks, per-page heat and the EIP histogram as text.
+     * @param out stream to write to.
+     * @param limit maximum number of blocks and samples to list.
+     */
+    public synchronized void writeReport(PrintStream out, int limit)
+    {
+        out.println("# blocks " + totalBlocks + " instructions " + totalInstructions + " host_ns " + totalNanos +
+            " samples " + totalSamples + " distinct " + blocks.size());
+
+        out.println("[blocks]");
+        out.println("# mode linear physical executions instructions host_ns");
+        List<BlockStats> list = sorted(blocks.values());
+        for(int i = 0; i < list.size() && i < limit; i++) {
+            BlockStats b = list.get(i);
+            out.println(MODE_NAMES[b.mode] + " " + hex(b.linear & 0xFFFFFFFFL) + " " + hex(b.physical) + " " +
+                b.executions + " " + b.instructions + " " + b.nanos);
+        }
+
+        out.println("[pages]");
+        out.println("# physical_page executions instructions host_ns");
+        for(BlockStats p : sorted(pageHeat()))
+            out.println(hex(p.physical) + " " + p.executions + " " + p.instructions + " " + p.nanos);
+
+        out.println("[samples]");
+        out.println("# mode linear physical count");
+        list = new ArrayList<BlockStats>(samples.values());
+        Collections.sort(list, new Comparator<BlockStats>() {
+            public int compare(BlockStats a, BlockStats b)
+            {
+                return a.executions > b.executions ? -1 : (a.executions < b.executions ? 1 : 0);
+            }
+        });
+        for(int i = 0; i < list.size() && i < limit; i++) {
+            BlockStats b = list.get(i);
+            out.println(MODE_NAMES[b.mode] + " " + hex(b.linear & 0xFFFFFFFFL) + " " + hex(b.physical) + " " +
+                b.executions);
+        }
+    }
+
+    /**
+     * Writes block instruction totals in the folded stack format taken by
+     * flame graph tools.  There is no guest call stack to walk, so the frames
+     * are mode, physical page and block.
+     * @param out stream to write to.
+     */
+    public synchronized void writeFolded(PrintStream out)
+    {
+        for(BlockStats b : sorted(blocks.values()))
+            out.println(MODE_NAMES[b.mode] + ";page_" + hex(b.physical < 0 ? -1 : b.physical & ~0xFFFL) +
+                ";block_" + hex(b.linear & 0xFFFFFFFFL) + " " + b.instructions);
+    }
+
+    private Collection<BlockStats> pageHeat()
+    {
+        Map<Long, BlockStats> pages = new HashMap<Long, BlockStats>();
+        for(BlockStats b : blocks.values()) {
+            long page = b.physical < 0 ? -1 : b.physical & ~0xFFFL;
+            BlockStats p = pages.get(page);
+            if(p == null)
+                pages.put(page, p = new BlockStats(0, 0, page));
+            p.executions += b.executions;
+            p.instructions += b.instructions;
+            p.nanos += b.nanos;
+        }
+        return pages.values();
+    }
+
+    private static List<BlockStats> sorted(Collection<BlockStats> c)
+    {
+        List<BlockStats> list = new ArrayList<BlockStats>(c);
+        Collections.sort(list, new Comparator<BlockStats>() {
+            public int compare(BlockStats a, BlockStats b)
+            {
+                return a.instructions > b.instructions ? -1 : (a.instructions < b.instructions ? 1 : 0);
+            }
+        });
+        return list;
+    }
+
+    private static String hex(long x)
+    {
+        if(x < 0)
+            return "unmapped";
+        String s = Long.toHexString(x);
+        return "00000000".substring(Math.min(s.length(), 8)) + s;
+    }
+}
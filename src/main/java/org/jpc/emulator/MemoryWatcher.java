@@ -0,0 +1,202 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import java.util.*;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.emulator.memory.WatchedMemory;
+
+/**
+ * Physical RAM watchpoints.  Each watched page is swapped for a
+ * <code>WatchedMemory</code> wrapper that queues an event for every access
+ * overlapping a watch, and optionally traps the PC.
+ * <p>
+ * Watches are kept here rather than in the machine, so they are not saved
+ * and get reapplied by <code>attach</code> after a state is loaded.
+ */
+public class MemoryWatcher implements WatchedMemory.Listener
+{
+    public static final int MAX_EVENTS = 4096;
+
+    private static class Watch
+    {
+        long address;
+        int length;
+        int mode;
+    }
+
+    private final List<Watch> watches;
+    private final LinkedList<long[]> events;
+    private final Set<Integer> watchedPages;
+    private long droppedEvents;
+    private PhysicalAddressSpace physical;
+    private TraceTrap traceTrap;
+    private Clock clock;
+
+    public MemoryWatcher()
+    {
+        watches = new ArrayList<Watch>();
+        events = new LinkedList<long[]>();
+        watchedPages = new HashSet<Integer>();
+    }
+
+    //Attach to new PC (or null). Pages of the old PC are left alone, that PC is being discarded.
+    public synchronized void attach(PC pc)
+    {
+        watchedPages.clear();
+        if(pc != null) {
+            physical = (PhysicalAddressSpace)pc.getComponent(PhysicalAddressSpace.class);
+            traceTrap = pc.getTraceTrap();
+            clock = (Clock)pc.getComponent(Clock.class);
+        } else {
+            physical = null;
+            traceTrap = null;
+            clock = null;
+        }
+        apply();
+    }
+
+    public synchronized void addWatch(long address, int length, int mode)
+    {
+        if(length <= 0 || address < 0 || address + length > 0x100000000L)
+            throw new IllegalArgumentException("Bad watch range");
+        Watch w = new Watch();
+        w.address = address;
+        w.length = length;
+        w.mode = mode;
+        watches.add(w);
+        apply();
+    }
+
+    //Removes all watches starting at address. Returns number removed.
+    public synchronized int removeWatch(long address)
+    {
+        int removed = 0;
+        Iterator<Watch> i = watches.iterator();
+        while(i.hasNext())
+            if(i.next().address == address) {
+                i.remove();
+                removed++;
+            }
+        apply();
+        return removed;
+    }
+
+    public synchronized void clearWatches()
+    {
+        watches.clear();
+        apply();
+    }
+
+    public synchronized int getWatchCount()
+    {
+        return watches.size();
+    }
+
+    //Address, length and mode of every watch.
+    public synchronized long[][] getWatches()
+    {
+        long[][] ret = new long[watches.size()][];
+        for(int i = 0; i < ret.length; i++) {
+            Watch w = watches.get(i);
+            ret[i] = new long[]{w.address, w.length, w.mode};
+        }
+        return ret;
+    }
+
+    //Returns and clears queued events: time, address, size, kind, old value, new value.
+    public synchronized long[][] takeEvents()
+    {
+        long[][] ret = events.toArray(new long[events.size()][]);
+        events.clear();
+        return ret;
+    }
+
+    public synchronized long getAndClearDroppedEvents()
+    {
+        long tmp = droppedEvents;
+        droppedEvents = 0;
+        return tmp;
+    }
+
+    public synchronized void watchHit(int address, int size, long oldValue, long newValue, int kind, boolean trap)
+    {
+        if(events.size() >= MAX_EVENTS) {
+            events.removeFirst();
+            droppedEvents++;
+        }
+        long time = (clock != null) ? clock.getTime() : -1;
+        events.add(new long[]{time, address & 0xFFFFFFFFL, size, kind, oldValue, newValue});
+        if(trap && traceTrap != null)
+            traceTrap.doPotentialTrap(TraceTrap.TRACE_STOP_WATCHPOINT);
+    }
+
+    private void apply()
+    {
+        if(physical == null)
+            return;
+        Map<Integer, List<Watch>> byPage = new HashMap<Integer, List<Watch>>();
+        for(Watch w : watches)
+            for(long page = w.address >>> 12; page <= (w.address + w.length - 1) >>> 12; page++) {
+                Integer key = Integer.valueOf((int)page);
+                List<Watch> l = byPage.get(key);
+                if(l == null)
+                    byPage.put(key, l = new ArrayList<Watch>());
+                l.add(w);
+            }
+
+        for(Integer page : watchedPages)
+            if(!byPage.containsKey(page))
+                physical.unwatchRAMPage(page.intValue());
+        watchedPages.clear();
+
+        for(Map.Entry<Integer, List<Watch>> e : byPage.entrySet()) {
+            int page = e.getKey().intValue();
+            WatchedMemory wrapper = physical.watchRAMPage(page, this);
+            if(wrapper == null) {
+                System.err.println("Warning: Can't watch page " + Integer.toHexString(page) + ", it is not RAM.");
+                continue;
+            }
+            List<Watch> l = e.getValue();
+            long pageBase = (long)page << 12;
+            int[] low = new int[l.size()];
+            int[] high = new int[l.size()];
+            int[] modes = new int[l.size()];
+            for(int i = 0; i < low.length; i++) {
+                Watch w = l.get(i);
+                low[i] = (int)Math.max(w.address - pageBase, 0);
+                high[i] = (int)Math.min(w.address + w.length - pageBase, 4096);
+                modes[i] = w.mode;
+            }
+            wrapper.setRanges(low, high, modes);
+            watchedPages.add(e.getKey());
+        }
+    }
+}
@@ -92,6 +92,7 @@ public class PC implements SRDumpable
         public DriveSet.BootType bootType;
         public Map<String, Boolean> booleanOptions;
         public Map<String, Integer> intOptions;
+        public int blockLimit;      //Maximum x86 instructions per codeblock, 0 for default.
 
         public void dumpStatusPartial(StatusDumper output2) throws IOException
         {
@@ -124,6 +125,8 @@ public class PC implements SRDumpable
                 output.println("CDROM " + initCDROMIndex);
             output.println("INITIALTIME " + initRTCTime);
             output.println("CPUDIVIDER " + (cpuDivider - 1));
+            if(blockLimit != 0)
+                output.println("BLOCKLIMIT " + blockLimit);
             if(fpuEmulator != null)
                 output.println("FPU " + fpuEmulator);
             if(bootType == DriveSet.BootType.FLOPPY)
@@ -216,6 +219,8 @@ public class PC implements SRDumpable
                         output.dumpInt(setting.getValue());
                     }
             output.dumpBoolean(false);
+            if(blockLimit != 0)
+                output.dumpInt(blockLimit);
         }
 
         public PCHardwareInfo()
@@ -277,6 +282,8 @@ public class PC implements SRDumpable
                 int value = input.loadInt();
                 intOptions.put(name, value);
             }
+            if(!input.objectEndsHere())
+                blockLimit = input.loadInt();
         }
 
         public void makeHWInfoSegment(UTFOutputLineStream output, DiskChanger changer) throws IOException
@@ -303,6 +310,7 @@ public class PC implements SRDumpable
             output.encodeLine("INITIALTIME", initRTCTime);
             output.encodeLine("CPUDIVIDER", cpuDivider);
             output.encodeLine("MEMORYSIZE", memoryPages);
+            if(blockLimit != 0) output.encodeLine("BLOCKLIMIT", blockLimit);
             output.encodeLine("FPU", fpuEmulator);
             if(bootType == DriveSet.BootType.FLOPPY) output.encodeLine("BOOT", "FLOPPY");
             else if(bootType == DriveSet.BootType.HARD_DRIVE) output.encodeLine("BOOT", "HDD");
@@ -356,6 +364,8 @@ public class PC implements SRDumpable
                 return 2;
             if("MEMORYSIZE".equals(op))
                 return 2;
+            if("BLOCKLIMIT".equals(op))
+                return 2;
             if("FPU".equals(op))
                 return 2;
             if("BOOT".equals(op))
@@ -494,6 +504,16 @@ public class PC implements SRDumpable
                         throw new IOException("Bad MEMORYSIZE line in initialization segment");
                     }
                     hw.memoryPages = id;
+                } else if("BLOCKLIMIT".equals(components[0])) {
+                    int id;
+                    try {
+                        id = Integer.parseInt(components[1]);
+                        if(id < 2 || id > 10000)
+                            throw new NumberFormatException("Bad id");
+                    } catch(NumberFormatException e) {
+                        throw new IOException("Bad BLOCKLIMIT line in initialization segment");
+                    }
+                    hw.blockLimit = id;
                 } else if("FPU".equals(components[0])) {
                     hw.fpuEmulator = components[1];
                 } else if("BOOT".equals(components[0])) {
@@ -525,8 +545,6 @@ public class PC implements SRDumpable
     public int cpuClockDivider;
     private PCHardwareInfo hwInfo;
 
-    public static volatile boolean compile = true;
-
     private final Processor processor;
     private final PhysicalAddressSpace physicalAddr;
     private final LinearAddressSpace linearAddr;
@@ -543,6 +561,9 @@ public class PC implements SRDumpable
     private OutputChannelGameinfo gameChannel;
 
     private TraceTrap traceTrap;
+    private volatile GuestProfiler profiler;
+    private volatile TraceRecorder tracer;
+    private StateFingerprint fingerprint;
     private boolean hitTraceTrap;
     private boolean tripleFaulted;
     private boolean rebootRequest;
@@ -644,7 +665,7 @@ public class PC implements SRDumpable
      */
     public PC(DriveSet drives, int ramPages, int clockDivide, String sysBIOSImg, String vgaBIOSImg,
         long initTime, DiskImageSet images, Map<String, Set<String>> hwModules, String fpuClass,
-        Map<String, Boolean> bools, Map<String, Integer> ints)
+        Map<String, Boolean> bools, Map<String, Integer> ints, int blockLimit)
         throws IOException
     {
         parts = new LinkedHashSet<HardwareComponent>();
@@ -679,7 +700,7 @@ public class PC implements SRDumpable
         System.err.println("Informational: Creating CPU...");
         processor = new Processor(vmClock, cpuClockDivider);
         parts.add(processor);
-        manager = new CodeBlockManager();
+        manager = new CodeBlockManager((blockLimit > 0) ? blockLimit : CodeBlockManager.DEFAULT_BLOCK_LIMIT);
 
         System.err.println("Informational: Creating FPU...");
         try {
@@ -1089,7 +1110,7 @@ public class PC implements SRDumpable
 
         DriveSet drives = new DriveSet(hw.bootType, hda, hdb, hdc, hdd);
         pc = new PC(drives, hw.memoryPages, hw.cpuDivider, biosID, vgaBIOSID, hw.initRTCTime, hw.images,
-            hw.hwModules, hw.fpuEmulator, hw.booleanOptions, hw.intOptions);
+            hw.hwModules, hw.fpuEmulator, hw.booleanOptions, hw.intOptions, hw.blockLimit);
         FloppyController fdc = (FloppyController)pc.getComponent(FloppyController.class);
 
         DiskImage img1 = pc.getDisks().lookupDisk(hw.initFDAIndex);
@@ -1122,6 +1143,7 @@ public class PC implements SRDumpable
         hw2.fpuEmulator = hw.fpuEmulator;
         hw2.booleanOptions = hw.booleanOptions;
         hw2.intOptions = hw.intOptions;
+        hw2.blockLimit = hw.blockLimit;
         return pc;
     }
 
@@ -1138,6 +1160,9 @@ public class PC implements SRDumpable
      */
     public void stop()
     {
+        HardwareComponent displayController = getComponent(VGACard.class);
+        if(displayController != null)
+            ((VGACard)displayController).flushAsyncRender();
         dummyChannel.addFrameDummy(vmClock.getTime());
         vmClock.pause();
     }
@@ -1399,6 +1424,59 @@ public class PC implements SRDumpable
             ((VGACard)displayController).setVGAScroll2Hack();
     }
 
+    public void setVGAAsyncRender(boolean enable)
+    {
+        HardwareComponent displayController = getComponent(VGACard.class);
+        if(displayController != null)
+            ((VGACard)displayController).setVGAAsyncRender(enable);
+    }
+
+    /**
+     * Returns the incremental fingerprint of this machine's state, creating
+     * it on first use.  Only meaningful while the PC is stopped or from the
+     * emulation thread.
+     * @return state fingerprint.
+     */
+    public synchronized StateFingerprint getStateFingerprint()
+    {
+        if(fingerprint == null)
+            fingerprint = new StateFingerprint(physicalAddr, processor, vmClock,
+                (VGACard)getComponent(VGACard.class));
+        return fingerprint;
+    }
+
+    /**
+     * Writes a state fingerprint into the gameinfo channel at every frame.
+     * @param enable <code>true</code> to write fingerprints.
+     */
+    public void setFingerprintOutput(boolean enable)
+    {
+        HardwareComponent displayController = getComponent(VGACard.class);
+        if(displayController == null)
+            return;
+        if(!enable) {
+            ((VGACard)displayController).setFrameListener(null);
+            return;
+        }
+        final StateFingerprint fp = getStateFingerprint();
+        ((VGACard)displayController).setFrameListener(new VGACard.FrameListener() {
+            public void frameDrawn(long time)
+            {
+                gameChannel.addFrameFingerprint(time, fp.fingerprint());
+            }
+        });
+    }
+
+    public void setSpeculativeDecoding(boolean enable)
+    {
+        manager.setSpeculativeDecoding(enable);
+    }
+
+    public void setMicrocodeOptimisation(boolean enable)
+    {
+        manager.setMicrocodeOptimisation(enable);
+    }
+
     /**
      * Reset this PC back to its initial state.
      * <p>
@@ -1542,6 +1620,8 @@ public class PC implements SRDumpable
     public final int executeReal()
     {
         int x86Count = 0;
+        GuestProfiler prof = profiler;
+        TraceRecorder trace = tracer;
 
         if(rebootRequest) {
             reset();
@@ -1551,9 +1631,15 @@ public class PC implements SRDumpable
         try {
             for(int i = 0; i < 100; i++) {
                 int block;
+                int startEIP = processor.getInstructionPointer();
+                long startTime = prof != null ? System.nanoTime() : 0;
+                if(trace != null)
+                    trace.record(processor, GuestProfiler.MODE_REAL, startEIP, vmClock.getTime());
                 try {
-                    block = physicalAddr.executeReal(processor, processor.getInstructionPointer());
+                    block = physicalAddr.executeReal(processor, startEIP);
                 } catch(org.jpc.emulator.processor.Processor.TripleFault e) {
+                    if(trace != null)
+                        trace.trapped();
                     reset();      //Reboot the system to get the CPU back online.
                     hitTraceTrap = true;
                     tripleFaulted = true;
@@ -1561,11 +1647,15 @@ public class PC implements SRDumpable
                 }
                 x86Count += block;
                 processor.instructionsExecuted += block;
+                if(prof != null)
+                    prof.blockExecuted(GuestProfiler.MODE_REAL, startEIP, startEIP & 0xFFFFFFFFL, block, System.nanoTime() - startTime);
                 //Don't call this on aborted blocks. Doing so is probably good source of desyncs.
                 if(!processor.eflagsLastAborted)
                     processor.processRealModeInterrupts(1);
                 if(traceTrap.getAndClearTrapActive()) {
                     hitTraceTrap = true;
+                    if(trace != null)
+                        trace.trapped();
                     break;
                 }
                 if(rebootRequest) {
@@ -1582,6 +1672,36 @@ public class PC implements SRDumpable
         return x86Count;
     }
 
+    /**
+     * Attaches a guest profiler to the execution loops, or detaches it if
+     * <code>null</code>.  Takes effect from the next call to execute.
+     * @param prof profiler to feed.
+     */
+    public void setGuestProfiler(GuestProfiler prof)
+    {
+        profiler = prof;
+    }
+
+    public GuestProfiler getGuestProfiler()
+    {
+        return profiler;
+    }
+
+    /**
+     * Attaches an instruction trace recorder to the execution loops, or
+     * detaches it if <code>null</code>.
+     * @param trace recorder to feed.
+     */
+    public void setTraceRecorder(TraceRecorder trace)
+    {
+        tracer = trace;
+    }
+
+    public TraceRecorder getTraceRecorder()
+    {
+        return tracer;
+    }
+
     public TraceTrap getTraceTrap()
     {
         return traceTrap;
@@ -1597,6 +1717,8 @@ public class PC implements SRDumpable
     public final int executeProtected()
     {
         int x86Count = 0;
+        GuestProfiler prof = profiler;
+        TraceRecorder trace = tracer;
 
         if(rebootRequest) {
             reset();
@@ -1606,9 +1728,15 @@ public class PC implements SRDumpable
         try {
             for(int i = 0; i < 100; i++) {
                 int block;
+                int startEIP = processor.getInstructionPointer();
+                long startTime = prof != null ? System.nanoTime() : 0;
+                if(trace != null)
+                    trace.record(processor, GuestProfiler.MODE_PROTECTED, startEIP, vmClock.getTime());
                 try {
-                    block= linearAddr.executeProtected(processor, processor.getInstructionPointer());
+                    block = linearAddr.executeProtected(processor, startEIP);
                 } catch(org.jpc.emulator.processor.Processor.TripleFault e) {
+                    if(trace != null)
+                        trace.trapped();
                     reset();      //Reboot the system to get the CPU back online.
                     hitTraceTrap = true;
                     tripleFaulted = true;
@@ -1616,11 +1744,15 @@ public class PC implements SRDumpable
                 }
                 x86Count += block;
                 processor.instructionsExecuted += block;
+                if(prof != null)
+                    prof.blockExecuted(GuestProfiler.MODE_PROTECTED, startEIP, linearAddr.getPhysicalAddress(startEIP), block, System.nanoTime() - startTime);
                 //Don't call this on aborted blocks. Doing so is probably good source of desyncs.
                 if(!processor.eflagsLastAborted)
                     processor.processProtectedModeInterrupts(1);
                 if(traceTrap.getAndClearTrapActive()) {
                     hitTraceTrap = true;
+                    if(trace != null)
+                        trace.trapped();
                     break;
                 }
                 if(rebootRequest) {
@@ -1640,6 +1772,8 @@ public class PC implements SRDumpable
     public final int executeVirtual8086()
     {
         int x86Count = 0;
+        GuestProfiler prof = profiler;
+        TraceRecorder trace = tracer;
 
         if(rebootRequest) {
             reset();
@@ -1649,9 +1783,15 @@ public class PC implements SRDumpable
         try {
             for(int i = 0; i < 100; i++) {
                 int block;
+                int startEIP = processor.getInstructionPointer();
+                long startTime = prof != null ? System.nanoTime() : 0;
+                if(trace != null)
+                    trace.record(processor, GuestProfiler.MODE_VIRTUAL8086, startEIP, vmClock.getTime());
                 try {
-                    block = linearAddr.executeVirtual8086(processor, processor.getInstructionPointer());
+                    block = linearAddr.executeVirtual8086(processor, startEIP);
                 } catch(org.jpc.emulator.processor.Processor.TripleFault e) {
+                    if(trace != null)
+                        trace.trapped();
                     reset();      //Reboot the system to get the CPU back online.
                     hitTraceTrap = true;
                     tripleFaulted = true;
@@ -1659,11 +1799,15 @@ public class PC implements SRDumpable
                 }
                 x86Count += block;
                 processor.instructionsExecuted += block;
+                if(prof != null)
+                    prof.blockExecuted(GuestProfiler.MODE_VIRTUAL8086, startEIP, linearAddr.getPhysicalAddress(startEIP), block, System.nanoTime() - startTime);
                 //Don't call this on aborted blocks. Doing so is probably good source of desyncs.
                 if(!processor.eflagsLastAborted)
                     processor.processVirtual8086ModeInterrupts(1);
                 if(traceTrap.getAndClearTrapActive()) {
                     hitTraceTrap = true;
+                    if(trace != null)
+                        trace.trapped();
                     break;
                 }
                 if(rebootRequest) {
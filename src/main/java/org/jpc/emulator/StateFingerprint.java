@@ -0,0 +1,221 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.emulator.pci.peripheral.VGACard;
+import org.jpc.emulator.processor.Processor;
+import org.jpc.emulator.processor.Segment;
+import org.jpc.emulator.processor.SegmentFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Keeps a 64-bit fingerprint of guest state that is cheap enough to take
+ * every frame.
+ * <p>
+ * RAM is hashed a page at a time, and a page is only rehashed once its write
+ * generation has moved on, so the cost of a fingerprint is one comparison per
+ * page plus hashing whatever was written since the last one.  CPU registers,
+ * the clock and VGA memory and registers are hashed in full each time.  Other
+ * devices are not covered; a device that desyncs shows up in RAM or CPU state
+ * within a few frames.
+ */
+public class StateFingerprint
+{
+    private static final long PAGE_SEED = 0x52414d0000000000L;
+
+    private final PhysicalAddressSpace physical;
+    private final Processor cpu;
+    private final Clock clock;
+    private final VGACard vga;
+    private final byte[] page;
+    private final ByteBuffer pageView;
+    private LazyCodeBlockMemory[] pageObjects;
+    private int[] pageGenerations;
+    private long[] pageHashes;
+    private long ramHash;
+    private long lastRAM, lastCPU, lastVGA;
+
+    public StateFingerprint(PhysicalAddressSpace physical, Processor cpu, Clock clock, VGACard vga)
+    {
+        this.physical = physical;
+        this.cpu = cpu;
+        this.clock = clock;
+        this.vga = vga;
+        page = new byte[4096];
+        pageView = ByteBuffer.wrap(page).order(ByteOrder.LITTLE_ENDIAN);
+        pageObjects = new LazyCodeBlockMemory[0];
+        pageGenerations = new int[0];
+        pageHashes = new long[0];
+    }
+
+    /**
+     * Computes the fingerprint of the current state.
+     * @return combined hash of RAM, CPU, clock and VGA state.
+     */
+    public synchronized long fingerprint()
+    {
+        lastRAM = hashRAM();
+        lastCPU = hashCPU();
+        lastVGA = (vga != null) ? vga.fingerprint(0) : 0;
+        return finish(mix(mix(mix(lastRAM, lastCPU), lastVGA), clock.getTime()));
+    }
+
+    //Component hashes from the last call to fingerprint().
+    public synchronized long[] getLastParts()
+    {
+        return new long[]{lastRAM, lastCPU, lastVGA};
+    }
+
+    private long hashRAM()
+    {
+        for(int pageNo = physical.findFirstRAMPage(0); pageNo >= 0; pageNo = physical.findFirstRAMPage(pageNo + 1)) {
+            if(pageNo >= pageObjects.length)
+                grow(pageNo + 1);
+            LazyCodeBlockMemory m = physical.getRAMPage(pageNo);
+            int generation = m.getWriteGeneration();
+            if(pageObjects[pageNo] == m && pageGenerations[pageNo] == generation)
+                continue;
+            //Page written (or replaced by a state load) since last time. Pages combine by addition, so the old
+            //contribution can be taken back out.
+            long h = hashPage(pageNo);
+            ramHash += h - pageHashes[pageNo];
+            pageHashes[pageNo] = h;
+            pageObjects[pageNo] = m;
+            pageGenerations[pageNo] = generation;
+        }
+        return ramHash;
+    }
+
+    private long hashPage(int pageNo)
+    {
+        physical.readRAMPage(pageNo, page);
+        long h = PAGE_SEED + pageNo;
+        for(int i = 0; i < page.length; i += 8)
+            h = mix(h, pageView.getLong(i));
+        return finish(h);
+    }
+
+    private void grow(int size)
+    {
+        LazyCodeBlockMemory[] objects = new LazyCodeBlockMemory[size];
+        int[] generations = new int[size];
+        long[] hashes = new long[size];
+        System.arraycopy(pageObjects, 0, objects, 0, pageObjects.length);
+        System.arraycopy(pageGenerations, 0, generations, 0, pageGenerations.length);
+        System.arraycopy(pageHashes, 0, hashes, 0, pageHashes.length);
+        pageObjects = objects;
+        pageGenerations = generations;
+        pageHashes = hashes;
+    }
+
+    private long hashCPU()
+    {
+        long h = 0;
+        h = mix(h, cpu.eax);
+        h = mix(h, cpu.ecx);
+        h = mix(h, cpu.edx);
+        h = mix(h, cpu.ebx);
+        h = mix(h, cpu.esp);
+        h = mix(h, cpu.ebp);
+        h = mix(h, cpu.esi);
+        h = mix(h, cpu.edi);
+        h = mix(h, cpu.eip);
+        h = mix(h, cpu.peekEFlags());
+        h = mix(h, cpu.getCR0());
+        h = mix(h, cpu.getCR2());
+        h = mix(h, cpu.getCR3());
+        h = mix(h, cpu.getCR4());
+        h = mix(h, cpu.instructionsExecuted);
+        h = hashSegment(h, cpu.cs);
+        h = hashSegment(h, cpu.ds);
+        h = hashSegment(h, cpu.ss);
+        h = hashSegment(h, cpu.es);
+        h = hashSegment(h, cpu.fs);
+        h = hashSegment(h, cpu.gs);
+        return finish(h);
+    }
+
+    private static long hashSegment(long h, Segment s)
+    {
+        if(s == null || s == SegmentFactory.NULL_SEGMENT)
+            return mix(h, -1);
+        return mix(mix(h, s.getSelector()), s.getBase());
+    }
+
+    public static long mix(long h, long v)
+    {
+        return Long.rotateLeft(h ^ (v * 0x9E3779B97F4A7C15L), 31) * 0xC2B2AE3D27D4EB4FL;
+    }
+
+    public static long hash(byte[] data, int len, long h)
+    {
+        return hash(data, 0, len, h);
+    }
+
+    public static long hash(byte[] data, int off, int len, long h)
+    {
+        ByteBuffer view = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int i = 0;
+        for(; i + 8 <= len; i += 8)
+            h = mix(h, view.getLong(off + i));
+        for(; i < len; i++)
+            h = mix(h, data[off + i]);
+        return mix(h, len);
+    }
+
+    public static long hash(int[] data, long h)
+    {
+        if(data == null)
+            return mix(h, -1);
+        for(int i = 0; i < data.length; i++)
+            h = mix(h, data[i]);
+        return mix(h, data.length);
+    }
+
+    //Final avalanche, so nearby states don't give nearby fingerprints.
+    public static long finish(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public static String toHex(long h)
+    {
+        String s = Long.toHexString(h);
+        return "0000000000000000".substring(s.length()) + s;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator;
+
+import org.jpc.emulator.processor.Processor;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records CPU state at the start of every codeblock into a fixed-size ring
+ * kept outside the Java heap, for finding where two runs of a movie part.
+ * <p>
+ * Records are only taken for blocks starting inside the linear address range
+ * and emulated time window given.  Once the ring is full the oldest records
+ * are overwritten, so a flush always holds the blocks leading up to it.
+ */
+public class TraceRecorder
+{
+    public static final int RECORD_SIZE = 64;
+    private static final byte[] MAGIC = {'J', 'P', 'C', 'R', 'R', 'T', 'R', '1'};
+    private static final String[] MODE_NAMES = {"real", "protected", "vm86"};
+    private static final String[] REGISTER_NAMES = {"eax", "ecx", "edx", "ebx", "esp", "ebp", "esi", "edi"};
+
+    //Record layout: time, instructions, linear EIP, EIP, CS, mode, pad, eflags, eax..edi.
+    private static final int OFF_TIME = 0;
+    private static final int OFF_INSTRUCTIONS = 8;
+    private static final int OFF_LINEAR = 16;
+    private static final int OFF_EIP = 20;
+    private static final int OFF_CS = 24;
+    private static final int OFF_MODE = 26;
+    private static final int OFF_EFLAGS = 28;
+    private static final int OFF_REGISTERS = 32;
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    private long written;
+    private long lowAddress, highAddress;
+    private long startTime, endTime;
+    private String trapFile;
+
+    /**
+     * Creates a recorder holding the given number of records.
+     * @param records ring size in records.
+     * @throws IllegalArgumentException if the ring size is not positive or too large.
+     */
+    public TraceRecorder(int records)
+    {
+        if(records <= 0 || records > Integer.MAX_VALUE / RECORD_SIZE)
+            throw new IllegalArgumentException("Bad trace ring size " + records);
+        capacity = records;
+        ring = ByteBuffer.allocateDirect(records * RECORD_SIZE);
+        lowAddress = 0;
+        highAddress = 0x100000000L;
+        startTime = 0;
+        endTime = Long.MAX_VALUE;
+    }
+
+    /**
+     * Restricts recording to blocks starting at linear addresses in [low, high).
+     */
+    public synchronized void setAddressRange(long low, long high)
+    {
+        lowAddress = low;
+        highAddress = high;
+    }
+
+    /**
+     * Restricts recording to emulated time in [start, end).
+     */
+    public synchronized void setTimeWindow(long start, long end)
+    {
+        startTime = start;
+        endTime = end;
+    }
+
+    /**
+     * Sets file the ring is written to when the PC hits a trace trap, or
+     * <code>null</code> to not write on traps.
+     */
+    public synchronized void setTrapFile(String file)
+    {
+        trapFile = file;
+    }
+
+    public synchronized void clear()
+    {
+        written = 0;
+    }
+
+    public synchronized long getRecordCount()
+    {
+        return Math.min(written, capacity);
+    }
+
+    /**
+     * Records the state of the processor about to execute a block.
+     * @param cpu processor to record.
+     * @param mode one of the <code>GuestProfiler.MODE_</code> constants.
+     * @param linear linear address of the block.
+     * @param time current emulated time.
+     */
+    public synchronized void record(Processor cpu, int mode, int linear, long time)
+    {
+        long addr = linear & 0xFFFFFFFFL;
+        if(addr < lowAddress || addr >= highAddress || time < startTime || time >= endTime)
+            return;
+        int base = (int)(written % capacity) * RECORD_SIZE;
+        written++;
+        ring.putLong(base + OFF_TIME, time);
+        ring.putLong(base + OFF_INSTRUCTIONS, cpu.instructionsExecuted);
+        ring.putInt(base + OFF_LINEAR, linear);
+        ring.putInt(base + OFF_EIP, cpu.eip);
+        ring.putShort(base + OFF_CS, (short)cpu.cs.getSelector());
+        ring.put(base + OFF_MODE, (byte)mode);
+        ring.putInt(base + OFF_EFLAGS, cpu.peekEFlags());
+        ring.putInt(base + OFF_REGISTERS, cpu.eax);
+        ring.putInt(base + OFF_REGISTERS + 4, cpu.ecx);
+        ring.putInt(base + OFF_REGISTERS + 8, cpu.edx);
+        ring.putInt(base + OFF_REGISTERS + 12, cpu.ebx);
+        ring.putInt(base + OFF_REGISTERS + 16, cpu.esp);
+        ring.putInt(base + OFF_REGISTERS + 20, cpu.ebp);
+        ring.putInt(base + OFF_REGISTERS + 24, cpu.esi);
+        ring.putInt(base + OFF_REGISTERS + 28, cpu.edi);
+    }
+
+    /**
+     * Called by the PC when a trace trap fires; writes the ring to the trap
+     * file if one is set.
+     */
+    public synchronized void trapped()
+    {
+        if(trapFile == null)
+            return;
+        try {
+            write(trapFile);
+            System.err.println("Informational: Wrote " + getRecordCount() + " trace records to " + trapFile + ".");
+        } catch(IOException e) {
+            System.err.println("Error: Can't write trace: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the ring, oldest record first, to a file.
+     * @param file name of file to write.
+     */
+    public synchronized void write(String file) throws IOException
+    {
+        long count = getRecordCount();
+        int first = (int)((written - count) % capacity);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(20);
+            header.put(MAGIC);
+            header.putInt(RECORD_SIZE);
+            header.putLong(count);
+            header.flip();
+            writeFully(channel, header);
+            ByteBuffer view = ring.duplicate();
+            if(first + count > capacity) {
+                view.limit(capacity * RECORD_SIZE).position(first * RECORD_SIZE);
+                writeFully(channel, view);
+                view.limit((int)(first + count - capacity) * RECORD_SIZE).position(0);
+            } else
+                view.limit((int)(first + count) * RECORD_SIZE).position(first * RECORD_SIZE);
+            writeFully(channel, view);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Reads a trace written by <code>write</code>.
+     * @param file name of file to read.
+     * @return buffer holding the records.
+     */
+    public static ByteBuffer read(String file) throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if(!java.util.Arrays.equals(magic, MAGIC))
+                throw new IOException(file + " is not a trace file");
+            if(in.readInt() != RECORD_SIZE)
+                throw new IOException(file + " has unsupported record size");
+            long count = in.readLong();
+            byte[] records = new byte[(int)count * RECORD_SIZE];
+            in.readFully(records);
+            return ByteBuffer.wrap(records);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static String describe(ByteBuffer trace, int index)
+    {
+        int base = index * RECORD_SIZE;
+        int mode = trace.get(base + OFF_MODE);
+        StringBuilder sb = new StringBuilder();
+        sb.append("#" + index + " time " + trace.getLong(base + OFF_TIME) + " insn " +
+            trace.getLong(base + OFF_INSTRUCTIONS) + " " + (mode >= 0 && mode < 3 ? MODE_NAMES[mode] : "?") + " " +
+            Integer.toHexString(trace.getShort(base + OFF_CS) & 0xFFFF) + ":" +
+            Integer.toHexString(trace.getInt(base + OFF_EIP)) + " (" + Integer.toHexString(trace.getInt(base +
+            OFF_LINEAR)) + ") eflags " + Integer.toHexString(trace.getInt(base + OFF_EFLAGS)));
+        for(int i = 0; i < REGISTER_NAMES.length; i++)
+            sb.append(" " + REGISTER_NAMES[i] + " " + Integer.toHexString(trace.getInt(base + OFF_REGISTERS + 4 * i)));
+        return sb.toString();
+    }
+
+    private static int compareProgress(ByteBuffer a, int i, ByteBuffer b, int j)
+    {
+        long timeA = a.getLong(i * RECORD_SIZE + OFF_TIME), timeB = b.getLong(j * RECORD_SIZE + OFF_TIME);
+        if(timeA != timeB)
+            return timeA < timeB ? -1 : 1;
+        long insnA = a.getLong(i * RECORD_SIZE + OFF_INSTRUCTIONS), insnB = b.getLong(j * RECORD_SIZE + OFF_INSTRUCTIONS);
+        return insnA < insnB ? -1 : (insnA > insnB ? 1 : 0);
+    }
+
+    /**
+     * Compares two traces and prints the first record that differs.  The
+     * traces are lined up on the first record both have at the same emulated
+     * time and instruction count, so rings that wrapped or started at
+     * different points still compare; after that they must agree in lockstep.
+     * @param a first trace.
+     * @param b second trace.
+     * @param out stream to report to.
+     * @return index of first differing record in <code>a</code>, -1 if they agree, or -2 if
+     * they have no record in common to line up on.
+     */
+    public static int diff(ByteBuffer a, ByteBuffer b, PrintStream out)
+    {
+        int countA = a.limit() / RECORD_SIZE;
+        int countB = b.limit() / RECORD_SIZE;
+        int i = 0, j = 0;
+        while(i < countA && j < countB) {
+            int cmp = compareProgress(a, i, b, j);
+            if(cmp < 0)
+                i++;
+            else if(cmp > 0)
+                j++;
+            else
+                break;
+        }
+        if(i == countA || j == countB) {
+            out.println("Traces can't be lined up: no common record (" + countA + "/" + countB + " records).");
+            return -2;
+        }
+        int skippedA = i, skippedB = j;
+        for(; i < countA && j < countB; i++, j++) {
+            boolean same = true;
+            for(int k = 0; k < RECORD_SIZE; k++)
+                if(a.get(i * RECORD_SIZE + k) != b.get(j * RECORD_SIZE + k)) {
+                    same = false;
+                    break;
+                }
+            if(same)
+                continue;
+            out.println("First divergence after " + (i - skippedA) + " matching records:");
+            if(i > skippedA)
+                out.println("  last agreed: " + describe(a, i - 1));
+            out.println("  A: " + describe(a, i));
+            out.println("  B: " + describe(b, j));
+            return i;
+        }
+        out.println("No divergence in " + (i - skippedA) + " common records (" + skippedA + "/" + skippedB +
+            " skipped to line up, " + (countA - i) + "/" + (countB - j) + " left over).");
+        return -1;
+    }
+}
@@ -41,6 +41,8 @@ public class TraceTrap extends AbstractHardwareComponent implements TimerRespons
     public final static long TRACE_STOP_VRETRACE_START = 0x00000001;
     public final static long TRACE_STOP_VRETRACE_END = 0x00000002;
     public final static long TRACE_STOP_BIOS_KBD = 0x00000004;
+    public final static long TRACE_STOP_WATCHPOINT = 0x00000008;
+    public final static long TRACE_STOP_BREAKPOINT = 0x00000010;
     public final static long TRACE_STOP_IMMEDIATE = 0x80000000;
 
     public TraceTrap()
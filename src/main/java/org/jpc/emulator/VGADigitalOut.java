@@ -48,6 +48,32 @@ public class VGADigitalOut implements SRDumpable
         chan.addFrameVideo(timeNow, (short)width, (short)height, buffer);
     }
 
+    //Deferred variant of holdOutput(): queue the frame now, supply its image and hold at a later point.
+    public OutputFrameImage addPendingOutput(long timeNow)
+    {
+        return chan.addPendingFrameVideo(timeNow);
+    }
+
+    public void holdPendingOutput(OutputFrameImage frame, VGADigitalOut source)
+    {
+        frame.setImage((short)source.width, (short)source.height, source.buffer);
+        chan.hold();
+    }
+
+    //Copy image, size and dirty area from another output, keeping our own sink.
+    public void copyFrom(VGADigitalOut source)
+    {
+        if(buffer.length != source.buffer.length)
+            buffer = new int[source.buffer.length];
+        System.arraycopy(source.buffer, 0, buffer, 0, buffer.length);
+        width = source.width;
+        height = source.height;
+        dirtyXMin = source.dirtyXMin;
+        dirtyXMax = source.dirtyXMax;
+        dirtyYMin = source.dirtyYMin;
+        dirtyYMax = source.dirtyYMax;
+    }
+
     public void setSink(Output out, String name)
     {
         chan = new OutputChannelVideo(out, name);
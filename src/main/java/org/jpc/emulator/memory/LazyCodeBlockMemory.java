@@ -59,12 +59,19 @@ public class LazyCodeBlockMemory extends AbstractMemory {
     private byte[] buffer = null;
     private int nullReadCount = 0;
     private TraceTrap page0Hack;   //Not a real hack.
+    //Bumped on every change to contents. Not saved, only compared to itself while running.
+    private int writeGeneration;
 
     public void setPage0Hack(TraceTrap tt)
     {
         page0Hack = tt;
     }
 
+    public int getWriteGeneration()
+    {
+        return writeGeneration;
+    }
+
     public boolean isDirty()
     {
         return (buffer != null);
@@ -390,6 +397,7 @@ public class LazyCodeBlockMemory extends AbstractMemory {
     }
 
     private void regionAltered(int start, int end) {
+        writeGeneration++;
         if(realCodeBuffer != null) {
             for(int i = end; i >= 0; i--) {
                 RealModeCodeBlock b = realCodeBuffer[i];
@@ -451,8 +459,17 @@ public class LazyCodeBlockMemory extends AbstractMemory {
         }
     }
 
+    //Drops all codeblocks, so they get decoded again. Contents are unchanged.
+    public void clearCodeBlocks()
+    {
+        realCodeBuffer = null;
+        protectedCodeBuffer = null;
+        virtual8086CodeBuffer = null;
+    }
+
     public void clear()
     {
+        writeGeneration++;
         realCodeBuffer = null;
         protectedCodeBuffer = null;
         virtual8086CodeBuffer = null;
@@ -571,6 +588,7 @@ public class LazyCodeBlockMemory extends AbstractMemory {
 
     public void loadInitialContents(int address, byte[] buf, int off, int len)
     {
+        writeGeneration++;
         try {
             System.arraycopy(buf, off, buffer, address, len);
         } catch (NullPointerException e) {
@@ -224,7 +224,7 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
             output.dumpArray(presentMap);
             for(int i = 0; i < mem.length; i++)
                 if(mem[i] != null)
-                    output.dumpObject(mem[i]);
+                    output.dumpObject(WatchedMemory.unwrap(mem[i]));
         }
     }
 
@@ -234,8 +234,9 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
             output.println("\t" + name +" null");
         } else {
             for(int i = 0; i < mem.length; i++) {
-                if(mem[i] != null)    //Don't dump null pages, gets seriously annoying.
-                    output.println("\t" + name + "[" + i + "] <object #" + output.objectNumber(mem[i]) + ">"); if(mem[i] != null) mem[i].dumpStatus(output);
+                Memory m = WatchedMemory.unwrap(mem[i]);
+                if(m != null)    //Don't dump null pages, gets seriously annoying.
+                    output.println("\t" + name + "[" + i + "] <object #" + output.objectNumber(m) + ">"); if(m != null) m.dumpStatus(output);
             }
         }
     }
@@ -341,6 +342,39 @@ public final class LinearAddressSpace extends AddressSpace implements HardwareCo
         return !pagingDisabled;
     }
 
+    /**
+     * Translates a linear address to physical without touching the TLBs, the
+     * accessed bits or any unallocated memory, so it can be used by tooling
+     * without disturbing emulated state.
+     * @param offset linear address to translate.
+     * @return physical address, or -1 if the page is not present.
+     */
+    public long getPhysicalAddress(int offset)
+    {
+        if(pagingDisabled)
+            return offset & 0xFFFFFFFFL;
+
+        int directoryRawBits = peekDoubleWord(baseAddress | (0xFFC & (offset >>> 20)));
+        if((0x1 & directoryRawBits) == 0)
+            return -1;
+        if(((0x80 & directoryRawBits) != 0) && pageSizeExtensions)
+            return ((0xFFC00000 & directoryRawBits) | (offset & 0x3FFFFF)) & 0xFFFFFFFFL;
+
+        int tableRawBits = peekDoubleWord((directoryRawBits & 0xFFFFF000) | ((offset >>> 10) & 0xFFC));
+        if((0x1 & tableRawBits) == 0)
+            return -1;
+        return ((tableRawBits & 0xFFFFF000) | (offset & BLOCK_MASK)) & 0xFFFFFFFFL;
+    }
+
+    private int peekDoubleWord(int address)
+    {
+        //Reading unallocated memory is counted in the saved state, so treat it as zeroes.
+        Memory m = target.getReadMemoryBlockAt(address);
+        if(m == null || !m.isAllocated())
+            return 0;
+        return m.getDoubleWord(address & BLOCK_MASK);
+    }
+
     /**
      * Enables or disables paging.
      * @param value <code>true</code> to enable paging.
@@ -124,7 +124,7 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
     {
         try {
             while(true) {
-                if(quickNonA20MaskedIndex[pageNoLowBound].getClass() == LazyCodeBlockMemory.class)
+                if(WatchedMemory.unwrap(quickNonA20MaskedIndex[pageNoLowBound]).getClass() == LazyCodeBlockMemory.class)
                     return pageNoLowBound;
                 pageNoLowBound++;
             }
@@ -133,6 +133,100 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
         }
     }
 
+    //Returns the RAM page object (for its write generation), or null if pageNo is not RAM.
+    public LazyCodeBlockMemory getRAMPage(int pageNo)
+    {
+        if(pageNo < 0 || pageNo >= quickNonA20MaskedIndex.length)
+            return null;
+        Memory page = WatchedMemory.unwrap(quickNonA20MaskedIndex[pageNo]);
+        if(page.getClass() != LazyCodeBlockMemory.class)
+            return null;
+        return (LazyCodeBlockMemory)page;
+    }
+
+    //Host (script/debugger) reads of 1, 2 or 4 bytes, bypassing watches so they aren't taken as guest accesses.
+    public long hostRead(int address, int size)
+    {
+        Memory block = WatchedMemory.unwrap(getMemoryBlockAt(address));
+        int offset = address & AddressSpace.BLOCK_MASK;
+        if(size == 1)
+            return block.getByte(offset) & 0xFFL;
+        if(offset + size <= AddressSpace.BLOCK_SIZE)
+            return (size == 2) ? block.getWord(offset) & 0xFFFFL : block.getDoubleWord(offset) & 0xFFFFFFFFL;
+        long ret = 0;
+        for(int i = 0; i < size; i++)
+            ret |= hostRead(address + i, 1) << (8 * i);
+        return ret;
+    }
+
+    //Host writes of 1, 2 or 4 bytes, bypassing watches.
+    public void hostWrite(int address, long value, int size)
+    {
+        Memory block = WatchedMemory.unwrap(getMemoryBlockAt(address));
+        int offset = address & AddressSpace.BLOCK_MASK;
+        if(size == 1)
+            block.setByte(offset, (byte)value);
+        else if(offset + size <= AddressSpace.BLOCK_SIZE) {
+            if(size == 2)
+                block.setWord(offset, (short)value);
+            else
+                block.setDoubleWord(offset, (int)value);
+        } else
+            for(int i = 0; i < size; i++)
+                hostWrite(address + i, value >>> (8 * i), 1);
+    }
+
+    //Page code at physical address is decoded from (RAM or ROM), or null if there is none.
+    public LazyCodeBlockMemory getCodePage(int address)
+    {
+        Memory page;
+        try {
+            page = quickNonA20MaskedIndex[address >>> INDEX_SHIFT];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            try {
+                page = nonA20MaskedIndex[address >>> TOP_INDEX_SHIFT][(address >>> BOTTOM_INDEX_SHIFT) & BOTTOM_INDEX_MASK];
+            } catch (NullPointerException n) {
+                return null;
+            }
+        }
+        page = WatchedMemory.unwrap(page);
+        if(page instanceof LazyCodeBlockMemory)
+            return (LazyCodeBlockMemory)page;
+        return null;
+    }
+
+    //Swaps RAM page pageNo for a watch wrapper (or returns the existing one). Null if pageNo is not RAM.
+    public WatchedMemory watchRAMPage(int pageNo, WatchedMemory.Listener listener)
+    {
+        if(pageNo < 0 || pageNo >= quickNonA20MaskedIndex.length)
+            return null;
+        Memory page = quickNonA20MaskedIndex[pageNo];
+        if(page instanceof WatchedMemory)
+            return (WatchedMemory)page;
+        if(page.getClass() != LazyCodeBlockMemory.class)
+            return null;
+        WatchedMemory wrapper = new WatchedMemory(page, pageNo << INDEX_SHIFT, listener);
+        replaceAllBlocks(page, wrapper);
+        return wrapper;
+    }
+
+    public void unwatchRAMPage(int pageNo)
+    {
+        if(pageNo < 0 || pageNo >= quickNonA20MaskedIndex.length)
+            return;
+        Memory page = quickNonA20MaskedIndex[pageNo];
+        if(page instanceof WatchedMemory)
+            replaceAllBlocks(page, ((WatchedMemory)page).getWrapped());
+    }
+
+    //Swap cached TLB entries too instead of flushing, the TLB is part of the saved state.
+    private void replaceAllBlocks(Memory oldBlock, Memory newBlock)
+    {
+        replaceBlocks(oldBlock, newBlock);
+        if(linearAddr != null)
+            linearAddr.replaceBlocks(oldBlock, newBlock);
+    }
+
     public void readRAMPage(int pageNo, byte[] buffer4096Bytes)
     {
         readRAMPage(pageNo, buffer4096Bytes, 0);
@@ -144,11 +238,12 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
             Arrays.fill(buffer4096Bytes, off, off + 4096, (byte)0);
             return;
         }
-        if(!(quickNonA20MaskedIndex[pageNo].getClass() == LazyCodeBlockMemory.class)) {
+        Memory page = WatchedMemory.unwrap(quickNonA20MaskedIndex[pageNo]);
+        if(!(page.getClass() == LazyCodeBlockMemory.class)) {
             Arrays.fill(buffer4096Bytes, off, off + 4096, (byte)0);
             return;
         }
-        LazyCodeBlockMemory ramPage = (LazyCodeBlockMemory)quickNonA20MaskedIndex[pageNo];
+        LazyCodeBlockMemory ramPage = (LazyCodeBlockMemory)page;
 
         if(!ramPage.isDirty()) {
             Arrays.fill(buffer4096Bytes, off, off + 4096, (byte)0);
@@ -269,7 +364,7 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
             output.dumpBoolean(true);
             output.dumpInt(mem.length);
             for(int i = 0; i < mem.length; i++)
-                output.dumpObject(mem[i]);
+                output.dumpObject(WatchedMemory.unwrap(mem[i]));
         }
     }
 
@@ -279,7 +374,8 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
             output.println("\t" + name +" null");
         } else {
             for(int i = 0; i < mem.length; i++) {
-                output.println("\t" + name + "[" + i + "] <object #" + output.objectNumber(mem[i]) + ">"); if(mem[i] != null) mem[i].dumpStatus(output);
+                Memory m = WatchedMemory.unwrap(mem[i]);
+                output.println("\t" + name + "[" + i + "] <object #" + output.objectNumber(m) + ">"); if(m != null) m.dumpStatus(output);
             }
         }
     }
@@ -292,7 +388,8 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
             for(int i = 0; i < mem.length; i++)
                 if(mem[i] != null)
                     for(int j = 0; j < mem.length; j++) {
-                        output.println("\t" + name + "[" + i + "][" + j + "] <object #" + output.objectNumber(mem[i][j]) + ">"); if(mem[i][j] != null) mem[i][j].dumpStatus(output);
+                        Memory m = WatchedMemory.unwrap(mem[i][j]);
+                        output.println("\t" + name + "[" + i + "][" + j + "] <object #" + output.objectNumber(m) + ">"); if(m != null) m.dumpStatus(output);
                     }
                 else
                         output.println("\t" + name + "[" + i + "] null");
@@ -572,6 +669,25 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
         }
     }
 
+    //Drops codeblocks of all pages, e.g. to decode them again with different breakpoints.
+    public void clearCodeBlocks()
+    {
+        for(Memory block : quickNonA20MaskedIndex) {
+            block = WatchedMemory.unwrap(block);
+            if(block instanceof LazyCodeBlockMemory)
+                ((LazyCodeBlockMemory)block).clearCodeBlocks();
+        }
+        for(Memory[] subArray : nonA20MaskedIndex) {
+            if(subArray == null)
+                continue;
+            for(Memory block : subArray) {
+                block = WatchedMemory.unwrap(block);
+                if(block instanceof LazyCodeBlockMemory)
+                    ((LazyCodeBlockMemory)block).clearCodeBlocks();
+            }
+        }
+    }
+
     public void clear()
     {
         for(Memory block : quickNonA20MaskedIndex)
@@ -803,6 +919,8 @@ public final class PhysicalAddressSpace extends AddressSpace implements Hardware
     public void reset()
     {
         clear();
+        if(manager != null)
+            manager.clearSpeculation();
         setGateA20State(false);
         linearAddr = null;
     }
@@ -0,0 +1,347 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory;
+
+import org.jpc.emulator.StatusDumper;
+import org.jpc.emulator.SRDumper;
+import org.jpc.emulator.processor.Processor;
+import java.io.*;
+
+/**
+ * Wrapper swapped in place of a watched RAM page to report reads and writes
+ * overlapping watched ranges on that page.
+ * <p>
+ * Pages without watches are never wrapped, so they pay nothing.  The wrapper
+ * is never saved: address spaces save the wrapped page in its place (see
+ * <code>unwrap</code>), so savestates are identical with or without watches.
+ */
+public final class WatchedMemory implements Memory
+{
+    public static final int WATCH_READ = 1;
+    public static final int WATCH_WRITE = 2;
+    public static final int WATCH_CHANGE = 4;
+    public static final int WATCH_TRAP = 8;
+
+    public interface Listener
+    {
+        //Values are little-endian contents of accessed bytes, -1 for bulk accesses.
+        public void watchHit(int address, int size, long oldValue, long newValue, int kind, boolean trap);
+    }
+
+    private final Memory memory;
+    private final int baseAddress;
+    private final Listener listener;
+    private int[] low;
+    private int[] high;
+    private int[] modes;
+    private boolean readWatched;
+    private boolean writeWatched;
+
+    WatchedMemory(Memory mem, int base, Listener l)
+    {
+        memory = mem;
+        baseAddress = base;
+        listener = l;
+        setRanges(new int[0], new int[0], new int[0]);
+    }
+
+    public static Memory unwrap(Memory mem)
+    {
+        if(mem instanceof WatchedMemory)
+            return ((WatchedMemory)mem).memory;
+        return mem;
+    }
+
+    public Memory getWrapped()
+    {
+        return memory;
+    }
+
+    //Ranges are [low, high) offsets within the page, with WATCH_* mode bits.
+    public void setRanges(int[] lowOffsets, int[] highOffsets, int[] rangeModes)
+    {
+        boolean r = false;
+        boolean w = false;
+        for(int i = 0; i < rangeModes.length; i++) {
+            r |= (rangeModes[i] & WATCH_READ) != 0;
+            w |= (rangeModes[i] & (WATCH_WRITE | WATCH_CHANGE)) != 0;
+        }
+        low = lowOffsets;
+        high = highOffsets;
+        modes = rangeModes;
+        readWatched = r;
+        writeWatched = w;
+    }
+
+    private boolean overlaps(int offset, int size, int kinds)
+    {
+        for(int i = 0; i < low.length; i++)
+            if((modes[i] & kinds) != 0 && offset < high[i] && offset + size > low[i])
+                return true;
+        return false;
+    }
+
+    private void reportRead(int offset, int size, long value)
+    {
+        boolean hit = false;
+        boolean trap = false;
+        for(int i = 0; i < low.length; i++)
+            if((modes[i] & WATCH_READ) != 0 && offset < high[i] && offset + size > low[i]) {
+                hit = true;
+                trap |= (modes[i] & WATCH_TRAP) != 0;
+            }
+        if(hit)
+            listener.watchHit(baseAddress + offset, size, value, value, WATCH_READ, trap);
+    }
+
+    private void reportWrite(int offset, int size, long oldValue, long newValue, boolean bulk)
+    {
+        boolean hit = false;
+        boolean trap = false;
+        boolean changed = bulk || oldValue != newValue;
+        for(int i = 0; i < low.length; i++) {
+            if(offset >= high[i] || offset + size <= low[i])
+                continue;
+            if((modes[i] & WATCH_WRITE) != 0 || (changed && (modes[i] & WATCH_CHANGE) != 0)) {
+                hit = true;
+                trap |= (modes[i] & WATCH_TRAP) != 0;
+            }
+        }
+        if(hit)
+            listener.watchHit(baseAddress + offset, size, oldValue, newValue, WATCH_WRITE, trap);
+    }
+
+    //Don't touch unallocated pages for old values, reading those is counted in the saved state.
+    private boolean wantOldValue(int offset, int size)
+    {
+        return writeWatched && overlaps(offset, size, WATCH_WRITE | WATCH_CHANGE);
+    }
+
+    public void dumpSRPartial(SRDumper output) throws IOException
+    {
+        throw new IOException("Watched memory wrapper can't be saved");
+    }
+
+    public void dumpStatusPartial(StatusDumper output)
+    {
+        //super.dumpStatusPartial(output); <no superclass 20090704>
+        output.println("\tbaseAddress " + baseAddress);
+        output.println("\tmemory <object #" + output.objectNumber(memory) + ">"); if(memory != null) memory.dumpStatus(output);
+    }
+
+    public void dumpStatus(StatusDumper output)
+    {
+        if(output.dumped(this))
+            return;
+
+        output.println("#" + output.objectNumber(this) + ": WatchedMemory:");
+        dumpStatusPartial(output);
+        output.endObject();
+    }
+
+    public boolean isAllocated()
+    {
+        return memory.isAllocated();
+    }
+
+    public long getSize()
+    {
+        return memory.getSize();
+    }
+
+    public void clear()
+    {
+        memory.clear();
+        if(writeWatched)
+            reportWrite(0, (int)memory.getSize(), -1, -1, true);
+    }
+
+    public void clear(int start, int length)
+    {
+        memory.clear(start, length);
+        if(writeWatched)
+            reportWrite(start, length, -1, -1, true);
+    }
+
+    public void copyContentsIntoArray(int address, byte[] buffer, int off, int len)
+    {
+        memory.copyContentsIntoArray(address, buffer, off, len);
+        if(readWatched)
+            reportRead(address, len, -1);
+    }
+
+    public void copyArrayIntoContents(int address, byte[] buffer, int off, int len)
+    {
+        memory.copyArrayIntoContents(address, buffer, off, len);
+        if(writeWatched)
+            reportWrite(address, len, -1, -1, true);
+    }
+
+    public void loadInitialContents(int address, byte[] buf, int off, int len)
+    {
+        memory.loadInitialContents(address, buf, off, len);
+        if(writeWatched)
+            reportWrite(address, len, -1, -1, true);
+    }
+
+    public byte getByte(int offset)
+    {
+        byte value = memory.getByte(offset);
+        if(readWatched)
+            reportRead(offset, 1, value & 0xFFL);
+        return value;
+    }
+
+    public short getWord(int offset)
+    {
+        short value = memory.getWord(offset);
+        if(readWatched)
+            reportRead(offset, 2, value & 0xFFFFL);
+        return value;
+    }
+
+    public int getDoubleWord(int offset)
+    {
+        int value = memory.getDoubleWord(offset);
+        if(readWatched)
+            reportRead(offset, 4, value & 0xFFFFFFFFL);
+        return value;
+    }
+
+    public long getQuadWord(int offset)
+    {
+        long value = memory.getQuadWord(offset);
+        if(readWatched)
+            reportRead(offset, 8, value);
+        return value;
+    }
+
+    public long getLowerDoubleQuadWord(int offset)
+    {
+        long value = memory.getLowerDoubleQuadWord(offset);
+        if(readWatched)
+            reportRead(offset, 8, value);
+        return value;
+    }
+
+    public long getUpperDoubleQuadWord(int offset)
+    {
+        long value = memory.getUpperDoubleQuadWord(offset);
+        if(readWatched)
+            reportRead(offset + 8, 8, value);
+        return value;
+    }
+
+    public void setByte(int offset, byte data)
+    {
+        if(!wantOldValue(offset, 1)) {
+            memory.setByte(offset, data);
+            return;
+        }
+        long old = memory.isAllocated() ? memory.getByte(offset) & 0xFFL : 0;
+        memory.setByte(offset, data);
+        reportWrite(offset, 1, old, data & 0xFFL, false);
+    }
+
+    public void setWord(int offset, short data)
+    {
+        if(!wantOldValue(offset, 2)) {
+            memory.setWord(offset, data);
+            return;
+        }
+        long old = memory.isAllocated() ? memory.getWord(offset) & 0xFFFFL : 0;
+        memory.setWord(offset, data);
+        reportWrite(offset, 2, old, data & 0xFFFFL, false);
+    }
+
+    public void setDoubleWord(int offset, int data)
+    {
+        if(!wantOldValue(offset, 4)) {
+            memory.setDoubleWord(offset, data);
+            return;
+        }
+        long old = memory.isAllocated() ? memory.getDoubleWord(offset) & 0xFFFFFFFFL : 0;
+        memory.setDoubleWord(offset, data);
+        reportWrite(offset, 4, old, data & 0xFFFFFFFFL, false);
+    }
+
+    public void setQuadWord(int offset, long data)
+    {
+        if(!wantOldValue(offset, 8)) {
+            memory.setQuadWord(offset, data);
+            return;
+        }
+        long old = memory.isAllocated() ? memory.getQuadWord(offset) : 0;
+        memory.setQuadWord(offset, data);
+        reportWrite(offset, 8, old, data, false);
+    }
+
+    public void setLowerDoubleQuadWord(int offset, long data)
+    {
+        if(!wantOldValue(offset, 8)) {
+            memory.setLowerDoubleQuadWord(offset, data);
+            return;
+        }
+        long old = memory.isAllocated() ? memory.getLowerDoubleQuadWord(offset) : 0;
+        memory.setLowerDoubleQuadWord(offset, data);
+        reportWrite(offset, 8, old, data, false);
+    }
+
+    public void setUpperDoubleQuadWord(int offset, long data)
+    {
+        if(!wantOldValue(offset + 8, 8)) {
+            memory.setUpperDoubleQuadWord(offset, data);
+            return;
+        }
+        long old = memory.isAllocated() ? memory.getUpperDoubleQuadWord(offset) : 0;
+        memory.setUpperDoubleQuadWord(offset, data);
+        reportWrite(offset + 8, 8, old, data, false);
+    }
+
+    public int executeReal(Processor cpu, int offset)
+    {
+        return memory.executeReal(cpu, offset);
+    }
+
+    public int executeProtected(Processor cpu, int offset)
+    {
+        return memory.executeProtected(cpu, offset);
+    }
+
+    public int executeVirtual8086(Processor cpu, int offset)
+    {
+        return memory.executeVirtual8086(cpu, offset);
+    }
+
+    public String toString()
+    {
+        return "Watched " + memory;
+    }
+}
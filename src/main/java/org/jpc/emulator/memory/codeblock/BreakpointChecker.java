@@ -0,0 +1,60 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock;
+
+import org.jpc.emulator.memory.Memory;
+import org.jpc.emulator.processor.Processor;
+
+/**
+ * Source of execution breakpoints for <code>CodeBlockManager</code>.
+ * <p>
+ * Blocks decoded from a page with breakpoints are cut before the next
+ * breakpoint offset and chain to the rest, so every breakpoint starts a block,
+ * and blocks starting at one check it on entry.  Code elsewhere runs unchanged.
+ */
+public interface BreakpointChecker
+{
+    /**
+     * Offsets of breakpoints within the given page.
+     * @param page memory the block is decoded from
+     * @return offsets in increasing order, or <code>null</code> if there are none
+     */
+    public int[] getBreakOffsets(Memory page);
+
+    /**
+     * Called when a block starting at a breakpoint offset is entered, before any of it runs.
+     * @param cpu processor about to run the block
+     * @param page memory the block is in
+     * @param offset offset of the block in page
+     * @param chained instructions run by earlier blocks of the same chain, not yet counted in
+     * <code>cpu.instructionsExecuted</code>
+     */
+    public void blockEntered(Processor cpu, Memory page, int offset, int chained);
+}
@@ -0,0 +1,115 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock;
+
+import org.jpc.emulator.memory.Memory;
+import org.jpc.emulator.processor.Processor;
+
+/**
+ * Block starting at an execution breakpoint, or cut short before one.
+ * <p>
+ * A block cut short runs the rest of the code it was cut from (again starting
+ * at a breakpoint) in the same call, decoded with what is left of the block
+ * limit.  Block ends and so interrupt timing stay the same as without the
+ * breakpoint.  Only stopping at a trap ends the chain early; the code after
+ * it then starts a new block, as after any other trace stop.
+ */
+class BreakpointCodeBlock implements RealModeCodeBlock, ProtectedModeCodeBlock, Virtual8086ModeCodeBlock
+{
+    private final CodeBlock block;
+    private final BreakpointChecker checker;
+    private final Memory memory;
+    private final int offset;
+    private final BreakpointCodeBlock tail;
+    private final int tailOffset;
+
+    //checker is null if the block doesn't start at a breakpoint, tail null if it isn't cut short.
+    BreakpointCodeBlock(CodeBlock block, BreakpointChecker checker, Memory memory, int offset,
+        BreakpointCodeBlock tail, int tailOffset)
+    {
+        this.block = block;
+        this.checker = checker;
+        this.memory = memory;
+        this.offset = offset;
+        this.tail = tail;
+        this.tailOffset = tailOffset;
+    }
+
+    public int getX86Length()
+    {
+        //Covers the tail too, so writes there invalidate the whole chain.
+        return block.getX86Length() + ((tail != null) ? tail.getX86Length() : 0);
+    }
+
+    public int getX86Count()
+    {
+        return block.getX86Count() + ((tail != null) ? tail.getX86Count() : 0);
+    }
+
+    public int execute(Processor cpu)
+    {
+        return execute(cpu, 0);
+    }
+
+    //chained is the instructions run by earlier blocks of the chain, not yet in cpu.instructionsExecuted.
+    private int execute(Processor cpu, int chained)
+    {
+        if(checker != null)
+            checker.blockEntered(cpu, memory, offset, chained);
+        //Full address, as an exception in the block moves EIP to the handler without aborting it.
+        int tailAddress = cpu.getInstructionPointer() + tailOffset - offset;
+        int count = block.execute(cpu);
+        if(tail != null && !cpu.eflagsLastAborted && cpu.getInstructionPointer() == tailAddress)
+            count += tail.execute(cpu, chained + count);
+        return count;
+    }
+
+    public String getDisplayString()
+    {
+        return block.getDisplayString();
+    }
+
+    public boolean handleMemoryRegionChange(int startAddress, int endAddress)
+    {
+        return false;
+    }
+
+    public void invalidate()
+    {
+        block.invalidate();
+        if(tail != null)
+            tail.invalidate();
+    }
+
+    public String toString()
+    {
+        return "Breakpoint " + block;
+    }
+}
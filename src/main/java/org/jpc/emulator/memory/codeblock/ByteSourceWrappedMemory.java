@@ -29,6 +29,7 @@
 
 package org.jpc.emulator.memory.codeblock;
 
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
 import org.jpc.emulator.memory.Memory;
 
 /**
@@ -37,14 +38,43 @@ import org.jpc.emulator.memory.Memory;
  */
 class ByteSourceWrappedMemory implements ByteSource
 {
+    //Bytes copied from allocated RAM pages at a time.
+    private static final int WINDOW_SIZE = 64;
+
     private Memory source;
-    private int offset, startingPosition;
+    private int offset, startingPosition, highWater;
+    //Copy of source bytes windowStart to windowEnd (exclusive). Only used for allocated RAM pages, as reading
+    //anything else can have side effects (and counts towards allocating unallocated pages).
+    private final boolean windowed;
+    private byte[] window;
+    private int windowStart, windowEnd;
+    private boolean direct;
+
+    public ByteSourceWrappedMemory()
+    {
+        this(true);
+    }
+
+    //Unwindowed sources read every byte through the memory, as reference for checking the windowed ones.
+    ByteSourceWrappedMemory(boolean windowed)
+    {
+        this.windowed = windowed;
+    }
 
     public void set(Memory source, int offset)
     {
         this.source = source;
         this.offset = offset;
         startingPosition = offset;
+        highWater = offset;
+        windowStart = windowEnd = 0;
+        direct = windowed && source instanceof LazyCodeBlockMemory && ((LazyCodeBlockMemory)source).isAllocated();
+    }
+
+    //Number of bytes from the starting position up to the furthest one read or skipped over.
+    public int getSpan()
+    {
+        return Math.max(offset, highWater) - startingPosition;
     }
 
     public int getOffset()
@@ -54,7 +84,28 @@ class ByteSourceWrappedMemory implements ByteSource
 
     public byte getByte()
     {
-        return source.getByte(offset++);
+        int o = offset;
+        if(o >= windowStart && o < windowEnd) {
+            offset = o + 1;
+            return window[o - windowStart];
+        }
+        return fetch();
+    }
+
+    private byte fetch()
+    {
+        if(!direct)
+            return source.getByte(offset++);
+        //Same exception reading past the end of page would give.
+        int size = (int)source.getSize();
+        if(offset < 0 || offset >= size)
+            throw new ArrayIndexOutOfBoundsException(offset);
+        if(window == null)
+            window = new byte[WINDOW_SIZE];
+        windowStart = offset;
+        windowEnd = Math.min(offset + WINDOW_SIZE, size);
+        source.copyContentsIntoArray(windowStart, window, 0, windowEnd - windowStart);
+        return window[offset++ - windowStart];
     }
 
     public void skip(int count)
@@ -66,6 +117,8 @@ class ByteSourceWrappedMemory implements ByteSource
 
     public void reset()
     {
+        if(offset > highWater)
+            highWater = offset;
         offset = startingPosition;
     }
 
@@ -34,6 +34,7 @@ import java.io.*;
 import org.jpc.emulator.SRLoader;
 import org.jpc.emulator.SRDumper;
 import org.jpc.emulator.SRDumpable;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
 import org.jpc.emulator.memory.Memory;
 import org.jpc.emulator.memory.codeblock.optimised.*;
 
@@ -45,9 +46,17 @@ import org.jpc.emulator.memory.codeblock.optimised.*;
  */
 public class CodeBlockManager implements SRDumpable
 {
-    public static volatile int BLOCK_LIMIT = 1000; //minimum of 2 because of STI/CLI
-    private CodeBlockFactory realModeChain,  protectedModeChain,  virtual8086ModeChain;
+    public static final int DEFAULT_BLOCK_LIMIT = 1000; //minimum of 2 because of STI/CLI
+    private DefaultCodeBlockFactory realModeChain,  protectedModeChain,  virtual8086ModeChain;
     private ByteSourceWrappedMemory byteSource;
+    private final int blockLimit;
+    private boolean optimise;
+    //Added to cache modes, to keep microcode of different optimisation settings apart.
+    private int cacheFlags;
+    //May be changed from another thread while running.
+    private volatile SpeculativeDecoder speculator;
+    //Execution breakpoints, null if there are none. May be changed from another thread while running.
+    private volatile BreakpointChecker breakpoints;
 
     /**
      * Constructs a default manager.
@@ -56,53 +65,213 @@ public class CodeBlockManager implements SRDumpable
      */
     public CodeBlockManager()
     {
+        this(DEFAULT_BLOCK_LIMIT);
+    }
+
+    /**
+     * Constructs a manager with given maximum block length.
+     * @param limit maximum number of x86 instructions per block, at least 2.
+     */
+    public CodeBlockManager(int limit)
+    {
+        if(limit < 2)
+            throw new IllegalArgumentException("Block limit must be at least 2");
+        blockLimit = limit;
         byteSource = new ByteSourceWrappedMemory();
+        setMicrocodeOptimisation(true);
+    }
+
+    /**
+     * Set whether microcode of new blocks is optimised. Results are the same either way, turning it off is
+     * meant for checking exactly that.
+     * @param enable <code>true</code> to optimise
+     */
+    public void setMicrocodeOptimisation(boolean enable)
+    {
+        optimise = enable;
+        cacheFlags = enable ? 0 : DecodedBlockCache.UNOPTIMISED;
+        realModeChain = new DefaultCodeBlockFactory(new RealModeUDecoder(), new OptimisedCompiler(enable), blockLimit);
+        protectedModeChain = new DefaultCodeBlockFactory(new ProtectedModeUDecoder(), new OptimisedCompiler(enable),
+            blockLimit);
+        virtual8086ModeChain = new DefaultCodeBlockFactory(new RealModeUDecoder(), new OptimisedCompiler(enable),
+            blockLimit);
+        if(speculator != null)
+            speculator = new SpeculativeDecoder(blockLimit, enable);
+    }
 
-        realModeChain = new DefaultCodeBlockFactory(new RealModeUDecoder(), new OptimisedCompiler(), BLOCK_LIMIT);
-        protectedModeChain = new DefaultCodeBlockFactory(new ProtectedModeUDecoder(), new OptimisedCompiler(), BLOCK_LIMIT);
-        virtual8086ModeChain = new DefaultCodeBlockFactory(new RealModeUDecoder(), new OptimisedCompiler(), BLOCK_LIMIT);
+    public boolean isMicrocodeOptimised()
+    {
+        return optimise;
+    }
+
+    public int getBlockLimit()
+    {
+        return blockLimit;
+    }
+
+    /**
+     * Set whether blocks execution is likely to reach next are decoded ahead on a background thread.
+     * @param enable <code>true</code> to decode ahead
+     */
+    public void setSpeculativeDecoding(boolean enable)
+    {
+        if(!enable)
+            speculator = null;
+        else if(speculator == null)
+            speculator = new SpeculativeDecoder(blockLimit, optimise);
+    }
+
+    /**
+     * Drop blocks decoded ahead. Call when memory is reset.
+     */
+    public void clearSpeculation()
+    {
+        SpeculativeDecoder s = speculator;
+        if(s != null)
+            s.clear();
+    }
+
+    /**
+     * Set execution breakpoints blocks decoded from now on are split at. Blocks already made are not
+     * affected.
+     * @param checker breakpoints, or <code>null</code> for none
+     */
+    public void setBreakpointChecker(BreakpointChecker checker)
+    {
+        breakpoints = checker;
     }
 
     public void dumpSRPartial(SRDumper output) throws IOException
     {
+        //Omitted if default, so such savestates stay as they were.
+        if(blockLimit != DEFAULT_BLOCK_LIMIT)
+            output.dumpInt(blockLimit);
     }
 
-    public CodeBlockManager(SRLoader input)
+    public CodeBlockManager(SRLoader input) throws IOException
     {
-        this();
         input.objectCreated(this);
+        blockLimit = input.objectEndsHere() ? DEFAULT_BLOCK_LIMIT : input.loadInt();
+        byteSource = new ByteSourceWrappedMemory();
+        setMicrocodeOptimisation(true);
     }
 
-    private RealModeCodeBlock tryRealModeFactory(CodeBlockFactory ff, Memory memory, int offset)
+    private RealModeCodeBlock tryRealModeFactory(DefaultCodeBlockFactory ff, Memory memory, int offset, int limit)
     {
+        RealModeCodeBlock block = (RealModeCodeBlock)DecodedBlockCache.lookup(DecodedBlockCache.REAL | cacheFlags,
+            limit, memory, offset);
+        if(block != null)
+            return block;
         try {
             byteSource.set(memory, offset);
-            return ff.getRealModeCodeBlock(byteSource);
+            block = ff.getRealModeCodeBlock(byteSource, limit);
+            DecodedBlockCache.insert(DecodedBlockCache.REAL | cacheFlags, limit, memory, offset,
+                byteSource.getSpan(), block);
+            return block;
         } catch (ArrayIndexOutOfBoundsException e) {
             return new SpanningRealModeCodeBlock(new CodeBlockFactory[]{realModeChain});
         }
     }
 
-    private ProtectedModeCodeBlock tryProtectedModeFactory(CodeBlockFactory ff, Memory memory, int offset, boolean operandSizeFlag)
+    private ProtectedModeCodeBlock tryProtectedModeFactory(DefaultCodeBlockFactory ff, Memory memory, int offset, boolean operandSizeFlag, int limit)
     {
+        int mode = (operandSizeFlag ? DecodedBlockCache.PROTECTED32 : DecodedBlockCache.PROTECTED16) | cacheFlags;
+        ProtectedModeCodeBlock block = (ProtectedModeCodeBlock)DecodedBlockCache.lookup(mode, limit, memory,
+            offset);
+        if(block != null)
+            return block;
         try {
             byteSource.set(memory, offset);
-            return ff.getProtectedModeCodeBlock(byteSource, operandSizeFlag);
+            block = ff.getProtectedModeCodeBlock(byteSource, operandSizeFlag, limit);
+            DecodedBlockCache.insert(mode, limit, memory, offset, byteSource.getSpan(), block);
+            return block;
         } catch (ArrayIndexOutOfBoundsException e) {
             return new SpanningProtectedModeCodeBlock(new CodeBlockFactory[]{protectedModeChain});
         }
     }
 
-    private Virtual8086ModeCodeBlock tryVirtual8086ModeFactory(CodeBlockFactory ff, Memory memory, int offset)
+    private Virtual8086ModeCodeBlock tryVirtual8086ModeFactory(DefaultCodeBlockFactory ff, Memory memory, int offset, int limit)
     {
+        Virtual8086ModeCodeBlock block = (Virtual8086ModeCodeBlock)DecodedBlockCache.lookup(
+            DecodedBlockCache.VIRTUAL8086 | cacheFlags, limit, memory, offset);
+        if(block != null)
+            return block;
         try {
             byteSource.set(memory, offset);
-            return ff.getVirtual8086ModeCodeBlock(byteSource);
+            block = ff.getVirtual8086ModeCodeBlock(byteSource, limit);
+            DecodedBlockCache.insert(DecodedBlockCache.VIRTUAL8086 | cacheFlags, limit, memory, offset,
+                byteSource.getSpan(), block);
+            return block;
         } catch (ArrayIndexOutOfBoundsException e) {
             return new SpanningVirtual8086ModeCodeBlock(new CodeBlockFactory[]{virtual8086ModeChain});
         }
     }
 
+    //Number of instructions before the breakpoint distance bytes after offset, -1 if the block doesn't reach it.
+    private int countInstructions(Memory memory, int offset, int mode, int distance)
+    {
+        //Reading unallocated pages counts towards allocating them, which is saved. Other memory may have side
+        //effects on read.
+        if(!(memory instanceof LazyCodeBlockMemory) || !memory.isAllocated())
+            return -1;
+        try {
+            byteSource.set(memory, offset);
+            if(mode == DecodedBlockCache.REAL)
+                return realModeChain.countRealModeInstructions(byteSource, distance);
+            else if(mode == DecodedBlockCache.VIRTUAL8086)
+                return virtual8086ModeChain.countVirtual8086ModeInstructions(byteSource, distance);
+            else
+                return protectedModeChain.countProtectedModeInstructions(byteSource,
+                    mode == DecodedBlockCache.PROTECTED32, distance);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return -1;   //Block spans pages, those aren't split.
+        } catch (IllegalStateException e) {
+            return -1;
+        }
+    }
+
+    private CodeBlock decodeBlock(Memory memory, int offset, int mode, int limit)
+    {
+        if(mode == DecodedBlockCache.REAL)
+            return tryRealModeFactory(realModeChain, memory, offset, limit);
+        else if(mode == DecodedBlockCache.VIRTUAL8086)
+            return tryVirtual8086ModeFactory(virtual8086ModeChain, memory, offset, limit);
+        else
+            return tryProtectedModeFactory(protectedModeChain, memory, offset, mode == DecodedBlockCache.PROTECTED32,
+                limit);
+    }
+
+    //Blocks from pages with breakpoints are cut before the next breakpoint, and check it if they start at one.
+    //The cut block chains to the rest, decoded with the remaining limit, so block ends don't move. Blocks
+    //spanning pages aren't cut. These don't go through the speculator, its blocks aren't split.
+    private CodeBlock getBreakpointBlockAt(BreakpointChecker checker, int[] breaks, Memory memory, int offset,
+        int mode, int limit)
+    {
+        boolean atBreak = false;
+        int stop = -1;
+        for(int i = 0; i < breaks.length; i++)
+            if(breaks[i] == offset)
+                atBreak = true;
+            else if(breaks[i] > offset) {
+                stop = breaks[i];
+                break;
+            }
+
+        CodeBlock block = decodeBlock(memory, offset, mode, limit);
+        BreakpointCodeBlock tail = null;
+        if(stop >= 0 && !(block instanceof SpanningCodeBlock) && block.getX86Length() > stop - offset) {
+            int count = countInstructions(memory, offset, mode, stop - offset);
+            if(count > 0 && count < limit) {
+                block = decodeBlock(memory, offset, mode, count);
+                tail = (BreakpointCodeBlock)getBreakpointBlockAt(checker, breaks, memory, stop, mode,
+                    limit - count);
+            }
+        }
+        if(!atBreak && tail == null)
+            return block;
+        return new BreakpointCodeBlock(block, atBreak ? checker : null, memory, offset, tail, stop);
+    }
+
     /**
      * Get a real mode codeblock instance for the given memory area.
      * @param memory source for the x86 bytes
@@ -113,12 +282,24 @@ public class CodeBlockManager implements SRDumpable
     {
         RealModeCodeBlock block;
 
-        if((block = tryRealModeFactory(realModeChain, memory, offset)) == null) {
+        BreakpointChecker checker = breakpoints;
+        int[] breaks = (checker != null) ? checker.getBreakOffsets(memory) : null;
+        if(breaks != null)
+            return (RealModeCodeBlock)getBreakpointBlockAt(checker, breaks, memory, offset, DecodedBlockCache.REAL,
+                blockLimit);
+
+        SpeculativeDecoder speculator = this.speculator;
+        if(speculator != null && (block = (RealModeCodeBlock)speculator.take(memory, offset, DecodedBlockCache.REAL)) != null) {
+            speculator.blockBuilt(memory, offset, DecodedBlockCache.REAL, block);
+            return block;
+        }
+        if((block = tryRealModeFactory(realModeChain, memory, offset, blockLimit)) == null) {
             System.err.println("Critical error: Can't find nor make suitable real mode codeblock.");
             throw new IllegalStateException("Couldn't find/make suitable realmode block");
         }
+        if(speculator != null)
+            speculator.blockBuilt(memory, offset, DecodedBlockCache.REAL, block);
         return block;
-
     }
 
     /**
@@ -131,11 +312,24 @@ public class CodeBlockManager implements SRDumpable
     public ProtectedModeCodeBlock getProtectedModeCodeBlockAt(Memory memory, int offset, boolean operandSize)
     {
         ProtectedModeCodeBlock block;
+        int mode = operandSize ? DecodedBlockCache.PROTECTED32 : DecodedBlockCache.PROTECTED16;
+
+        BreakpointChecker checker = breakpoints;
+        int[] breaks = (checker != null) ? checker.getBreakOffsets(memory) : null;
+        if(breaks != null)
+            return (ProtectedModeCodeBlock)getBreakpointBlockAt(checker, breaks, memory, offset, mode, blockLimit);
 
-        if((block = tryProtectedModeFactory(protectedModeChain, memory, offset, operandSize)) == null) {
+        SpeculativeDecoder speculator = this.speculator;
+        if(speculator != null && (block = (ProtectedModeCodeBlock)speculator.take(memory, offset, mode)) != null) {
+            speculator.blockBuilt(memory, offset, mode, block);
+            return block;
+        }
+        if((block = tryProtectedModeFactory(protectedModeChain, memory, offset, operandSize, blockLimit)) == null) {
             System.err.println("Critical error: Can't find nor make suitable protected mode codeblock.");
             throw new IllegalStateException("Couldn't find/make suitable pmode block");
         }
+        if(speculator != null)
+            speculator.blockBuilt(memory, offset, mode, block);
         return block;
     }
 
@@ -149,10 +343,23 @@ public class CodeBlockManager implements SRDumpable
     {
         Virtual8086ModeCodeBlock block;
 
-        if((block = tryVirtual8086ModeFactory(virtual8086ModeChain, memory, offset)) == null) {
+        BreakpointChecker checker = breakpoints;
+        int[] breaks = (checker != null) ? checker.getBreakOffsets(memory) : null;
+        if(breaks != null)
+            return (Virtual8086ModeCodeBlock)getBreakpointBlockAt(checker, breaks, memory, offset,
+                DecodedBlockCache.VIRTUAL8086, blockLimit);
+
+        SpeculativeDecoder speculator = this.speculator;
+        if(speculator != null && (block = (Virtual8086ModeCodeBlock)speculator.take(memory, offset, DecodedBlockCache.VIRTUAL8086)) != null) {
+            speculator.blockBuilt(memory, offset, DecodedBlockCache.VIRTUAL8086, block);
+            return block;
+        }
+        if((block = tryVirtual8086ModeFactory(virtual8086ModeChain, memory, offset, blockLimit)) == null) {
             System.err.println("Critical error: Can't find nor make suitable VM8086 mode codeblock.");
             throw new IllegalStateException("Couldn't find/make suitable VM86 block");
         }
+        if(speculator != null)
+            speculator.blockBuilt(memory, offset, DecodedBlockCache.VIRTUAL8086, block);
         return block;
     }
 }
@@ -0,0 +1,199 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+package org.jpc.emulator.memory.codeblock;
+
+import java.util.Arrays;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
+import org.jpc.emulator.memory.codeblock.optimised.*;
+
+/**
+ * Differential check of block decoding from page windows against decoding byte by byte through the memory.
+ * <p>
+ * Every checked offset of a page is decoded in real, virtual 8086 and both protected mode operand sizes
+ * by each way, and the resulting microcode, instruction lengths and exceptions must be identical. The
+ * decoders are compared directly, without compiling blocks.
+ */
+public class DecoderComparison
+{
+    private final Decoder realReference, protectedReference, realWindowed, protectedWindowed;
+    private final ByteSourceWrappedMemory reference, windowed;
+    private final LazyCodeBlockMemory memory;
+    private final int limit;
+    private long referenceTime, windowedTime;
+    private int blocks, mismatches;
+    //Of everything decoded byte by byte, to compare decoder versions.
+    private long digest;
+
+    public DecoderComparison()
+    {
+        limit = CodeBlockManager.DEFAULT_BLOCK_LIMIT;
+        realReference = new RealModeUDecoder();
+        protectedReference = new ProtectedModeUDecoder();
+        realWindowed = new RealModeUDecoder();
+        protectedWindowed = new ProtectedModeUDecoder();
+        reference = new ByteSourceWrappedMemory(false);
+        windowed = new ByteSourceWrappedMemory(true);
+        memory = new LazyCodeBlockMemory(4096, null);
+    }
+
+    /**
+     * Compare decoding at every stride-th offset of given page.
+     * @param page page contents, 4096 bytes.
+     * @param stride distance between checked offsets.
+     * @return description of first mismatch, or <code>null</code> if there was none.
+     */
+    public String comparePage(byte[] page, int stride)
+    {
+        String first = null;
+        memory.loadInitialContents(0, page, 0, 4096);
+        for(int offset = 0; offset < 4096; offset += stride)
+            for(int mode = 0; mode < 4; mode++) {
+                long t0 = System.nanoTime();
+                DecodedBlock expected = decode(reference, offset, mode);
+                long t1 = System.nanoTime();
+                DecodedBlock got = decode(windowed, offset, mode);
+                long t2 = System.nanoTime();
+                referenceTime += t1 - t0;
+                windowedTime += t2 - t1;
+                blocks++;
+                digest = expected.hash(digest);
+                String mismatch = compare(expected, got);
+                if(mismatch != null) {
+                    mismatches++;
+                    if(first == null)
+                        first = "Offset " + offset + " mode " + mode + ": " + mismatch;
+                }
+            }
+        return first;
+    }
+
+    public int getBlockCount()
+    {
+        return blocks;
+    }
+
+    public int getMismatchCount()
+    {
+        return mismatches;
+    }
+
+    public long getDigest()
+    {
+        return digest;
+    }
+
+    //Nanoseconds spent decoding byte by byte and from windows, respectively.
+    public long getReferenceTime()
+    {
+        return referenceTime;
+    }
+
+    public long getWindowedTime()
+    {
+        return windowedTime;
+    }
+
+    //Mode 0 is real, 1 virtual 8086, 2 and 3 protected with 16 and 32 bit operand size. Blocks are decoded
+    //when stepped through, so that happens here rather than on the first getNext of the caller.
+    private DecodedBlock decode(ByteSourceWrappedMemory source, int offset, int mode)
+    {
+        boolean ref = (source == reference);
+        source.set(memory, offset);
+        InstructionSource block;
+        try {
+            if(mode == 0)
+                block = (ref ? realReference : realWindowed).decodeReal(source, limit);
+            else if(mode == 1)
+                block = (ref ? realReference : realWindowed).decodeVirtual8086(source, limit);
+            else
+                block = (ref ? protectedReference : protectedWindowed).decodeProtected(source, mode == 3, limit);
+            return new DecodedBlock(block);
+        } catch(RuntimeException e) {
+            return new DecodedBlock(e);
+        }
+    }
+
+    private static String compare(DecodedBlock a, DecodedBlock b)
+    {
+        String x = (a.failure != null) ? a.failure.getClass().getName() : "no exception";
+        String y = (b.failure != null) ? b.failure.getClass().getName() : "no exception";
+        if(!x.equals(y))
+            return "got " + y + ", expected " + x;
+        if(a.length != b.length)
+            return "got " + b.length + " microcodes, expected " + a.length;
+        for(int i = 0; i < a.length; i++)
+            if(a.codes[i] != b.codes[i] || a.positions[i] != b.positions[i])
+                return "microcode " + i + " is " + b.codes[i] + "@" + b.positions[i] + ", expected " + a.codes[i] +
+                    "@" + a.positions[i];
+        return null;
+    }
+
+    //Microcodes of a block with cumulative x86 length of their instruction, or the exception stepping
+    //through it gave together with how far it got.
+    private static class DecodedBlock
+    {
+        int[] codes = new int[16];
+        int[] positions = new int[16];
+        int length;
+        RuntimeException failure;
+
+        DecodedBlock(RuntimeException failure)
+        {
+            this.failure = failure;
+        }
+
+        DecodedBlock(InstructionSource source)
+        {
+            int x86Length = 0;
+            try {
+                while(source.getNext()) {
+                    x86Length += source.getX86Length();
+                    for(int i = source.getLength(); i > 0; i--) {
+                        if(length == codes.length) {
+                            codes = Arrays.copyOf(codes, 2 * length);
+                            positions = Arrays.copyOf(positions, 2 * length);
+                        }
+                        codes[length] = source.getMicrocode();
+                        positions[length++] = x86Length;
+                    }
+                }
+            } catch(RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        long hash(long h)
+        {
+            for(int i = 0; i < length; i++)
+                h = 31 * (31 * h + codes[i]) + positions[i];
+            h = 31 * h + length;
+            return 31 * h + (failure != null ? failure.getClass().getName().hashCode() : 0);
+        }
+    }
+}
@@ -48,17 +48,67 @@ class DefaultCodeBlockFactory implements CodeBlockFactory
 
     public RealModeCodeBlock getRealModeCodeBlock(ByteSource source)
     {
-        return compiler.getRealModeCodeBlock(decoder.decodeReal(source, limit));
+        return getRealModeCodeBlock(source, limit);
     }
 
-
     public ProtectedModeCodeBlock getProtectedModeCodeBlock(ByteSource source, boolean operandSize)
     {
-        return compiler.getProtectedModeCodeBlock(decoder.decodeProtected(source, operandSize, limit));
+        return getProtectedModeCodeBlock(source, operandSize, limit);
     }
 
     public Virtual8086ModeCodeBlock getVirtual8086ModeCodeBlock(ByteSource source)
     {
-        return compiler.getVirtual8086ModeCodeBlock(decoder.decodeVirtual8086(source, limit));
+        return getVirtual8086ModeCodeBlock(source, limit);
+    }
+
+    //Blocks with limit lower than the usual, to end them before a breakpoint.
+    public RealModeCodeBlock getRealModeCodeBlock(ByteSource source, int blockLimit)
+    {
+        return compiler.getRealModeCodeBlock(decoder.decodeReal(source, blockLimit));
+    }
+
+    public ProtectedModeCodeBlock getProtectedModeCodeBlock(ByteSource source, boolean operandSize, int blockLimit)
+    {
+        return compiler.getProtectedModeCodeBlock(decoder.decodeProtected(source, operandSize, blockLimit));
+    }
+
+    public Virtual8086ModeCodeBlock getVirtual8086ModeCodeBlock(ByteSource source, int blockLimit)
+    {
+        return compiler.getVirtual8086ModeCodeBlock(decoder.decodeVirtual8086(source, blockLimit));
+    }
+
+    //Number of instructions in the block at source before the one starting distance bytes in, or -1 if no
+    //instruction of the block starts there. Decodes without compiling.
+    public int countRealModeInstructions(ByteSource source, int distance)
+    {
+        return countInstructions(decoder.decodeReal(source, limit), distance);
+    }
+
+    public int countProtectedModeInstructions(ByteSource source, boolean operandSize, int distance)
+    {
+        return countInstructions(decoder.decodeProtected(source, operandSize, limit), distance);
+    }
+
+    public int countVirtual8086ModeInstructions(ByteSource source, int distance)
+    {
+        return countInstructions(decoder.decodeVirtual8086(source, limit), distance);
+    }
+
+    private static int countInstructions(InstructionSource source, int distance)
+    {
+        int position = 0;
+        int count = 0;
+        while(source.getNext()) {
+            if(position == distance) {
+                source.reset();
+                return count;
+            }
+            if(position > distance)
+                break;
+            position += source.getX86Length();
+            count++;
+        }
+        source.reset();
+        return -1;
     }
 }
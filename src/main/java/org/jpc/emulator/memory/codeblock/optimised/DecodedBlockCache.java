@@ -0,0 +1,246 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock.optimised;
+
+import java.util.*;
+import org.jpc.emulator.memory.Memory;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
+import org.jpc.emulator.memory.codeblock.*;
+
+/**
+ * Process-wide cache of decoded microcode, keyed by the x86 bytes it was decoded from.
+ * <p>
+ * Codeblocks aren't saved, so every loadstate starts with no blocks. Decoding only depends
+ * on the bytes read, the mode and the block limit, so the microcode of a block seen before
+ * (by any PC) is reused and only a new block object is made from it. Microcode arrays are
+ * never modified, which makes sharing them safe.
+ */
+public final class DecodedBlockCache
+{
+    public static final int REAL = 0;
+    public static final int PROTECTED16 = 1;
+    public static final int PROTECTED32 = 2;
+    public static final int VIRTUAL8086 = 3;
+    //Added to mode for microcode not run through MicrocodeOptimiser.
+    public static final int UNOPTIMISED = 4;
+
+    //Blocks are indexed by hash of their first bytes, up to this many.
+    private static final int PREFIX = 16;
+    //Entries sharing an index, beyond which the oldest ones get dropped.
+    private static final int MAX_CHAIN = 16;
+    private static final long MAX_BYTES = 32L << 20;
+
+    private static class Entry
+    {
+        int mode;
+        int limit;
+        byte[] code;
+        int[] microcodes;
+        int[] positions;
+        Entry next;
+
+        long size()
+        {
+            return 64 + code.length + 4L * (microcodes.length + positions.length);
+        }
+    }
+
+    //Access ordered, so iteration starts from the least recently used index.
+    private static final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(1024, 0.75f, true);
+    //Bit n set if some block is shorter than PREFIX, n bytes long.
+    private static int shortLengths;
+    private static long bytes;
+    private static byte[] scratch = new byte[256];
+    private static long hits;
+    private static long misses;
+    private static long evictions;
+
+    private DecodedBlockCache()
+    {
+    }
+
+    private static long index(long hash, int mode, int limit, int prefix)
+    {
+        return hash ^ ((long)mode << 56) ^ ((long)prefix << 48) ^ ((long)limit << 20);
+    }
+
+    private static long hashStep(long hash, byte b)
+    {
+        return (hash ^ (b & 0xFF)) * 0x100000001B3L;
+    }
+
+    private static boolean matches(Entry e, int mode, int limit, Memory memory, int offset)
+    {
+        if(e.mode != mode || e.limit != limit || offset + (long)e.code.length > memory.getSize())
+            return false;
+        if(scratch.length < e.code.length)
+            scratch = new byte[e.code.length];
+        memory.copyContentsIntoArray(offset, scratch, 0, e.code.length);
+        for(int i = 0; i < e.code.length; i++)
+            if(scratch[i] != e.code[i])
+                return false;
+        return true;
+    }
+
+    private static Entry find(int mode, int limit, Memory memory, int offset)
+    {
+        long available = memory.getSize() - offset;
+        int prefix = (int)Math.min(PREFIX, available);
+        long hash = 0xCBF29CE484222325L;
+        for(int p = 1; p <= prefix; p++) {
+            hash = hashStep(hash, memory.getByte(offset + p - 1));
+            if(p < PREFIX && ((shortLengths >>> p) & 1) == 0)
+                continue;
+            for(Entry e = entries.get(index(hash, mode, limit, p)); e != null; e = e.next)
+                if(matches(e, mode, limit, memory, offset))
+                    return e;
+        }
+        return null;
+    }
+
+    //Reading memory not allocated yet counts towards allocating it, which is saved. Leave such memory alone.
+    private static boolean readable(Memory memory)
+    {
+        return !(memory instanceof LazyCodeBlockMemory) || ((LazyCodeBlockMemory)memory).isAllocated();
+    }
+
+    private static CodeBlock makeBlock(int mode, Entry e)
+    {
+        switch(mode & ~UNOPTIMISED) {
+        case REAL:
+            return new RealModeUBlock(e.microcodes, e.positions);
+        case VIRTUAL8086:
+            return new Virtual8086ModeUBlock(e.microcodes, e.positions);
+        default:
+            return new ProtectedModeUBlock(e.microcodes, e.positions);
+        }
+    }
+
+    /**
+     * Get new block for the code at the given memory area, if microcode for it is cached.
+     * @param mode one of REAL, PROTECTED16, PROTECTED32 or VIRTUAL8086, plus UNOPTIMISED if applicable
+     * @param limit block limit the code is decoded with
+     * @param memory source for the x86 bytes
+     * @param offset address in the given memory object
+     * @return new block, or <code>null</code> if the code has to be decoded
+     */
+    public static synchronized CodeBlock lookup(int mode, int limit, Memory memory, int offset)
+    {
+        if(!readable(memory))
+            return null;
+        Entry e = find(mode, limit, memory, offset);
+        if(e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return makeBlock(mode, e);
+    }
+
+    /**
+     * Remember the microcode of a freshly decoded block.
+     * @param mode one of REAL, PROTECTED16, PROTECTED32 or VIRTUAL8086, plus UNOPTIMISED if applicable
+     * @param limit block limit the code was decoded with
+     * @param memory source of the x86 bytes
+     * @param offset address of the block in the given memory object
+     * @param length number of bytes decoder looked at
+     * @param block block made by the decoder
+     */
+    public static synchronized void insert(int mode, int limit, Memory memory, int offset, int length,
+        CodeBlock block)
+    {
+        Entry e = new Entry();
+        if(block instanceof RealModeUBlock) {
+            e.microcodes = ((RealModeUBlock)block).microcodes;
+            e.positions = ((RealModeUBlock)block).cumulativeX86Length;
+        } else if(block instanceof ProtectedModeUBlock) {
+            e.microcodes = ((ProtectedModeUBlock)block).microcodes;
+            e.positions = ((ProtectedModeUBlock)block).cumulativeX86Length;
+        } else if(block instanceof Virtual8086ModeUBlock) {
+            e.microcodes = ((Virtual8086ModeUBlock)block).microcodes;
+            e.positions = ((Virtual8086ModeUBlock)block).cumulativeX86Length;
+        } else
+            return;
+        if(length <= 0 || offset + (long)length > memory.getSize() || !readable(memory))
+            return;
+        e.mode = mode;
+        e.limit = limit;
+        e.code = new byte[length];
+        memory.copyContentsIntoArray(offset, e.code, 0, length);
+
+        int prefix = Math.min(PREFIX, length);
+        long hash = 0xCBF29CE484222325L;
+        for(int i = 0; i < prefix; i++)
+            hash = hashStep(hash, e.code[i]);
+        if(prefix < PREFIX)
+            shortLengths |= 1 << prefix;
+        Long key = index(hash, mode, limit, prefix);
+        e.next = entries.get(key);
+        entries.put(key, e);
+        bytes += e.size();
+        int chain = 1;
+        for(Entry f = e; f.next != null; f = f.next)
+            if(++chain > MAX_CHAIN) {
+                for(Entry g = f.next; g != null; g = g.next) {
+                    bytes -= g.size();
+                    evictions++;
+                }
+                f.next = null;
+                break;
+            }
+
+        Iterator<Map.Entry<Long, Entry>> itt = entries.entrySet().iterator();
+        while(bytes > MAX_BYTES && itt.hasNext()) {
+            for(Entry f = itt.next().getValue(); f != null; f = f.next) {
+                bytes -= f.size();
+                evictions++;
+            }
+            itt.remove();
+        }
+    }
+
+    /**
+     * Get cache statistics.
+     * @return hits, misses, evictions, number of cached blocks and their approximate size in bytes
+     */
+    public static synchronized long[] getStatistics()
+    {
+        long count = 0;
+        for(Entry e : entries.values())
+            for(Entry f = e; f != null; f = f.next)
+                count++;
+        return new long[]{hits, misses, evictions, count, bytes};
+    }
+
+    public static synchronized void resetStatistics()
+    {
+        hits = misses = evictions = 0;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock.optimised;
+
+import static org.jpc.emulator.memory.codeblock.optimised.MicrocodeSet.*;
+
+/**
+ * Rewrites decoder output into equivalent but shorter microcode.
+ * <p>
+ * Three passes run over each block: constant effective address arithmetic is folded, loads of a
+ * register into reg0 that already holds its value are dropped, and frequent microcode pairs are
+ * fused into superinstructions. Every rewrite leaves registers, memory and flags exactly as the
+ * original microcode would at every point where the block can exit, and never moves microcode
+ * between x86 instructions, so exceptions still report the right instruction.
+ * <p>
+ * Flag computations are left alone even if overwritten later: each instruction start can end the
+ * block, after which the flags are visible (and saved), and the decoders never compute flags twice
+ * within one instruction.
+ */
+final class MicrocodeOptimiser
+{
+    private static final int W8 = 1, W16 = 2, W32 = 4;
+    //Per microcode: family * 8 + width for loads and stores of reg0, -1 for others.
+    private static final int[] load0 = new int[MICROCODE_LIMIT];
+    private static final int[] store0 = new int[MICROCODE_LIMIT];
+    //Per microcode: register family written without involving reg0, -1 for none.
+    private static final int[] writes = new int[MICROCODE_LIMIT];
+    //Per microcode: width reg0 is known to fit after it, 0 if reg0 is not touched.
+    private static final int[] defines = new int[MICROCODE_LIMIT];
+    //Microcodes that leave reg0 and general registers alone.
+    private static final boolean[] keepsRegisters = new boolean[MICROCODE_LIMIT];
+    //Microcodes that leave addr0 alone.
+    private static final boolean[] keepsAddress = new boolean[MICROCODE_LIMIT];
+
+    //Pairs to fuse: first, second, superinstruction.
+    private static final int[][] fusions = {
+        {ADDR_IB, ADDR_MASK16, ADDR_IB_MASK16},
+        {ADDR_IW, ADDR_MASK16, ADDR_IW_MASK16},
+        {LOAD_SEG_SS, ADDR_BP, LOAD_SEG_SS_ADDR_BP},
+        {LOAD_SEG_DS, ADDR_BX, LOAD_SEG_DS_ADDR_BX},
+        {ADDR_MASK16, LOAD0_MEM_WORD, ADDR_MASK16_LOAD0_MEM_WORD},
+        {ADDR_MASK16, STORE0_MEM_WORD, ADDR_MASK16_STORE0_MEM_WORD},
+        {EIP_UPDATE, LOAD0_IB, EIP_UPDATE_LOAD0_IB},
+        {EIP_UPDATE, LOAD0_IW, EIP_UPDATE_LOAD0_IW},
+    };
+
+    private static void register(int family, int load8, int store8, int load16, int store16, int load32,
+        int store32, int loadHigh, int storeHigh, int[] store1)
+    {
+        if(load8 >= 0) {
+            load0[load8] = family * 8 + W8;
+            store0[store8] = family * 8 + W8;
+            defines[loadHigh] = 8;
+            writes[storeHigh] = family;
+        }
+        load0[load16] = family * 8 + W16;
+        store0[store16] = family * 8 + W16;
+        load0[load32] = family * 8 + W32;
+        store0[store32] = family * 8 + W32;
+        for(int op : store1)
+            writes[op] = family;
+    }
+
+    static
+    {
+        for(int i = 0; i < MICROCODE_LIMIT; i++)
+            load0[i] = store0[i] = writes[i] = -1;
+        register(0, LOAD0_AL, STORE0_AL, LOAD0_AX, STORE0_AX, LOAD0_EAX, STORE0_EAX, LOAD0_AH, STORE0_AH,
+            new int[]{STORE1_AL, STORE1_AH, STORE1_AX, STORE1_EAX});
+        register(1, LOAD0_CL, STORE0_CL, LOAD0_CX, STORE0_CX, LOAD0_ECX, STORE0_ECX, LOAD0_CH, STORE0_CH,
+            new int[]{STORE1_CL, STORE1_CH, STORE1_CX, STORE1_ECX});
+        register(2, LOAD0_DL, STORE0_DL, LOAD0_DX, STORE0_DX, LOAD0_EDX, STORE0_EDX, LOAD0_DH, STORE0_DH,
+            new int[]{STORE1_DL, STORE1_DH, STORE1_DX, STORE1_EDX});
+        register(3, LOAD0_BL, STORE0_BL, LOAD0_BX, STORE0_BX, LOAD0_EBX, STORE0_EBX, LOAD0_BH, STORE0_BH,
+            new int[]{STORE1_BL, STORE1_BH, STORE1_BX, STORE1_EBX});
+        register(4, -1, -1, LOAD0_SP, STORE0_SP, LOAD0_ESP, STORE0_ESP, -1, -1,
+            new int[]{STORE1_SP, STORE1_ESP, PUSH_O16, PUSH_O32});
+        register(5, -1, -1, LOAD0_BP, STORE0_BP, LOAD0_EBP, STORE0_EBP, -1, -1, new int[]{STORE1_BP, STORE1_EBP});
+        register(6, -1, -1, LOAD0_SI, STORE0_SI, LOAD0_ESI, STORE0_ESI, -1, -1, new int[]{STORE1_SI, STORE1_ESI});
+        register(7, -1, -1, LOAD0_DI, STORE0_DI, LOAD0_EDI, STORE0_EDI, -1, -1, new int[]{STORE1_DI, STORE1_EDI});
+
+        defines[LOAD0_IB] = defines[LOAD0_MEM_BYTE] = 8;
+        defines[LOAD0_IW] = defines[LOAD0_MEM_WORD] = 16;
+        defines[LOAD0_ID] = defines[LOAD0_MEM_DWORD] = 32;
+
+        for(int op : new int[]{INSTRUCTION_START, EIP_UPDATE, LOAD_SEG_ES, LOAD_SEG_CS, LOAD_SEG_SS, LOAD_SEG_DS,
+            LOAD_SEG_FS, LOAD_SEG_GS, LOAD1_AL, LOAD1_CL, LOAD1_DL, LOAD1_BL, LOAD1_AH, LOAD1_CH, LOAD1_DH,
+            LOAD1_BH, LOAD1_AX, LOAD1_CX, LOAD1_DX, LOAD1_BX, LOAD1_SP, LOAD1_BP, LOAD1_SI, LOAD1_DI, LOAD1_EAX,
+            LOAD1_ECX, LOAD1_EDX, LOAD1_EBX, LOAD1_ESP, LOAD1_EBP, LOAD1_ESI, LOAD1_EDI, LOAD1_IB, LOAD1_IW,
+            LOAD1_ID, LOAD2_IB, LOAD1_MEM_BYTE, LOAD1_MEM_WORD, LOAD1_MEM_DWORD, STORE0_MEM_BYTE, STORE0_MEM_WORD,
+            STORE0_MEM_DWORD})
+            keepsRegisters[op] = keepsAddress[op] = true;
+        for(int op : new int[]{MEM_RESET, ADDR_MASK16, ADDR_IB, ADDR_IW, ADDR_ID, ADDR_AX, ADDR_CX, ADDR_DX,
+            ADDR_BX, ADDR_SP, ADDR_BP, ADDR_SI, ADDR_DI, ADDR_EAX, ADDR_ECX, ADDR_EDX, ADDR_EBX, ADDR_ESP,
+            ADDR_EBP, ADDR_ESI, ADDR_EDI})
+            keepsRegisters[op] = true;
+        for(int i = 0; i < MICROCODE_LIMIT; i++)
+            if(load0[i] >= 0 || store0[i] >= 0 || writes[i] >= 0 || defines[i] > 0)
+                keepsAddress[i] = true;
+    }
+
+    private MicrocodeOptimiser()
+    {
+    }
+
+    private static int length(int[] codes, int i)
+    {
+        return hasImmediate(codes[i]) ? 2 : 1;
+    }
+
+    /**
+     * Optimise microcode in place.
+     * @param codes microcodes, immediates following their microcode
+     * @param positions x86 length up to and including the instruction each word belongs to
+     * @param length number of words used
+     * @return new number of words used
+     */
+    static int optimise(int[] codes, int[] positions, int length)
+    {
+        length = foldAddresses(codes, positions, length);
+        length = dropRedundantLoads(codes, positions, length);
+        length = fuse(codes, positions, length);
+        return length;
+    }
+
+    private static int addressStep(int addr, int op, int immediate)
+    {
+        switch(op) {
+        case ADDR_IB: return addr + (byte)immediate;
+        case ADDR_IW: return addr + (short)immediate;
+        case ADDR_ID: return addr + immediate;
+        default: return addr & 0xffff;  //ADDR_MASK16
+        }
+    }
+
+    //Replace runs of immediate address microcodes (and masks, when addr0 is known) by one ADDR_ID.
+    private static int foldAddresses(int[] codes, int[] positions, int length)
+    {
+        //Blocks start with addr0 zero.
+        boolean known = true;
+        int value = 0;
+        int o = 0;
+        for(int i = 0; i < length;) {
+            int op = codes[i];
+            int end = i;
+            int addr = value;
+            int steps = 0;
+            while(end < length && positions[end] == positions[i]) {
+                int step = codes[end];
+                if(step != ADDR_IB && step != ADDR_IW && step != ADDR_ID && (step != ADDR_MASK16 || !known))
+                    break;
+                addr = addressStep(addr, step, (step == ADDR_MASK16) ? 0 : codes[end + 1]);
+                end += length(codes, end);
+                steps++;
+            }
+            if(steps > 0) {
+                boolean shorter = end - i > 2 || (known && addr == value);
+                if(!shorter) {
+                    for(; i < end; i++, o++) {
+                        codes[o] = codes[i];
+                        positions[o] = positions[i];
+                    }
+                } else {
+                    if(addr != value || !known) {
+                        int pos = positions[i];
+                        codes[o] = ADDR_ID;
+                        codes[o + 1] = addr - value;
+                        positions[o] = positions[o + 1] = pos;
+                        o += 2;
+                    } else if((o == 0 || positions[o - 1] != positions[i]) &&
+                        (end == length || positions[end] != positions[i])) {
+                        //Keep the instruction from vanishing; mask of a constant is a no-op anyway.
+                        codes[o] = ADDR_MASK16;
+                        positions[o++] = positions[i];
+                        value &= 0xffff;
+                        addr &= 0xffff;
+                    }
+                    i = end;
+                }
+                value = addr;
+                continue;
+            }
+            if(op == MEM_RESET) {
+                known = true;
+                value = 0;
+            } else if(!keepsAddress[op])
+                known = false;
+            int n = length(codes, i);
+            for(int j = 0; j < n; j++, i++, o++) {
+                codes[o] = codes[i];
+                positions[o] = positions[i];
+            }
+        }
+        return o;
+    }
+
+    //Widths w no wider than the given one for which reg0 == reg0 & mask(w), given reg0 fits bound bits.
+    private static int widthsUpTo(int width, int bound)
+    {
+        int widths = 0;
+        if(bound <= 8 && width >= W8)
+            widths |= W8;
+        if(bound <= 16 && width >= W16)
+            widths |= W16;
+        if(width >= W32)
+            widths |= W32;
+        return widths;
+    }
+
+    //Drop loads of register into reg0 when reg0 already equals the value loaded.
+    private static int dropRedundantLoads(int[] codes, int[] positions, int length)
+    {
+        //Register family reg0 mirrors (-1 for none), and widths of that register it equals.
+        int family = -1;
+        int widths = 0;
+        //Number of low bits reg0 is known to fit in.
+        int bound = 32;
+        int o = 0;
+        for(int i = 0; i < length;) {
+            int op = codes[i];
+            int n = length(codes, i);
+            if(load0[op] >= 0) {
+                int f = load0[op] >> 3;
+                int w = load0[op] & 7;
+                if(f == family && (widths & w) != 0 && ((o > 0 && positions[o - 1] == positions[i]) ||
+                    (i + 1 < length && positions[i + 1] == positions[i]))) {
+                    i++;
+                    continue;
+                }
+                family = f;
+                widths = w;
+                bound = (w == W8) ? 8 : (w == W16) ? 16 : 32;
+            } else if(store0[op] >= 0) {
+                int f = store0[op] >> 3;
+                int w = widthsUpTo(store0[op] & 7, bound);
+                if(f == family)
+                    widths |= w;
+                else {
+                    family = f;
+                    widths = w;
+                }
+                if(widths == 0)
+                    family = -1;
+            } else if(writes[op] >= 0) {
+                if(writes[op] == family)
+                    family = -1;
+            } else if(defines[op] > 0) {
+                family = -1;
+                bound = defines[op];
+            } else if(!keepsRegisters[op]) {
+                family = -1;
+                bound = 32;
+            }
+            for(int j = 0; j < n; j++, i++, o++) {
+                codes[o] = codes[i];
+                positions[o] = positions[i];
+            }
+        }
+        return o;
+    }
+
+    //Fuse frequent pairs within one x86 instruction into superinstructions.
+    private static int fuse(int[] codes, int[] positions, int length)
+    {
+        int o = 0;
+        for(int i = 0; i < length;) {
+            int op = codes[i];
+            int n = length(codes, i);
+            if(i + n < length && positions[i + n] == positions[i]) {
+                int next = codes[i + n];
+                int fused = -1;
+                for(int[] f : fusions)
+                    if(f[0] == op && f[1] == next) {
+                        fused = f[2];
+                        break;
+                    }
+                if(fused >= 0) {
+                    int m = length(codes, i + n);
+                    int pos = positions[i];
+                    codes[o] = fused;
+                    positions[o++] = pos;
+                    //At most one of the pair has an immediate.
+                    if(n == 2 || m == 2) {
+                        codes[o] = (n == 2) ? codes[i + 1] : codes[i + n + 1];
+                        positions[o++] = pos;
+                    }
+                    i += n + m;
+                    continue;
+                }
+            }
+            for(int j = 0; j < n; j++, i++, o++) {
+                codes[o] = codes[i];
+                positions[o] = positions[i];
+            }
+        }
+        return o;
+    }
+}
@@ -913,10 +913,52 @@ public class MicrocodeSet
     //Special
     public static final int INSTRUCTION_START = 754;
 
+    //Superinstructions, only made by MicrocodeOptimiser
+    public static final int ADDR_IB_MASK16 = 755;
+    public static final int ADDR_IW_MASK16 = 756;
+    public static final int LOAD_SEG_SS_ADDR_BP = 757;
+    public static final int LOAD_SEG_DS_ADDR_BX = 758;
+    public static final int ADDR_MASK16_LOAD0_MEM_WORD = 759;
+    public static final int ADDR_MASK16_STORE0_MEM_WORD = 760;
+    public static final int EIP_UPDATE_LOAD0_IB = 761;
+    public static final int EIP_UPDATE_LOAD0_IW = 762;
 
-    public static final int MICROCODE_LIMIT = 755;
+
+    public static final int MICROCODE_LIMIT = 763;
 
     private MicrocodeSet()
     {
     }
+
+    /**
+     * Does the given microcode take the next word as immediate argument?
+     * @param opcode the microcode
+     * @return <code>true</code> if it does
+     */
+    public static boolean hasImmediate(int opcode)
+    {
+        switch(opcode) {
+        case ADDR_IB:
+        case ADDR_IW:
+        case ADDR_ID:
+        case LOAD0_IB:
+        case LOAD0_IW:
+        case LOAD0_ID:
+        case LOAD1_IB:
+        case LOAD1_IW:
+        case LOAD1_ID:
+        case LOAD2_IB:
+        case FLOAD0_STN:
+        case FLOAD1_STN:
+        case FSTORE0_STN:
+        case FSTORE1_STN:
+        case ADDR_IB_MASK16:
+        case ADDR_IW_MASK16:
+        case EIP_UPDATE_LOAD0_IB:
+        case EIP_UPDATE_LOAD0_IW:
+            return true;
+        default:
+            return false;
+        }
+    }
 }
@@ -31,15 +31,17 @@ package org.jpc.emulator.memory.codeblock.optimised;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.Hashtable;
+import java.util.*;
 
-/**Logs frequencies of opcodes and periodically prints the results
+/**Logs frequencies of opcodes and of adjacent opcode pairs and periodically prints the results
  *
  * @author Ian Preston
  */
 public class OpcodeLogger {
 
     int[] opcodeCounts = new int[MicrocodeSet.MICROCODE_LIMIT];
+    //Pair counts, keyed by first * MICROCODE_LIMIT + second.
+    Map<Integer, int[]> pairCounts = new HashMap<Integer, int[]>();
     int count = 0;
     int MAX = 5000000;
     private String name;
@@ -48,29 +50,29 @@ public class OpcodeLogger {
         this.name = name;
     }
 
-    public boolean hasImmediate(int opcode)
-    {
-        if((opcode == 3) | (opcode == 8) | (opcode == 13)
-                | (opcode == 26) | (opcode == 27) | (opcode == 49)
-                | (opcode == 168) | (opcode == 229) | (opcode == 255))
-           return true;
-        else
-           return false;
-    }
-
     public void addBlock(int[] microcodes)
     {
-        boolean IM  = false;
+        int last = -1;
         for(int j=0; j < microcodes.length; j++) {
-            if(!IM) {
-                addOpcode(microcodes[j]);
-                if(hasImmediate(microcodes[j]))
-                    IM = true;
-            } else
-                IM = false;
+            int op = microcodes[j];
+            addOpcode(op);
+            if(last >= 0)
+                addPair(last, op);
+            last = op;
+            if(MicrocodeSet.hasImmediate(op))
+                j++;
         }
     }
 
+    private void addPair(int first, int second)
+    {
+        Integer key = first * MicrocodeSet.MICROCODE_LIMIT + second;
+        int[] c = pairCounts.get(key);
+        if(c == null)
+            pairCounts.put(key, c = new int[1]);
+        c[0]++;
+    }
+
     public void addOpcode(int opcode)
     {
         opcodeCounts[opcode]++;
@@ -88,6 +90,19 @@ public class OpcodeLogger {
         for(int i=0; i < opcodeCounts.length; i++)
             if(opcodeCounts[i] > 0)
                 System.out.println(reflectedNameCache.get(String.valueOf(i)) + ": " + opcodeCounts[i]);
+        List<Map.Entry<Integer, int[]>> pairs = new ArrayList<Map.Entry<Integer, int[]>>(pairCounts.entrySet());
+        Collections.sort(pairs, new Comparator<Map.Entry<Integer, int[]>>() {
+            public int compare(Map.Entry<Integer, int[]> a, Map.Entry<Integer, int[]> b)
+            {
+                return b.getValue()[0] - a.getValue()[0];
+            }
+        });
+        for(int i = 0; i < pairs.size() && i < 50; i++) {
+            int key = pairs.get(i).getKey();
+            System.out.println(reflectedNameCache.get(String.valueOf(key / MicrocodeSet.MICROCODE_LIMIT)) + " " +
+                reflectedNameCache.get(String.valueOf(key % MicrocodeSet.MICROCODE_LIMIT)) + ": " +
+                pairs.get(i).getValue()[0]);
+        }
     }
 
     private static Hashtable<String, String> reflectedNameCache = new Hashtable<String, String>();
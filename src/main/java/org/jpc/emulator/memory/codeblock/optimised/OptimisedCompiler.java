@@ -40,12 +40,23 @@ public class OptimisedCompiler implements CodeBlockCompiler {
     private int bufferOffset;
     private int[] bufferMicrocodes;
     private int[] bufferPositions;
+    private final boolean optimise;
 
     public OptimisedCompiler()
+    {
+        this(true);
+    }
+
+    /**
+     * Constructs a compiler.
+     * @param optimise <code>true</code> to run the decoder output through MicrocodeOptimiser
+     */
+    public OptimisedCompiler(boolean optimise)
     {
         bufferMicrocodes = new int[100];
         bufferPositions = new int[100];
         bufferOffset = 0;
+        this.optimise = optimise;
     }
 
 
@@ -113,5 +124,7 @@ public class OptimisedCompiler implements CodeBlockCompiler {
                 bufferOffset++;
             }
         }
+        if(optimise)
+            bufferOffset = MicrocodeOptimiser.optimise(bufferMicrocodes, bufferPositions, bufferOffset);
     }
 }
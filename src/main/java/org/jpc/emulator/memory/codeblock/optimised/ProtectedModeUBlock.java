@@ -61,7 +61,8 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
     protected int[] cumulativeX86Length;
     private int executeCount;
     private HashMap<Integer, Integer> haltComplained;
-    public static OpcodeLogger opcodeCounter = null;//new OpcodeLogger("PM Stats:");
+    //Debugging aid only; shared by all PCs in the JVM, so keep it off for multi-instance use.
+    public static final OpcodeLogger opcodeCounter = null;//new OpcodeLogger("PM Stats:");
 
     public ProtectedModeUBlock()
     {
@@ -136,6 +137,781 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
     }
 
     private boolean invalidated = false;
+
+    private Segment transferSeg0 = null;
+    private int transferAddr0 = 0;
+    private int transferReg0 = 0, transferReg1 = 0, transferReg2 = 0;
+    private long transferReg0l = 0;
+    private boolean transferEipUpdated = false;
+    private int transferPosition = 0;
+
+    //Microcodes not handled in execute, which is kept small enough for HotSpot to compile.
+    private void fullExecute(Processor cpu)
+    {
+        FpuState fpu = cpu.fpu;
+
+        //recover variables from instance storage
+        Segment seg0 = transferSeg0;
+        int addr0 = transferAddr0;
+        int reg0 = transferReg0, reg1 = transferReg1, reg2 = transferReg2;
+        long reg0l = transferReg0l;
+
+        boolean eipUpdated = transferEipUpdated;
+        int position = transferPosition;
+
+        try {
+            switch(microcodes[position++]) {
+            case UNDEFINED:
+                System.err.println("Emulated: undefined opcode");
+                throw ProcessorException.UNDEFINED;
+
+            case LOAD0_AH: reg0 = (cpu.eax >> 8) & 0xff; break;
+            case LOAD0_CH: reg0 = (cpu.ecx >> 8) & 0xff; break;
+            case LOAD0_DH: reg0 = (cpu.edx >> 8) & 0xff; break;
+            case LOAD0_BH: reg0 = (cpu.ebx >> 8) & 0xff; break;
+
+            case STORE0_AH: cpu.eax = (cpu.eax & ~0xff00) | ((reg0 << 8) & 0xff00); break;
+            case STORE0_CH: cpu.ecx = (cpu.ecx & ~0xff00) | ((reg0 << 8) & 0xff00); break;
+            case STORE0_DH: cpu.edx = (cpu.edx & ~0xff00) | ((reg0 << 8) & 0xff00); break;
+            case STORE0_BH: cpu.ebx = (cpu.ebx & ~0xff00) | ((reg0 << 8) & 0xff00); break;
+
+            case LOAD1_AH: reg1 = (cpu.eax >> 8) & 0xff; break;
+            case LOAD1_CH: reg1 = (cpu.ecx >> 8) & 0xff; break;
+            case LOAD1_DH: reg1 = (cpu.edx >> 8) & 0xff; break;
+            case LOAD1_BH: reg1 = (cpu.ebx >> 8) & 0xff; break;
+
+            case STORE1_AH: cpu.eax = (cpu.eax & ~0xff00) | ((reg1 << 8) & 0xff00); break;
+            case STORE1_CH: cpu.ecx = (cpu.ecx & ~0xff00) | ((reg1 << 8) & 0xff00); break;
+            case STORE1_DH: cpu.edx = (cpu.edx & ~0xff00) | ((reg1 << 8) & 0xff00); break;
+            case STORE1_BH: cpu.ebx = (cpu.ebx & ~0xff00) | ((reg1 << 8) & 0xff00); break;
+
+            case LOAD0_CR0: reg0 = cpu.getCR0(); break;
+            case LOAD0_CR2: reg0 = cpu.getCR2(); break;
+            case LOAD0_CR3: reg0 = cpu.getCR3(); break;
+            case LOAD0_CR4: reg0 = cpu.getCR4(); break;
+
+            case STORE0_CR0: cpu.setCR0(reg0); break;
+            case STORE0_CR2: cpu.setCR2(reg0); break;
+            case STORE0_CR3: cpu.setCR3(reg0); break;
+            case STORE0_CR4: cpu.setCR4(reg0); break;
+
+            case LOAD0_DR0: reg0 = cpu.getDR0(); break;
+            case LOAD0_DR1: reg0 = cpu.getDR1(); break;
+            case LOAD0_DR2: reg0 = cpu.getDR2(); break;
+            case LOAD0_DR3: reg0 = cpu.getDR3(); break;
+            case LOAD0_DR6: reg0 = cpu.getDR6(); break;
+            case LOAD0_DR7: reg0 = cpu.getDR7(); break;
+
+            case STORE0_DR0: cpu.setDR0(reg0); break;
+            case STORE0_DR1: cpu.setDR1(reg0); break;
+            case STORE0_DR2: cpu.setDR2(reg0); break;
+            case STORE0_DR3: cpu.setDR3(reg0); break;
+            case STORE0_DR6: cpu.setDR6(reg0); break;
+            case STORE0_DR7: cpu.setDR7(reg0); break;
+
+            case LOAD0_ES: reg0 = 0xffff & cpu.es.getSelector(); break;
+            case LOAD0_CS: reg0 = 0xffff & cpu.cs.getSelector(); break;
+            case LOAD0_SS: reg0 = 0xffff & cpu.ss.getSelector(); break;
+            case LOAD0_DS: reg0 = 0xffff & cpu.ds.getSelector(); break;
+            case LOAD0_FS: reg0 = 0xffff & cpu.fs.getSelector(); break;
+            case LOAD0_GS: reg0 = 0xffff & cpu.gs.getSelector(); break;
+
+            case STORE0_ES: cpu.es = loadSegment(reg0); break;
+                //case STORE0_CS:
+            case STORE0_SS: {
+                Segment temp = loadSegment(reg0);
+                if(temp == SegmentFactory.NULL_SEGMENT)
+                    throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
+                cpu.ss = temp; cpu.eflagsInterruptEnable = false;
+            } break;
+            case STORE0_DS: cpu.ds = loadSegment(reg0); break;
+            case STORE0_FS: cpu.fs = loadSegment(reg0); break;
+            case STORE0_GS: cpu.gs = loadSegment(reg0); break;
+
+            case STORE1_ES: cpu.es = loadSegment(reg1); break;
+                //case STORE1_CS:
+            case STORE1_SS: {
+                Segment temp = loadSegment(reg1);
+                if(temp == SegmentFactory.NULL_SEGMENT)
+                    throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
+                cpu.ss = temp; cpu.eflagsInterruptEnable = false;
+            } break;
+            case STORE1_DS: cpu.ds = loadSegment(reg1); break;
+            case STORE1_FS: cpu.fs = loadSegment(reg1); break;
+            case STORE1_GS: cpu.gs = loadSegment(reg1); break;
+
+            case STORE0_FLAGS: cpu.setEFlags((cpu.getEFlags() & ~0xffff) | (reg0 & 0xffff)); break;
+            case STORE0_EFLAGS: cpu.setEFlags(reg0); break;
+
+            case LOAD0_FLAGS: reg0 = 0xffff & cpu.getEFlags(); break;
+            case LOAD0_EFLAGS: reg0 = cpu.getEFlags(); break;
+
+            case LOAD2_EAX: reg2 = cpu.eax; break;
+            case LOAD2_AX: reg2 = cpu.eax & 0xffff; break;
+            case LOAD2_AL: reg2 = cpu.eax & 0xff; break;
+            case LOAD2_CL: reg2 = cpu.ecx & 0xffff; break;
+            case LOAD2_IB: reg2 = microcodes[position++] & 0xff; break;
+
+            case MUL_O8: mul_o8(reg0); break;
+            case MUL_O16: mul_o16(reg0); break;
+            case MUL_O32: mul_o32(reg0); break;
+
+            case IMULA_O8: imula_o8((byte)reg0); break;
+            case IMULA_O16: imula_o16((short)reg0); break;
+            case IMULA_O32: imula_o32(reg0); break;
+
+            case IMUL_O16: reg0 = imul_o16((short)reg0, (short)reg1); break;
+            case DIV_O8: div_o8(reg0); break;
+            case DIV_O16: div_o16(reg0); break;
+            case DIV_O32: div_o32(reg0); break;
+
+            case IDIV_O8: idiv_o8((byte)reg0); break;
+            case IDIV_O16: idiv_o16((short)reg0); break;
+            case IDIV_O32: idiv_o32(reg0); break;
+
+            case BSF: reg0 = bsf(reg1, reg0); break;
+            case BSR: reg0 = bsr(reg1, reg0); break;
+
+            case BT_MEM: bt_mem(reg1, seg0, addr0); break;
+            case BTS_MEM: bts_mem(reg1, seg0, addr0); break;
+            case BTR_MEM: btr_mem(reg1, seg0, addr0); break;
+            case BTC_MEM: btc_mem(reg1, seg0, addr0); break;
+
+            case BT_O32:  reg1 &= 0x1f; cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); break;
+            case BT_O16:  reg1 &= 0xf;  cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); break;
+            case BTS_O32: reg1 &= 0x1f; cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 |= (1 << reg1); break;
+            case BTS_O16: reg1 &= 0xf;  cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 |= (1 << reg1); break;
+            case BTR_O32: reg1 &= 0x1f; cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 &= ~(1 << reg1); break;
+            case BTR_O16: reg1 &= 0xf;  cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 &= ~(1 << reg1); break;
+            case BTC_O32: reg1 &= 0x1f; cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 ^= (1 << reg1); break;
+            case BTC_O16: reg1 &= 0xf;  cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 ^= (1 << reg1); break;
+
+            case ROL_O8:  reg2 = reg1 & 0x7;  reg0 = (reg0 << reg2) | (reg0 >>> (8 - reg2));  break;
+            case ROL_O16: reg2 = reg1 & 0xf;  reg0 = (reg0 << reg2) | (reg0 >>> (16 - reg2)); break;
+            case ROR_O8:  reg1 &= 0x7;  reg0 = (reg0 >>> reg1) | (reg0 << (8 - reg1));  break;
+            case ROR_O16: reg1 &= 0xf;  reg0 = (reg0 >>> reg1) | (reg0 << (16 - reg1)); break;
+            case RCL_O8: reg1 &= 0x1f; reg1 %= 9; reg0 |= (cpu.getCarryFlag() ? 0x100 : 0);
+                reg0 = (reg0 << reg1) | (reg0 >>> (9 - reg1)); break;
+            case RCL_O16: reg1 &= 0x1f; reg1 %= 17; reg0 |= (cpu.getCarryFlag() ? 0x10000 : 0);
+                reg0 = (reg0 << reg1) | (reg0 >>> (17 - reg1)); break;
+            case RCL_O32: reg1 &= 0x1f; reg0l = (0xffffffffl & reg0) | (cpu.getCarryFlag() ? 0x100000000l : 0);
+                reg0 = (int)(reg0l = (reg0l << reg1) | (reg0l >>> (33 - reg1))); break;
+
+            case RCR_O8: reg1 &= 0x1f; reg1 %= 9; reg0 |= (cpu.getCarryFlag() ? 0x100 : 0);
+                reg2 = (cpu.getCarryFlag() ^ ((reg0 & 0x80) != 0) ? 1:0);
+                reg0 = (reg0 >>> reg1) | (reg0 << (9 - reg1));
+                break;
+            case RCR_O16: reg1 &= 0x1f; reg1 %= 17;
+                reg2 = (cpu.getCarryFlag() ^ ((reg0 & 0x8000) != 0) ? 1:0);
+                reg0 |= (cpu.getCarryFlag() ? 0x10000 : 0);
+                reg0 = (reg0 >>> reg1) | (reg0 << (17 - reg1));
+                break;
+            case RCR_O32: reg1 &= 0x1f; reg0l = (0xffffffffl & reg0) | (cpu.getCarryFlag() ? 0x100000000L : 0);
+                reg2 = (cpu.getCarryFlag() ^ ((reg0 & 0x80000000) != 0) ? 1:0);
+                reg0 = (int)(reg0l = (reg0l >>> reg1) | (reg0l << (33 - reg1)));
+                break;
+
+            case SAR_O8: reg2 = reg0; reg0 = ((byte)reg0) >> reg1; break;
+            case SAR_O16: reg2 = reg0; reg0 = ((short)reg0) >> reg1; break;
+            case SHLD_O16: {
+                int i = reg0; reg2 &= 0x1f;
+                if(reg2 < 16) {
+                    reg0 = (reg0 << reg2) | (reg1 >>> (16 - reg2));
+                    reg1 = reg2;
+                    reg2 = i;
+                } else {
+                    i = (reg1 & 0xFFFF) | (reg0 << 16);
+                    reg0 = (reg1 << (reg2 - 16)) | ((reg0 & 0xFFFF) >>> (32 - reg2));
+                    reg1 = reg2 - 15;
+                    reg2 = i >> 1;
+                }
+            } break;
+            case SHLD_O32: {
+                int i = reg0; reg2 &= 0x1f;
+                if(reg2 != 0)
+                    reg0 = (reg0 << reg2) | (reg1 >>> (32 - reg2));
+                reg1 = reg2; reg2 = i;
+            } break;
+
+            case SHRD_O16: {
+                int i = reg0; reg2 &= 0x1f;
+                if(reg2 < 16) {
+                    reg0 = (reg0 >>> reg2) | (reg1 << (16 - reg2));
+                    reg1 = reg2;
+                    reg2 = i;
+                } else {
+                    i = (reg0 & 0xFFFF) | (reg1 << 16);
+                    reg0 = (reg1 >>> (reg2 -16)) | (reg0 << (32 - reg2));
+                    reg1 = reg2;
+                    reg2 = i;
+                }
+            } break;
+            case SHRD_O32: {
+                int i = reg0; reg2 &= 0x1f;
+                if(reg2 != 0)
+                    reg0 = (reg0 >>> reg2) | (reg1 << (32 - reg2));
+                reg1 = reg2; reg2 = i;
+            } break;
+
+            case CWD: if((cpu.eax & 0x8000) == 0) cpu.edx &= 0xffff0000; else cpu.edx |= 0x0000ffff; break;
+            case AAA: aaa(); break;
+            case AAD: aad(reg0); break;
+            case AAM: aam(reg0); break;
+            case AAS: aas(); break;
+
+            case DAA: daa(); break;
+            case DAS: das(); break;
+
+            case LAHF: lahf(); break;
+            case SAHF: sahf(); break;
+
+            case CLI:
+                if(cpu.getIOPrivilegeLevel() >= cpu.getCPL()) {
+                    cpu.eflagsInterruptEnable = false;
+                    cpu.eflagsInterruptEnableSoon = false;
+                } else
+                    if((cpu.getIOPrivilegeLevel() < cpu.getCPL()) && (cpu.getCPL() == 3) && ((cpu.getCR4() & 1) != 0)) {
+                        cpu.eflagsInterruptEnableSoon = false;
+                    } else {
+                        System.err.println("Emulated: IOPL=" + cpu.getIOPrivilegeLevel() + ", CPL=" + cpu.getCPL());
+                        throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);
+                    }
+                break;
+            case STI:
+                if(cpu.getIOPrivilegeLevel() >= cpu.getCPL()) {
+                    cpu.eflagsInterruptEnable = true;
+                    cpu.eflagsInterruptEnableSoon = true;
+                } else
+                    if((cpu.getIOPrivilegeLevel() < cpu.getCPL()) && (cpu.getCPL() == 3) && ((cpu.getEFlags() & (1 << 20)) == 0))
+                        cpu.eflagsInterruptEnableSoon = true;
+                    else
+                        throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);
+                break;
+            case SIGN_EXTEND_8_16: reg0 = 0xffff & ((byte)reg0); break;
+            case HALT:
+            if(cpu.getCPL() != 0) {
+                if(haltComplained.containsKey(position - 1))
+                    haltComplained.put(position - 1, haltComplained.get(position - 1) + 1);
+                else
+                    haltComplained.put(position - 1, 1);
+                throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);
+            } else
+                cpu.waitForInterrupt(); break;
+
+            case JO_O16:  jo_o16((short)reg0); break;
+            case JNO_O16: jno_o16((short)reg0); break;
+            case JC_O16:  jc_o16((short)reg0); break;
+            case JNC_O16: jnc_o16((short)reg0); break;
+            case JZ_O16:  jz_o16((short)reg0); break;
+            case JNZ_O16: jnz_o16((short)reg0); break;
+            case JNA_O16: jna_o16((short)reg0); break;
+            case JA_O16:  ja_o16((short)reg0); break;
+            case JS_O16:  js_o16((short)reg0); break;
+            case JNS_O16: jns_o16((short)reg0); break;
+            case JP_O16:  jp_o16((short)reg0); break;
+            case JNP_O16: jnp_o16((short)reg0); break;
+            case JL_O16:  jl_o16((short)reg0); break;
+            case JNL_O16: jnl_o16((short)reg0); break;
+            case JNG_O16: jng_o16((short)reg0); break;
+            case JG_O16:  jg_o16((short)reg0); break;
+
+            case JCXZ: jcxz((byte)reg0); break;
+            case LOOP_CX: loop_cx((byte)reg0); break;
+            case LOOPZ_CX: loopz_cx((byte)reg0); break;
+            case LOOPNZ_CX: loopnz_cx((byte)reg0); break;
+            case JUMP_O16: jump_o16((short)reg0); break;
+            case JUMP_ABS_O16: jump_abs(reg0); break;
+            case JUMP_FAR_O16: jump_far(reg0, reg1); break;
+            case JUMP_FAR_O32: jump_far(reg0, reg1); break;
+
+
+            case CALL_O16:
+                if(cpu.ss.getDefaultSizeFlag())
+                    call_o16_a32(reg0);
+                else
+                    call_o16_a16(reg0);
+                break;
+
+            case CALL_ABS_O16: {
+                if(cpu.ss.getDefaultSizeFlag())
+                    call_abs_o16_a32(reg0);
+                else
+                    call_abs_o16_a16(reg0);
+            } break;
+
+            case CALL_FAR_O16: {
+                if(cpu.ss.getDefaultSizeFlag())
+                    call_far_o16_a32(reg0, reg1);
+                else
+                    call_far_o16_a16(reg0, reg1);
+            } break;
+
+            case CALL_FAR_O32: {
+                if(cpu.ss.getDefaultSizeFlag())
+                    call_far_o32_a32(reg0, reg1);
+                else
+                    call_far_o32_a16(reg0, reg1);
+            } break;
+
+            case RET_O16: {
+                if(cpu.ss.getDefaultSizeFlag())
+                    ret_o16_a32();
+                else
+                    ret_o16_a16();
+            } break;
+
+            case RET_IW_O16: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    ret_iw_o16_a32((short)reg0);
+                else
+                    ret_iw_o16_a16((short)reg0);
+            } break;
+
+            case RET_FAR_O16: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    ret_far_o16_a32(0);
+                else
+                    ret_far_o16_a16(0);
+
+            } break;
+
+            case RET_FAR_O32: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    ret_far_o32_a32(0);
+                else
+                    ret_far_o32_a16(0);
+            } break;
+
+            case RET_FAR_IW_O16: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    ret_far_o16_a32((short)reg0);
+                else
+                    ret_far_o16_a16((short)reg0);
+
+            } break;
+
+            case RET_FAR_IW_O32: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    ret_far_o32_a32((short)reg0);
+                else
+                    ret_far_o32_a16((short)reg0);
+            } break;
+
+
+            case INT_O16:
+                cpu.handleSoftProtectedModeInterrupt(reg0, getInstructionLength(position));
+                break;
+            case INT_O32:
+                cpu.handleSoftProtectedModeInterrupt(reg0, getInstructionLength(position));
+                break;
+            case INT3_O16:
+            case INT3_O32:
+                cpu.handleSoftProtectedModeInterrupt(3, getInstructionLength(position));
+                break;
+            case INTO_O16:
+            case INTO_O32:
+                if (cpu.getOverflowFlag() == true)
+                    cpu.handleSoftProtectedModeInterrupt(4, getInstructionLength(position));
+                break;
+
+            case IRET_O32:
+                if (cpu.ss.getDefaultSizeFlag())
+                    reg0 = iret_o32_a32();
+                else
+                    reg0 = iret_o32_a16();
+            break;
+
+            case IRET_O16:
+                if (cpu.ss.getDefaultSizeFlag())
+                    reg0 = iret_o16_a32();
+                else
+                    reg0 = iret_o16_a16();
+            break;
+
+            case SYSENTER: sysenter(); break;
+            case SYSEXIT: sysexit(reg0, reg1); break;
+
+            case IN_O8:  reg0 = in_o8(reg0); break;
+            case IN_O16: reg0 = in_o16(reg0); break;
+            case IN_O32: reg0 = in_o32(reg0); break;
+
+            case OUT_O8:  out_o8(reg0, reg1); break;
+            case OUT_O16: out_o16(reg0, reg1); break;
+            case OUT_O32: out_o32(reg0, reg1); break;
+
+            case CMOVO:  if (cpu.getOverflowFlag()) reg0 = reg1; break;
+            case CMOVNO: if (!cpu.getOverflowFlag()) reg0 = reg1; break;
+            case CMOVC:  if (cpu.getCarryFlag()) reg0 = reg1; break;
+            case CMOVNC: if (!cpu.getCarryFlag()) reg0 = reg1; break;
+            case CMOVZ:  if (cpu.getZeroFlag()) reg0 = reg1; break;
+            case CMOVNZ: if (!cpu.getZeroFlag()) reg0 = reg1; break;
+            case CMOVNA: if (cpu.getCarryFlag() || cpu.getZeroFlag()) reg0 = reg1; break;
+            case CMOVA:  if ((!cpu.getCarryFlag()) && (!cpu.getZeroFlag())) reg0 = reg1; break;
+            case CMOVS:  if (cpu.getSignFlag()) reg0 = reg1; break;
+            case CMOVNS: if (!cpu.getSignFlag()) reg0 = reg1; break;
+            case CMOVP:  if (cpu.getParityFlag()) reg0 = reg1; break;
+            case CMOVNP: if (!cpu.getParityFlag()) reg0 = reg1; break;
+            case CMOVL:  if (cpu.getSignFlag() != cpu.getOverflowFlag()) reg0 = reg1; break;
+            case CMOVNL: if (cpu.getSignFlag() == cpu.getOverflowFlag()) reg0 = reg1; break;
+            case CMOVNG: if (cpu.getZeroFlag() || (cpu.getSignFlag() != cpu.getOverflowFlag())) reg0 = reg1; break;
+            case CMOVG:  if ((!cpu.getZeroFlag()) && (cpu.getSignFlag() == cpu.getOverflowFlag())) reg0 = reg1; break;
+
+            case SETO:  reg0 = cpu.getOverflowFlag() ? 1 : 0; break;
+            case SETNO: reg0 = cpu.getOverflowFlag() ? 0 : 1; break;
+            case SETC:  reg0 = cpu.getCarryFlag() ? 1 : 0; break;
+            case SETNC: reg0 = cpu.getCarryFlag() ? 0 : 1; break;
+            case SETZ:  reg0 = cpu.getZeroFlag() ? 1 : 0; break;
+            case SETNZ: reg0 = cpu.getZeroFlag() ? 0 : 1; break;
+            case SETNA: reg0 = cpu.getCarryFlag() || cpu.getZeroFlag() ? 1 : 0; break;
+            case SETA:  reg0 = cpu.getCarryFlag() || cpu.getZeroFlag() ? 0 : 1; break;
+            case SETS:  reg0 = cpu.getSignFlag() ? 1 : 0; break;
+            case SETNS: reg0 = cpu.getSignFlag() ? 0 : 1; break;
+            case SETP:  reg0 = cpu.getParityFlag() ? 1 : 0; break;
+            case SETNP: reg0 = cpu.getParityFlag() ? 0 : 1; break;
+            case SETL:  reg0 = cpu.getSignFlag() != cpu.getOverflowFlag() ? 1 : 0; break;
+            case SETNL: reg0 = cpu.getSignFlag() != cpu.getOverflowFlag() ? 0 : 1; break;
+            case SETNG: reg0 = cpu.getZeroFlag() || (cpu.getSignFlag() != cpu.getOverflowFlag()) ? 1 : 0; break;
+            case SETG:  reg0 = cpu.getZeroFlag() || (cpu.getSignFlag() != cpu.getOverflowFlag()) ? 0 : 1; break;
+
+            case SALC: reg0 = cpu.getCarryFlag() ? -1 : 0; break;
+
+            case SMSW: reg0 = cpu.getCR0() & 0xffff; break;
+            case LMSW: if (cpu.getCPL() != 0) throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
+                cpu.setCR0((cpu.getCR0() & ~0xe) | (reg0 & 0xe)); break;
+
+            case CMPXCHG:
+                if (reg2 == reg0) {
+                    reg0 = reg1;
+                    reg1 = reg2;
+                } else
+                    reg1 = reg0;
+                break;
+
+            case CMPXCHG8B: {
+                long edxeax = ((cpu.edx & 0xffffffffL) << 32) | (cpu.eax & 0xffffffffL);
+                if (edxeax == reg0l) {
+                    cpu.setZeroFlag(true);
+                    reg0l = ((cpu.ecx & 0xffffffffL) << 32) | (cpu.ebx & 0xffffffffL);
+                } else {
+                    cpu.setZeroFlag(false);
+                    cpu.edx = (int)(reg0l >> 32);
+                    cpu.eax = (int)reg0l;
+                }
+            } break;
+
+            case BSWAP: reg0 = reverseBytes(reg0); break;
+
+            case ENTER_O32: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    enter_o32_a32(reg0, reg1);
+                else {
+                    System.err.println("Critical error: need enter_o32_a16.");
+                    throw new IllegalStateException("PMODE O32 A16 ENTER is unimplemented");
+                }
+            } break;
+
+            case ENTER_O16: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    enter_o16_a32(reg0, reg1);
+                else
+                    enter_o16_a16(reg0, reg1);
+            } break;
+
+            case LEAVE_O16: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    leave_o16_a32();
+                else
+                    leave_o16_a16();
+            } break;
+
+            case PUSH_O16: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    push_o16_a32((short)reg0);
+                else
+                    push_o16_a16((short)reg0);
+            } break;
+
+            case PUSHF_O32: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    push_o32_a32(~0x30000 & reg0);
+                else
+                    push_o32_a16(~0x30000 & reg0);
+            } break;
+
+            case PUSHF_O16: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    push_o16_a32((short)reg0);
+                else
+                    push_o16_a16((short)reg0);
+            } break;
+
+            case POP_O16: {
+                if (cpu.ss.getDefaultSizeFlag()) {
+                    reg1 = cpu.esp + 2;
+                    if (microcodes[position] == STORE0_SS)
+                        cpu.eflagsInterruptEnable = false;
+                    reg0 = 0xffff & cpu.ss.getWord(cpu.esp);
+                } else {
+                    reg1 = (cpu.esp & ~0xffff) | ((cpu.esp + 2) & 0xffff);
+                    if (microcodes[position] == STORE0_SS)
+                        cpu.eflagsInterruptEnable = false;
+                    reg0 = 0xffff & cpu.ss.getWord(0xffff & cpu.esp);
+                }
+            } break;
+
+            case POPF_O32: {
+                if (cpu.ss.getDefaultSizeFlag()) {
+                    reg0 = cpu.ss.getDoubleWord(cpu.esp);
+                    cpu.esp += 4;
+                } else {
+                    reg0 = cpu.ss.getDoubleWord(0xffff & cpu.esp);
+                    cpu.esp = (cpu.esp & ~0xffff) | ((cpu.esp + 4) & 0xffff);
+                }
+                if (cpu.getCPL() == 0)
+                    reg0 = ((cpu.getEFlags() & 0x20000) | (reg0 & ~(0x20000 | 0x180000)));
+                else {
+                    if (cpu.getCPL() > cpu.eflagsIOPrivilegeLevel)
+                        reg0 = ((cpu.getEFlags() & 0x23200) | (reg0 & ~(0x23200 | 0x180000)));
+                    else
+                        reg0 = ((cpu.getEFlags() & 0x23000) | (reg0 & ~(0x23000 | 0x180000)));
+                }
+            } break;
+
+            case POPF_O16: {
+                if (cpu.ss.getDefaultSizeFlag()) {
+                    reg0 = 0xffff & cpu.ss.getWord(cpu.esp);
+                    cpu.esp += 2;
+                } else {
+                    reg0 = 0xffff & cpu.ss.getWord(0xffff & cpu.esp);
+                    cpu.esp = (cpu.esp & ~0xffff) | ((cpu.esp + 2) & 0xffff);
+                }
+                if (cpu.getCPL() != 0)
+                    if (cpu.getCPL() > cpu.eflagsIOPrivilegeLevel)
+                        reg0 = ((cpu.getEFlags() & 0x3200) | (reg0 & ~0x3200));
+                    else
+                        reg0 = ((cpu.getEFlags() & 0x3000) | (reg0 & ~0x3000));
+            } break;
+
+            case PUSHA:
+                if (cpu.ss.getDefaultSizeFlag())
+                    pusha_a32();
+                else
+                    pusha_a16();
+                    break;
+
+            case PUSHAD:
+                if (cpu.ss.getDefaultSizeFlag())
+                    pushad_a32();
+                else
+                    pushad_a16();
+                    break;
+
+            case POPA: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    popa_a32();
+                else
+                    popa_a16();
+            } break;
+
+            case POPAD: {
+                if (cpu.ss.getDefaultSizeFlag())
+                    popad_a32();
+                else
+                    popad_a16();
+            } break;
+
+            case CMPSB_A32: cmpsb_a32(seg0); break;
+            case CMPSW_A32: cmpsw_a32(seg0); break;
+            case CMPSD_A32: cmpsd_a32(seg0); break;
+            case REPE_CMPSB_A16: repe_cmpsb_a16(seg0); break;
+            case REPE_CMPSB_A32: repe_cmpsb_a32(seg0); break;
+            case REPE_CMPSW_A16: repe_cmpsw_a16(seg0); break;
+            case REPE_CMPSW_A32: repe_cmpsw_a32(seg0); break;
+            case REPE_CMPSD_A16: repe_cmpsd_a16(seg0); break;
+            case REPE_CMPSD_A32: repe_cmpsd_a32(seg0); break;
+            case REPNE_CMPSB_A16: repne_cmpsb_a16(seg0); break;
+            case REPNE_CMPSW_A16: repne_cmpsw_a16(seg0); break;
+            case REPNE_CMPSD_A16: repne_cmpsd_a16(seg0); break;
+            case REPNE_CMPSB_A32: repne_cmpsb_a32(seg0); break;
+            case REPNE_CMPSW_A32: repne_cmpsw_a32(seg0); break;
+            case REPNE_CMPSD_A32: repne_cmpsd_a32(seg0); break;
+
+            case INSB_A32: insb_a32(reg0); break;
+            case INSW_A32: insw_a32(reg0); break;
+            case INSD_A32: insd_a32(reg0); break;
+            case REP_INSB_A32: rep_insb_a32(reg0); break;
+            case REP_INSW_A32: rep_insw_a32(reg0); break;
+            case REP_INSD_A32: rep_insd_a32(reg0); break;
+
+            case LODSB_A16: lodsb_a16(seg0); break;
+            case LODSB_A32: lodsb_a32(seg0); break;
+            case LODSW_A16: lodsw_a16(seg0); break;
+            case LODSW_A32: lodsw_a32(seg0); break;
+            case LODSD_A32: lodsd_a32(seg0); break;
+            case REP_LODSB_A32: rep_lodsb_a32(seg0); break;
+            case REP_LODSW_A32: rep_lodsw_a32(seg0); break;
+            case REP_LODSD_A32: rep_lodsd_a32(seg0); break;
+
+            case MOVSB_A16: movsb_a16(seg0); break;
+            case MOVSW_A16: movsw_a16(seg0); break;
+            case MOVSD_A16: movsd_a16(seg0); break;
+            case REP_MOVSB_A16: rep_movsb_a16(seg0); break;
+            case REP_MOVSW_A16: rep_movsw_a16(seg0); break;
+            case REP_MOVSD_A16: rep_movsd_a16(seg0); break;
+            case MOVSB_A32: movsb_a32(seg0); break;
+            case MOVSW_A32: movsw_a32(seg0); break;
+            case MOVSD_A32: movsd_a32(seg0); break;
+            case REP_MOVSB_A32: rep_movsb_a32(seg0); break;
+            case REP_MOVSW_A32: rep_movsw_a32(seg0); break;
+            case REP_MOVSD_A32: rep_movsd_a32(seg0); break;
+
+            case OUTSB_A16: outsb_a16(reg0, seg0); break;
+            case OUTSW_A16: outsw_a16(reg0, seg0); break;
+            case OUTSD_A16: outsd_a16(reg0, seg0); break;
+            case REP_OUTSB_A16: rep_outsb_a16(reg0, seg0); break;
+            case REP_OUTSW_A16: rep_outsw_a16(reg0, seg0); break;
+            case REP_OUTSD_A16: rep_outsd_a16(reg0, seg0); break;
+            case OUTSB_A32: outsb_a32(reg0, seg0); break;
+            case OUTSW_A32: outsw_a32(reg0, seg0); break;
+            case OUTSD_A32: outsd_a32(reg0, seg0); break;
+            case REP_OUTSB_A32: rep_outsb_a32(reg0, seg0); break;
+            case REP_OUTSW_A32: rep_outsw_a32(reg0, seg0); break;
+            case REP_OUTSD_A32: rep_outsd_a32(reg0, seg0); break;
+
+            case SCASB_A16: scasb_a16(reg0); break;
+            case SCASB_A32: scasb_a32(reg0); break;
+            case SCASW_A32: scasw_a32(reg0); break;
+            case SCASD_A32: scasd_a32(reg0); break;
+            case REPE_SCASB_A16: repe_scasb_a16(reg0); break;
+            case REPE_SCASB_A32: repe_scasb_a32(reg0); break;
+            case REPE_SCASW_A16: repe_scasw_a16(reg0); break;
+            case REPE_SCASW_A32: repe_scasw_a32(reg0); break;
+            case REPE_SCASD_A16: repe_scasd_a16(reg0); break;
+            case REPE_SCASD_A32: repe_scasd_a32(reg0); break;
+            case REPNE_SCASB_A16: repne_scasb_a16(reg0); break;
+            case REPNE_SCASB_A32: repne_scasb_a32(reg0); break;
+            case REPNE_SCASW_A16: repne_scasw_a16(reg0); break;
+            case REPNE_SCASW_A32: repne_scasw_a32(reg0); break;
+            case REPNE_SCASD_A16: repne_scasd_a16(reg0); break;
+            case REPNE_SCASD_A32: repne_scasd_a32(reg0); break;
+
+            case STOSB_A16: stosb_a16(reg0); break;
+            case STOSB_A32: stosb_a32(reg0); break;
+            case STOSW_A16: stosw_a16(reg0); break;
+            case STOSW_A32: stosw_a32(reg0); break;
+            case STOSD_A16: stosd_a16(reg0); break;
+            case STOSD_A32: stosd_a32(reg0); break;
+            case REP_STOSB_A16: rep_stosb_a16(reg0); break;
+            case REP_STOSB_A32: rep_stosb_a32(reg0); break;
+            case REP_STOSW_A16: rep_stosw_a16(reg0); break;
+            case REP_STOSW_A32: rep_stosw_a32(reg0); break;
+            case REP_STOSD_A16: rep_stosd_a16(reg0); break;
+            case REP_STOSD_A32: rep_stosd_a32(reg0); break;
+
+            case LGDT_O16: cpu.gdtr = cpu.createDescriptorTableSegment(reg1 & 0x00ffffff, reg0); break;
+            case LGDT_O32: cpu.gdtr = cpu.createDescriptorTableSegment(reg1, reg0); break;
+            case SGDT_O16: reg1 = cpu.gdtr.getBase() & 0x00ffffff; reg0 = cpu.gdtr.getLimit(); break;
+            case SGDT_O32: reg1 = cpu.gdtr.getBase(); reg0 = cpu.gdtr.getLimit(); break;
+
+            case LIDT_O16: cpu.idtr = cpu.createDescriptorTableSegment(reg1 & 0x00ffffff, reg0); break;
+            case LIDT_O32: cpu.idtr = cpu.createDescriptorTableSegment(reg1, reg0); break;
+            case SIDT_O16: reg1 = cpu.idtr.getBase() & 0x00ffffff; reg0 = cpu.idtr.getLimit(); break;
+            case SIDT_O32: reg1 = cpu.idtr.getBase(); reg0 = cpu.idtr.getLimit(); break;
+
+            case LLDT: cpu.ldtr = lldt(reg0); break;
+            case SLDT: reg0 = 0xffff & cpu.ldtr.getSelector(); break;
+
+            case LTR: cpu.tss = ltr(reg0); break;
+            case STR: reg0 = 0xffff & cpu.tss.getSelector(); break;
+
+            case VERR:
+                try {
+                    Segment test = cpu.getSegment(reg0 & 0xffff);
+                    int type = test.getType();
+                    if (((type & ProtectedModeSegment.DESCRIPTOR_TYPE_CODE_DATA) == 0) || (((type & ProtectedModeSegment.TYPE_CODE_CONFORMING) == 0) && ((cpu.getCPL() > test.getDPL()) || (test.getRPL() > test.getDPL()))))
+                        cpu.setZeroFlag(false);
+                    else
+                        cpu.setZeroFlag(((type & ProtectedModeSegment.TYPE_CODE) == 0) || ((type & ProtectedModeSegment.TYPE_CODE_READABLE) != 0));
+                } catch (ProcessorException e) {
+                    cpu.setZeroFlag(false);
+                } break;
+
+            case VERW:
+                try {
+                    Segment test = cpu.getSegment(reg0 & 0xffff);
+                    int type = test.getType();
+                    if (((type & ProtectedModeSegment.DESCRIPTOR_TYPE_CODE_DATA) == 0) || (((type & ProtectedModeSegment.TYPE_CODE_CONFORMING) == 0) && ((cpu.getCPL() > test.getDPL()) || (test.getRPL() > test.getDPL()))))
+                        cpu.setZeroFlag(false);
+                    else
+                        cpu.setZeroFlag(((type & ProtectedModeSegment.TYPE_CODE) == 0) && ((type & ProtectedModeSegment.TYPE_DATA_WRITABLE) != 0));
+                } catch (ProcessorException e) {
+                    cpu.setZeroFlag(false);
+                } break;
+
+            case CLTS: if (cpu.getCPL() != 0) throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
+                cpu.setCR0(cpu.getCR0() & ~0x8); break;
+
+            case INVLPG: if (cpu.getCPL() != 0) throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
+                cpu.linearMemory.invalidateTLBEntry(seg0.translateAddressRead(addr0)); break;
+
+            case CPUID: cpuid(); break;
+
+            case LAR: reg0 = lar(reg0, reg1);  break;
+            case LSL: reg0 = lsl(reg0, reg1);  break;
+
+            case WRMSR: if (cpu.getCPL() != 0) throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
+                cpu.setMSR(reg0, (reg2 & 0xffffffffl) | ((reg1 & 0xffffffffl) << 32)); break;
+            case RDMSR: if (cpu.getCPL() != 0) throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
+                long msr = cpu.getMSR(reg0); reg0 = (int)msr; reg1 = (int)(msr >>> 32); break;
+
+            case RDTSC: long tsc = rdtsc(); reg0 = (int)tsc; reg1 = (int)(tsc >>> 32); break;
+
+            case CMPXCHG_O8_FLAGS: sub_o8_flags(reg2 - reg1, reg2, reg1); break;
+            case CMPXCHG_O16_FLAGS: sub_o16_flags(reg2 - reg1, reg2, reg1); break;
+            case CMPXCHG_O32_FLAGS: sub_o32_flags((0xffffffffl & reg2) - (0xffffffffl & reg1), reg2, reg1); break;
+
+            case RCL_O8_FLAGS:  rcl_o8_flags(reg0, reg1); break;
+            case RCL_O16_FLAGS: rcl_o16_flags(reg0, reg1); break;
+            case RCL_O32_FLAGS: rcl_o32_flags(reg0l, reg1); break;
+
+            case RCR_O8_FLAGS:  rcr_o8_flags(reg0, reg1, reg2); break;
+            case RCR_O16_FLAGS: rcr_o16_flags(reg0, reg1, reg2); break;
+            case RCR_O32_FLAGS: rcr_o32_flags(reg0l, reg1, reg2); break;
+
+            case CPL_CHECK:
+                if(cpu.getCPL() != 0)
+                    throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);
+                break;
+
+            default:
+                if(!Misc.isFPUOp(microcodes[position - 1])) {
+                    System.err.println("Critical error: Unknown uCode " + microcodes[position - 1] + ".");
+                    throw new IllegalStateException("Unknown uCode P" + microcodes[position - 1]);
+                }
+
+                cpu.useFPU(microcodes[position - 1] == FWAIT);
+                int x = fpu.doFPUOp(microcodes[position - 1], microcodes[position], seg0, addr0, reg0, reg1, reg2,
+                    reg0l);
+                //Handle buffer updates.
+                if((x & 1) != 0) reg0 = fpu.getReg0();
+                if((x & 2) != 0) reg1 = fpu.getReg1();
+                if((x & 4) != 0) reg2 = fpu.getReg2();
+                if((x & 8) != 0) reg0l = fpu.getReg0l();
+                if((x & 16) != 0) position++;
+            }
+        } finally {
+            //copy local variables back to instance storage
+            transferSeg0 = seg0;
+            transferAddr0 = addr0;
+            transferReg0 = reg0;
+            transferReg1 = reg1;
+            transferReg2 = reg2;
+            transferReg0l = reg0l;
+            transferEipUpdated = eipUpdated;
+            transferPosition = position;
+        }
+    }
+
     public int execute(Processor cpu)
     {
                this.fpu = cpu.fpu;
@@ -166,12 +942,30 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     }
                     break;
 
-                case UNDEFINED:
-                    System.err.println("Emulated: undefined opcode");
-                    throw ProcessorException.UNDEFINED;
-
                 case MEM_RESET: addr0 = 0; seg0 = null; break;
 
+                //Superinstructions, see MicrocodeOptimiser
+                case ADDR_IB_MASK16: addr0 = (addr0 + (byte)microcodes[position++]) & 0xffff; break;
+                case ADDR_IW_MASK16: addr0 = (addr0 + (short)microcodes[position++]) & 0xffff; break;
+                case LOAD_SEG_SS_ADDR_BP: seg0 = cpu.ss; addr0 += ((short)cpu.ebp); break;
+                case LOAD_SEG_DS_ADDR_BX: seg0 = cpu.ds; addr0 += ((short)cpu.ebx); break;
+                case ADDR_MASK16_LOAD0_MEM_WORD: addr0 &= 0xffff; reg0 = 0xffff & seg0.getWord(addr0); break;
+                case ADDR_MASK16_STORE0_MEM_WORD: addr0 &= 0xffff; seg0.setWord(addr0, (short)reg0); break;
+                case EIP_UPDATE_LOAD0_IB:
+                    if(!eipUpdated) {
+                        eipUpdated = true;
+                        cpu.eip += cumulativeX86Length[position - 1];
+                    }
+                    reg0 = microcodes[position++] & 0xff;
+                    break;
+                case EIP_UPDATE_LOAD0_IW:
+                    if(!eipUpdated) {
+                        eipUpdated = true;
+                        cpu.eip += cumulativeX86Length[position - 1];
+                    }
+                    reg0 = microcodes[position++] & 0xffff;
+                    break;
+
                 case LOAD0_EAX: reg0 = cpu.eax; break;
                 case LOAD0_ECX: reg0 = cpu.ecx; break;
                 case LOAD0_EDX: reg0 = cpu.edx; break;
@@ -248,99 +1042,18 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                 case LOAD0_CL: reg0 = cpu.ecx & 0xff; break;
                 case LOAD0_DL: reg0 = cpu.edx & 0xff; break;
                 case LOAD0_BL: reg0 = cpu.ebx & 0xff; break;
-                case LOAD0_AH: reg0 = (cpu.eax >> 8) & 0xff; break;
-                case LOAD0_CH: reg0 = (cpu.ecx >> 8) & 0xff; break;
-                case LOAD0_DH: reg0 = (cpu.edx >> 8) & 0xff; break;
-                case LOAD0_BH: reg0 = (cpu.ebx >> 8) & 0xff; break;
-
                 case STORE0_AL: cpu.eax = (cpu.eax & ~0xff) | (reg0 & 0xff); break;
                 case STORE0_CL: cpu.ecx = (cpu.ecx & ~0xff) | (reg0 & 0xff); break;
                 case STORE0_DL: cpu.edx = (cpu.edx & ~0xff) | (reg0 & 0xff); break;
                 case STORE0_BL: cpu.ebx = (cpu.ebx & ~0xff) | (reg0 & 0xff); break;
-                case STORE0_AH: cpu.eax = (cpu.eax & ~0xff00) | ((reg0 << 8) & 0xff00); break;
-                case STORE0_CH: cpu.ecx = (cpu.ecx & ~0xff00) | ((reg0 << 8) & 0xff00); break;
-                case STORE0_DH: cpu.edx = (cpu.edx & ~0xff00) | ((reg0 << 8) & 0xff00); break;
-                case STORE0_BH: cpu.ebx = (cpu.ebx & ~0xff00) | ((reg0 << 8) & 0xff00); break;
-
                 case LOAD1_AL: reg1 = cpu.eax & 0xff; break;
                 case LOAD1_CL: reg1 = cpu.ecx & 0xff; break;
                 case LOAD1_DL: reg1 = cpu.edx & 0xff; break;
                 case LOAD1_BL: reg1 = cpu.ebx & 0xff; break;
-                case LOAD1_AH: reg1 = (cpu.eax >> 8) & 0xff; break;
-                case LOAD1_CH: reg1 = (cpu.ecx >> 8) & 0xff; break;
-                case LOAD1_DH: reg1 = (cpu.edx >> 8) & 0xff; break;
-                case LOAD1_BH: reg1 = (cpu.ebx >> 8) & 0xff; break;
-
                 case STORE1_AL: cpu.eax = (cpu.eax & ~0xff) | (reg1 & 0xff); break;
                 case STORE1_CL: cpu.ecx = (cpu.ecx & ~0xff) | (reg1 & 0xff); break;
                 case STORE1_DL: cpu.edx = (cpu.edx & ~0xff) | (reg1 & 0xff); break;
                 case STORE1_BL: cpu.ebx = (cpu.ebx & ~0xff) | (reg1 & 0xff); break;
-                case STORE1_AH: cpu.eax = (cpu.eax & ~0xff00) | ((reg1 << 8) & 0xff00); break;
-                case STORE1_CH: cpu.ecx = (cpu.ecx & ~0xff00) | ((reg1 << 8) & 0xff00); break;
-                case STORE1_DH: cpu.edx = (cpu.edx & ~0xff00) | ((reg1 << 8) & 0xff00); break;
-                case STORE1_BH: cpu.ebx = (cpu.ebx & ~0xff00) | ((reg1 << 8) & 0xff00); break;
-
-                case LOAD0_CR0: reg0 = cpu.getCR0(); break;
-                case LOAD0_CR2: reg0 = cpu.getCR2(); break;
-                case LOAD0_CR3: reg0 = cpu.getCR3(); break;
-                case LOAD0_CR4: reg0 = cpu.getCR4(); break;
-
-                case STORE0_CR0: cpu.setCR0(reg0); break;
-                case STORE0_CR2: cpu.setCR2(reg0); break;
-                case STORE0_CR3: cpu.setCR3(reg0); break;
-                case STORE0_CR4: cpu.setCR4(reg0); break;
-
-                case LOAD0_DR0: reg0 = cpu.getDR0(); break;
-                case LOAD0_DR1: reg0 = cpu.getDR1(); break;
-                case LOAD0_DR2: reg0 = cpu.getDR2(); break;
-                case LOAD0_DR3: reg0 = cpu.getDR3(); break;
-                case LOAD0_DR6: reg0 = cpu.getDR6(); break;
-                case LOAD0_DR7: reg0 = cpu.getDR7(); break;
-
-                case STORE0_DR0: cpu.setDR0(reg0); break;
-                case STORE0_DR1: cpu.setDR1(reg0); break;
-                case STORE0_DR2: cpu.setDR2(reg0); break;
-                case STORE0_DR3: cpu.setDR3(reg0); break;
-                case STORE0_DR6: cpu.setDR6(reg0); break;
-                case STORE0_DR7: cpu.setDR7(reg0); break;
-
-                case LOAD0_ES: reg0 = 0xffff & cpu.es.getSelector(); break;
-                case LOAD0_CS: reg0 = 0xffff & cpu.cs.getSelector(); break;
-                case LOAD0_SS: reg0 = 0xffff & cpu.ss.getSelector(); break;
-                case LOAD0_DS: reg0 = 0xffff & cpu.ds.getSelector(); break;
-                case LOAD0_FS: reg0 = 0xffff & cpu.fs.getSelector(); break;
-                case LOAD0_GS: reg0 = 0xffff & cpu.gs.getSelector(); break;
-
-                case STORE0_ES: cpu.es = loadSegment(reg0); break;
-                    //case STORE0_CS:
-                case STORE0_SS: {
-                    Segment temp = loadSegment(reg0);
-                    if(temp == SegmentFactory.NULL_SEGMENT)
-                        throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
-                    cpu.ss = temp; cpu.eflagsInterruptEnable = false;
-                } break;
-                case STORE0_DS: cpu.ds = loadSegment(reg0); break;
-                case STORE0_FS: cpu.fs = loadSegment(reg0); break;
-                case STORE0_GS: cpu.gs = loadSegment(reg0); break;
-
-                case STORE1_ES: cpu.es = loadSegment(reg1); break;
-                    //case STORE1_CS:
-                case STORE1_SS: {
-                    Segment temp = loadSegment(reg1);
-                    if(temp == SegmentFactory.NULL_SEGMENT)
-                        throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
-                    cpu.ss = temp; cpu.eflagsInterruptEnable = false;
-                } break;
-                case STORE1_DS: cpu.ds = loadSegment(reg1); break;
-                case STORE1_FS: cpu.fs = loadSegment(reg1); break;
-                case STORE1_GS: cpu.gs = loadSegment(reg1); break;
-
-                case STORE0_FLAGS: cpu.setEFlags((cpu.getEFlags() & ~0xffff) | (reg0 & 0xffff)); break;
-                case STORE0_EFLAGS: cpu.setEFlags(reg0); break;
-
-                case LOAD0_FLAGS: reg0 = 0xffff & cpu.getEFlags(); break;
-                case LOAD0_EFLAGS: reg0 = cpu.getEFlags(); break;
-
                 case LOAD0_IB: reg0 = microcodes[position++] & 0xff; break;
                 case LOAD0_IW: reg0 = microcodes[position++] & 0xffff; break;
                 case LOAD0_ID: reg0 = microcodes[position++]; break;
@@ -349,12 +1062,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                 case LOAD1_IW: reg1 = microcodes[position++] & 0xffff; break;
                 case LOAD1_ID: reg1 = microcodes[position++]; break;
 
-                case LOAD2_EAX: reg2 = cpu.eax; break;
-                case LOAD2_AX: reg2 = cpu.eax & 0xffff; break;
-                case LOAD2_AL: reg2 = cpu.eax & 0xff; break;
-                case LOAD2_CL: reg2 = cpu.ecx & 0xffff; break;
-                case LOAD2_IB: reg2 = microcodes[position++] & 0xff; break;
-
                 case LOAD_SEG_ES: seg0 = cpu.es; break;
                 case LOAD_SEG_CS: seg0 = cpu.cs; break;
                 case LOAD_SEG_SS: seg0 = cpu.ss; break;
@@ -451,176 +1158,30 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                 case ADC: reg2 = reg0; reg0 = reg2 + reg1 + (cpu.getCarryFlag() ? 1 : 0); break;
                 case NEG: reg0 = -reg0; break;
 
-                case MUL_O8: mul_o8(reg0); break;
-                case MUL_O16: mul_o16(reg0); break;
-                case MUL_O32: mul_o32(reg0); break;
-
-                case IMULA_O8: imula_o8((byte)reg0); break;
-                case IMULA_O16: imula_o16((short)reg0); break;
-                case IMULA_O32: imula_o32(reg0); break;
-
-                case IMUL_O16: reg0 = imul_o16((short)reg0, (short)reg1); break;
                 case IMUL_O32: reg0 = imul_o32(reg0, reg1); break;
 
-                case DIV_O8: div_o8(reg0); break;
-                case DIV_O16: div_o16(reg0); break;
-                case DIV_O32: div_o32(reg0); break;
-
-                case IDIV_O8: idiv_o8((byte)reg0); break;
-                case IDIV_O16: idiv_o16((short)reg0); break;
-                case IDIV_O32: idiv_o32(reg0); break;
-
-                case BSF: reg0 = bsf(reg1, reg0); break;
-                case BSR: reg0 = bsr(reg1, reg0); break;
-
-                case BT_MEM: bt_mem(reg1, seg0, addr0); break;
-                case BTS_MEM: bts_mem(reg1, seg0, addr0); break;
-                case BTR_MEM: btr_mem(reg1, seg0, addr0); break;
-                case BTC_MEM: btc_mem(reg1, seg0, addr0); break;
-
-                case BT_O32:  reg1 &= 0x1f; cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); break;
-                case BT_O16:  reg1 &= 0xf;  cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); break;
-                case BTS_O32: reg1 &= 0x1f; cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 |= (1 << reg1); break;
-                case BTS_O16: reg1 &= 0xf;  cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 |= (1 << reg1); break;
-                case BTR_O32: reg1 &= 0x1f; cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 &= ~(1 << reg1); break;
-                case BTR_O16: reg1 &= 0xf;  cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 &= ~(1 << reg1); break;
-                case BTC_O32: reg1 &= 0x1f; cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 ^= (1 << reg1); break;
-                case BTC_O16: reg1 &= 0xf;  cpu.setCarryFlag(reg0, reg1, Processor.CY_NTH_BIT_SET); reg0 ^= (1 << reg1); break;
-
-                case ROL_O8:  reg2 = reg1 & 0x7;  reg0 = (reg0 << reg2) | (reg0 >>> (8 - reg2));  break;
-                case ROL_O16: reg2 = reg1 & 0xf;  reg0 = (reg0 << reg2) | (reg0 >>> (16 - reg2)); break;
                 case ROL_O32: reg1 &= 0x1f; reg0 = (reg0 << reg1) | (reg0 >>> (32 - reg1)); break;
 
-                case ROR_O8:  reg1 &= 0x7;  reg0 = (reg0 >>> reg1) | (reg0 << (8 - reg1));  break;
-                case ROR_O16: reg1 &= 0xf;  reg0 = (reg0 >>> reg1) | (reg0 << (16 - reg1)); break;
                 case ROR_O32: reg1 &= 0x1f; reg0 = (reg0 >>> reg1) | (reg0 << (32 - reg1)); break;
 
-                case RCL_O8: reg1 &= 0x1f; reg1 %= 9; reg0 |= (cpu.getCarryFlag() ? 0x100 : 0);
-                    reg0 = (reg0 << reg1) | (reg0 >>> (9 - reg1)); break;
-                case RCL_O16: reg1 &= 0x1f; reg1 %= 17; reg0 |= (cpu.getCarryFlag() ? 0x10000 : 0);
-                    reg0 = (reg0 << reg1) | (reg0 >>> (17 - reg1)); break;
-                case RCL_O32: reg1 &= 0x1f; reg0l = (0xffffffffl & reg0) | (cpu.getCarryFlag() ? 0x100000000l : 0);
-                    reg0 = (int)(reg0l = (reg0l << reg1) | (reg0l >>> (33 - reg1))); break;
-
-                case RCR_O8: reg1 &= 0x1f; reg1 %= 9; reg0 |= (cpu.getCarryFlag() ? 0x100 : 0);
-                    reg2 = (cpu.getCarryFlag() ^ ((reg0 & 0x80) != 0) ? 1:0);
-                    reg0 = (reg0 >>> reg1) | (reg0 << (9 - reg1));
-                    break;
-                case RCR_O16: reg1 &= 0x1f; reg1 %= 17;
-                    reg2 = (cpu.getCarryFlag() ^ ((reg0 & 0x8000) != 0) ? 1:0);
-                    reg0 |= (cpu.getCarryFlag() ? 0x10000 : 0);
-                    reg0 = (reg0 >>> reg1) | (reg0 << (17 - reg1));
-                    break;
-                case RCR_O32: reg1 &= 0x1f; reg0l = (0xffffffffl & reg0) | (cpu.getCarryFlag() ? 0x100000000L : 0);
-                    reg2 = (cpu.getCarryFlag() ^ ((reg0 & 0x80000000) != 0) ? 1:0);
-                    reg0 = (int)(reg0l = (reg0l >>> reg1) | (reg0l << (33 - reg1)));
-                    break;
-
                 case SHL: reg2 = reg0; reg0 <<= reg1; break;
                 case SHR: reg2 = reg0; reg0 >>>= reg1; break;
-                case SAR_O8: reg2 = reg0; reg0 = ((byte)reg0) >> reg1; break;
-                case SAR_O16: reg2 = reg0; reg0 = ((short)reg0) >> reg1; break;
                 case SAR_O32: reg2 = reg0; reg0 >>= reg1; break;
 
-                case SHLD_O16: {
-                    int i = reg0; reg2 &= 0x1f;
-                    if(reg2 < 16) {
-                        reg0 = (reg0 << reg2) | (reg1 >>> (16 - reg2));
-                        reg1 = reg2;
-                        reg2 = i;
-                    } else {
-                        i = (reg1 & 0xFFFF) | (reg0 << 16);
-                        reg0 = (reg1 << (reg2 - 16)) | ((reg0 & 0xFFFF) >>> (32 - reg2));
-                        reg1 = reg2 - 15;
-                        reg2 = i >> 1;
-                    }
-                } break;
-                case SHLD_O32: {
-                    int i = reg0; reg2 &= 0x1f;
-                    if(reg2 != 0)
-                        reg0 = (reg0 << reg2) | (reg1 >>> (32 - reg2));
-                    reg1 = reg2; reg2 = i;
-                } break;
-
-                case SHRD_O16: {
-                    int i = reg0; reg2 &= 0x1f;
-                    if(reg2 < 16) {
-                        reg0 = (reg0 >>> reg2) | (reg1 << (16 - reg2));
-                        reg1 = reg2;
-                        reg2 = i;
-                    } else {
-                        i = (reg0 & 0xFFFF) | (reg1 << 16);
-                        reg0 = (reg1 >>> (reg2 -16)) | (reg0 << (32 - reg2));
-                        reg1 = reg2;
-                        reg2 = i;
-                    }
-                } break;
-                case SHRD_O32: {
-                    int i = reg0; reg2 &= 0x1f;
-                    if(reg2 != 0)
-                        reg0 = (reg0 >>> reg2) | (reg1 << (32 - reg2));
-                    reg1 = reg2; reg2 = i;
-                } break;
-
-                case CWD: if((cpu.eax & 0x8000) == 0) cpu.edx &= 0xffff0000; else cpu.edx |= 0x0000ffff; break;
                 case CDQ: if((cpu.eax & 0x80000000) == 0) cpu.edx = 0; else cpu.edx = -1; break;
 
-                case AAA: aaa(); break;
-                case AAD: aad(reg0); break;
-                case AAM: aam(reg0); break;
-                case AAS: aas(); break;
-
-                case DAA: daa(); break;
-                case DAS: das(); break;
-
-                case LAHF: lahf(); break;
-                case SAHF: sahf(); break;
-
                 case CLC: cpu.setCarryFlag(false); break;
                 case STC: cpu.setCarryFlag(true); break;
-                case CLI:
-                    if(cpu.getIOPrivilegeLevel() >= cpu.getCPL()) {
-                        cpu.eflagsInterruptEnable = false;
-                        cpu.eflagsInterruptEnableSoon = false;
-                    } else
-                        if((cpu.getIOPrivilegeLevel() < cpu.getCPL()) && (cpu.getCPL() == 3) && ((cpu.getCR4() & 1) != 0)) {
-                            cpu.eflagsInterruptEnableSoon = false;
-                        } else {
-                            System.err.println("Emulated: IOPL=" + cpu.getIOPrivilegeLevel() + ", CPL=" + cpu.getCPL());
-                            throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);
-                        }
-                    break;
-                case STI:
-                    if(cpu.getIOPrivilegeLevel() >= cpu.getCPL()) {
-                        cpu.eflagsInterruptEnable = true;
-                        cpu.eflagsInterruptEnableSoon = true;
-                    } else
-                        if((cpu.getIOPrivilegeLevel() < cpu.getCPL()) && (cpu.getCPL() == 3) && ((cpu.getEFlags() & (1 << 20)) == 0))
-                            cpu.eflagsInterruptEnableSoon = true;
-                        else
-                            throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);
-                    break;
                 case CLD: cpu.eflagsDirection = false; break;
                 case STD: cpu.eflagsDirection = true; break;
                 case CMC: cpu.setCarryFlag(!cpu.getCarryFlag()); break;
 
-                case SIGN_EXTEND_8_16: reg0 = 0xffff & ((byte)reg0); break;
                 case SIGN_EXTEND_8_32: reg0 = (byte)reg0; break;
                 case SIGN_EXTEND_16_32: reg0 = (short)reg0; break;
 
                 case INC: reg0++; break;
                 case DEC: reg0--; break;
 
-                case HALT:
-                if(cpu.getCPL() != 0) {
-                    if(haltComplained.containsKey(position - 1))
-                        haltComplained.put(position - 1, haltComplained.get(position - 1) + 1);
-                    else
-                        haltComplained.put(position - 1, 1);
-                    throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);
-                } else
-                    cpu.waitForInterrupt(); break;
-
                 case JO_O8:  jo_o8((byte)reg0); break;
                 case JNO_O8: jno_o8((byte)reg0); break;
                 case JC_O8:  jc_o8((byte)reg0); break;
@@ -638,23 +1199,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                 case JNG_O8: jng_o8((byte)reg0); break;
                 case JG_O8:  jg_o8((byte)reg0); break;
 
-                case JO_O16:  jo_o16((short)reg0); break;
-                case JNO_O16: jno_o16((short)reg0); break;
-                case JC_O16:  jc_o16((short)reg0); break;
-                case JNC_O16: jnc_o16((short)reg0); break;
-                case JZ_O16:  jz_o16((short)reg0); break;
-                case JNZ_O16: jnz_o16((short)reg0); break;
-                case JNA_O16: jna_o16((short)reg0); break;
-                case JA_O16:  ja_o16((short)reg0); break;
-                case JS_O16:  js_o16((short)reg0); break;
-                case JNS_O16: jns_o16((short)reg0); break;
-                case JP_O16:  jp_o16((short)reg0); break;
-                case JNP_O16: jnp_o16((short)reg0); break;
-                case JL_O16:  jl_o16((short)reg0); break;
-                case JNL_O16: jnl_o16((short)reg0); break;
-                case JNG_O16: jng_o16((short)reg0); break;
-                case JG_O16:  jg_o16((short)reg0); break;
-
                 case JO_O32:  jo_o32(reg0); break;
                 case JNO_O32: jno_o32(reg0); break;
                 case JC_O32:  jc_o32(reg0); break;
@@ -672,34 +1216,17 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                 case JNG_O32: jng_o32(reg0); break;
                 case JG_O32:  jg_o32(reg0); break;
 
-                case JCXZ: jcxz((byte)reg0); break;
                 case JECXZ: jecxz((byte)reg0); break;
 
-                case LOOP_CX: loop_cx((byte)reg0); break;
                 case LOOP_ECX: loop_ecx((byte)reg0); break;
-                case LOOPZ_CX: loopz_cx((byte)reg0); break;
                 case LOOPZ_ECX: loopz_ecx((byte)reg0); break;
-                case LOOPNZ_CX: loopnz_cx((byte)reg0); break;
                 case LOOPNZ_ECX: loopnz_ecx((byte)reg0); break;
 
                 case JUMP_O8:  jump_o8((byte)reg0); break;
-                case JUMP_O16: jump_o16((short)reg0); break;
                 case JUMP_O32: jump_o32(reg0); break;
 
-                case JUMP_ABS_O16: jump_abs(reg0); break;
                 case JUMP_ABS_O32: jump_abs(reg0); break;
 
-                case JUMP_FAR_O16: jump_far(reg0, reg1); break;
-                case JUMP_FAR_O32: jump_far(reg0, reg1); break;
-
-
-                case CALL_O16:
-                    if(cpu.ss.getDefaultSizeFlag())
-                        call_o16_a32(reg0);
-                    else
-                        call_o16_a16(reg0);
-                    break;
-
                 case CALL_O32:
                     if(cpu.ss.getDefaultSizeFlag())
                         call_o32_a32(reg0);
@@ -707,13 +1234,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                         call_o32_a16(reg0);
                     break;
 
-                case CALL_ABS_O16: {
-                    if(cpu.ss.getDefaultSizeFlag())
-                        call_abs_o16_a32(reg0);
-                    else
-                        call_abs_o16_a16(reg0);
-                } break;
-
                 case CALL_ABS_O32: {
                     if(cpu.ss.getDefaultSizeFlag())
                         call_abs_o32_a32(reg0);
@@ -721,27 +1241,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                         call_abs_o32_a16(reg0);
                 } break;
 
-                case CALL_FAR_O16: {
-                    if(cpu.ss.getDefaultSizeFlag())
-                        call_far_o16_a32(reg0, reg1);
-                    else
-                        call_far_o16_a16(reg0, reg1);
-                } break;
-
-                case CALL_FAR_O32: {
-                    if(cpu.ss.getDefaultSizeFlag())
-                        call_far_o32_a32(reg0, reg1);
-                    else
-                        call_far_o32_a16(reg0, reg1);
-                } break;
-
-                case RET_O16: {
-                    if(cpu.ss.getDefaultSizeFlag())
-                        ret_o16_a32();
-                    else
-                        ret_o16_a16();
-                } break;
-
                 case RET_O32: {
                     if (cpu.ss.getDefaultSizeFlag())
                         ret_o32_a32();
@@ -749,13 +1248,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                         ret_o32_a16();
                 } break;
 
-                case RET_IW_O16: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        ret_iw_o16_a32((short)reg0);
-                    else
-                        ret_iw_o16_a16((short)reg0);
-                } break;
-
                 case RET_IW_O32: {
                     if (cpu.ss.getDefaultSizeFlag())
                         ret_iw_o32_a32((short)reg0);
@@ -763,156 +1255,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                         ret_iw_o32_a16((short)reg0);
                 } break;
 
-                case RET_FAR_O16: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        ret_far_o16_a32(0);
-                    else
-                        ret_far_o16_a16(0);
-
-                } break;
-
-                case RET_FAR_O32: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        ret_far_o32_a32(0);
-                    else
-                        ret_far_o32_a16(0);
-                } break;
-
-                case RET_FAR_IW_O16: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        ret_far_o16_a32((short)reg0);
-                    else
-                        ret_far_o16_a16((short)reg0);
-
-                } break;
-
-                case RET_FAR_IW_O32: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        ret_far_o32_a32((short)reg0);
-                    else
-                        ret_far_o32_a16((short)reg0);
-                } break;
-
-
-                case INT_O16:
-                    cpu.handleSoftProtectedModeInterrupt(reg0, getInstructionLength(position));
-                    break;
-                case INT_O32:
-                    cpu.handleSoftProtectedModeInterrupt(reg0, getInstructionLength(position));
-                    break;
-                case INT3_O16:
-                case INT3_O32:
-                    cpu.handleSoftProtectedModeInterrupt(3, getInstructionLength(position));
-                    break;
-                case INTO_O16:
-                case INTO_O32:
-                    if (cpu.getOverflowFlag() == true)
-                        cpu.handleSoftProtectedModeInterrupt(4, getInstructionLength(position));
-                    break;
-
-                case IRET_O32:
-                    if (cpu.ss.getDefaultSizeFlag())
-                        reg0 = iret_o32_a32();
-                    else
-                        reg0 = iret_o32_a16();
-                break;
-
-                case IRET_O16:
-                    if (cpu.ss.getDefaultSizeFlag())
-                        reg0 = iret_o16_a32();
-                    else
-                        reg0 = iret_o16_a16();
-                break;
-
-                case SYSENTER: sysenter(); break;
-                case SYSEXIT: sysexit(reg0, reg1); break;
-
-                case IN_O8:  reg0 = in_o8(reg0); break;
-                case IN_O16: reg0 = in_o16(reg0); break;
-                case IN_O32: reg0 = in_o32(reg0); break;
-
-                case OUT_O8:  out_o8(reg0, reg1); break;
-                case OUT_O16: out_o16(reg0, reg1); break;
-                case OUT_O32: out_o32(reg0, reg1); break;
-
-                case CMOVO:  if (cpu.getOverflowFlag()) reg0 = reg1; break;
-                case CMOVNO: if (!cpu.getOverflowFlag()) reg0 = reg1; break;
-                case CMOVC:  if (cpu.getCarryFlag()) reg0 = reg1; break;
-                case CMOVNC: if (!cpu.getCarryFlag()) reg0 = reg1; break;
-                case CMOVZ:  if (cpu.getZeroFlag()) reg0 = reg1; break;
-                case CMOVNZ: if (!cpu.getZeroFlag()) reg0 = reg1; break;
-                case CMOVNA: if (cpu.getCarryFlag() || cpu.getZeroFlag()) reg0 = reg1; break;
-                case CMOVA:  if ((!cpu.getCarryFlag()) && (!cpu.getZeroFlag())) reg0 = reg1; break;
-                case CMOVS:  if (cpu.getSignFlag()) reg0 = reg1; break;
-                case CMOVNS: if (!cpu.getSignFlag()) reg0 = reg1; break;
-                case CMOVP:  if (cpu.getParityFlag()) reg0 = reg1; break;
-                case CMOVNP: if (!cpu.getParityFlag()) reg0 = reg1; break;
-                case CMOVL:  if (cpu.getSignFlag() != cpu.getOverflowFlag()) reg0 = reg1; break;
-                case CMOVNL: if (cpu.getSignFlag() == cpu.getOverflowFlag()) reg0 = reg1; break;
-                case CMOVNG: if (cpu.getZeroFlag() || (cpu.getSignFlag() != cpu.getOverflowFlag())) reg0 = reg1; break;
-                case CMOVG:  if ((!cpu.getZeroFlag()) && (cpu.getSignFlag() == cpu.getOverflowFlag())) reg0 = reg1; break;
-
-                case SETO:  reg0 = cpu.getOverflowFlag() ? 1 : 0; break;
-                case SETNO: reg0 = cpu.getOverflowFlag() ? 0 : 1; break;
-                case SETC:  reg0 = cpu.getCarryFlag() ? 1 : 0; break;
-                case SETNC: reg0 = cpu.getCarryFlag() ? 0 : 1; break;
-                case SETZ:  reg0 = cpu.getZeroFlag() ? 1 : 0; break;
-                case SETNZ: reg0 = cpu.getZeroFlag() ? 0 : 1; break;
-                case SETNA: reg0 = cpu.getCarryFlag() || cpu.getZeroFlag() ? 1 : 0; break;
-                case SETA:  reg0 = cpu.getCarryFlag() || cpu.getZeroFlag() ? 0 : 1; break;
-                case SETS:  reg0 = cpu.getSignFlag() ? 1 : 0; break;
-                case SETNS: reg0 = cpu.getSignFlag() ? 0 : 1; break;
-                case SETP:  reg0 = cpu.getParityFlag() ? 1 : 0; break;
-                case SETNP: reg0 = cpu.getParityFlag() ? 0 : 1; break;
-                case SETL:  reg0 = cpu.getSignFlag() != cpu.getOverflowFlag() ? 1 : 0; break;
-                case SETNL: reg0 = cpu.getSignFlag() != cpu.getOverflowFlag() ? 0 : 1; break;
-                case SETNG: reg0 = cpu.getZeroFlag() || (cpu.getSignFlag() != cpu.getOverflowFlag()) ? 1 : 0; break;
-                case SETG:  reg0 = cpu.getZeroFlag() || (cpu.getSignFlag() != cpu.getOverflowFlag()) ? 0 : 1; break;
-
-                case SALC: reg0 = cpu.getCarryFlag() ? -1 : 0; break;
-
-                case SMSW: reg0 = cpu.getCR0() & 0xffff; break;
-                case LMSW: if (cpu.getCPL() != 0) throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
-                    cpu.setCR0((cpu.getCR0() & ~0xe) | (reg0 & 0xe)); break;
-
-                case CMPXCHG:
-                    if (reg2 == reg0) {
-                        reg0 = reg1;
-                        reg1 = reg2;
-                    } else
-                        reg1 = reg0;
-                    break;
-
-                case CMPXCHG8B: {
-                    long edxeax = ((cpu.edx & 0xffffffffL) << 32) | (cpu.eax & 0xffffffffL);
-                    if (edxeax == reg0l) {
-                        cpu.setZeroFlag(true);
-                        reg0l = ((cpu.ecx & 0xffffffffL) << 32) | (cpu.ebx & 0xffffffffL);
-                    } else {
-                        cpu.setZeroFlag(false);
-                        cpu.edx = (int)(reg0l >> 32);
-                        cpu.eax = (int)reg0l;
-                    }
-                } break;
-
-                case BSWAP: reg0 = reverseBytes(reg0); break;
-
-                case ENTER_O32: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        enter_o32_a32(reg0, reg1);
-                    else {
-                        System.err.println("Critical error: need enter_o32_a16.");
-                        throw new IllegalStateException("PMODE O32 A16 ENTER is unimplemented");
-                    }
-                } break;
-
-                case ENTER_O16: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        enter_o16_a32(reg0, reg1);
-                    else
-                        enter_o16_a16(reg0, reg1);
-                } break;
-
                 case LEAVE_O32: {
                     if (cpu.ss.getDefaultSizeFlag())
                         leave_o32_a32();
@@ -920,13 +1262,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                         leave_o32_a16();
                 } break;
 
-                case LEAVE_O16: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        leave_o16_a32();
-                    else
-                        leave_o16_a16();
-                } break;
-
                 case PUSH_O32: {
                     if (cpu.ss.getDefaultSizeFlag())
                         push_o32_a32(reg0);
@@ -934,27 +1269,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                         push_o32_a16(reg0);
                 } break;
 
-                case PUSH_O16: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        push_o16_a32((short)reg0);
-                    else
-                        push_o16_a16((short)reg0);
-                } break;
-
-                case PUSHF_O32: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        push_o32_a32(~0x30000 & reg0);
-                    else
-                        push_o32_a16(~0x30000 & reg0);
-                } break;
-
-                case PUSHF_O16: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        push_o16_a32((short)reg0);
-                    else
-                        push_o16_a16((short)reg0);
-                } break;
-
                 case POP_O32: {
                     if (cpu.ss.getDefaultSizeFlag()) {
                         reg1 = cpu.esp + 4;
@@ -969,231 +1283,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                     }
                 } break;
 
-                case POP_O16: {
-                    if (cpu.ss.getDefaultSizeFlag()) {
-                        reg1 = cpu.esp + 2;
-                        if (microcodes[position] == STORE0_SS)
-                            cpu.eflagsInterruptEnable = false;
-                        reg0 = 0xffff & cpu.ss.getWord(cpu.esp);
-                    } else {
-                        reg1 = (cpu.esp & ~0xffff) | ((cpu.esp + 2) & 0xffff);
-                        if (microcodes[position] == STORE0_SS)
-                            cpu.eflagsInterruptEnable = false;
-                        reg0 = 0xffff & cpu.ss.getWord(0xffff & cpu.esp);
-                    }
-                } break;
-
-                case POPF_O32: {
-                    if (cpu.ss.getDefaultSizeFlag()) {
-                        reg0 = cpu.ss.getDoubleWord(cpu.esp);
-                        cpu.esp += 4;
-                    } else {
-                        reg0 = cpu.ss.getDoubleWord(0xffff & cpu.esp);
-                        cpu.esp = (cpu.esp & ~0xffff) | ((cpu.esp + 4) & 0xffff);
-                    }
-                    if (cpu.getCPL() == 0)
-                        reg0 = ((cpu.getEFlags() & 0x20000) | (reg0 & ~(0x20000 | 0x180000)));
-                    else {
-                        if (cpu.getCPL() > cpu.eflagsIOPrivilegeLevel)
-                            reg0 = ((cpu.getEFlags() & 0x23200) | (reg0 & ~(0x23200 | 0x180000)));
-                        else
-                            reg0 = ((cpu.getEFlags() & 0x23000) | (reg0 & ~(0x23000 | 0x180000)));
-                    }
-                } break;
-
-                case POPF_O16: {
-                    if (cpu.ss.getDefaultSizeFlag()) {
-                        reg0 = 0xffff & cpu.ss.getWord(cpu.esp);
-                        cpu.esp += 2;
-                    } else {
-                        reg0 = 0xffff & cpu.ss.getWord(0xffff & cpu.esp);
-                        cpu.esp = (cpu.esp & ~0xffff) | ((cpu.esp + 2) & 0xffff);
-                    }
-                    if (cpu.getCPL() != 0)
-                        if (cpu.getCPL() > cpu.eflagsIOPrivilegeLevel)
-                            reg0 = ((cpu.getEFlags() & 0x3200) | (reg0 & ~0x3200));
-                        else
-                            reg0 = ((cpu.getEFlags() & 0x3000) | (reg0 & ~0x3000));
-                } break;
-
-                case PUSHA:
-                    if (cpu.ss.getDefaultSizeFlag())
-                        pusha_a32();
-                    else
-                        pusha_a16();
-                        break;
-
-                case PUSHAD:
-                    if (cpu.ss.getDefaultSizeFlag())
-                        pushad_a32();
-                    else
-                        pushad_a16();
-                        break;
-
-                case POPA: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        popa_a32();
-                    else
-                        popa_a16();
-                } break;
-
-                case POPAD: {
-                    if (cpu.ss.getDefaultSizeFlag())
-                        popad_a32();
-                    else
-                        popad_a16();
-                } break;
-
-                case CMPSB_A32: cmpsb_a32(seg0); break;
-                case CMPSW_A32: cmpsw_a32(seg0); break;
-                case CMPSD_A32: cmpsd_a32(seg0); break;
-                case REPE_CMPSB_A16: repe_cmpsb_a16(seg0); break;
-                case REPE_CMPSB_A32: repe_cmpsb_a32(seg0); break;
-                case REPE_CMPSW_A16: repe_cmpsw_a16(seg0); break;
-                case REPE_CMPSW_A32: repe_cmpsw_a32(seg0); break;
-                case REPE_CMPSD_A16: repe_cmpsd_a16(seg0); break;
-                case REPE_CMPSD_A32: repe_cmpsd_a32(seg0); break;
-                case REPNE_CMPSB_A16: repne_cmpsb_a16(seg0); break;
-                case REPNE_CMPSW_A16: repne_cmpsw_a16(seg0); break;
-                case REPNE_CMPSD_A16: repne_cmpsd_a16(seg0); break;
-                case REPNE_CMPSB_A32: repne_cmpsb_a32(seg0); break;
-                case REPNE_CMPSW_A32: repne_cmpsw_a32(seg0); break;
-                case REPNE_CMPSD_A32: repne_cmpsd_a32(seg0); break;
-
-                case INSB_A32: insb_a32(reg0); break;
-                case INSW_A32: insw_a32(reg0); break;
-                case INSD_A32: insd_a32(reg0); break;
-                case REP_INSB_A32: rep_insb_a32(reg0); break;
-                case REP_INSW_A32: rep_insw_a32(reg0); break;
-                case REP_INSD_A32: rep_insd_a32(reg0); break;
-
-                case LODSB_A16: lodsb_a16(seg0); break;
-                case LODSB_A32: lodsb_a32(seg0); break;
-                case LODSW_A16: lodsw_a16(seg0); break;
-                case LODSW_A32: lodsw_a32(seg0); break;
-                case LODSD_A32: lodsd_a32(seg0); break;
-                case REP_LODSB_A32: rep_lodsb_a32(seg0); break;
-                case REP_LODSW_A32: rep_lodsw_a32(seg0); break;
-                case REP_LODSD_A32: rep_lodsd_a32(seg0); break;
-
-                case MOVSB_A16: movsb_a16(seg0); break;
-                case MOVSW_A16: movsw_a16(seg0); break;
-                case MOVSD_A16: movsd_a16(seg0); break;
-                case REP_MOVSB_A16: rep_movsb_a16(seg0); break;
-                case REP_MOVSW_A16: rep_movsw_a16(seg0); break;
-                case REP_MOVSD_A16: rep_movsd_a16(seg0); break;
-                case MOVSB_A32: movsb_a32(seg0); break;
-                case MOVSW_A32: movsw_a32(seg0); break;
-                case MOVSD_A32: movsd_a32(seg0); break;
-                case REP_MOVSB_A32: rep_movsb_a32(seg0); break;
-                case REP_MOVSW_A32: rep_movsw_a32(seg0); break;
-                case REP_MOVSD_A32: rep_movsd_a32(seg0); break;
-
-                case OUTSB_A16: outsb_a16(reg0, seg0); break;
-                case OUTSW_A16: outsw_a16(reg0, seg0); break;
-                case OUTSD_A16: outsd_a16(reg0, seg0); break;
-                case REP_OUTSB_A16: rep_outsb_a16(reg0, seg0); break;
-                case REP_OUTSW_A16: rep_outsw_a16(reg0, seg0); break;
-                case REP_OUTSD_A16: rep_outsd_a16(reg0, seg0); break;
-                case OUTSB_A32: outsb_a32(reg0, seg0); break;
-                case OUTSW_A32: outsw_a32(reg0, seg0); break;
-                case OUTSD_A32: outsd_a32(reg0, seg0); break;
-                case REP_OUTSB_A32: rep_outsb_a32(reg0, seg0); break;
-                case REP_OUTSW_A32: rep_outsw_a32(reg0, seg0); break;
-                case REP_OUTSD_A32: rep_outsd_a32(reg0, seg0); break;
-
-                case SCASB_A16: scasb_a16(reg0); break;
-                case SCASB_A32: scasb_a32(reg0); break;
-                case SCASW_A32: scasw_a32(reg0); break;
-                case SCASD_A32: scasd_a32(reg0); break;
-                case REPE_SCASB_A16: repe_scasb_a16(reg0); break;
-                case REPE_SCASB_A32: repe_scasb_a32(reg0); break;
-                case REPE_SCASW_A16: repe_scasw_a16(reg0); break;
-                case REPE_SCASW_A32: repe_scasw_a32(reg0); break;
-                case REPE_SCASD_A16: repe_scasd_a16(reg0); break;
-                case REPE_SCASD_A32: repe_scasd_a32(reg0); break;
-                case REPNE_SCASB_A16: repne_scasb_a16(reg0); break;
-                case REPNE_SCASB_A32: repne_scasb_a32(reg0); break;
-                case REPNE_SCASW_A16: repne_scasw_a16(reg0); break;
-                case REPNE_SCASW_A32: repne_scasw_a32(reg0); break;
-                case REPNE_SCASD_A16: repne_scasd_a16(reg0); break;
-                case REPNE_SCASD_A32: repne_scasd_a32(reg0); break;
-
-                case STOSB_A16: stosb_a16(reg0); break;
-                case STOSB_A32: stosb_a32(reg0); break;
-                case STOSW_A16: stosw_a16(reg0); break;
-                case STOSW_A32: stosw_a32(reg0); break;
-                case STOSD_A16: stosd_a16(reg0); break;
-                case STOSD_A32: stosd_a32(reg0); break;
-                case REP_STOSB_A16: rep_stosb_a16(reg0); break;
-                case REP_STOSB_A32: rep_stosb_a32(reg0); break;
-                case REP_STOSW_A16: rep_stosw_a16(reg0); break;
-                case REP_STOSW_A32: rep_stosw_a32(reg0); break;
-                case REP_STOSD_A16: rep_stosd_a16(reg0); break;
-                case REP_STOSD_A32: rep_stosd_a32(reg0); break;
-
-                case LGDT_O16: cpu.gdtr = cpu.createDescriptorTableSegment(reg1 & 0x00ffffff, reg0); break;
-                case LGDT_O32: cpu.gdtr = cpu.createDescriptorTableSegment(reg1, reg0); break;
-                case SGDT_O16: reg1 = cpu.gdtr.getBase() & 0x00ffffff; reg0 = cpu.gdtr.getLimit(); break;
-                case SGDT_O32: reg1 = cpu.gdtr.getBase(); reg0 = cpu.gdtr.getLimit(); break;
-
-                case LIDT_O16: cpu.idtr = cpu.createDescriptorTableSegment(reg1 & 0x00ffffff, reg0); break;
-                case LIDT_O32: cpu.idtr = cpu.createDescriptorTableSegment(reg1, reg0); break;
-                case SIDT_O16: reg1 = cpu.idtr.getBase() & 0x00ffffff; reg0 = cpu.idtr.getLimit(); break;
-                case SIDT_O32: reg1 = cpu.idtr.getBase(); reg0 = cpu.idtr.getLimit(); break;
-
-                case LLDT: cpu.ldtr = lldt(reg0); break;
-                case SLDT: reg0 = 0xffff & cpu.ldtr.getSelector(); break;
-
-                case LTR: cpu.tss = ltr(reg0); break;
-                case STR: reg0 = 0xffff & cpu.tss.getSelector(); break;
-
-                case VERR:
-                    try {
-                        Segment test = cpu.getSegment(reg0 & 0xffff);
-                        int type = test.getType();
-                        if (((type & ProtectedModeSegment.DESCRIPTOR_TYPE_CODE_DATA) == 0) || (((type & ProtectedModeSegment.TYPE_CODE_CONFORMING) == 0) && ((cpu.getCPL() > test.getDPL()) || (test.getRPL() > test.getDPL()))))
-                            cpu.setZeroFlag(false);
-                        else
-                            cpu.setZeroFlag(((type & ProtectedModeSegment.TYPE_CODE) == 0) || ((type & ProtectedModeSegment.TYPE_CODE_READABLE) != 0));
-                    } catch (ProcessorException e) {
-                        cpu.setZeroFlag(false);
-                    } break;
-
-                case VERW:
-                    try {
-                        Segment test = cpu.getSegment(reg0 & 0xffff);
-                        int type = test.getType();
-                        if (((type & ProtectedModeSegment.DESCRIPTOR_TYPE_CODE_DATA) == 0) || (((type & ProtectedModeSegment.TYPE_CODE_CONFORMING) == 0) && ((cpu.getCPL() > test.getDPL()) || (test.getRPL() > test.getDPL()))))
-                            cpu.setZeroFlag(false);
-                        else
-                            cpu.setZeroFlag(((type & ProtectedModeSegment.TYPE_CODE) == 0) && ((type & ProtectedModeSegment.TYPE_DATA_WRITABLE) != 0));
-                    } catch (ProcessorException e) {
-                        cpu.setZeroFlag(false);
-                    } break;
-
-                case CLTS: if (cpu.getCPL() != 0) throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
-                    cpu.setCR0(cpu.getCR0() & ~0x8); break;
-
-                case INVLPG: if (cpu.getCPL() != 0) throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
-                    cpu.linearMemory.invalidateTLBEntry(seg0.translateAddressRead(addr0)); break;
-
-                case CPUID: cpuid(); break;
-
-                case LAR: reg0 = lar(reg0, reg1);  break;
-                case LSL: reg0 = lsl(reg0, reg1);  break;
-
-                case WRMSR: if (cpu.getCPL() != 0) throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
-                    cpu.setMSR(reg0, (reg2 & 0xffffffffl) | ((reg1 & 0xffffffffl) << 32)); break;
-                case RDMSR: if (cpu.getCPL() != 0) throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);//ProcessorException.GENERAL_PROTECTION_0;
-                    long msr = cpu.getMSR(reg0); reg0 = (int)msr; reg1 = (int)(msr >>> 32); break;
-
-                case RDTSC: long tsc = rdtsc(); reg0 = (int)tsc; reg1 = (int)(tsc >>> 32); break;
-
-                case CMPXCHG_O8_FLAGS: sub_o8_flags(reg2 - reg1, reg2, reg1); break;
-                case CMPXCHG_O16_FLAGS: sub_o16_flags(reg2 - reg1, reg2, reg1); break;
-                case CMPXCHG_O32_FLAGS: sub_o32_flags((0xffffffffl & reg2) - (0xffffffffl & reg1), reg2, reg1); break;
-
                 case BITWISE_FLAGS_O8: bitwise_flags((byte)reg0); break;
                 case BITWISE_FLAGS_O16: bitwise_flags((short)reg0); break;
                 case BITWISE_FLAGS_O32: bitwise_flags(reg0); break;
@@ -1234,14 +1323,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                 case SAR_O16_FLAGS: sar_flags((short)reg0, (short)reg2, reg1); break;
                 case SAR_O32_FLAGS: sar_flags(reg0, reg2, reg1); break;
 
-                case RCL_O8_FLAGS:  rcl_o8_flags(reg0, reg1); break;
-                case RCL_O16_FLAGS: rcl_o16_flags(reg0, reg1); break;
-                case RCL_O32_FLAGS: rcl_o32_flags(reg0l, reg1); break;
-
-                case RCR_O8_FLAGS:  rcr_o8_flags(reg0, reg1, reg2); break;
-                case RCR_O16_FLAGS: rcr_o16_flags(reg0, reg1, reg2); break;
-                case RCR_O32_FLAGS: rcr_o32_flags(reg0l, reg1, reg2); break;
-
                 case ROL_O8_FLAGS:  rol_flags((byte)reg0, reg1); break;
                 case ROL_O16_FLAGS: rol_flags((short)reg0, reg1); break;
                 case ROL_O32_FLAGS: rol_flags(reg0, reg1); break;
@@ -1254,11 +1335,6 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                 case NEG_O16_FLAGS: neg_flags((short)reg0); break;
                 case NEG_O32_FLAGS: neg_flags(reg0); break;
 
-                case CPL_CHECK:
-                    if(cpu.getCPL() != 0)
-                        throw new ProcessorException(ProcessorException.Type.GENERAL_PROTECTION, 0, true);
-                    break;
-
                 case INSTRUCTION_START:
                     executeCount++;
                     if(cpu.eflagsMachineHalt) throw ProcessorException.TRACESTOP;
@@ -1271,20 +1347,29 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
                         cpu.instructionExecuted();
                     break;
                 default:
-                    if(!Misc.isFPUOp(microcodes[position - 1])) {
-                        System.err.println("Critical error: Unknown uCode " + microcodes[position - 1] + ".");
-                        throw new IllegalStateException("Unknown uCode P" + microcodes[position - 1]);
-                    }
-
-                    cpu.useFPU(microcodes[position - 1] == FWAIT);
-                    int x = fpu.doFPUOp(microcodes[position - 1], microcodes[position], seg0, addr0, reg0, reg1, reg2,
-                        reg0l);
-                    //Handle buffer updates.
-                    if((x & 1) != 0) reg0 = fpu.getReg0();
-                    if((x & 2) != 0) reg1 = fpu.getReg1();
-                    if((x & 4) != 0) reg2 = fpu.getReg2();
-                    if((x & 8) != 0) reg0l = fpu.getReg0l();
-                    if((x & 16) != 0) position++;
+                    {
+                        //copy local variables to instance storage
+                        transferSeg0 = seg0;
+                        transferAddr0 = addr0;
+                        transferReg0 = reg0;
+                        transferReg1 = reg1;
+                        transferReg2 = reg2;
+                        transferReg0l = reg0l;
+                        transferEipUpdated = eipUpdated;
+                        transferPosition = position - 1;
+                        try {
+                            fullExecute(cpu);
+                        } finally {
+                            seg0 = transferSeg0;
+                            addr0 = transferAddr0;
+                            reg0 = transferReg0;
+                            reg1 = transferReg1;
+                            reg2 = transferReg2;
+                            reg0l = transferReg0l;
+                            eipUpdated = transferEipUpdated;
+                            position = transferPosition;
+                        }
+                    } break;
                 }
             }
         } catch (ProcessorException e) {
@@ -2049,19 +2134,33 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
         executeCount += count;
 
         try {
-            if (cpu.eflagsDirection) {
-                while (count != 0) {
+            int step = cpu.eflagsDirection ? -2 : 2;
+            while (count != 0) {
+                int words = cpu.ioports.getStringWords(port);
+                if (count > 0 && words > count)
+                    words = count;
+                if (words == 0) {
                     //check hardware interrupts
                     cpu.es.setWord(addr, (short)cpu.ioports.ioPortReadWord(port));
                     count--;
-                    addr -= 2;
+                    addr += step;
+                    continue;
                 }
-            } else {
-                while (count != 0) {
-                    //check hardware interrupts
-                    cpu.es.setWord(addr, (short)cpu.ioports.ioPortReadWord(port));
-                    count--;
-                    addr += 2;
+                //Take words straight from the device buffer, each consumed before it is stored as above.
+                byte[] buffer = cpu.ioports.getStringBuffer(port);
+                int offset = cpu.ioports.getStringOffset(port);
+                int done = 0;
+                try {
+                    while (done < words) {
+                        cpu.ioports.chargeReadDelay();
+                        done++;
+                        cpu.es.setWord(addr, (short)((buffer[offset] & 0xff) | (buffer[offset + 1] << 8)));
+                        offset += 2;
+                        count--;
+                        addr += step;
+                    }
+                } finally {
+                    cpu.ioports.stringWordsDone(port, done);
                 }
             }
         }
@@ -2084,19 +2183,34 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
         executeCount += count;
 
         try {
-            if (cpu.eflagsDirection) {
-                while (count != 0) {
+            int step = cpu.eflagsDirection ? -4 : 4;
+            while (count != 0) {
+                int dwords = cpu.ioports.getStringWords(port) >> 1;
+                if (count > 0 && dwords > count)
+                    dwords = count;
+                if (dwords == 0) {
                     //check hardware interrupts
                     cpu.es.setDoubleWord(addr, cpu.ioports.ioPortReadLong(port));
                     count--;
-                    addr -= 4;
+                    addr += step;
+                    continue;
                 }
-            } else {
-                while (count != 0) {
-                    //check hardware interrupts
-                    cpu.es.setDoubleWord(addr, cpu.ioports.ioPortReadLong(port));
-                    count--;
-                    addr += 4;
+                //Take doublewords straight from the device buffer, each consumed before it is stored as above.
+                byte[] buffer = cpu.ioports.getStringBuffer(port);
+                int offset = cpu.ioports.getStringOffset(port);
+                int done = 0;
+                try {
+                    while (done < dwords) {
+                        cpu.ioports.chargeReadDelay();
+                        done++;
+                        cpu.es.setDoubleWord(addr, (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8) |
+                            ((buffer[offset + 2] & 0xff) << 16) | (buffer[offset + 3] << 24));
+                        offset += 4;
+                        count--;
+                        addr += step;
+                    }
+                } finally {
+                    cpu.ioports.stringWordsDone(port, 2 * done);
                 }
             }
         }
@@ -2678,19 +2792,34 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
         executeCount += count;
 
         try {
-            if (cpu.eflagsDirection) {
-                while (count != 0) {
+            int step = cpu.eflagsDirection ? -2 : 2;
+            while (count != 0) {
+                int words = cpu.ioports.getStringWords(port);
+                if (count > 0 && words > count)
+                    words = count;
+                if (words == 0) {
                     //check hardware interrupts
                     cpu.ioports.ioPortWriteWord(port, 0xffff & storeSegment.getWord(addr & 0xffff));
                     count--;
-                    addr -= 2;
+                    addr += step;
+                    continue;
                 }
-            } else {
-                while (count != 0) {
-                    //check hardware interrupts
-                    cpu.ioports.ioPortWriteWord(port, 0xffff & storeSegment.getWord(addr & 0xffff));
-                    count--;
-                    addr += 2;
+                //Store words straight into the device buffer.
+                byte[] buffer = cpu.ioports.getStringBuffer(port);
+                int offset = cpu.ioports.getStringOffset(port);
+                int done = 0;
+                try {
+                    while (done < words) {
+                        short data = storeSegment.getWord(addr & 0xffff);
+                        buffer[offset] = (byte)data;
+                        buffer[offset + 1] = (byte)(data >> 8);
+                        done++;
+                        offset += 2;
+                        count--;
+                        addr += step;
+                    }
+                } finally {
+                    cpu.ioports.stringWordsDone(port, done);
                 }
             }
         }
@@ -2713,19 +2842,36 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
         executeCount += count;
 
         try {
-            if (cpu.eflagsDirection) {
-                while (count != 0) {
+            int step = cpu.eflagsDirection ? -4 : 4;
+            while (count != 0) {
+                int dwords = cpu.ioports.getStringWords(port) >> 1;
+                if (count > 0 && dwords > count)
+                    dwords = count;
+                if (dwords == 0) {
                     //check hardware interrupts
                     cpu.ioports.ioPortWriteLong(port, storeSegment.getDoubleWord(addr & 0xffff));
                     count--;
-                    addr -= 4;
+                    addr += step;
+                    continue;
                 }
-            } else {
-                while (count != 0) {
-                    //check hardware interrupts
-                    cpu.ioports.ioPortWriteLong(port, storeSegment.getDoubleWord(addr & 0xffff));
-                    count--;
-                    addr += 4;
+                //Store doublewords straight into the device buffer.
+                byte[] buffer = cpu.ioports.getStringBuffer(port);
+                int offset = cpu.ioports.getStringOffset(port);
+                int done = 0;
+                try {
+                    while (done < dwords) {
+                        int data = storeSegment.getDoubleWord(addr & 0xffff);
+                        buffer[offset] = (byte)data;
+                        buffer[offset + 1] = (byte)(data >> 8);
+                        buffer[offset + 2] = (byte)(data >> 16);
+                        buffer[offset + 3] = (byte)(data >> 24);
+                        done++;
+                        offset += 4;
+                        count--;
+                        addr += step;
+                    }
+                } finally {
+                    cpu.ioports.stringWordsDone(port, 2 * done);
                 }
             }
         }
@@ -2843,19 +2989,34 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
         executeCount += count;
 
         try {
-            if (cpu.eflagsDirection) {
-                while (count != 0) {
+            int step = cpu.eflagsDirection ? -2 : 2;
+            while (count != 0) {
+                int words = cpu.ioports.getStringWords(port);
+                if (count > 0 && words > count)
+                    words = count;
+                if (words == 0) {
                     //check hardware interrupts
                     cpu.ioports.ioPortWriteWord(port, 0xffff & storeSegment.getWord(addr));
                     count--;
-                    addr -= 2;
+                    addr += step;
+                    continue;
                 }
-            } else {
-                while (count != 0) {
-                    //check hardware interrupts
-                    cpu.ioports.ioPortWriteWord(port, 0xffff & storeSegment.getWord(addr));
-                    count--;
-                    addr += 2;
+                //Store words straight into the device buffer.
+                byte[] buffer = cpu.ioports.getStringBuffer(port);
+                int offset = cpu.ioports.getStringOffset(port);
+                int done = 0;
+                try {
+                    while (done < words) {
+                        short data = storeSegment.getWord(addr);
+                        buffer[offset] = (byte)data;
+                        buffer[offset + 1] = (byte)(data >> 8);
+                        done++;
+                        offset += 2;
+                        count--;
+                        addr += step;
+                    }
+                } finally {
+                    cpu.ioports.stringWordsDone(port, done);
                 }
             }
         }
@@ -2878,19 +3039,36 @@ public class ProtectedModeUBlock implements ProtectedModeCodeBlock
         executeCount += count;
 
         try {
-            if (cpu.eflagsDirection) {
-                while (count != 0) {
+            int step = cpu.eflagsDirection ? -4 : 4;
+            while (count != 0) {
+                int dwords = cpu.ioports.getStringWords(port) >> 1;
+                if (count > 0 && dwords > count)
+                    dwords = count;
+                if (dwords == 0) {
                     //check hardware interrupts
                     cpu.ioports.ioPortWriteLong(port, storeSegment.getDoubleWord(addr));
                     count--;
-                    addr -= 4;
+                    addr += step;
+                    continue;
                 }
-            } else {
-                while (count != 0) {
-                    //check hardware interrupts
-                    cpu.ioports.ioPortWriteLong(port, storeSegment.getDoubleWord(addr));
-                    count--;
-                    addr += 4;
+                //Store doublewords straight into the device buffer.
+                byte[] buffer = cpu.ioports.getStringBuffer(port);
+                int offset = cpu.ioports.getStringOffset(port);
+                int done = 0;
+                try {
+                    while (done < dwords) {
+                        int data = storeSegment.getDoubleWord(addr);
+                        buffer[offset] = (byte)data;
+                        buffer[offset + 1] = (byte)(data >> 8);
+                        buffer[offset + 2] = (byte)(data >> 16);
+                        buffer[offset + 3] = (byte)(data >> 24);
+                        done++;
+                        offset += 4;
+                        count--;
+                        addr += step;
+                    }
+                } finally {
+                    cpu.ioports.stringWordsDone(port, 2 * done);
                 }
             }
         }
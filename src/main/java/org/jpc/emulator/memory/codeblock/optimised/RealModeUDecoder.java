@@ -1523,10 +1523,14 @@ public final class RealModeUDecoder implements Decoder, InstructionSource
             break;
 
         default:
-            throw new IllegalStateException("Missing Operation: 0x" + Integer.toHexString(opcode));
-
-            //2 Byte Operations
+            writeTwoByteOperation(prefices, opcode, modrm);
+        }
+    }
 
+    //Separate from writeOperation to keep both under the size HotSpot compiles methods up to.
+    private void writeTwoByteOperation(int prefices, int opcode, int modrm)
+    {
+        switch (opcode) {
         case 0xf00: // Group 6
             switch (modrm & 0x38) {
             case 0x00:
@@ -2121,6 +2125,8 @@ public final class RealModeUDecoder implements Decoder, InstructionSource
             }
             break;
 
+        default:
+            throw new IllegalStateException("Missing Operation: 0x" + Integer.toHexString(opcode));
         }
     }
 
@@ -3476,6 +3482,15 @@ public final class RealModeUDecoder implements Decoder, InstructionSource
             load0_Eb(prefices, modrm, sib, displacement);
             break;
 
+        default:
+            writeMoreInputOperands(prefices, opcode, modrm, sib, displacement, immediate);
+        }
+    }
+
+    //Rest of writeInputOperands, split off to keep both under the size HotSpot compiles methods up to.
+    private void writeMoreInputOperands(int prefices, int opcode, int modrm, int sib, int displacement, long immediate)
+    {
+        switch (opcode) {
         case 0x06: //PUSH ES
             working.write(LOAD0_ES);
             break;
@@ -0,0 +1,316 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.memory.codeblock.optimised;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.jpc.emulator.memory.Memory;
+import org.jpc.emulator.memory.LazyCodeBlockMemory;
+import org.jpc.emulator.memory.codeblock.*;
+
+/**
+ * Decodes the blocks execution is likely to reach next on a background thread.
+ * <p>
+ * After a block is built, the fall-through address and the direct jump, call or loop target of
+ * its last instruction are decoded from a copy of the page by the worker. Results come back
+ * through a queue and are used only if the page has not been written since the copy, so the
+ * block is the same one decoding on the spot would have given. Everything but the worker's
+ * decoding runs on the emulator thread.
+ */
+public class SpeculativeDecoder
+{
+    //Results not yet used, beyond which all of them are dropped.
+    private static final int MAX_READY = 4096;
+    private static final int MAX_QUEUED_TASKS = 64;
+    private static ThreadPoolExecutor worker;
+    //Only used by the worker thread.
+    private static CodeBlockManager workerManager;
+
+    private final int limit;
+    private final boolean optimise;
+    private final ConcurrentLinkedQueue<Result> done;
+    private final IdentityHashMap<Memory, HashMap<Integer, Result>> ready;
+    private int readyCount;
+    //Bumped by clear(), results of tasks queued before are dropped.
+    private volatile int epoch;
+
+    private static class Result
+    {
+        LazyCodeBlockMemory memory;
+        int offset;
+        int mode;
+        int generation;
+        int epoch;
+        //null while still being decoded.
+        CodeBlock block;
+    }
+
+    private class Task implements Runnable
+    {
+        byte[] page;
+        List<Result> targets;
+        int epoch;
+
+        public void run()
+        {
+            if(workerManager == null || workerManager.getBlockLimit() != limit ||
+                workerManager.isMicrocodeOptimised() != optimise) {
+                workerManager = new CodeBlockManager(limit);
+                workerManager.setMicrocodeOptimisation(optimise);
+            }
+            LazyCodeBlockMemory snapshot = new LazyCodeBlockMemory(page.length, null);
+            snapshot.loadInitialContents(0, page, 0, page.length);
+            for(Result r : targets) {
+                CodeBlock block;
+                try {
+                    switch(r.mode) {
+                    case DecodedBlockCache.REAL:
+                        block = workerManager.getRealModeCodeBlockAt(snapshot, r.offset);
+                        break;
+                    case DecodedBlockCache.VIRTUAL8086:
+                        block = workerManager.getVirtual8086ModeCodeBlockAt(snapshot, r.offset);
+                        break;
+                    default:
+                        block = workerManager.getProtectedModeCodeBlockAt(snapshot, r.offset,
+                            r.mode == DecodedBlockCache.PROTECTED32);
+                        break;
+                    }
+                } catch(Exception e) {
+                    continue;   //Not code after all.
+                }
+                //Blocks crossing the page need the next page, which wasn't copied.
+                if(block instanceof SpanningCodeBlock)
+                    continue;
+                Result res = new Result();
+                res.memory = r.memory;
+                res.offset = r.offset;
+                res.mode = r.mode;
+                res.generation = r.generation;
+                res.epoch = epoch;
+                res.block = block;
+                done.add(res);
+            }
+        }
+    }
+
+    public SpeculativeDecoder(int blockLimit, boolean optimiseMicrocode)
+    {
+        limit = blockLimit;
+        optimise = optimiseMicrocode;
+        done = new ConcurrentLinkedQueue<Result>();
+        ready = new IdentityHashMap<Memory, HashMap<Integer, Result>>();
+    }
+
+    private static synchronized ThreadPoolExecutor getWorker()
+    {
+        if(worker == null)
+            worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_TASKS), new ThreadFactory() {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "Speculative decoder");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+        return worker;
+    }
+
+    private void collect()
+    {
+        Result r;
+        while((r = done.poll()) != null) {
+            if(r.epoch != epoch)
+                continue;
+            HashMap<Integer, Result> m = ready.get(r.memory);
+            if(m == null) {
+                m = new HashMap<Integer, Result>();
+                ready.put(r.memory, m);
+            }
+            if(m.put(4 * r.offset + r.mode, r) == null)
+                readyCount++;
+        }
+        if(readyCount > MAX_READY) {
+            ready.clear();
+            readyCount = 0;
+        }
+    }
+
+    /**
+     * Drop all blocks decoded ahead, and any still being decoded. Call when memory gets reset, so the pages
+     * and their blocks aren't kept around.
+     */
+    public void clear()
+    {
+        epoch++;
+        done.clear();
+        ready.clear();
+        readyCount = 0;
+    }
+
+    /**
+     * Take block decoded ahead for the given place, if there is one that is still valid.
+     * @param memory memory the block is for
+     * @param offset address in the given memory object
+     * @param mode one of the DecodedBlockCache mode constants
+     * @return decoded block or <code>null</code>
+     */
+    public CodeBlock take(Memory memory, int offset, int mode)
+    {
+        collect();
+        HashMap<Integer, Result> m = ready.get(memory);
+        if(m == null)
+            return null;
+        Result r = m.remove(4 * offset + mode);
+        if(r == null)
+            return null;
+        readyCount--;
+        if(r.block == null || r.generation != r.memory.getWriteGeneration())
+            return null;
+        return r.block;
+    }
+
+    private static int lastInstructionStart(CodeBlock block)
+    {
+        int[] positions;
+        if(block instanceof RealModeUBlock)
+            positions = ((RealModeUBlock)block).cumulativeX86Length;
+        else if(block instanceof ProtectedModeUBlock)
+            positions = ((ProtectedModeUBlock)block).cumulativeX86Length;
+        else if(block instanceof Virtual8086ModeUBlock)
+            positions = ((Virtual8086ModeUBlock)block).cumulativeX86Length;
+        else
+            return -1;
+        int len = block.getX86Length();
+        int start = 0;
+        for(int p : positions)
+            if(p < len && p > start)
+                start = p;
+        return start;
+    }
+
+    //Target of a direct relative jump, call, jcc, loop or jcxz at ip, or -1.
+    private static int branchTarget(byte[] page, int ip, boolean size32)
+    {
+        try {
+            while(true) {
+                int prefix = page[ip] & 0xFF;
+                if(prefix == 0x66)
+                    size32 = !size32;
+                else if(prefix != 0x26 && prefix != 0x2E && prefix != 0x36 && prefix != 0x3E && prefix != 0x64 &&
+                    prefix != 0x65 && prefix != 0x67 && prefix != 0xF0 && prefix != 0xF2 && prefix != 0xF3)
+                    break;
+                ip++;
+            }
+            int op = page[ip++] & 0xFF;
+            if(op == 0x0F) {
+                op = page[ip++] & 0xFF;
+                if((op & 0xF0) != 0x80)
+                    return -1;
+                op = 0xE9;
+            }
+            if((op & 0xF0) == 0x70 || op == 0xEB || (op >= 0xE0 && op <= 0xE3))
+                return ip + 1 + page[ip];
+            if(op == 0xE8 || op == 0xE9) {
+                if(size32)
+                    return ip + 4 + ((page[ip] & 0xFF) | ((page[ip + 1] & 0xFF) << 8) | ((page[ip + 2] & 0xFF) << 16) |
+                        (page[ip + 3] << 24));
+                return ip + 2 + (short)((page[ip] & 0xFF) | (page[ip + 1] << 8));
+            }
+        } catch(ArrayIndexOutOfBoundsException e) {
+        }
+        return -1;
+    }
+
+    private void addTarget(List<Result> targets, HashMap<Integer, Result> m, LazyCodeBlockMemory memory,
+        int offset, int mode, int size)
+    {
+        if(offset < 0 || offset >= size)
+            return;
+        Result old = m.get(4 * offset + mode);
+        if(old != null && old.generation == memory.getWriteGeneration())
+            return;
+        Result r = new Result();
+        r.memory = memory;
+        r.offset = offset;
+        r.mode = mode;
+        r.generation = memory.getWriteGeneration();
+        targets.add(r);
+    }
+
+    /**
+     * Queue decoding of places the given new block can continue at.
+     * @param memory memory the block is in
+     * @param offset address of the block in the given memory object
+     * @param mode one of the DecodedBlockCache mode constants
+     * @param block the new block
+     */
+    public void blockBuilt(Memory memory, int offset, int mode, CodeBlock block)
+    {
+        //Reading unallocated memory counts towards allocating it, which would alter the saved state.
+        if(!(memory instanceof LazyCodeBlockMemory) || !((LazyCodeBlockMemory)memory).isAllocated())
+            return;
+        LazyCodeBlockMemory mem = (LazyCodeBlockMemory)memory;
+        int last = lastInstructionStart(block);
+        if(last < 0)
+            return;
+        int size = (int)mem.getSize();
+        byte[] page = new byte[size];
+        mem.copyContentsIntoArray(0, page, 0, size);
+
+        collect();
+        HashMap<Integer, Result> m = ready.get(mem);
+        if(m == null) {
+            m = new HashMap<Integer, Result>();
+            ready.put(mem, m);
+        }
+        List<Result> targets = new ArrayList<Result>(2);
+        addTarget(targets, m, mem, offset + block.getX86Length(), mode, size);
+        addTarget(targets, m, mem, branchTarget(page, offset + last, mode == DecodedBlockCache.PROTECTED32), mode,
+            size);
+        if(targets.isEmpty())
+            return;
+
+        Task t = new Task();
+        t.page = page;
+        t.targets = targets;
+        t.epoch = epoch;
+        try {
+            getWorker().execute(t);
+        } catch(RejectedExecutionException e) {
+            return;     //Worker is behind, skip this one.
+        }
+        //Mark the targets as being decoded, so they aren't queued again.
+        for(Result r : targets)
+            if(m.put(4 * r.offset + r.mode, r) == null)
+                readyCount++;
+    }
+}
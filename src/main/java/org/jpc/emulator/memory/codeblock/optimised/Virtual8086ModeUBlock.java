@@ -59,7 +59,8 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
     protected int[] microcodes;
     protected int[] cumulativeX86Length;
     private int executeCount;
-    public static OpcodeLogger opcodeCounter = null;//new OpcodeLogger("VM86 Stats:");
+    //Debugging aid only; shared by all PCs in the JVM, so keep it off for multi-instance use.
+    public static final OpcodeLogger opcodeCounter = null;//new OpcodeLogger("VM86 Stats:");
 
     public Virtual8086ModeUBlock()
     {
@@ -1146,6 +1147,28 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
                 case SHR_O16_FLAGS: shr_flags((short)reg0, reg2, reg1); break;
                 case JA_O8:  ja_o8((byte)reg0); break;
                 case JNA_O8: jna_o8((byte)reg0); break;
+                //Superinstructions, see MicrocodeOptimiser
+                case ADDR_IB_MASK16: addr0 = (addr0 + (byte)microcodes[position++]) & 0xffff; break;
+                case ADDR_IW_MASK16: addr0 = (addr0 + (short)microcodes[position++]) & 0xffff; break;
+                case LOAD_SEG_SS_ADDR_BP: seg0 = cpu.ss; addr0 += ((short)cpu.ebp); break;
+                case LOAD_SEG_DS_ADDR_BX: seg0 = cpu.ds; addr0 += ((short)cpu.ebx); break;
+                case ADDR_MASK16_LOAD0_MEM_WORD: addr0 &= 0xffff; reg0 = 0xffff & seg0.getWord(addr0); break;
+                case ADDR_MASK16_STORE0_MEM_WORD: addr0 &= 0xffff; seg0.setWord(addr0, (short)reg0); break;
+                case EIP_UPDATE_LOAD0_IB:
+                    if(!eipUpdated) {
+                        eipUpdated = true;
+                        cpu.eip += cumulativeX86Length[position - 1];
+                    }
+                    reg0 = microcodes[position++] & 0xff;
+                    break;
+                case EIP_UPDATE_LOAD0_IW:
+                    if(!eipUpdated) {
+                        eipUpdated = true;
+                        cpu.eip += cumulativeX86Length[position - 1];
+                    }
+                    reg0 = microcodes[position++] & 0xffff;
+                    break;
+
                 case INSTRUCTION_START:
                     if(cpu.eflagsMachineHalt) throw ProcessorException.TRACESTOP;
                     if(invalidated && cpu.SYSFLAG_FLUSHONMODIFY) {
@@ -2157,19 +2180,33 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
         executeCount += count;
 
         try {
-            if (cpu.eflagsDirection) {
-                while (count != 0) {
+            int step = cpu.eflagsDirection ? -2 : 2;
+            while (count != 0) {
+                int words = cpu.ioports.getStringWords(port);
+                if (count > 0 && words > count)
+                    words = count;
+                if (words == 0) {
                     //check hardware interrupts
                     cpu.es.setWord(addr & 0xffff, (short)cpu.ioports.ioPortReadWord(port));
                     count--;
-                    addr -= 2;
+                    addr += step;
+                    continue;
                 }
-            } else {
-                while (count != 0) {
-                    //check hardware interrupts
-                    cpu.es.setWord(addr & 0xffff, (short)cpu.ioports.ioPortReadWord(port));
-                    count--;
-                    addr += 2;
+                //Take words straight from the device buffer, each consumed before it is stored as above.
+                byte[] buffer = cpu.ioports.getStringBuffer(port);
+                int offset = cpu.ioports.getStringOffset(port);
+                int done = 0;
+                try {
+                    while (done < words) {
+                        cpu.ioports.chargeReadDelay();
+                        done++;
+                        cpu.es.setWord(addr & 0xffff, (short)((buffer[offset] & 0xff) | (buffer[offset + 1] << 8)));
+                        offset += 2;
+                        count--;
+                        addr += step;
+                    }
+                } finally {
+                    cpu.ioports.stringWordsDone(port, done);
                 }
             }
         }
@@ -2189,19 +2226,34 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
         executeCount += count;
 
         try {
-            if (cpu.eflagsDirection) {
-                while (count != 0) {
+            int step = cpu.eflagsDirection ? -4 : 4;
+            while (count != 0) {
+                int dwords = cpu.ioports.getStringWords(port) >> 1;
+                if (count > 0 && dwords > count)
+                    dwords = count;
+                if (dwords == 0) {
                     //check hardware interrupts
                     cpu.es.setDoubleWord(addr & 0xffff, cpu.ioports.ioPortReadLong(port));
                     count--;
-                    addr -= 4;
+                    addr += step;
+                    continue;
                 }
-            } else {
-                while (count != 0) {
-                    //check hardware interrupts
-                    cpu.es.setDoubleWord(addr & 0xffff, cpu.ioports.ioPortReadLong(port));
-                    count--;
-                    addr += 4;
+                //Take doublewords straight from the device buffer, each consumed before it is stored as above.
+                byte[] buffer = cpu.ioports.getStringBuffer(port);
+                int offset = cpu.ioports.getStringOffset(port);
+                int done = 0;
+                try {
+                    while (done < dwords) {
+                        cpu.ioports.chargeReadDelay();
+                        done++;
+                        cpu.es.setDoubleWord(addr & 0xffff, (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8) |
+                            ((buffer[offset + 2] & 0xff) << 16) | (buffer[offset + 3] << 24));
+                        offset += 4;
+                        count--;
+                        addr += step;
+                    }
+                } finally {
+                    cpu.ioports.stringWordsDone(port, 2 * done);
                 }
             }
         }
@@ -2874,19 +2926,34 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
         executeCount += count;
 
         try {
-            if (cpu.eflagsDirection) {
-                while (count != 0) {
+            int step = cpu.eflagsDirection ? -2 : 2;
+            while (count != 0) {
+                int words = cpu.ioports.getStringWords(port);
+                if (count > 0 && words > count)
+                    words = count;
+                if (words == 0) {
                     //check hardware interrupts
                     cpu.ioports.ioPortWriteWord(port, 0xffff & storeSegment.getWord(addr & 0xffff));
                     count--;
-                    addr -= 2;
+                    addr += step;
+                    continue;
                 }
-            } else {
-                while (count != 0) {
-                    //check hardware interrupts
-                    cpu.ioports.ioPortWriteWord(port, 0xffff & storeSegment.getWord(addr & 0xffff));
-                    count--;
-                    addr += 2;
+                //Store words straight into the device buffer.
+                byte[] buffer = cpu.ioports.getStringBuffer(port);
+                int offset = cpu.ioports.getStringOffset(port);
+                int done = 0;
+                try {
+                    while (done < words) {
+                        short data = storeSegment.getWord(addr & 0xffff);
+                        buffer[offset] = (byte)data;
+                        buffer[offset + 1] = (byte)(data >> 8);
+                        done++;
+                        offset += 2;
+                        count--;
+                        addr += step;
+                    }
+                } finally {
+                    cpu.ioports.stringWordsDone(port, done);
                 }
             }
         }
@@ -2906,19 +2973,36 @@ public class Virtual8086ModeUBlock implements Virtual8086ModeCodeBlock
         executeCount += count;
 
         try {
-            if (cpu.eflagsDirection) {
-                while (count != 0) {
+            int step = cpu.eflagsDirection ? -4 : 4;
+            while (count != 0) {
+                int dwords = cpu.ioports.getStringWords(port) >> 1;
+                if (count > 0 && dwords > count)
+                    dwords = count;
+                if (dwords == 0) {
                     //check hardware interrupts
                     cpu.ioports.ioPortWriteLong(port, storeSegment.getDoubleWord(addr & 0xffff));
                     count--;
-                    addr -= 4;
+                    addr += step;
+                    continue;
                 }
-            } else {
-                while (count != 0) {
-                    //check hardware interrupts
-                    cpu.ioports.ioPortWriteLong(port, storeSegment.getDoubleWord(addr & 0xffff));
-                    count--;
-                    addr += 4;
+                //Store doublewords straight into the device buffer.
+                byte[] buffer = cpu.ioports.getStringBuffer(port);
+                int offset = cpu.ioports.getStringOffset(port);
+                int done = 0;
+                try {
+                    while (done < dwords) {
+                        int data = storeSegment.getDoubleWord(addr & 0xffff);
+                        buffer[offset] = (byte)data;
+                        buffer[offset + 1] = (byte)(data >> 8);
+                        buffer[offset + 2] = (byte)(data >> 16);
+                        buffer[offset + 3] = (byte)(data >> 24);
+                        done++;
+                        offset += 4;
+                        count--;
+                        addr += step;
+                    }
+                } finally {
+                    cpu.ioports.stringWordsDone(port, 2 * done);
                 }
             }
         }
@@ -41,13 +41,21 @@ import java.io.*;
  * This class holds the map between ioport addresses and <code>IOPortCapable</code>
  * objects.  Unmapped ports are redirected to an unconnected inner class instance
  * whose data lines float high, and on which writes fail silently.
+ * <p>
+ * The map is kept as a sorted table of (base, length, device) ranges, which is
+ * what savestates and status dumps record, together with a flat per-port array
+ * rebuilt from it for lookups.
  * @author Chris Dennis
  */
-public class IOPortHandler extends AbstractHardwareComponent implements IOPortCapable
+public class IOPortHandler extends AbstractHardwareComponent implements IOPortCapable, IOPortStringCapable
 {
     private static final int MAX_IOPORTS = 65536;
     private static final IOPortCapable defaultDevice = new UnconnectedIOPort();
     private IOPortCapable[] ioPortDevice;
+    private int rangeCount;
+    private int[] rangeBase;
+    private int[] rangeLength;
+    private IOPortCapable[] rangeDevice;
     private Clock clock;
     public boolean SYSFLAG_IOPORTDELAY;
     private final static int IOPORT_READ_DELAY = 666;
@@ -61,14 +69,15 @@ public class IOPortHandler extends AbstractHardwareComponent implements IOPortCa
         ioPortDevice = new IOPortCapable[MAX_IOPORTS];
         for (int i = 0; i < ioPortDevice.length; i++)
             ioPortDevice[i] = defaultDevice;
+        rebuildRanges();
     }
 
     public void dumpStatusPartial(StatusDumper output)
     {
         super.dumpStatusPartial(output);
         output.println("\tdefaultDevice <object #" + output.objectNumber(defaultDevice) + ">"); if(defaultDevice != null) defaultDevice.dumpStatus(output);
-        for (int i = 0; i < ioPortDevice.length; i++) {
-            output.println("\tioPortDevice[" + i + "] <object #" + output.objectNumber(ioPortDevice[i]) + ">"); if(ioPortDevice[i] != null) ioPortDevice[i].dumpStatus(output);
+        for (int i = 0; i < rangeCount; i++) {
+            output.println("\tioPortDevice[" + rangeBase[i] + "-" + (rangeBase[i] + rangeLength[i] - 1) + "] <object #" + output.objectNumber(rangeDevice[i]) + ">"); rangeDevice[i].dumpStatus(output);
         }
     }
 
@@ -86,9 +95,14 @@ public class IOPortHandler extends AbstractHardwareComponent implements IOPortCa
     {
         super.dumpSRPartial(output);
         output.specialObject(defaultDevice);
-        output.dumpInt(ioPortDevice.length);
-        for(int i = 0; i < ioPortDevice.length; i++)
-            output.dumpObject(ioPortDevice[i]);
+        //Negative marks the range encoding, older savestates have the port count here.
+        output.dumpInt(-1);
+        output.dumpInt(rangeCount);
+        for(int i = 0; i < rangeCount; i++) {
+            output.dumpInt(rangeBase[i]);
+            output.dumpInt(rangeLength[i]);
+            output.dumpObject(rangeDevice[i]);
+        }
         output.dumpObject(clock);
         output.dumpBoolean(SYSFLAG_IOPORTDELAY);
     }
@@ -97,9 +111,24 @@ public class IOPortHandler extends AbstractHardwareComponent implements IOPortCa
     {
         super(input);
         input.specialObject(defaultDevice);
-        ioPortDevice = new IOPortCapable[input.loadInt()];
-        for(int i = 0; i < ioPortDevice.length; i++)
-            ioPortDevice[i] = (IOPortCapable)input.loadObject();
+        int ports = input.loadInt();
+        if(ports >= 0) {
+            ioPortDevice = new IOPortCapable[ports];
+            for(int i = 0; i < ioPortDevice.length; i++)
+                ioPortDevice[i] = (IOPortCapable)input.loadObject();
+            rebuildRanges();
+        } else {
+            rangeCount = input.loadInt();
+            rangeBase = new int[rangeCount];
+            rangeLength = new int[rangeCount];
+            rangeDevice = new IOPortCapable[rangeCount];
+            for(int i = 0; i < rangeCount; i++) {
+                rangeBase[i] = input.loadInt();
+                rangeLength[i] = input.loadInt();
+                rangeDevice[i] = (IOPortCapable)input.loadObject();
+            }
+            rebuildLookup();
+        }
         clock = null;
         SYSFLAG_IOPORTDELAY = false;
         if(input.objectEndsHere())
@@ -144,6 +173,40 @@ public class IOPortHandler extends AbstractHardwareComponent implements IOPortCa
         ioPortDevice[address].ioPortWriteLong(address, data);
     }
 
+    /**
+     * Charge the time of one ioport read, as the <code>ioPortRead</code>
+     * methods do. String I/O through <code>IOPortStringCapable</code> calls
+     * this once per word, before moving it.
+     */
+    public void chargeReadDelay()
+    {
+        if(clock != null && SYSFLAG_IOPORTDELAY)
+            Clock.timePasses(clock, IOPortHandler.IOPORT_READ_DELAY);
+    }
+
+    public int getStringWords(int address)
+    {
+        IOPortCapable device = ioPortDevice[address];
+        if(device instanceof IOPortStringCapable)
+            return ((IOPortStringCapable)device).getStringWords(address);
+        return 0;
+    }
+
+    public byte[] getStringBuffer(int address)
+    {
+        return ((IOPortStringCapable)ioPortDevice[address]).getStringBuffer(address);
+    }
+
+    public int getStringOffset(int address)
+    {
+        return ((IOPortStringCapable)ioPortDevice[address]).getStringOffset(address);
+    }
+
+    public void stringWordsDone(int address, int words)
+    {
+        ((IOPortStringCapable)ioPortDevice[address]).stringWordsDone(address, words);
+    }
+
     public int[] ioPortsRequested()
     {
         return null;
@@ -165,6 +228,7 @@ public class IOPortHandler extends AbstractHardwareComponent implements IOPortCa
             if (ioPortDevice[port] == defaultDevice)
                 ioPortDevice[port] = device;
         }
+        rebuildRanges();
     }
 
     /**
@@ -182,6 +246,7 @@ public class IOPortHandler extends AbstractHardwareComponent implements IOPortCa
             if (ioPortDevice[port] == device)
                 ioPortDevice[port] = defaultDevice;
         }
+        rebuildRanges();
     }
 
     public void reset()
@@ -189,6 +254,52 @@ public class IOPortHandler extends AbstractHardwareComponent implements IOPortCa
         ioPortDevice = new IOPortCapable[MAX_IOPORTS];
         for (int i = 0; i < ioPortDevice.length; i++)
             ioPortDevice[i] = defaultDevice;
+        rebuildRanges();
+    }
+
+    /**
+     * Recompute the range table from the per-port array after the mapping
+     * changed.  Runs of ports on the same device become one range, unconnected
+     * ports are left out.
+     */
+    private void rebuildRanges()
+    {
+        int count = 0;
+        for(int i = 0; i < ioPortDevice.length; i++) {
+            if(ioPortDevice[i] == null)
+                ioPortDevice[i] = defaultDevice;
+            if(ioPortDevice[i] != defaultDevice && (i == 0 || ioPortDevice[i - 1] != ioPortDevice[i]))
+                count++;
+        }
+
+        rangeCount = count;
+        rangeBase = new int[count];
+        rangeLength = new int[count];
+        rangeDevice = new IOPortCapable[count];
+        int j = -1;
+        for(int i = 0; i < ioPortDevice.length; i++) {
+            if(ioPortDevice[i] == defaultDevice)
+                continue;
+            if(i == 0 || ioPortDevice[i - 1] != ioPortDevice[i]) {
+                j++;
+                rangeBase[j] = i;
+                rangeDevice[j] = ioPortDevice[i];
+            }
+            rangeLength[j]++;
+        }
+    }
+
+    /**
+     * Refill the per-port array from the range table.
+     */
+    private void rebuildLookup()
+    {
+        ioPortDevice = new IOPortCapable[MAX_IOPORTS];
+        for(int i = 0; i < ioPortDevice.length; i++)
+            ioPortDevice[i] = defaultDevice;
+        for(int i = 0; i < rangeCount; i++)
+            for(int j = 0; j < rangeLength[i]; j++)
+                ioPortDevice[rangeBase[i] + j] = rangeDevice[i];
     }
 
     public String toString()
@@ -0,0 +1,77 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.emulator.motherboard;
+
+/**
+ * An ioport device that can expose the buffer behind a word wide data port,
+ * so that string I/O (<code>REP INSW</code>/<code>REP OUTSW</code>) can move
+ * data without a call per word.
+ * <p>
+ * A caller gets the span with <code>getStringWords</code>,
+ * <code>getStringBuffer</code> and <code>getStringOffset</code>, reads or
+ * writes whole words in it in order, and then reports how many it moved with
+ * <code>stringWordsDone</code>.
+ */
+public interface IOPortStringCapable
+{
+    /**
+     * Returns the number of whole words that consecutive word accesses to
+     * ioport <code>address</code> would move from or to the buffer, with no
+     * other side effect until the last of them. Zero if the port has no such
+     * buffer right now.
+     * @param address ioport accessed.
+     * @return words available.
+     */
+    public int getStringWords(int address);
+
+    /**
+     * Returns the buffer backing the current span on ioport <code>address</code>.
+     * @param address ioport accessed.
+     * @return buffer words are read from or written to.
+     */
+    public byte[] getStringBuffer(int address);
+
+    /**
+     * Returns the byte offset of the first word of the current span in the
+     * buffer.
+     * @param address ioport accessed.
+     * @return byte offset into buffer.
+     */
+    public int getStringOffset(int address);
+
+    /**
+     * Completes a transfer of <code>words</code> words done directly in the
+     * buffer. The effect is the same as that of as many word accesses to
+     * ioport <code>address</code>.
+     * @param address ioport accessed.
+     * @param words number of words moved, at most <code>getStringWords(address)</code>.
+     */
+    public void stringWordsDone(int address, int words);
+}
@@ -39,7 +39,7 @@ import java.io.*;
  *
  * @author Chris Dennis
  */
-public class IDEChannel extends AbstractHardwareComponent implements IOPortCapable {
+public class IDEChannel extends AbstractHardwareComponent implements IOPortCapable, IOPortStringCapable {
 
     private IDEState[] devices;
     private IDEState currentDevice;
@@ -242,6 +242,30 @@ public class IDEChannel extends AbstractHardwareComponent implements IOPortCapab
         }
     }
 
+    public int getStringWords(int address) {
+        if (address != ioBase && address != ioBase + 1)
+            return 0;
+        int bytes = currentDevice.dataBufferEnd - currentDevice.dataBufferOffset;
+        return (bytes > 0) ? bytes >> 1 : 0;
+    }
+
+    public byte[] getStringBuffer(int address) {
+        return currentDevice.dataBuffer;
+    }
+
+    public int getStringOffset(int address) {
+        return currentDevice.dataBufferOffset;
+    }
+
+    public void stringWordsDone(int address, int words) {
+        if (words <= 0)
+            return;
+        currentDevice.dataBufferOffset += 2 * words;
+        if (currentDevice.dataBufferOffset >= currentDevice.dataBufferEnd) {
+            currentDevice.endTransfer(currentDevice.endTransferFunction);
+        }
+    }
+
     public int[] ioPortsRequested() {
         if (ioBaseTwo == 0) {
             return new int[]{ioBase, ioBase + 1,
@@ -44,6 +44,8 @@ import org.jpc.emulator.SRLoader;
 import org.jpc.emulator.SRDumper;
 import org.jpc.emulator.SRDumpable;
 import org.jpc.emulator.DisplayController;
+import org.jpc.emulator.StateFingerprint;
+import org.jpc.output.OutputFrameImage;
 
 import java.io.*;
 
@@ -289,6 +291,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
     private boolean updated;
 
     private TraceTrap traceTrap;
+    private FrameListener frameListener;
 
     private boolean ioportRegistered;
     private boolean pciRegistered;
@@ -336,6 +339,41 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
     private boolean paletteDebuggingEnabled;  //Not saved.
     private PrintStream vgaDebugSaveIO;           //Not saved.
 
+    //Low memory access mode decoded from GR/SR registers. Redecoded on first access after those change. Not saved.
+    private boolean lowAccessDirty = true;
+    private int lowMapMode;
+    private boolean lowChain4;
+    private boolean lowOddEven;
+    private int lowOddEvenPlane;
+    private boolean lowReadMode1;
+    private int lowReadShift;
+    private int lowColorCompare, lowColorDontCare;
+    private int lowWriteMode;
+    private int lowRotate;
+    private int lowFunction;
+    private int lowSetMask, lowSetReset;
+    private int lowBitMask;
+    private int lowMapMask, lowWriteMask;
+
+    //Text mode glyph cache: rendered cells indexed by (dup9, attribute, character). Flushed when font data, font
+    //offsets, text palette, cell size or display mode change, and when full. Not saved.
+    private static final int GLYPH_CACHE_MAX = 8192;   //Twice the cells of a 80x50 screen, at most ~5MB.
+    private int[][] glyphCache;
+    private int[] glyphCacheUsed;
+    private int glyphCacheUsedCount;
+
+    //Off-thread rendering: a shadow card owning the render state draws each frame on a worker thread while
+    //emulation continues. The frame is queued at its retrace and held at the next retrace or on stop. Not saved.
+    private volatile boolean asyncRenderRequested;
+    private boolean asyncRender;
+    private boolean asyncResync;
+    private boolean asyncAhead;
+    private boolean panningChanged;
+    private VGACard asyncShadow;
+    private AsyncRenderer asyncRenderer;
+    private VGARAMIORegion asyncSource;
+    private OutputFrameImage asyncPendingFrame;
+
     public String STATUS_Frame_number;
     public String STATUS_Frame_rate;
     public String STATUS_Hardware_scrolls;
@@ -725,6 +763,13 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         vgaScroll2HackFlag = true;
     }
 
+    //Takes effect at the next retrace. Frames are identical either way, but while running each one reaches the
+    //output (and frame hooks) one retrace late. PC.stop() flushes the last one.
+    public void setVGAAsyncRender(boolean enable)
+    {
+        asyncRenderRequested = enable;
+    }
+
     public VGADigitalOut getOutputDevice()
     {
         return outputDevice;
@@ -978,6 +1023,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
             break;
         case 0x3c5:
             sequencerRegister[sequencerRegisterIndex] = data & sequencerRegisterMask[sequencerRegisterIndex];
+            lowAccessDirty = true;
             break;
         case 0x3c7: {
             dacReadIndex = data;
@@ -1021,6 +1067,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
             break;
         case 0x3cf:
             graphicsRegister[graphicsRegisterIndex] = data & graphicsRegisterMask[graphicsRegisterIndex];
+            lowAccessDirty = true;
             break;
         }
     }
@@ -1044,6 +1091,34 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         return vgaScrollChanges;
     }
 
+    //Called at start of vretrace, before the frame is handed to the output. Not saved.
+    public interface FrameListener
+    {
+        public void frameDrawn(long time);
+    }
+
+    public void setFrameListener(FrameListener listener)
+    {
+        frameListener = listener;
+    }
+
+    //Hash of guest visible state: video memory and registers, but not render caches.
+    public long fingerprint(long h)
+    {
+        h = StateFingerprint.mix(h, ioRegion.contentsFingerprint());
+        h = StateFingerprint.hash(sequencerRegister, h);
+        h = StateFingerprint.hash(graphicsRegister, h);
+        h = StateFingerprint.hash(attributeRegister, h);
+        h = StateFingerprint.hash(crtRegister, h);
+        h = StateFingerprint.hash(palette, h);
+        h = StateFingerprint.hash(vbeRegs, h);
+        int[] scalars = new int[]{latch, sequencerRegisterIndex, graphicsRegisterIndex, attributeRegisterIndex,
+            crtRegisterIndex, attributeRegisterFlipFlop ? 1 : 0, miscellaneousOutputRegister, featureControlRegister,
+            st00, st01, dacReadIndex, dacWriteIndex, dacSubIndex, dacState, bankOffset, vbeIndex, vbeStartAddress,
+            vbeLineOffset};
+        return StateFingerprint.hash(scalars, h);
+    }
+
     private final int vgaIOPortReadByte(int address)
     {
         if((address >= 0x3b0 && address <= 0x3bf && ((miscellaneousOutputRegister & MOR_COLOR_EMULATION) != 0)) ||
@@ -1230,6 +1305,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
                         sequencerRegister[SR_INDEX_MAP_MASK] |= 0x0f; /* activate all planes */
                     }
                     graphicsRegister[GR_INDEX_GRAPHICS_MODE] = (graphicsRegister[GR_INDEX_GRAPHICS_MODE] & ~0x60) | (shiftControl << 5);
+                    lowAccessDirty = true;
                     crtRegister[CR_INDEX_MAX_SCANLINE] &= ~0x9f; /* no double scan */
                 } else {
                     /* XXX: the bios should do that */
@@ -1301,6 +1377,8 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
 
     private final void internalReset()
     {
+        syncBackAsyncRender();
+        asyncResync = true;
         latch = 0;
         sequencerRegisterIndex = graphicsRegisterIndex = attributeRegisterIndex = crtRegisterIndex = 0;
             attributeRegisterFlipFlop = false;
@@ -1322,6 +1400,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         usePixelPanning = 0;
         byteSkip = 0;
         planeUpdated = 0;
+        flushGlyphCache();
         lastCW = lastCH = 0;
         lastWidth = lastHeight = 0;
         lastScreenWidth = lastScreenHeight = 0;
@@ -1340,6 +1419,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         graphicsRegister = new int[256];
         attributeRegister = new int[256];
         crtRegister = new int[256];
+        lowAccessDirty = true;
 
         graphicMode = -1;
     }
@@ -1351,12 +1431,200 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
 
     public int getWidth()
     {
-        return lastScreenWidth;
+        return asyncAhead ? asyncShadow.lastScreenWidth : lastScreenWidth;
     }
 
     public int getHeight()
     {
-        return lastScreenHeight;
+        return asyncAhead ? asyncShadow.lastScreenHeight : lastScreenHeight;
+    }
+
+    private final void decodeLowAccess()
+    {
+        int graphicsMode = graphicsRegister[GR_INDEX_GRAPHICS_MODE];
+        lowMapMode = (graphicsRegister[GR_INDEX_MISC] >>> 2) & 3;
+        lowChain4 = (sequencerRegister[SR_INDEX_SEQ_MEMORY_MODE] & 0x08) != 0;
+        lowOddEven = (graphicsMode & 0x10) != 0;
+        lowOddEvenPlane = graphicsRegister[GR_INDEX_READ_MAP_SELECT] & 2;
+        lowReadMode1 = (graphicsMode & 0x08) != 0;
+        lowReadShift = graphicsRegister[GR_INDEX_READ_MAP_SELECT] * 8;
+        lowColorCompare = mask16[graphicsRegister[GR_INDEX_COLOR_COMPARE]];
+        lowColorDontCare = mask16[graphicsRegister[GR_INDEX_COLOR_DONT_CARE]];
+        lowWriteMode = graphicsMode & 3;
+        lowRotate = graphicsRegister[GR_INDEX_DATA_ROTATE] & 7;
+        lowFunction = graphicsRegister[GR_INDEX_DATA_ROTATE] >>> 3;
+        lowSetMask = mask16[graphicsRegister[GR_INDEX_ENABLE_SETRESET]];
+        lowSetReset = mask16[graphicsRegister[GR_INDEX_SETRESET]];
+        lowBitMask = graphicsRegister[GR_INDEX_BITMASK];
+        lowMapMask = sequencerRegister[SR_INDEX_MAP_MASK];
+        lowWriteMask = mask16[lowMapMask];
+        lowAccessDirty = false;
+    }
+
+    //Convert A0000-BFFFF window offset to VGA memory offset. Returns -1 if outside current memory map.
+    private final int mapLowOffset(int offset)
+    {
+        offset &= 0x1ffff;
+        switch (lowMapMode) {
+        case 0:
+            return offset;
+        case 1:
+            if(offset >= 0x10000)
+                return -1;
+            return offset + bankOffset;
+        case 2:
+            offset -= 0x10000;
+            if((offset >= 0x8000) || (offset < 0))
+                return -1;
+            return offset;
+        default:
+        case 3:
+            offset -= 0x18000;
+            //should be (unsigned) if(offset >= 0x8000) but anding above "offset &= 0x1ffff;" means <=> the below
+            if(offset < 0)
+                return -1;
+            return offset;
+        }
+    }
+
+    //VGA memory offset of len bytes at offset if they can be accessed directly as one chain 4 span, else -1.
+    private final int lowChainedOffset(int offset, int len)
+    {
+        if(lowAccessDirty)
+            decodeLowAccess();
+        if(!lowChain4 || vgaDebugSaveIO != null)
+            return -1;
+        int start = mapLowOffset(offset);
+        if(start < 0 || mapLowOffset(offset + len - 1) != start + len - 1)
+            return -1;
+        //Spans past the end of the grown buffer go bytewise, the multibyte accessors don't grow it right.
+        if(start + len > ioRegion.buffer.length)
+            return -1;
+        return start;
+    }
+
+    private final byte lowRead(int offset)
+    {
+        if(lowAccessDirty)
+            decodeLowAccess();
+        boolean oddEven = lowOddEven && (offset & 0x1ffff) >= 0x10000;   //Locked out in graphics memory.
+        offset = mapLowOffset(offset);
+        if(offset < 0)
+            return (byte) 0xff;
+
+        if(lowChain4) {
+            /* chain 4 mode : simplest access */
+            return ioRegion.getByte(offset);
+        } else if(oddEven) {
+            /* odd/even mode (aka text mode mapping) */
+            int plane = lowOddEvenPlane | (offset & 1);
+            return ioRegion.getByte(((offset & ~1) << 1) | plane);
+        }
+
+        /* standard VGA latched access */
+        latch = ioRegion.getDoubleWord(4 * offset);
+        if(!lowReadMode1) {
+            /* read mode 0 */
+            return (byte)(latch >>> lowReadShift);
+        }
+        /* read mode 1 */
+        int ret = (latch ^ lowColorCompare) & lowColorDontCare;
+        ret |= ret >>> 16;
+        ret |= ret >>> 8;
+        return (byte)(~ret);
+    }
+
+    private final void lowWrite(int offset, byte data)
+    {
+        if(vgaDebugSaveIO != null)
+            ioDebug("LOWWRITE " + Integer.toHexString(offset) + " " + Integer.toHexString(data));
+        if(lowAccessDirty)
+            decodeLowAccess();
+        boolean oddEven = lowOddEven && (offset & 0x1ffff) >= 0x10000;   //Locked out in graphics memory.
+        offset = mapLowOffset(offset);
+        if(offset < 0)
+            return;
+
+        if(lowChain4) {
+            /* chain 4 mode : simplest access */
+            int mask = 1 << (offset & 3);
+            if((lowMapMask & mask) != 0) {
+                ioRegion.setByte(offset, data);
+                planeUpdated |= mask; // only used to detect font change
+            }
+            return;
+        } else if(oddEven) {
+            /* odd/even mode (aka text mode mapping) */
+            int plane = lowOddEvenPlane | (offset & 1);
+            int mask = 1 << plane;
+            if((lowMapMask & mask) != 0) {
+                ioRegion.setByte(((offset & ~1) << 1) | plane, data);
+                planeUpdated |= mask; // only used to detect font change
+            }
+            return;
+        }
+
+        /* standard VGA latched access */
+        int bitMask;
+        int intData = 0xff & data;
+        switch (lowWriteMode) {
+        default:
+        case 0:
+            /* rotate */
+            intData |= intData << 8;
+            intData |= intData << 16;
+            intData = (intData >>> lowRotate) | (intData << -lowRotate);
+            /* apply set/reset mask */
+            intData = (intData & ~lowSetMask) | (lowSetReset & lowSetMask);
+            bitMask = lowBitMask;
+            break;
+        case 1:
+            planeUpdated |= lowMapMask; // only used to detect font change
+            offset <<= 2;
+            ioRegion.setDoubleWord(offset, (ioRegion.getDoubleWord(offset) & ~lowWriteMask) |
+                (latch & lowWriteMask));
+            return;
+        case 2:
+            intData = mask16[intData & 0x0f];
+            bitMask = lowBitMask;
+            break;
+        case 3:
+            /* rotate */
+            intData = ((intData >>> lowRotate) | (intData << (8 - lowRotate)));
+            bitMask = lowBitMask & intData;
+            intData = lowSetReset;
+            break;
+        }
+
+        /* apply logical operation */
+        switch (lowFunction) {
+        default:
+        case 0:
+            /* nothing to do */
+            break;
+        case 1:
+            /* and */
+            intData &= latch;
+            break;
+        case 2:
+            /* or */
+            intData |= latch;
+            break;
+        case 3:
+            /* xor */
+            intData ^= latch;
+            break;
+        }
+
+        /* apply bit mask */
+        bitMask |= bitMask << 8;
+        bitMask |= bitMask << 16;
+        intData = (intData & bitMask) | (latch & ~bitMask);
+
+        /* mask data according to map mask */
+        planeUpdated |= lowMapMask; // only used to detect font change
+        offset <<= 2;
+        ioRegion.setDoubleWord(offset, (ioRegion.getDoubleWord(offset) & ~lowWriteMask) | (intData & lowWriteMask));
     }
 
     public static class VGALowMemoryRegion implements Memory
@@ -1395,14 +1663,32 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
             output.endObject();
         }
 
-        public void copyContentsIntoArray(int address, byte[] buffer, int off, int len) {
-            System.err.println("Critical error: CopyContentsIntoArray not supported for low VGA memory.");
-            throw new IllegalStateException("copyContentsInto: Invalid Operation for VGA Card");
+        public void copyContentsIntoArray(int address, byte[] buffer, int off, int len)
+        {
+            for(int i = 0; i < len; i++)
+                buffer[off + i] = upperBackref.lowRead(address + i);
         }
-        public void copyArrayIntoContents(int address, byte[] buffer, int off, int len) {
-            System.err.println("Critical error: CopyArrayIntoContents not supported for low VGA memory.");
-            throw new IllegalStateException("copyContentsFrom: Invalid Operation for VGA Card");
+
+        public void copyArrayIntoContents(int address, byte[] buffer, int off, int len)
+        {
+            if(len <= 0)
+                return;
+            VGACard card = upperBackref;
+            int vgaOffset = card.lowChainedOffset(address, len);
+            if(vgaOffset >= 0) {
+                int planes = (len >= 4) ? 0xf : 0;
+                for(int i = 0; i < len && i < 4; i++)
+                    planes |= 1 << ((vgaOffset + i) & 3);
+                if((card.lowMapMask & planes) == planes) {
+                    card.ioRegion.copyArrayIntoContents(vgaOffset, buffer, off, len);
+                    card.planeUpdated |= planes; // only used to detect font change
+                    return;
+                }
+            }
+            for(int i = 0; i < len; i++)
+                card.lowWrite(address + i, buffer[off + i]);
         }
+
         public long getSize()
         {
             return 0x20000;
@@ -1415,65 +1701,14 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
 
         public byte getByte(int offset)
         {
-            /* convert to VGA memory offset */
-            int memoryMapMode = (upperBackref.graphicsRegister[GR_INDEX_MISC] >>> 2) & 3;
-            offset &= 0x1ffff;
-            boolean fromGraphicsMemory = (offset < 65536);
-            switch (memoryMapMode) {
-            case 0:
-                break;
-            case 1:
-                if(offset >= 0x10000)
-                    return (byte) 0xff;
-                offset += upperBackref.bankOffset;
-                break;
-            case 2:
-                offset -= 0x10000;
-                if((offset >= 0x8000) || (offset < 0))
-                    return (byte) 0xff;
-                break;
-            default:
-            case 3:
-                offset -= 0x18000;
-                if(offset < 0)
-                    return (byte) 0xff;
-                break;
-            }
-
-            //System.err.println("Read from VGA low memory address 0x" + Integer.toHexString(origOffset) + " -> 0x" + Integer.toHexString(offset) + " (mode " + Integer.toHexString(upperBackref.graphicsRegister[GR_INDEX_GRAPHICS_MODE]) + ").");
-
-            boolean oddEven = ((upperBackref.graphicsRegister[GR_INDEX_GRAPHICS_MODE] & 0x10) != 0);
-            if(fromGraphicsMemory)
-                oddEven = false;   //Lock this out in graphics modes.
-
-            if((upperBackref.sequencerRegister[SR_INDEX_SEQ_MEMORY_MODE] & 0x08) != 0) {
-                /* chain 4 mode : simplest access */
-                //return vramPtr[address];
-                return upperBackref.ioRegion.getByte(offset);
-            } else if(oddEven) {
-                /* odd/even mode (aka text mode mapping) */
-                int plane = (upperBackref.graphicsRegister[GR_INDEX_READ_MAP_SELECT] & 2) | (offset & 1);
-                return upperBackref.ioRegion.getByte(((offset & ~1) << 1) | plane);
-            } else {
-                /* standard VGA latched access */
-                upperBackref.latch = upperBackref.ioRegion.getDoubleWord(4 * offset);
-
-                if((upperBackref.graphicsRegister[GR_INDEX_GRAPHICS_MODE] & 0x08) == 0) {
-                    /* read mode 0 */
-                    return (byte)(upperBackref.latch >>> (upperBackref.graphicsRegister[GR_INDEX_READ_MAP_SELECT] * 8));
-                } else {
-                    /* read mode 1 */
-                    int ret = (upperBackref.latch ^ mask16[upperBackref.graphicsRegister[GR_INDEX_COLOR_COMPARE]])
-                        & mask16[upperBackref.graphicsRegister[GR_INDEX_COLOR_DONT_CARE]];
-                    ret |= ret >>> 16;
-                    ret |= ret >>> 8;
-                    return (byte)(~ret);
-                }
-            }
+            return upperBackref.lowRead(offset);
         }
 
         public short getWord(int offset)
         {
+            int vgaOffset = upperBackref.lowChainedOffset(offset, 2);
+            if(vgaOffset >= 0)
+                return upperBackref.ioRegion.getWord(vgaOffset);
             int v = 0xFF & getByte(offset);
             v |= (0xFF & getByte(offset + 1)) << 8;
             return (short) v;
@@ -1481,6 +1716,9 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
 
         public int getDoubleWord(int offset)
         {
+            int vgaOffset = upperBackref.lowChainedOffset(offset, 4);
+            if(vgaOffset >= 0)
+                return upperBackref.ioRegion.getDoubleWord(vgaOffset);
             int v = 0xFF & getByte(offset);
             v |= (0xFF & getByte(offset + 1)) << 8;
             v |= (0xFF & getByte(offset + 2)) << 16;
@@ -1490,14 +1728,8 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
 
         public long getQuadWord(int offset)
         {
-            long v = 0xFFl & getByte(offset);
-            v |= (0xFFl & getByte(offset + 1)) << 8;
-            v |= (0xFFl & getByte(offset + 2)) << 16;
-            v |= (0xFFl & getByte(offset + 3)) << 24;
-            v |= (0xFFl & getByte(offset + 4)) << 32;
-            v |= (0xFFl & getByte(offset + 5)) << 40;
-            v |= (0xFFl & getByte(offset + 6)) << 48;
-            v |= (0xFFl & getByte(offset + 7)) << 56;
+            long v = 0xFFFFFFFFl & getDoubleWord(offset);
+            v |= (0xFFFFFFFFl & getDoubleWord(offset + 4)) << 32;
             return v;
         }
 
@@ -1513,149 +1745,42 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
 
         public void setByte(int offset, byte data)
         {
-            /* convert to VGA memory offset */
-            upperBackref.ioDebug("LOWWRITE " + Integer.toHexString(offset) + " " + Integer.toHexString(data));
-            int memoryMapMode = (upperBackref.graphicsRegister[GR_INDEX_MISC] >>> 2) & 3;
-            offset &= 0x1ffff;
-            boolean fromGraphicsMemory = (offset < 65536);
-            switch (memoryMapMode) {
-            case 0:
-                break;
-            case 1:
-                if(offset >= 0x10000)
-                    return;
-                offset += upperBackref.bankOffset;
-                break;
-            case 2:
-                offset -= 0x10000;
-                if((offset >= 0x8000) || (offset < 0))
-                    return;
-                break;
-            default:
-            case 3:
-                offset -= 0x18000;
-                //should be (unsigned) if(offset >= 0x8000) but anding above "offset &= 0x1ffff;" means <=> the below
-                if(offset < 0)
-                    return;
-                break;
-            }
-
-            boolean oddEven = ((upperBackref.graphicsRegister[GR_INDEX_GRAPHICS_MODE] & 0x10) != 0);
-            if(fromGraphicsMemory)
-                oddEven = false;   //Lock this out in graphics modes.
-
-            if((upperBackref.sequencerRegister[SR_INDEX_SEQ_MEMORY_MODE] & 0x08) != 0) {
-                /* chain 4 mode : simplest access */
-                int plane = offset & 3;
-                int mask = 1 << plane;
-                if((upperBackref.sequencerRegister[SR_INDEX_MAP_MASK] & mask) != 0) {
-                    upperBackref.ioRegion.setByte(offset, data);
-                    upperBackref.planeUpdated |= mask; // only used to detect font change
-                }
-            } else if(oddEven) {
-                /* odd/even mode (aka text mode mapping) */
-                int plane = (upperBackref.graphicsRegister[GR_INDEX_READ_MAP_SELECT] & 2) | (offset & 1);
-                int mask = 1 << plane;
-                if((upperBackref.sequencerRegister[SR_INDEX_MAP_MASK] & mask) != 0) {
-                    upperBackref.ioRegion.setByte(((offset & ~1) << 1) | plane, data);
-                    upperBackref.planeUpdated |= mask; // only used to detect font change
-                }
-            } else {
-                /* standard VGA latched access */
-                int bitMask = 0;
-                int writeMode = upperBackref.graphicsRegister[GR_INDEX_GRAPHICS_MODE] & 3;
-                int intData = 0xff & data;
-                switch (writeMode) {
-                default:
-                case 0:
-                    /* rotate */
-                    int b = upperBackref.graphicsRegister[GR_INDEX_DATA_ROTATE] & 7;
-                    intData |= intData << 8;
-                    intData |= intData << 16;
-                    intData = (intData >>> b) | (intData << -b);
-                    //Integer.rotateRight(intData, b);
-
-                    /* apply set/reset mask */
-                    int setMask = mask16[upperBackref.graphicsRegister[GR_INDEX_ENABLE_SETRESET]];
-                    intData = (intData & ~setMask) | (mask16[upperBackref.graphicsRegister[GR_INDEX_SETRESET]] & setMask);
-                    bitMask = upperBackref.graphicsRegister[GR_INDEX_BITMASK];
-                    break;
-                case 1:
-                    intData = upperBackref.latch;
-                    int mask = upperBackref.sequencerRegister[SR_INDEX_MAP_MASK];
-                    upperBackref.planeUpdated |= mask; // only used to detect font change
-                    int writeMask = mask16[mask];
-                    //check address being used here;
-                    offset <<= 2;
-                    upperBackref.ioRegion.setDoubleWord(offset, (upperBackref.ioRegion.getDoubleWord(offset) &
-                        ~writeMask) | (intData & writeMask));
-                    return;
-                case 2:
-                    intData = mask16[intData & 0x0f];
-                    bitMask = upperBackref.graphicsRegister[GR_INDEX_BITMASK];
-                    break;
-                case 3:
-                    /* rotate */
-                    b = upperBackref.graphicsRegister[GR_INDEX_DATA_ROTATE] & 7;
-                    intData = ((intData >>> b) | (intData << (8-b)));
-                    bitMask = upperBackref.graphicsRegister[GR_INDEX_BITMASK] & intData;
-                    intData = mask16[upperBackref.graphicsRegister[GR_INDEX_SETRESET]];
-                    break;
-                }
-
-                /* apply logical operation */
-                int funcSelect = upperBackref.graphicsRegister[GR_INDEX_DATA_ROTATE] >>> 3;
-                switch (funcSelect) {
-                default:
-                case 0:
-                    /* nothing to do */
-                    break;
-                case 1:
-                    /* and */
-                    intData &= upperBackref.latch;
-                    break;
-                case 2:
-                    /* or */
-                    intData |= upperBackref.latch;
-                    break;
-                case 3:
-                    /* xor */
-                    intData ^= upperBackref.latch;
-                    break;
-                }
-
-                /* apply bit mask */
-                bitMask |= bitMask << 8;
-                bitMask |= bitMask << 16;
-                intData = (intData & bitMask) | (upperBackref.latch & ~bitMask);
-
-                /* mask data according to sequencerRegister[SR_INDEX_MAP_MASK] */
-                int mask = upperBackref.sequencerRegister[SR_INDEX_MAP_MASK];
-                upperBackref.planeUpdated |= mask; // only used to detect font change
-                int writeMask = mask16[mask];
-                offset <<= 2;
-                //check address being used here;
-                upperBackref.ioRegion.setDoubleWord(offset, (upperBackref.ioRegion.getDoubleWord(offset) &
-                    ~writeMask) | (intData & writeMask));
-            }
+            upperBackref.lowWrite(offset, data);
         }
 
         public void setWord(int offset, short data)
         {
-            setByte(offset++, (byte)data);
+            VGACard card = upperBackref;
+            int vgaOffset = card.lowChainedOffset(offset, 2);
+            if(vgaOffset >= 0) {
+                int planes = (1 << (vgaOffset & 3)) | (1 << ((vgaOffset + 1) & 3));
+                if((card.lowMapMask & planes) == planes) {
+                    card.ioRegion.setWord(vgaOffset, data);
+                    card.planeUpdated |= planes; // only used to detect font change
+                    return;
+                }
+            }
+            card.lowWrite(offset++, (byte)data);
             data >>>= 8;
-            setByte(offset, (byte)data);
+            card.lowWrite(offset, (byte)data);
         }
 
         public void setDoubleWord(int offset, int data)
         {
-            setByte(offset++, (byte)data);
+            VGACard card = upperBackref;
+            int vgaOffset = card.lowChainedOffset(offset, 4);
+            if(vgaOffset >= 0 && card.lowMapMask == 0xf) {
+                card.ioRegion.setDoubleWord(vgaOffset, data);
+                card.planeUpdated |= 0xf; // only used to detect font change
+                return;
+            }
+            card.lowWrite(offset++, (byte)data);
             data >>>= 8;
-            setByte(offset++, (byte)data);
+            card.lowWrite(offset++, (byte)data);
             data >>>= 8;
-            setByte(offset++, (byte)data);
+            card.lowWrite(offset++, (byte)data);
             data >>>= 8;
-            setByte(offset, (byte)data);
+            card.lowWrite(offset, (byte)data);
         }
 
         public void setQuadWord(int offset, long data)
@@ -1716,6 +1841,11 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         private byte[] buffer;
         private int startAddress;
         private boolean[] dirtyPages;
+        private boolean contentsCleared;  //Not saved.
+        private int[] writeGenerations;   //Not saved, bumped by every write to the page.
+        private int[] hashedGenerations;  //Not saved, generation each page hash was taken at.
+        private long[] pageHashes;        //Not saved.
+        private long contentsHash;        //Not saved, sum of pageHashes.
 
         public void dumpSRPartial(SRDumper output) throws IOException
         {
@@ -1731,6 +1861,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
             buffer = input.loadArrayByte();
             startAddress = input.loadInt();
             dirtyPages = input.loadArrayBoolean();
+            writeGenerations = new int[dirtyPages.length];
         }
 
         public void dumpStatusPartial(StatusDumper output)
@@ -1758,6 +1889,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
             dirtyPages = new boolean[(VGA_RAM_SIZE >>> PAGE_SHIFT) + 1];
             for(int i = 0; i < dirtyPages.length; i++)
                 dirtyPages[i] = false;
+            writeGenerations = new int[dirtyPages.length];
 
             startAddress = -1;
         }
@@ -1786,7 +1918,14 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
 
         public void copyArrayIntoContents(int address, byte[] buf, int off, int len)
         {
+            if(len <= 0)
+                return;
+            if(address + len > buffer.length)
+                increaseVGARAMSize(address + len - 1);
             System.arraycopy(buf, off, buffer, address, len);
+            int pageLimit = (address + len - 1) >>> PAGE_SHIFT;
+            for(int i = address >>> PAGE_SHIFT; i <= pageLimit; i++)
+                markWritten(i);
         }
 
         public void clear()
@@ -1794,8 +1933,53 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
             for(int i = 0; i < buffer.length; i++)
                 buffer[i] = 0;
 
-            for(int i = 0; i < dirtyPages.length; i++)
+            for(int i = 0; i < dirtyPages.length; i++) {
+                dirtyPages[i] = false;
+                writeGenerations[i]++;
+            }
+            contentsCleared = true;
+        }
+
+        //Bring a shadow copy up to date: pages written since the last call are copied over and marked dirty there,
+        //and become clean here. After clear() the whole buffer and dirty map are copied instead.
+        void copyDirtyPagesTo(VGARAMIORegion target)
+        {
+            if(contentsCleared) {
+                copyAllTo(target);
+                return;
+            }
+            if(target.buffer.length < buffer.length)
+                target.increaseVGARAMSize(buffer.length - 1);
+            for(int i = 0; i < dirtyPages.length; i++) {
+                if(!dirtyPages[i])
+                    continue;
+                int start = i << PAGE_SHIFT;
+                if(start < buffer.length)
+                    System.arraycopy(buffer, start, target.buffer, start, Math.min(1 << PAGE_SHIFT, buffer.length - start));
+                target.markWritten(i);
                 dirtyPages[i] = false;
+            }
+        }
+
+        void copyAllTo(VGARAMIORegion target)
+        {
+            if(target.buffer.length < buffer.length)
+                target.increaseVGARAMSize(buffer.length - 1);
+            System.arraycopy(buffer, 0, target.buffer, 0, buffer.length);
+            for(int i = buffer.length; i < target.buffer.length; i++)
+                target.buffer[i] = 0;
+            System.arraycopy(dirtyPages, 0, target.dirtyPages, 0, dirtyPages.length);
+            for(int i = 0; i < dirtyPages.length; i++) {
+                dirtyPages[i] = false;
+                target.writeGenerations[i]++;
+            }
+            contentsCleared = false;
+        }
+
+        void mergeDirtyPagesFrom(VGARAMIORegion source)
+        {
+            for(int i = 0; i < dirtyPages.length; i++)
+                dirtyPages[i] |= source.dirtyPages[i];
         }
 
         public void clear(int start, int length)
@@ -1810,7 +1994,36 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
             int pageStart = start >>> PAGE_SHIFT;
             int pageLimit = (limit - 1) >>> PAGE_SHIFT;
             for(int i = pageStart; i <= pageLimit; i++)
-                dirtyPages[i] = true;
+                markWritten(i);
+        }
+
+        private void markWritten(int page)
+        {
+            dirtyPages[page] = true;
+            writeGenerations[page]++;
+        }
+
+        //Hash of the contents. Only pages written since the last call are rehashed; pages combine by addition,
+        //so one can be replaced without touching the rest.
+        long contentsFingerprint()
+        {
+            if(hashedGenerations == null) {
+                hashedGenerations = new int[writeGenerations.length];
+                pageHashes = new long[writeGenerations.length];
+                for(int i = 0; i < hashedGenerations.length; i++)
+                    hashedGenerations[i] = writeGenerations[i] - 1;
+            }
+            //Pages the buffer grew into were never hashed, so they mismatch too.
+            int pages = buffer.length >>> PAGE_SHIFT;
+            for(int i = 0; i < pages; i++) {
+                if(hashedGenerations[i] == writeGenerations[i])
+                    continue;
+                long h = StateFingerprint.finish(StateFingerprint.hash(buffer, i << PAGE_SHIFT, 1 << PAGE_SHIFT, i));
+                contentsHash += h - pageHashes[i];
+                pageHashes[i] = h;
+                hashedGenerations[i] = writeGenerations[i];
+            }
+            return StateFingerprint.mix(contentsHash, buffer.length);
         }
 
         public boolean pageIsDirty(int i)
@@ -1853,7 +2066,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         {
             try
             {
-                dirtyPages[offset >>> PAGE_SHIFT] = true;
+                markWritten(offset >>> PAGE_SHIFT);
                 buffer[offset] = data;
             }
             catch (ArrayIndexOutOfBoundsException e)
@@ -1881,10 +2094,10 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
             try
             {
                 buffer[offset] = (byte) data;
-                dirtyPages[offset >>> PAGE_SHIFT] = true;
+                markWritten(offset >>> PAGE_SHIFT);
                 offset++;
                 buffer[offset] = (byte) (data >> 8);
-                dirtyPages[offset >>> PAGE_SHIFT] = true;
+                markWritten(offset >>> PAGE_SHIFT);
             }
             catch (ArrayIndexOutOfBoundsException e)
             {
@@ -1913,7 +2126,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         {
             try
             {
-                dirtyPages[offset >>> PAGE_SHIFT] = true;
+                markWritten(offset >>> PAGE_SHIFT);
                 buffer[offset] = (byte) data;
                 offset++;
                 data >>= 8;
@@ -1924,7 +2137,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
                 offset++;
                 data >>= 8;
                 buffer[offset] = (byte) (data);
-                dirtyPages[offset >>> PAGE_SHIFT] = true;
+                markWritten(offset >>> PAGE_SHIFT);
             }
             catch (ArrayIndexOutOfBoundsException e)
             {
@@ -2007,6 +2220,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         {
             this.graphicMode = detGraphicMode;
             fullUpdate = true;
+            flushGlyphCache();
         }
 
         switch(graphicMode)
@@ -2032,6 +2246,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         boolean temp = updatePalette16();
         fullUpdate |= temp;
         int[] palette = lastPalette;
+        boolean glyphsChanged = temp;
 
         /* compute font data address (in plane 2) */
         int v = this.sequencerRegister[SR_INDEX_CHAR_MAP_SELECT];
@@ -2040,6 +2255,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         if(offset != this.fontOffset[0]) {
             this.fontOffset[0] = offset;
             fullUpdate = true;
+            glyphsChanged = true;
         }
 
 
@@ -2047,6 +2263,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         if(offset != this.fontOffset[1]) {
             this.fontOffset[1] = offset;
             fullUpdate = true;
+            glyphsChanged = true;
         }
 
         if((this.planeUpdated & (1 << 2)) != 0) {
@@ -2054,6 +2271,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
                indicates the font may have been modified */
             this.planeUpdated = 0;
             fullUpdate = true;
+            glyphsChanged = true;
         }
 
         int srcIndex = this.startAddress * 4;
@@ -2091,8 +2309,12 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
             this.lastCH = charHeight;
             this.lastCW = charWidth;
             fullUpdate = true;
+            glyphsChanged = true;
         }
 
+        if(glyphsChanged)
+            flushGlyphCache();
+
         int curCursorOffset = ((crtRegister[CR_INDEX_CURSOR_LOC_HIGH] << 8) | crtRegister[CR_INDEX_CURSOR_LOC_LOW]) - this.startAddress;
 
         if((curCursorOffset != this.cursorOffset) || (crtRegister[CR_INDEX_CURSOR_START] != this.cursorStart) ||
@@ -2128,8 +2350,9 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
                         int backgroundColor = palette[characterAttribute >>> 4];
                         int foregroundColor = palette[characterAttribute & 0xf];
 
-                        drawGlyph8(outputDevice.getDisplayBuffer(), charY * charHeight * lastScreenWidth + charX * 8,
-                            lastScreenWidth, glyphOffset, charHeight, foregroundColor, backgroundColor);
+                        blitGlyph(cachedGlyph(charShort, false, glyphOffset, 8, charHeight, foregroundColor,
+                            backgroundColor), outputDevice.getDisplayBuffer(), charY * charHeight * lastScreenWidth +
+                            charX * 8, lastScreenWidth, 8, charHeight);
                         outputDevice.dirtyDisplayRegion(charX * 8, charY * charHeight, 8, charHeight);
 
                         if((srcOffset == cursorIndex) && ((crtRegister[CR_INDEX_CURSOR_START] & 0x20) == 0)) {
@@ -2170,8 +2393,9 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
                         int foregroundColor = palette[characterAttribute & 0xf];
 
                         boolean dup9 = ((character >= 0xb0) && (character <= 0xdf) && ((attributeRegister[AR_INDEX_ATTR_MODE_CONTROL] & 0x04) != 0));
-                        drawGlyph9(outputDevice.getDisplayBuffer(), charY * charHeight * lastScreenWidth + charX * 9,
-                            lastScreenWidth, glyphOffset, charHeight, foregroundColor, backgroundColor, dup9);
+                        blitGlyph(cachedGlyph(charShort, dup9, glyphOffset, 9, charHeight, foregroundColor,
+                            backgroundColor), outputDevice.getDisplayBuffer(), charY * charHeight * lastScreenWidth +
+                            charX * 9, lastScreenWidth, 9, charHeight);
                         outputDevice.dirtyDisplayRegion(charX * 9, charY * charHeight, 9, charHeight);
 
                         if((srcOffset == cursorIndex) &&((crtRegister[CR_INDEX_CURSOR_START] & 0x20) == 0)) {
@@ -2211,8 +2435,9 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
                         int backgroundColor = palette[characterAttribute >>> 4];
                         int foregroundColor = palette[characterAttribute & 0xf];
 
-                        drawGlyph16(outputDevice.getDisplayBuffer(), charY * charHeight * lastScreenWidth + charX * 16,
-                            lastScreenWidth, glyphOffset, charHeight, foregroundColor, backgroundColor);
+                        blitGlyph(cachedGlyph(charShort, false, glyphOffset, 16, charHeight, foregroundColor,
+                            backgroundColor), outputDevice.getDisplayBuffer(), charY * charHeight * lastScreenWidth +
+                            charX * 16, lastScreenWidth, 16, charHeight);
                         outputDevice.dirtyDisplayRegion(charX * 16, charY * charHeight, 16, charHeight);
 
                         if((srcOffset == cursorIndex) &&((crtRegister[CR_INDEX_CURSOR_START] & 0x20) == 0)) {
@@ -3203,6 +3428,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
             this.lineCompare = curLineCompare;
             this.usePixelPanning = this.pixelPanning = curPixelPanning;
             this.byteSkip = curByteSkip;
+            panningChanged = true;
             return true;
         }
 
@@ -3216,6 +3442,49 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         return (v << 2) | (b << 1) | b;
     }
 
+    private final void flushGlyphCache()
+    {
+        for(int i = 0; i < glyphCacheUsedCount; i++)
+            glyphCache[glyphCacheUsed[i]] = null;
+        glyphCacheUsedCount = 0;
+    }
+
+    //Get rendered glyph for character/attribute pair, rendering it from plane 2 font data if not cached.
+    private final int[] cachedGlyph(int charShort, boolean dup9, int glyphOffset, int charWidth, int charHeight,
+        int foregroundColor, int backgroundColor)
+    {
+        if(glyphCache == null) {
+            glyphCache = new int[0x20000][];
+            glyphCacheUsed = new int[GLYPH_CACHE_MAX];
+        }
+        int key = (dup9 ? 0x10000 : 0) | charShort;
+        int[] glyph = glyphCache[key];
+        if(glyph != null)
+            return glyph;
+
+        glyph = new int[charWidth * charHeight];
+        if(charWidth == 8)
+            drawGlyph8(glyph, 0, 8, glyphOffset, charHeight, foregroundColor, backgroundColor);
+        else if(charWidth == 9)
+            drawGlyph9(glyph, 0, 9, glyphOffset, charHeight, foregroundColor, backgroundColor, dup9);
+        else
+            drawGlyph16(glyph, 0, 16, glyphOffset, charHeight, foregroundColor, backgroundColor);
+        if(glyphCacheUsedCount == GLYPH_CACHE_MAX)
+            flushGlyphCache();
+        glyphCache[key] = glyph;
+        glyphCacheUsed[glyphCacheUsedCount++] = key;
+        return glyph;
+    }
+
+    private static final void blitGlyph(int[] glyph, int[] buffer, int startOffset, int scanSize, int charWidth,
+        int charHeight)
+    {
+        for(int i = 0; i < charHeight; i++) {
+            System.arraycopy(glyph, i * charWidth, buffer, startOffset, charWidth);
+            startOffset += scanSize;
+        }
+    }
+
     private final void drawGlyph8(int[] buffer, int startOffset, int scanSize, int glyphOffset, int charHeight, int foregroundColor, int backgroundColor)
     {
         int xorColor = backgroundColor ^ foregroundColor;
@@ -3448,6 +3717,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
 
     public void reset()
     {
+        syncBackAsyncRender();
         ioportRegistered = false;
         memoryRegistered = false;
         pciRegistered = false;
@@ -3486,6 +3756,216 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
         redoTimingCalculations();
     }
 
+    //Draw the frame at start of vretrace and hand it to the output.
+    private final void drawFrame()
+    {
+        if(frameListener != null)
+            frameListener.frameDrawn(nextTimerExpiry);
+        boolean async = asyncRenderRequested;
+        if(asyncRender && !async)
+            flushAsyncRender();
+        else if(!asyncRender && async)
+            asyncResync = true;
+        asyncRender = async;
+
+        if(!async) {
+            updateDisplay();
+            frameNumber++;
+            updateStatus();
+            outputDevice.holdOutput(nextTimerExpiry);
+            return;
+        }
+
+        waitAsyncRender();
+        holdPendingFrame();
+        if(asyncShadow == null) {
+            asyncShadow = new VGACard();
+            asyncResync = true;
+        }
+        if(asyncResync || asyncSource != ioRegion) {
+            copyRenderState(this, asyncShadow);
+            asyncShadow.usePixelPanning = usePixelPanning;
+            asyncShadow.planeUpdated = planeUpdated;
+            ioRegion.copyAllTo(asyncShadow.ioRegion);
+            asyncShadow.outputDevice.copyFrom(outputDevice);
+            asyncShadow.flushGlyphCache();
+            asyncSource = ioRegion;
+            asyncResync = false;
+        } else {
+            if(panningChanged)
+                asyncShadow.usePixelPanning = usePixelPanning;
+            asyncShadow.planeUpdated |= planeUpdated;
+            ioRegion.copyDirtyPagesTo(asyncShadow.ioRegion);
+        }
+        planeUpdated = 0;
+        panningChanged = false;
+        copyFrameState(this, asyncShadow);
+
+        frameNumber++;
+        updateStatus();
+        asyncPendingFrame = outputDevice.addPendingOutput(nextTimerExpiry);
+        if(asyncRenderer == null || !asyncRenderer.submit()) {
+            asyncRenderer = new AsyncRenderer(asyncShadow);
+            Thread t = new Thread(asyncRenderer, "VGA renderer");
+            t.setDaemon(true);
+            t.start();
+            asyncRenderer.submit();
+        }
+        asyncAhead = true;
+    }
+
+    /**
+     * Completes any frame being drawn off-thread and hands it to the output, leaving this card in the same state
+     * synchronous drawing would have. Called when the PC stops.
+     */
+    public void flushAsyncRender()
+    {
+        syncBackAsyncRender();
+        holdPendingFrame();
+    }
+
+    private final void waitAsyncRender()
+    {
+        if(asyncRenderer != null)
+            asyncRenderer.waitIdle();
+    }
+
+    private final void holdPendingFrame()
+    {
+        if(asyncPendingFrame == null)
+            return;
+        OutputFrameImage frame = asyncPendingFrame;
+        asyncPendingFrame = null;
+        outputDevice.holdPendingOutput(frame, asyncShadow.outputDevice);
+    }
+
+    //Pull the render state back from the shadow. Dirty pages and updated planes are merged, as both sides may
+    //have collected some since the last frame.
+    private final void syncBackAsyncRender()
+    {
+        if(!asyncAhead)
+            return;
+        waitAsyncRender();
+        copyRenderState(asyncShadow, this);
+        if(!panningChanged)
+            usePixelPanning = asyncShadow.usePixelPanning;
+        planeUpdated |= asyncShadow.planeUpdated;
+        ioRegion.mergeDirtyPagesFrom(asyncShadow.ioRegion);
+        outputDevice.copyFrom(asyncShadow.outputDevice);
+        flushGlyphCache();
+        asyncAhead = false;
+    }
+
+    //State owned by whichever card draws.
+    private static final void copyRenderState(VGACard from, VGACard to)
+    {
+        to.cursorStart = from.cursorStart;
+        to.cursorEnd = from.cursorEnd;
+        to.cursorOffset = from.cursorOffset;
+        to.shiftControl = from.shiftControl;
+        to.doubleScan = from.doubleScan;
+        to.graphicMode = from.graphicMode;
+        to.lastCW = from.lastCW;
+        to.lastCH = from.lastCH;
+        to.lastWidth = from.lastWidth;
+        to.lastHeight = from.lastHeight;
+        to.lastScreenWidth = from.lastScreenWidth;
+        to.lastScreenHeight = from.lastScreenHeight;
+        System.arraycopy(from.fontOffset, 0, to.fontOffset, 0, from.fontOffset.length);
+        System.arraycopy(from.lastPalette, 0, to.lastPalette, 0, from.lastPalette.length);
+        System.arraycopy(from.lastChar, 0, to.lastChar, 0, from.lastChar.length);
+    }
+
+    //Emulated state read by drawing, as of the retrace.
+    private static final void copyFrameState(VGACard from, VGACard to)
+    {
+        System.arraycopy(from.sequencerRegister, 0, to.sequencerRegister, 0, from.sequencerRegister.length);
+        System.arraycopy(from.graphicsRegister, 0, to.graphicsRegister, 0, from.graphicsRegister.length);
+        System.arraycopy(from.attributeRegister, 0, to.attributeRegister, 0, from.attributeRegister.length);
+        System.arraycopy(from.crtRegister, 0, to.crtRegister, 0, from.crtRegister.length);
+        System.arraycopy(from.vbeRegs, 0, to.vbeRegs, 0, from.vbeRegs.length);
+        System.arraycopy(from.palette, 0, to.palette, 0, from.palette.length);
+        to.attributeRegisterIndex = from.attributeRegisterIndex;
+        to.lineOffset = from.lineOffset;
+        to.lineCompare = from.lineCompare;
+        to.startAddress = from.startAddress;
+        to.pixelPanning = from.pixelPanning;
+        to.byteSkip = from.byteSkip;
+        to.updated = from.updated;
+        to.vgaScroll2HackFlag = from.vgaScroll2HackFlag;
+    }
+
+    //Draws frames of a shadow card. Exits when idle for a while; a new one is started on demand.
+    private static class AsyncRenderer implements Runnable
+    {
+        private static final long IDLE_EXIT = 1000;
+
+        private final VGACard shadow;
+        private boolean busy;
+        private boolean exited;
+        private Throwable failure;
+
+        AsyncRenderer(VGACard card)
+        {
+            shadow = card;
+        }
+
+        synchronized boolean submit()
+        {
+            if(exited)
+                return false;
+            busy = true;
+            notifyAll();
+            return true;
+        }
+
+        synchronized void waitIdle()
+        {
+            while(busy)
+                try {
+                    wait();
+                } catch(InterruptedException e) {
+                }
+            if(failure != null) {
+                Throwable f = failure;
+                failure = null;
+                if(f instanceof Error)
+                    throw (Error)f;
+                if(f instanceof RuntimeException)
+                    throw (RuntimeException)f;
+                throw new IllegalStateException("VGA rendering failed", f);
+            }
+        }
+
+        public void run()
+        {
+            while(true) {
+                synchronized(this) {
+                    if(!busy)
+                        try {
+                            wait(IDLE_EXIT);
+                        } catch(InterruptedException e) {
+                        }
+                    if(!busy) {
+                        exited = true;
+                        return;
+                    }
+                }
+                Throwable f = null;
+                try {
+                    shadow.updateDisplay();
+                } catch(Throwable e) {
+                    f = e;
+                }
+                synchronized(this) {
+                    failure = f;
+                    busy = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
     public int getTimerType()
     {
         return 7;
@@ -3514,10 +3994,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
                         updated = updateBasicParameters();
                     //Wait for monitor to draw. Pre-increment frame count to avoid double draw with
                     //different frame numbers.
-                    updateDisplay();
-                    frameNumber++;
-                    updateStatus();
-                    outputDevice.holdOutput(nextTimerExpiry);
+                    drawFrame();
 
                     long refresh_time = FRAME_TIME-TRACE_TIME;
                     if((frameNumber - 1) % FRAME_ALT_MOD == 0)
@@ -3565,10 +4042,7 @@ public class VGACard extends AbstractPCIDevice implements IOPortCapable, TimerRe
                             updated = updateBasicParameters();
                         //Wait for monitor to draw. Pre-increment frame count to avoid double draw with
                         //different frame numbers.
-                        updateDisplay();
-                        frameNumber++;
-                        updateStatus();
-                        outputDevice.holdOutput(nextTimerExpiry);
+                        drawFrame();
 
                         long refresh_time = draw_vrend-draw_vrstart;
 
@@ -555,6 +555,21 @@ public class Processor implements HardwareComponent
         return result;
     }
 
+    //Same as getEFlags(), but leaves lazily computed flags pending so the saved state is unchanged.
+    public int peekEFlags()
+    {
+        boolean cc = carryCalculated, pc = parityCalculated, ac = auxiliaryCarryCalculated;
+        boolean zc = zeroCalculated, sc = signCalculated, oc = overflowCalculated;
+        boolean cf = eflagsCarry, pf = eflagsParity, af = eflagsAuxiliaryCarry;
+        boolean zf = eflagsZero, sf = eflagsSign, of = eflagsOverflow;
+        int result = getEFlags();
+        carryCalculated = cc; parityCalculated = pc; auxiliaryCarryCalculated = ac;
+        zeroCalculated = zc; signCalculated = sc; overflowCalculated = oc;
+        eflagsCarry = cf; eflagsParity = pf; eflagsAuxiliaryCarry = af;
+        eflagsZero = zf; eflagsSign = sf; eflagsOverflow = of;
+        return result;
+    }
+
     public void setEFlags(int eflags)
     {
         // TODO:  check that there aren't flags which can't be set this way!
@@ -1085,6 +1100,8 @@ public class Processor implements HardwareComponent
 
     public final int getInstructionPointer()
     {
+        if(cs.isFlat())
+            return eip;
         return cs.translateAddressRead(eip);
     }
 
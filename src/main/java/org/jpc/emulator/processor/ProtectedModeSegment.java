@@ -109,6 +109,7 @@ public abstract class ProtectedModeSegment extends Segment
         granularity = input.loadBoolean();
         present = input.loadBoolean();
         system = input.loadBoolean();
+        initFlat();
     }
 
     public ProtectedModeSegment(AddressSpace memory, int selector, long descriptor)
@@ -131,6 +132,18 @@ public abstract class ProtectedModeSegment extends Segment
         defaultSize = (descriptor & (1L << 54)) != 0;
         present = (descriptor & (1L << 47)) != 0;
         system = (descriptor & (1L << 44)) != 0;
+        initFlat();
+    }
+
+    //SegmentFactory picks the class by type, and for all code and non expand-down data segment classes
+    //accesses are plain base + offset after the limit check.
+    private void initFlat()
+    {
+        int type = (int)((descriptor >>> 40) & 0x1f);
+        boolean code = (type & TYPE_CODE) != 0;
+        flat = base == 0 && limit == 0xffffffffL && (type & DESCRIPTOR_TYPE_CODE_DATA) != 0 &&
+            (code || (type & TYPE_DATA_EXPAND_DOWN) == 0);
+        flatWritable = flat && !code && (type & TYPE_DATA_WRITABLE) != 0;
     }
 
     public boolean isPresent()
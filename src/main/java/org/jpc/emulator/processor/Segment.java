@@ -44,6 +44,10 @@ import org.jpc.emulator.StatusDumper;
 public abstract class Segment implements SRDumpable
 {
     protected AddressSpace memory;
+    //Offsets are linear addresses as they are and can't exceed the limit, so accesses skip translation. Only
+    //plain protected mode code and data segments with base 0 and 4GB limit are flat, and only writable data
+    //segments among them are flatWritable.
+    protected boolean flat, flatWritable;
 
     public Segment(AddressSpace memory, boolean dummy)
     {
@@ -55,6 +59,11 @@ public abstract class Segment implements SRDumpable
         this.memory = memory;
     }
 
+    public final boolean isFlat()
+    {
+        return flat;
+    }
+
     public abstract boolean isPresent();
 
     public abstract boolean isSystem();
@@ -87,16 +96,22 @@ public abstract class Segment implements SRDumpable
 
     public byte getByte(int offset)
     {
+        if(flat)
+            return memory.getByte(offset);
         return memory.getByte(translateAddressRead(offset));
     }
 
     public short getWord(int offset)
     {
+        if(flat)
+            return memory.getWord(offset);
         return memory.getWord(translateAddressRead(offset));
     }
 
     public int getDoubleWord(int offset)
     {
+        if(flat)
+            return memory.getDoubleWord(offset);
         return memory.getDoubleWord(translateAddressRead(offset));
     }
 
@@ -111,17 +126,26 @@ public abstract class Segment implements SRDumpable
 
     public void setByte(int offset, byte data)
     {
-        memory.setByte(translateAddressWrite(offset), data);
+        if(flatWritable)
+            memory.setByte(offset, data);
+        else
+            memory.setByte(translateAddressWrite(offset), data);
     }
 
     public void setWord(int offset, short data)
     {
-        memory.setWord(translateAddressWrite(offset), data);
+        if(flatWritable)
+            memory.setWord(offset, data);
+        else
+            memory.setWord(translateAddressWrite(offset), data);
     }
 
     public void setDoubleWord(int offset, int data)
     {
-        memory.setDoubleWord(translateAddressWrite(offset), data);
+        if(flatWritable)
+            memory.setDoubleWord(offset, data);
+        else
+            memory.setDoubleWord(translateAddressWrite(offset), data);
     }
 
     public void setQuadWord(int offset, long data)
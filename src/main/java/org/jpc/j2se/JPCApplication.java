@@ -396,6 +396,20 @@ public class JPCApplication
             return;
         }
 
+        if(args != null && args.length > 0 && "-multirunner".equals(args[0])) {
+            String[] args2 = new String[args.length - 1];
+            System.arraycopy(args, 1, args2, 0, args.length - 1);
+            MultiPCRunner.main(args2);
+            return;
+        }
+
+        if(args != null && args.length > 0 && "-verifier".equals(args[0])) {
+            String[] args2 = new String[args.length - 1];
+            System.arraycopy(args, 1, args2, 0, args.length - 1);
+            MovieVerifier.main(args2);
+            return;
+        }
+
         System.out.println("JPC-RR: Rerecording PC emulator based on JPC PC emulator. Release " + getRelease());
         System.out.println("Revision: " + getRevision());
         System.out.println("Based on JPC PC emulator.");
@@ -0,0 +1,441 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2011 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+package org.jpc.j2se;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import org.jpc.emulator.PC;
+import org.jpc.emulator.TraceRecorder;
+import org.jpc.emulator.VGADigitalOut;
+import org.jpc.emulator.processor.Processor;
+import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.emulator.memory.codeblock.DecoderComparison;
+import org.jpc.emulator.pci.peripheral.VGACard;
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.jrsr.*;
+import static org.jpc.Misc.arrayToString;
+import static org.jpc.Misc.nextParseLine;
+
+//Movie sync verifier. A reference run writes periodic checkpoints (savestate plus RAM and frame hashes), then
+//the segments between consecutive checkpoints can be replayed in parallel, each on its own PC.
+public class MovieVerifier extends MultiPCRunner
+{
+    public static final String CHECKPOINT_MEMBER = "checkpoint";
+
+    public static class Checkpoint
+    {
+        public String fileName;
+        public long targetTime;
+        public long time;
+        public String ramHash;
+        public String frameHash;
+
+        public Checkpoint()
+        {
+        }
+
+        public Checkpoint(PC pc, long target) throws IOException
+        {
+            targetTime = target;
+            time = pc.getTime();
+            ramHash = hashRAM(pc);
+            frameHash = hashFrame(pc);
+        }
+
+        public void save(UTFOutputLineStream lines) throws IOException
+        {
+            lines.encodeLine("TARGETTIME", targetTime);
+            lines.encodeLine("TIME", time);
+            lines.encodeLine("RAMHASH", ramHash);
+            lines.encodeLine("FRAMEHASH", frameHash);
+        }
+
+        public static Checkpoint load(String file) throws IOException
+        {
+            Checkpoint c = new Checkpoint();
+            c.fileName = file;
+            c.targetTime = -1;
+            JRSRArchiveReader reader = new JRSRArchiveReader(file);
+            try {
+                UTFInputLineStream lines = new UTFInputLineStream(reader.readMember(CHECKPOINT_MEMBER));
+                String[] components;
+                while((components = nextParseLine(lines)) != null) {
+                    if(components.length != 2)
+                        throw new IOException("Bad " + components[0] + " line in checkpoint segment");
+                    if("TARGETTIME".equals(components[0]))
+                        c.targetTime = Long.parseLong(components[1]);
+                    else if("TIME".equals(components[0]))
+                        c.time = Long.parseLong(components[1]);
+                    else if("RAMHASH".equals(components[0]))
+                        c.ramHash = components[1];
+                    else if("FRAMEHASH".equals(components[0]))
+                        c.frameHash = components[1];
+                }
+            } catch(NumberFormatException e) {
+                throw new IOException("Bad time in checkpoint " + file);
+            } finally {
+                reader.close();
+            }
+            if(c.targetTime < 0 || c.ramHash == null || c.frameHash == null)
+                throw new IOException("Incomplete checkpoint " + file);
+            return c;
+        }
+
+        //Returns null if state matches, otherwise description of mismatch.
+        public String compare(Checkpoint actual)
+        {
+            String mismatch = null;
+            if(time != actual.time)
+                mismatch = "time " + actual.time + " (expected " + time + ")";
+            if(!ramHash.equals(actual.ramHash))
+                mismatch = (mismatch != null ? mismatch + ", " : "") + "RAM " + actual.ramHash + " (expected " +
+                    ramHash + ")";
+            if(!frameHash.equals(actual.frameHash))
+                mismatch = (mismatch != null ? mismatch + ", " : "") + "frame " + actual.frameHash +
+                    " (expected " + frameHash + ")";
+            return mismatch;
+        }
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not supported", e);
+        }
+    }
+
+    public static String hashRAM(PC pc) throws IOException
+    {
+        MessageDigest md = newDigest();
+        PhysicalAddressSpace addr = (PhysicalAddressSpace)pc.getComponent(PhysicalAddressSpace.class);
+        byte[] page = new byte[4100];
+        for(int pageNo = addr.findFirstRAMPage(0); pageNo >= 0; pageNo = addr.findFirstRAMPage(pageNo + 1)) {
+            page[0] = (byte)(pageNo >>> 24);
+            page[1] = (byte)(pageNo >>> 16);
+            page[2] = (byte)(pageNo >>> 8);
+            page[3] = (byte)pageNo;
+            addr.readRAMPage(pageNo, page, 4);
+            md.update(page);
+        }
+        return arrayToString(md.digest());
+    }
+
+    public static String hashFrame(PC pc) throws IOException
+    {
+        MessageDigest md = newDigest();
+        VGACard card = (VGACard)pc.getComponent(VGACard.class);
+        VGADigitalOut out = (card != null) ? card.getOutputDevice() : null;
+        if(out == null)
+            return arrayToString(md.digest());
+        int w = out.getWidth();
+        int h = out.getHeight();
+        int[] buffer = out.getBuffer();
+        byte[] line = new byte[4 * Math.max(w, 2)];
+        line[0] = (byte)(w >>> 8);
+        line[1] = (byte)w;
+        line[2] = (byte)(h >>> 8);
+        line[3] = (byte)h;
+        md.update(line, 0, 4);
+        for(int y = 0; y < h; y++) {
+            for(int x = 0; x < w; x++) {
+                int px = buffer[y * w + x];
+                line[4 * x + 0] = (byte)(px >>> 24);
+                line[4 * x + 1] = (byte)(px >>> 16);
+                line[4 * x + 2] = (byte)(px >>> 8);
+                line[4 * x + 3] = (byte)px;
+            }
+            md.update(line, 0, 4 * w);
+        }
+        return arrayToString(md.digest());
+    }
+
+    private static String checkpointName(File dir, int index)
+    {
+        return new File(dir, "checkpoint-" + index + ".jrsr").getPath();
+    }
+
+    private static void writeCheckpoint(String file, PC.PCFullStatus fullStatus, long target) throws IOException
+    {
+        Checkpoint c = new Checkpoint(fullStatus.pc, target);
+        fullStatus.events.setPCRunStatus(false);
+        JRSRArchiveWriter writer = new JRSRArchiveWriter(file);
+        try {
+            PC.saveSavestate(writer, fullStatus, false, false);
+            UTFOutputLineStream lines = new UTFOutputLineStream(writer.addMember(CHECKPOINT_MEMBER));
+            c.save(lines);
+            lines.close();
+            writer.close();
+        } catch(IOException e) {
+            writer.rollback();
+            throw e;
+        }
+        fullStatus.events.setPCRunStatus(true);
+        System.err.println("Informational: Checkpoint " + file + " at " + c.time + ".");
+    }
+
+    //Reference run: replay movie and write checkpoint every interval time units until stopTime (negative means
+    //last movie event). Returns number of checkpoints written.
+    public static int record(String movie, String initName, File dir, long interval, long stopTime)
+        throws IOException
+    {
+        if(interval <= 0)
+            throw new IOException("Checkpoint interval must be positive");
+        PC.PCFullStatus fullStatus = loadMovie(movie, initName);
+        if(stopTime < 0)
+            stopTime = fullStatus.events.getLastEventTime();
+        int index = 0;
+        long target = fullStatus.pc.getTime();
+        writeCheckpoint(checkpointName(dir, index++), fullStatus, target);
+        while(target < stopTime) {
+            target = Math.min(target + interval, stopTime);
+            if(!runUntil(fullStatus.pc, target)) {
+                System.err.println("Warning: Triple fault at " + fullStatus.pc.getTime() + ", stopping recording.");
+                break;
+            }
+            writeCheckpoint(checkpointName(dir, index++), fullStatus, target);
+        }
+        return index;
+    }
+
+    private static String describeProcessor(PC pc)
+    {
+        Processor cpu = pc.getProcessor();
+        return "eax=" + Integer.toHexString(cpu.eax) + " ecx=" + Integer.toHexString(cpu.ecx) + " edx=" +
+            Integer.toHexString(cpu.edx) + " ebx=" + Integer.toHexString(cpu.ebx) + " esp=" +
+            Integer.toHexString(cpu.esp) + " ebp=" + Integer.toHexString(cpu.ebp) + " esi=" +
+            Integer.toHexString(cpu.esi) + " edi=" + Integer.toHexString(cpu.edi) + " eip=" +
+            Integer.toHexString(cpu.eip) + " eflags=" + Integer.toHexString(cpu.getEFlags());
+    }
+
+    //A/B run: replay movie on two PCs, one running microcode as decoded and the other optimised microcode,
+    //comparing them every interval time units until stopTime (negative means last movie event). Returns time
+    //of first mismatch, or -1 if there was none.
+    public static long compareOptimisation(String movie, long interval, long stopTime) throws IOException
+    {
+        if(interval <= 0)
+            throw new IOException("Comparison interval must be positive");
+        PC.PCFullStatus plain = loadMovie(movie, null);
+        PC.PCFullStatus optimised = loadMovie(movie, null);
+        plain.pc.setMicrocodeOptimisation(false);
+        optimised.pc.setMicrocodeOptimisation(true);
+        if(stopTime < 0)
+            stopTime = plain.events.getLastEventTime();
+        long target = plain.pc.getTime();
+        while(target < stopTime) {
+            target = Math.min(target + interval, stopTime);
+            boolean plainRan = runUntil(plain.pc, target);
+            boolean optimisedRan = runUntil(optimised.pc, target);
+            String mismatch = new Checkpoint(plain.pc, target).compare(new Checkpoint(optimised.pc, target));
+            String plainCPU = describeProcessor(plain.pc);
+            String optimisedCPU = describeProcessor(optimised.pc);
+            if(!plainCPU.equals(optimisedCPU))
+                mismatch = (mismatch != null ? mismatch + ", " : "") + "CPU " + optimisedCPU + " (expected " +
+                    plainCPU + ")";
+            if(plainRan != optimisedRan)
+                mismatch = (mismatch != null ? mismatch + ", " : "") + "triple fault in only one run";
+            if(mismatch != null) {
+                System.out.println("Mismatch at " + target + ": " + mismatch);
+                return target;
+            }
+            System.out.println("Match at " + target + ".");
+            if(!plainRan)
+                break;
+        }
+        return -1;
+    }
+
+    //Differential decoder check: replay movie until given time, then decode every stride-th offset of each RAM
+    //page both byte by byte and from page windows. Returns number of mismatching blocks.
+    public static int compareDecoding(String movie, long time, int stride) throws IOException
+    {
+        if(stride <= 0)
+            throw new IOException("Stride must be positive");
+        PC.PCFullStatus fs = loadMovie(movie, null);
+        runUntil(fs.pc, time);
+        PhysicalAddressSpace addr = (PhysicalAddressSpace)fs.pc.getComponent(PhysicalAddressSpace.class);
+        DecoderComparison comparison = new DecoderComparison();
+        byte[] page = new byte[4096];
+        for(int pageNo = addr.findFirstRAMPage(0); pageNo >= 0; pageNo = addr.findFirstRAMPage(pageNo + 1)) {
+            addr.readRAMPage(pageNo, page);
+            String mismatch = comparison.comparePage(page, stride);
+            if(mismatch != null)
+                System.out.println("Page " + pageNo + ": " + mismatch);
+        }
+        System.out.println(comparison.getBlockCount() + " blocks, " + comparison.getMismatchCount() +
+            " mismatches, " + (comparison.getReferenceTime() / 1000000) + "ms byte by byte, " +
+            (comparison.getWindowedTime() / 1000000) + "ms windowed, digest " + Long.toHexString(comparison.getDigest()) +
+            ".");
+        return comparison.getMismatchCount();
+    }
+
+    //Replay movie to startTime, then record a block trace until stopTime into file. Running this on two builds
+    //(or from a checkpoint) and feeding the results to tracediff finds the first block that differs.
+    public static long recordTrace(String movie, long startTime, long stopTime, int records, String file)
+        throws IOException
+    {
+        PC.PCFullStatus fs = loadMovie(movie, null);
+        runUntil(fs.pc, startTime);
+        TraceRecorder trace = new TraceRecorder(records);
+        fs.pc.setTraceRecorder(trace);
+        runUntil(fs.pc, stopTime);
+        fs.pc.setTraceRecorder(null);
+        trace.write(file);
+        System.out.println("Wrote " + trace.getRecordCount() + " trace records to " + file + ".");
+        return trace.getRecordCount();
+    }
+
+    public static List<Checkpoint> loadCheckpoints(File dir) throws IOException
+    {
+        List<Checkpoint> list = new ArrayList<Checkpoint>();
+        for(int i = 0; new File(checkpointName(dir, i)).exists(); i++)
+            list.add(Checkpoint.load(checkpointName(dir, i)));
+        return list;
+    }
+
+    public static class Segment extends Job
+    {
+        public Checkpoint start;
+        public Checkpoint end;
+        public String loadMismatch;
+        public String endMismatch;
+
+        public Segment(Checkpoint s, Checkpoint e)
+        {
+            super(s.fileName, null, e.targetTime);
+            start = s;
+            end = e;
+        }
+
+        public boolean diverged()
+        {
+            return loadMismatch != null || endMismatch != null;
+        }
+
+        public String toString()
+        {
+            String seg = "Segment " + start.time + "-" + end.time;
+            if(failure != null)
+                return seg + ": FAILED: " + failure;
+            if(loadMismatch != null)
+                return seg + ": BAD CHECKPOINT " + start.fileName + ": " + loadMismatch;
+            if(endMismatch != null)
+                return seg + ": DIVERGED" + (tripleFaulted ? " (triple fault)" : "") + ": " + endMismatch;
+            return seg + ": OK (" + (wallNanos / 1000000) + "ms)";
+        }
+    }
+
+    public MovieVerifier(ImageLibrary lib, int threads, List<Checkpoint> checkpoints)
+    {
+        super(lib, threads);
+        for(int i = 0; i + 1 < checkpoints.size(); i++)
+            addJob(new Segment(checkpoints.get(i), checkpoints.get(i + 1)));
+    }
+
+    protected void runJob(Job job) throws IOException
+    {
+        Segment seg = (Segment)job;
+        PC.PCFullStatus fullStatus = loadMovie(seg.fileName, null);
+        seg.loadMismatch = seg.start.compare(new Checkpoint(fullStatus.pc, seg.start.targetTime));
+        if(seg.loadMismatch != null)
+            return;
+        seg.tripleFaulted = !runUntil(fullStatus.pc, seg.stopTime);
+        seg.endTime = fullStatus.pc.getTime();
+        seg.endMismatch = seg.end.compare(new Checkpoint(fullStatus.pc, seg.stopTime));
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length >= 5 && "record".equals(args[0])) {
+            ImageLibrary lib = new ImageLibrary(args[1]);
+            DiskImage.setLibrary(lib);
+            File dir = new File(args[3]);
+            if(!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Can't create checkpoint directory " + dir);
+            long stop = (args.length > 5) ? Long.parseLong(args[5]) : -1;
+            int count = record(args[2], null, dir, Long.parseLong(args[4]), stop);
+            System.out.println("Wrote " + count + " checkpoints.");
+            System.exit(0);
+        } else if(args.length == 4 && "verify".equals(args[0])) {
+            ImageLibrary lib = new ImageLibrary(args[1]);
+            DiskImage.setLibrary(lib);
+            List<Checkpoint> checkpoints = loadCheckpoints(new File(args[2]));
+            if(checkpoints.size() < 2)
+                throw new IOException("Need at least two checkpoints to verify");
+            int threads = Integer.parseInt(args[3]);
+            if(threads < 1)
+                throw new IOException("Need at least one thread");
+            MovieVerifier verifier = new MovieVerifier(lib, threads, checkpoints);
+            long start = System.nanoTime();
+            verifier.run();
+            int bad = 0;
+            for(Job job : verifier.getJobs()) {
+                Segment seg = (Segment)job;
+                System.out.println(seg);
+                if(seg.failure != null || seg.diverged())
+                    bad++;
+            }
+            System.out.println(verifier.getJobs().size() + " segments, " + bad + " bad, " +
+                ((System.nanoTime() - start) / 1000000) + "ms.");
+            System.exit(bad > 0 ? 1 : 0);
+        } else if(args.length >= 4 && "ab".equals(args[0])) {
+            ImageLibrary lib = new ImageLibrary(args[1]);
+            DiskImage.setLibrary(lib);
+            long stop = (args.length > 4) ? Long.parseLong(args[4]) : -1;
+            long mismatch = compareOptimisation(args[2], Long.parseLong(args[3]), stop);
+            System.exit(mismatch >= 0 ? 1 : 0);
+        } else if(args.length >= 4 && "decode".equals(args[0])) {
+            ImageLibrary lib = new ImageLibrary(args[1]);
+            DiskImage.setLibrary(lib);
+            int stride = (args.length > 4) ? Integer.parseInt(args[4]) : 1;
+            int mismatches = compareDecoding(args[2], Long.parseLong(args[3]), stride);
+            System.exit(mismatches > 0 ? 1 : 0);
+        } else if(args.length >= 6 && "trace".equals(args[0])) {
+            ImageLibrary lib = new ImageLibrary(args[1]);
+            DiskImage.setLibrary(lib);
+            int records = (args.length > 6) ? Integer.parseInt(args[6]) : 1000000;
+            recordTrace(args[2], Long.parseLong(args[3]), Long.parseLong(args[4]), records, args[5]);
+            System.exit(0);
+        } else if(args.length == 3 && "tracediff".equals(args[0])) {
+            int diverged = TraceRecorder.diff(TraceRecorder.read(args[1]), TraceRecorder.read(args[2]), System.out);
+            System.exit(diverged >= 0 ? 1 : (diverged == -1 ? 0 : 2));
+        }
+        System.err.println("Syntax: MovieVerifier record <library> <movie> <checkpointdir> <interval> [<stoptime>]");
+        System.err.println("        MovieVerifier verify <library> <checkpointdir> <threads>");
+        System.err.println("        MovieVerifier ab <library> <movie> <interval> [<stoptime>]");
+        System.err.println("        MovieVerifier decode <library> <movie> <time> [<stride>]");
+        System.err.println("        MovieVerifier trace <library> <movie> <starttime> <stoptime> <file> [<records>]");
+        System.err.println("        MovieVerifier tracediff <trace1> <trace2>");
+    }
+}
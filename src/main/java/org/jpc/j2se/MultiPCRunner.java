@@ -0,0 +1,219 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2011 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.j2se;
+
+import java.io.*;
+import java.util.*;
+
+import org.jpc.emulator.PC;
+import org.jpc.diskimages.DiskImage;
+import org.jpc.diskimages.ImageLibrary;
+import org.jpc.jrsr.JRSRArchiveReader;
+import static org.jpc.Misc.parseStringToComponents;
+
+//Headless runner for many movies at once, each on its own PC instance and worker thread.
+public class MultiPCRunner
+{
+    public static class Job
+    {
+        public String fileName;
+        public String submovie;
+        public long stopTime;            //Negative means run to last movie event.
+
+        public volatile boolean done;
+        public Throwable failure;
+        public boolean tripleFaulted;
+        public long endTime;
+        public long wallNanos;
+
+        public Job(String spec) throws IOException
+        {
+            Map<String, String> params = parseStringToComponents(spec);
+            fileName = params.get("movie");
+            if(fileName == null)
+                throw new IOException("Job '" + spec + "' has no movie");
+            submovie = params.get("initialstate");
+            if(submovie != null)
+                submovie = "initialization-" + submovie;
+            stopTime = -1;
+            if(params.get("stoptime") != null)
+                stopTime = Long.parseLong(params.get("stoptime"));
+        }
+
+        protected Job(String file, String initName, long stop)
+        {
+            fileName = file;
+            submovie = initName;
+            stopTime = stop;
+        }
+
+        public String toString()
+        {
+            if(failure != null)
+                return fileName + ": FAILED: " + failure;
+            return fileName + ": " + (tripleFaulted ? "TRIPLE FAULT" : "OK") + " at " + endTime + " (" +
+                (wallNanos / 1000000) + "ms)";
+        }
+    }
+
+    private ImageLibrary library;
+    private int threadCount;
+    private Queue<Job> pending;
+    private List<Job> jobs;
+
+    public MultiPCRunner(ImageLibrary lib, int threads)
+    {
+        library = lib;
+        threadCount = threads;
+        pending = new LinkedList<Job>();
+        jobs = new ArrayList<Job>();
+    }
+
+    public void addJob(Job job)
+    {
+        jobs.add(job);
+        pending.add(job);
+    }
+
+    public List<Job> getJobs()
+    {
+        return jobs;
+    }
+
+    private synchronized Job nextJob()
+    {
+        return pending.poll();
+    }
+
+    public static PC.PCFullStatus loadMovie(String fileName, String initName) throws IOException
+    {
+        JRSRArchiveReader reader = new JRSRArchiveReader(fileName);
+        try {
+            PC.PCFullStatus fullStatus = PC.loadSavestate(reader, false, false, null, initName);
+            fullStatus.events.setPCRunStatus(true);
+            return fullStatus;
+        } finally {
+            reader.close();
+        }
+    }
+
+    //Run PC until given time. Returns false if stopped early due to triple fault.
+    public static boolean runUntil(PC pc, long stopTime)
+    {
+        if(stopTime <= pc.getTime())
+            return true;
+        pc.getTraceTrap().setTrapTime(stopTime);
+        pc.start();
+        try {
+            while(true) {
+                pc.execute();
+                if(pc.getHitTraceTrap()) {
+                    if(pc.getAndClearTripleFaulted())
+                        return false;
+                    if(pc.getTime() >= stopTime)
+                        return true;
+                }
+            }
+        } finally {
+            pc.stop();
+        }
+    }
+
+    protected void runJob(Job job) throws IOException
+    {
+        PC.PCFullStatus fullStatus = loadMovie(job.fileName, job.submovie);
+        long stop = job.stopTime;
+        if(stop < 0)
+            stop = fullStatus.events.getLastEventTime();
+        job.tripleFaulted = !runUntil(fullStatus.pc, stop);
+        job.endTime = fullStatus.pc.getTime();
+    }
+
+    class Worker extends Thread
+    {
+        Worker(int index)
+        {
+            super("MultiPCRunner worker #" + index);
+        }
+
+        public void run()
+        {
+            if(library != null)
+                DiskImage.setThreadLibrary(library);
+            Job job;
+            while((job = nextJob()) != null) {
+                long start = System.nanoTime();
+                try {
+                    runJob(job);
+                } catch(Throwable e) {
+                    job.failure = e;
+                }
+                job.wallNanos = System.nanoTime() - start;
+                job.done = true;
+                System.err.println("Informational: " + job);
+            }
+        }
+    }
+
+    public void run() throws InterruptedException
+    {
+        Worker[] workers = new Worker[threadCount];
+        for(int i = 0; i < threadCount; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+        for(int i = 0; i < threadCount; i++)
+            workers[i].join();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 3) {
+            System.err.println("Syntax: MultiPCRunner <library> <threads> <job>...");
+            System.err.println("Job is movie=<file>[,initialstate=<name>][,stoptime=<time>]");
+            return;
+        }
+        ImageLibrary lib = new ImageLibrary(args[0]);
+        DiskImage.setLibrary(lib);
+        int threads = Integer.parseInt(args[1]);
+        if(threads < 1)
+            throw new IOException("Need at least one thread");
+        MultiPCRunner runner = new MultiPCRunner(lib, threads);
+        for(int i = 2; i < args.length; i++)
+            runner.addJob(new Job(args[i]));
+        runner.run();
+        boolean failed = false;
+        for(Job job : runner.getJobs()) {
+            System.out.println(job);
+            failed |= (job.failure != null || job.tripleFaulted);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
@@ -37,6 +37,7 @@ import org.jpc.emulator.pci.peripheral.VGACard;
 import org.jpc.emulator.DisplayController;
 import org.jpc.emulator.EventRecorder;
 import org.jpc.emulator.motherboard.IntervalTimer;
+import org.jpc.emulator.memory.codeblock.optimised.DecodedBlockCache;
 import org.jpc.plugins.LuaPlugin;
 
 //Locking this class is used for preventing termination and when terminating.
@@ -151,8 +152,16 @@ public class Base extends LuaPlugin.LuaResource
         return 0;
     }
 
+    //Deliberately unlocked although it touches the plugin event queue (which has its own lock): it
+    //must not hold the plugin lock while parked, as frame hooks run meanwhile.
+    @LuaPlugin.Unlocked
     public static int luaCB_wait_event(Lua l, LuaPlugin plugin)
     {
+        if(!plugin.onLuaThread()) {
+            //Frame hooks run on the emulator thread while the script waits, so waiting would never end.
+            l.error("wait_event can't be called from a frame hook");
+            return 0;
+        }
         LuaPlugin.Event msg = plugin.waitEvent();
         int pushed = 1;
         if(msg != null) {
@@ -187,6 +196,62 @@ public class Base extends LuaPlugin.LuaResource
         return 1;
     }
 
+    public static int luaCB_register_frame_hook(Lua l, LuaPlugin plugin)
+    {
+        if(l.type(1) != Lua.TFUNCTION && l.type(1) != Lua.TNIL && l.type(1) != Lua.TNONE) {
+            l.error("Unexpected types to register_frame_hook");
+            return 0;
+        }
+        double budget = 20;
+        if(l.type(2) == Lua.TNUMBER)
+            budget = l.checkNumber(2);
+        if(l.type(1) == Lua.TFUNCTION)
+            plugin.setFrameHook(l.value(1), (long)(budget * 1000000));
+        else
+            plugin.setFrameHook(null, 0);
+        return 0;
+    }
+
+    public static int luaCB_frame_hook_stats(Lua l, LuaPlugin plugin)
+    {
+        long[] st = plugin.getFrameHookStats();
+        for(long x : st)
+            l.pushNumber((double)x);
+        if(l.type(1) == Lua.TBOOLEAN && l.toBoolean(l.value(1)))
+            plugin.resetFrameHookStats();
+        return st.length;
+    }
+
+    public static int luaCB_callback_profile(Lua l, LuaPlugin plugin)
+    {
+        if(l.type(1) != Lua.TBOOLEAN) {
+            l.error("Unexpected types to callback_profile");
+            return 0;
+        }
+        plugin.setCallbackProfiling(l.toBoolean(l.value(1)));
+        return 0;
+    }
+
+    public static int luaCB_callback_stats(Lua l, LuaPlugin plugin)
+    {
+        plugin.printCallbackStats();
+        if(l.type(1) == Lua.TBOOLEAN && l.toBoolean(l.value(1)))
+            plugin.resetCallbackStats();
+        return 0;
+    }
+
+    @LuaPlugin.Unlocked
+    public static int luaCB_block_cache_stats(Lua l, LuaPlugin plugin)
+    {
+        long[] st = DecodedBlockCache.getStatistics();
+        for(long x : st)
+            l.pushNumber((double)x);
+        if(l.type(1) == Lua.TBOOLEAN && l.toBoolean(l.value(1)))
+            DecodedBlockCache.resetStatistics();
+        return st.length;
+    }
+
+    @LuaPlugin.Unlocked
     public static int luaCB_stringlessthan(Lua l, LuaPlugin plugin)
     {
         int ret = 0;
@@ -88,36 +88,43 @@ public class Bitops extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_none(Lua l, LuaPlugin plugin)
     {
         return intLuaCBBitwise(l, 0);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_any(Lua l, LuaPlugin plugin)
     {
         return intLuaCBBitwise(l, 1);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_parity(Lua l, LuaPlugin plugin)
     {
         return intLuaCBBitwise(l, 2);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_all(Lua l, LuaPlugin plugin)
     {
         return intLuaCBBitwise(l, 3);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_add(Lua l, LuaPlugin plugin)
     {
         return intLuaCBBitwise(l, 4);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_addneg(Lua l, LuaPlugin plugin)
     {
         return intLuaCBBitwise(l, 5);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_addalt(Lua l, LuaPlugin plugin)
     {
         return intLuaCBBitwise(l, 6);
@@ -156,31 +163,37 @@ public class Bitops extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_lshift(Lua l, LuaPlugin plugin)
     {
         return intLuaCBShift(l, 0);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_rshift(Lua l, LuaPlugin plugin)
     {
         return intLuaCBShift(l, 1);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_arshift(Lua l, LuaPlugin plugin)
     {
         return intLuaCBShift(l, 2);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_rol(Lua l, LuaPlugin plugin)
     {
         return intLuaCBShift(l, 3);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_ror(Lua l, LuaPlugin plugin)
     {
         return intLuaCBShift(l, 4);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_bswap2(Lua l, LuaPlugin plugin)
     {
         long res = 0;
@@ -194,6 +207,7 @@ public class Bitops extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_bswap3(Lua l, LuaPlugin plugin)
     {
         long res = 0;
@@ -207,6 +221,7 @@ public class Bitops extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_bswap4(Lua l, LuaPlugin plugin)
     {
         long res = 0;
@@ -221,6 +236,7 @@ public class Bitops extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_bswap5(Lua l, LuaPlugin plugin)
     {
         long res = 0;
@@ -235,6 +251,7 @@ public class Bitops extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_bswap6(Lua l, LuaPlugin plugin)
     {
         long res = 0;
@@ -250,6 +267,7 @@ public class Bitops extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_signextend(Lua l, LuaPlugin plugin)
     {
         long res = 0;
@@ -274,6 +292,7 @@ public class Bitops extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_tosigned(Lua l, LuaPlugin plugin)
     {
         long res = 0;
@@ -299,6 +318,7 @@ public class Bitops extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_tohex(Lua l, LuaPlugin plugin)
     {
         long res = 0;
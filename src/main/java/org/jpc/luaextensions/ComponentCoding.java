@@ -49,6 +49,7 @@ public class ComponentCoding extends LuaPlugin.LuaResource
         super(plugin);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_decode(Lua l, LuaPlugin plugin)
     {
         l.pushNil();
@@ -72,6 +73,7 @@ public class ComponentCoding extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_encode(Lua l, LuaPlugin plugin)
     {
         l.pushNil();
@@ -33,6 +33,7 @@ import mnj.lua.*;
 import java.util.*;
 import java.lang.reflect.*;
 import org.jpc.plugins.LuaPlugin;
+import org.jpc.pluginsaux.HUDRenderer;
 
 public class HUD extends LuaPlugin.LuaResource
 {
@@ -74,18 +75,16 @@ public class HUD extends LuaPlugin.LuaResource
         }
     }
 
-    private static boolean callMethod(List<Object> renderers, ClassMethod cm, Lua l)
+    //Parameters from the Lua stack starting at index 2, or from table tab starting at index 2.
+    private static Object[] getParameters(ClassMethod cm, Lua l, Object tab)
     {
-        Class<?> c = cm.c;
-        Method m = cm.m;
-        boolean hadSuccess = false;
-        Class<?>[] paramTypes = m.getParameterTypes();
+        Class<?>[] paramTypes = cm.m.getParameterTypes();
 
         Object[] parameterArray = new Object[paramTypes.length];
         int index = 2;
         int sIndex = 0;
         for(Class<?> param : paramTypes) {
-            Object p = l.value(index);
+            Object p = (tab != null) ? l.getTable(tab, new Double(index)) : l.value(index);
             int luaType = l.type(p);
             if(param == boolean.class || param == Boolean.class)
                 if(luaType == Lua.TBOOLEAN)
@@ -129,18 +128,28 @@ public class HUD extends LuaPlugin.LuaResource
                     l.error("Bad HUD parameter #" + index + " (expected string)");
             index++;
         }
+        return parameterArray;
+    }
 
-        for(Object r : renderers) {
-            if(r.getClass() != c)
-                continue;
-
-            try {
-                m.invoke(r, parameterArray);
-                hadSuccess = true;
-            } catch(Exception e) {
-                e.printStackTrace();
-            }
+    private static boolean invokeMethod(Object r, ClassMethod cm, Object[] parameterArray)
+    {
+        if(r.getClass() != cm.c)
+            return false;
+        try {
+            cm.m.invoke(r, parameterArray);
+            return true;
+        } catch(Exception e) {
+            e.printStackTrace();
+            return false;
         }
+    }
+
+    private static boolean callMethod(List<Object> renderers, ClassMethod cm, Lua l)
+    {
+        boolean hadSuccess = false;
+        Object[] parameterArray = getParameters(cm, l, null);
+        for(Object r : renderers)
+            hadSuccess |= invokeMethod(r, cm, parameterArray);
         return hadSuccess;
     }
 
@@ -158,4 +167,46 @@ public class HUD extends LuaPlugin.LuaResource
         l.pushBoolean(callMethod(plugin.getRenderers(), m, l));
         return 1;
     }
+
+    //Draw a list of HUD calls, each a table of method name followed by its parameters. All of them are
+    //checked before any is drawn, and then they are submitted to each renderer at once.
+    public static int luaCB_HUD_batch(Lua l, LuaPlugin plugin)
+    {
+        l.pushNil();
+        List<Object> renderers = plugin.getRenderers();
+        Object list = l.value(1);
+        if(Lua.type(list) != Lua.TTABLE)
+            l.error("Bad HUD batch (expected table)");
+        int count = Lua.objLen(list);
+        ClassMethod[] calls = new ClassMethod[count];
+        Object[][] parameters = new Object[count][];
+        for(int i = 0; i < count; i++) {
+            Object entry = l.getTable(list, new Double(i + 1));
+            if(Lua.type(entry) != Lua.TTABLE)
+                l.error("Bad HUD batch entry #" + (i + 1) + " (expected table)");
+            Object name = l.getTable(entry, new Double(1));
+            if(Lua.type(name) != Lua.TSTRING)
+                l.error("Bad HUD batch entry #" + (i + 1) + " (expected method name)");
+            String res = l.toString(name);
+            if(!methods.containsKey(res))
+                lookupMethod(renderers, res);
+            if(!methods.containsKey(res)) {
+                l.pushNil();
+                return 1;
+            }
+            calls[i] = methods.get(res);
+            parameters[i] = getParameters(calls[i], l, entry);
+        }
+
+        boolean hadSuccess = false;
+        for(Object r : renderers) {
+            Object lock = (r instanceof HUDRenderer) ? ((HUDRenderer)r).getSubmitLock() : r;
+            synchronized(lock) {
+                for(int i = 0; i < count; i++)
+                    hadSuccess |= invokeMethod(r, calls[i], parameters[i]);
+            }
+        }
+        l.pushBoolean(hadSuccess);
+        return 1;
+    }
 }
@@ -53,12 +53,14 @@ public class Random extends LuaPlugin.LuaResource
         super(plugin);
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_nextBoolean(Lua l, LuaPlugin plugin)
     {
         l.push(new Boolean(rng.nextBoolean()));
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_nextBytes(Lua l, LuaPlugin plugin)
     {
         l.pushNil();
@@ -76,24 +78,28 @@ public class Random extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_nextDouble(Lua l, LuaPlugin plugin)
     {
         l.push(new Double(rng.nextDouble()));
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_nextFloat(Lua l, LuaPlugin plugin)
     {
         l.push(new Double(rng.nextFloat()));
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_nextGaussian(Lua l, LuaPlugin plugin)
     {
         l.push(new Double(rng.nextGaussian()));
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_nextInt(Lua l, LuaPlugin plugin)
     {
         l.pushNil();
@@ -106,6 +112,7 @@ public class Random extends LuaPlugin.LuaResource
         return 1;
     }
 
+    @LuaPlugin.Unlocked
     public static int luaCB_nextLong(Lua l, LuaPlugin plugin)
     {
         l.push(new Double(rng.nextLong()));
@@ -81,6 +81,7 @@ public class SoundCard  extends AbstractHardwareComponent implements IOPortCapab
     private int partialSample;                          //Partial sample data.
     private int partialSampleBytes;                     //Bytes of sample received.
     private int wholeSampleBytes;                       //Bytes to obtain at once (max 4)
+    private byte[] dmaBuffer = new byte[4];             //Scratch for DMA transfers (not saved).
 
     private int byteBuffer;                             //Byte buffer from last time (ADPCM only).
     private int byteBufferSamples;                      //Number of samples in byte buffer.
@@ -744,24 +745,26 @@ public class SoundCard  extends AbstractHardwareComponent implements IOPortCapab
 
     public int handleTransfer(DMAController.DMAChannel channel, int position, int size)
     {
-        byte[] buf = new byte[1];
         int avail = size - position;
 
         //Some weird command has DMA writing some mysterious values.
         if(e2Mode) {
-            buf[0] = e2Value;
-            channel.writeMemory(buf, 0, position, 1);
+            dmaBuffer[0] = e2Value;
+            channel.writeMemory(dmaBuffer, 0, position, 1);
             e2Mode = false;
             dmaEngineUpdateDMADREQ();
             return position + 1;
         }
 
-        while(avail > 0 && partialSampleBytes < wholeSampleBytes) {
-            channel.readMemory(buf, 0, position, 1);
-            partialSample |= (((int)buf[0] & 0xFF) << (8 * partialSampleBytes));
-            position++;
-            partialSampleBytes++;
-            avail--;
+        //Everything due before the next sample time is the rest of this sample, so fetch it in one go.
+        int count = Math.min(avail, wholeSampleBytes - partialSampleBytes);
+        if(count > 0) {
+            channel.readMemory(dmaBuffer, 0, position, count);
+            for(int i = 0; i < count; i++) {
+                partialSample |= (((int)dmaBuffer[i] & 0xFF) << (8 * partialSampleBytes));
+                partialSampleBytes++;
+            }
+            position += count;
         }
         dmaEngineUpdateDMADREQ();
         if(partialSampleBytes == wholeSampleBytes)
@@ -77,6 +77,17 @@ public class Output implements SRDumpable
         }
     }
 
+    public void hold()
+    {
+        if(staticOutput != null) {
+            if(channelTableUpdated) {
+                staticOutput.updateChannelTable(channels);
+                channelTableUpdated = false;
+            }
+            staticOutput.hold();
+        }
+    }
+
     public void setStaticOutput(OutputStatic staticOut, long newAdjust)
     {
         timeAdjust = newAdjust;
@@ -78,6 +78,11 @@ public class OutputChannel implements SRDumpable
         out.addFrame(this, newFrame, sync);
     }
 
+    public void hold()
+    {
+        out.hold();
+    }
+
     public byte[] channelHeader()
     {
         ByteBuffer _xname = null;
@@ -65,6 +65,11 @@ public class OutputChannelGameinfo extends OutputChannel
         addFrame(new OutputFrameLength(timestamp, length), false);
     }
 
+    public void addFrameFingerprint(long timestamp, long fingerprint)
+    {
+        addFrame(new OutputFrameFingerprint(timestamp, fingerprint), false);
+    }
+
     public OutputChannelGameinfo(SRLoader input) throws IOException
     {
         super(input);
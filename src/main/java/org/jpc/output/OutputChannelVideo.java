@@ -47,6 +47,14 @@ public class OutputChannelVideo extends OutputChannel
         addFrame(new OutputFrameImage(timestamp, width, height, image), true);
     }
 
+    //Queue a frame whose image is filled in later with OutputFrameImage.setImage(), before the next hold.
+    public OutputFrameImage addPendingFrameVideo(long timestamp)
+    {
+        OutputFrameImage frame = new OutputFrameImage(timestamp, (short)0, (short)0, null);
+        addFrame(frame, false);
+        return frame;
+    }
+
     public OutputChannelVideo(SRLoader input) throws IOException
     {
         super(input);
@@ -34,20 +34,60 @@ import java.util.*;
 
 public class OutputClient
 {
-    OutputStatic server;
+    //Lockstep client: the emulator waits for it to release each frame batch.
+    public static final int SYNC = 0;
+    //Ring client that sees every batch. The emulator only waits if it falls a whole ring behind.
+    public static final int LOSSLESS = 1;
+    //Ring client that skips to the newest batch and never holds up the emulator.
+    public static final int LOSSY = 2;
+
+    volatile OutputStatic server;
     int state;
+    final int mode;
+    final OutputStatic.BatchTagger tagger;
+    private OutputStatic.Batch current;
+
+    //Ring position, touched by the client thread and the emulator thread.
+    volatile long cursor;
+    volatile long pinned;
+    //Set if the emulator gave up waiting on this client.
+    volatile boolean dropped;
+    //Lag statistics, guarded by this.
+    private long lag;
+    private long maxLag;
+    private long skipped;
+    private long batches;
+    private long stalls;
+    private long stallTime;
 
     public OutputClient(OutputStatic _serv)
+    {
+        this(_serv, SYNC, null);
+    }
+
+    public OutputClient(OutputStatic _serv, int _mode, OutputStatic.BatchTagger _tagger)
     {
         state = 0;
+        mode = _mode;
+        tagger = _tagger;
+        pinned = -1;
         server = _serv;
-        server.clientNew(this);
+        if(mode == SYNC)
+            server.clientNew(this);
+        else
+            server.ringClientNew(this);
     }
 
     public void detach()
     {
-        server.clientDestroy(this);
+        OutputStatic serv = server;
         server = null;
+        if(serv == null)
+            return;   //Already detached by the emulator.
+        if(mode == SYNC)
+            serv.clientDestroy(this);
+        else
+            serv.ringClientDestroy(this);
     }
 
     public boolean aquire()
@@ -65,6 +105,108 @@ public class OutputClient
         server.clientRelease(this, true);
     }
 
+    /**
+     * Get the next frame batch for a ring client, waiting for one if <code>wait</code> is set. Returns null
+     * if interrupted, detached or not waiting and nothing new is there. Call <code>doneBatch()</code> when
+     * finished with it.
+     */
+    public OutputStatic.Batch nextBatch(boolean wait)
+    {
+        OutputStatic serv = server;
+        if(serv == null) {
+            if(wait && dropped)
+                //Nothing is coming anymore, wait to be interrupted instead of spinning the caller.
+                synchronized(this) {
+                    try {
+                        wait();
+                    } catch(InterruptedException e) {
+                    }
+                }
+            return null;
+        }
+        current = serv.clientNextBatch(this, wait);
+        return current;
+    }
+
+    //The object the tagger returned for the current batch.
+    public Object getBatchTag()
+    {
+        return (current != null) ? OutputStatic.clientBatchTag(this, current) : null;
+    }
+
+    public void doneBatch()
+    {
+        if(current == null)
+            return;
+        current = null;
+        OutputStatic.clientDoneBatch(this);
+    }
+
+    //True if the emulator detached this lossless client for not taking batches for too long.
+    public boolean wasDropped()
+    {
+        return dropped;
+    }
+
+    synchronized void noteBatch(long _lag, long _skipped)
+    {
+        lag = _lag;
+        if(lag > maxLag)
+            maxLag = lag;
+        skipped += _skipped;
+        batches++;
+    }
+
+    synchronized void noteStall()
+    {
+        stalls++;
+    }
+
+    synchronized void noteStallTime(long nanos)
+    {
+        stallTime += nanos;
+    }
+
+    //Batches between the one last taken and the newest one, at the time it was taken.
+    public synchronized long getLag()
+    {
+        return lag;
+    }
+
+    public synchronized long getMaxLag()
+    {
+        return maxLag;
+    }
+
+    //Batches a lossy client never saw.
+    public synchronized long getSkipped()
+    {
+        return skipped;
+    }
+
+    public synchronized long getBatches()
+    {
+        return batches;
+    }
+
+    //Times the emulator had to wait for this client, and the total wait in nanoseconds.
+    public synchronized long getStalls()
+    {
+        return stalls;
+    }
+
+    public synchronized long getStallTime()
+    {
+        return stallTime;
+    }
+
+    public synchronized String getStatistics()
+    {
+        return ((mode == LOSSY) ? "lossy" : "lossless") + " client: " + batches + " batches, lag " + lag +
+            " (max " + maxLag + "), " + skipped + " skipped, emulator stalled " + stalls + " times (" +
+            (stallTime / 1000000) + "ms)" + (dropped ? ", dropped for being stuck" : "");
+    }
+
     protected void setState(int s)
     {
         state = s;
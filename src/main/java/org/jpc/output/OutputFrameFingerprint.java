@@ -0,0 +1,55 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.output;
+
+public class OutputFrameFingerprint extends OutputFrame
+{
+    private long value;
+
+    public OutputFrameFingerprint(long timeStamp, long _value)
+    {
+        super(timeStamp, (byte)70);
+        value = _value;
+    }
+
+    protected byte[] dumpInternal()
+    {
+        byte[] _name = new byte[8];
+        _name[0] = (byte)(value >>> 56);
+        _name[1] = (byte)(value >>> 48);
+        _name[2] = (byte)(value >>> 40);
+        _name[3] = (byte)(value >>> 32);
+        _name[4] = (byte)(value >>> 24);
+        _name[5] = (byte)(value >>> 16);
+        _name[6] = (byte)(value >>> 8);
+        _name[7] = (byte)value;
+        return _name;
+    }
+};
@@ -46,6 +46,13 @@ public class OutputFrameImage extends OutputFrame
         imageData = i;
     }
 
+    public void setImage(short w, short h, int[] i)
+    {
+        width = w;
+        height = h;
+        imageData = i;
+    }
+
     public int getWidth()
     {
         return width;
@@ -31,6 +31,7 @@ package org.jpc.output;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class OutputStatic
 {
@@ -116,19 +117,57 @@ public class OutputStatic
         activeChannelTable = tab;
     }
 
+    static public interface FrameHoldHook
+    {
+        //Called on the emulator thread with the frame batch complete, before any client gets it.
+        public void frameHold(OutputStatic output);
+    }
+
+    private volatile FrameHoldHook[] holdHooks = new FrameHoldHook[0];
+
+    public synchronized void addFrameHoldHook(FrameHoldHook hook)
+    {
+        for(FrameHoldHook h : holdHooks)
+            if(h == hook)
+                return;
+        FrameHoldHook[] n = new FrameHoldHook[holdHooks.length + 1];
+        System.arraycopy(holdHooks, 0, n, 0, holdHooks.length);
+        n[holdHooks.length] = hook;
+        holdHooks = n;
+    }
+
+    public synchronized void removeFrameHoldHook(FrameHoldHook hook)
+    {
+        int j = 0;
+        FrameHoldHook[] n = new FrameHoldHook[holdHooks.length];
+        for(FrameHoldHook h : holdHooks)
+            if(h != hook)
+                n[j++] = h;
+        holdHooks = Arrays.copyOf(n, j);
+    }
+
     public void addFrame(short chan, OutputFrame frame, boolean sync)
     {
         synchronized(this) {
             lastTime = frame.getTime();
             frames.add(new OutputPair(chan, frame));
         }
-        if(sync) {
-            //Signal subscribers.
-            waitReaders();
-            if(frames.size() > 0)
-                timeBase = frames.getLast().frame.getTime();
-            frames.clear();
-        }
+        if(sync)
+            hold();
+    }
+
+    //Hand the frames queued so far to hooks and subscribers. Called on the emulator thread.
+    public void hold()
+    {
+        for(FrameHoldHook h : holdHooks)
+            h.frameHold(this);
+        //Signal subscribers.
+        waitReaders();
+        if(ringClients.length > 0)
+            publishBatch();
+        if(frames.size() > 0)
+            timeBase = frames.getLast().frame.getTime();
+        frames.clear();
     }
 
     public synchronized OutputFrame lastFrame(Class<? extends OutputFrame> clazz)
@@ -164,6 +203,268 @@ public class OutputStatic
         return localTimeBase;
     }
 
+    //Batches published to ring clients. Slot for sequence n is ring[n % RING_SIZE].
+    public static final int RING_SIZE = 8;
+
+    static public interface BatchTagger
+    {
+        //Called on the emulator thread as a batch is published. The result is returned by OutputClient.getBatchTag().
+        public Object tagBatch(Batch batch);
+    }
+
+    public class Batch
+    {
+        private final long sequence;
+        private final long batchTimeBase;
+        private final OutputPair[] pairs;
+        private final Map<Short, OutputChannel> channelTable;
+        private final int[][] images;
+        private Map<OutputClient, Object> tags;
+
+        Batch(long seq, OutputPair[] p, int[][] img)
+        {
+            sequence = seq;
+            batchTimeBase = timeBase;
+            pairs = p;
+            images = img;
+            channelTable = activeChannelTable;
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        public byte[] makeChannelTable()
+        {
+            return OutputStatic.this.makeChannelTable(channelTable);
+        }
+
+        public OutputFrame lastFrame(Class<? extends OutputFrame> clazz)
+        {
+            OutputFrame f = null;
+            for(OutputPair p : pairs)
+                if(clazz == null || clazz.isAssignableFrom(p.frame.getClass()))
+                    f = p.frame;
+            return f;
+        }
+
+        public long writeFrames(OutputStream out, FrameFilter filter) throws IOException
+        {
+            long localTimeBase = batchTimeBase;
+            for(OutputPair frame : pairs) {
+                long newTime = frame.frame.getTime();
+                OutputFrame f = null;
+                if(filter != null)
+                    f = filter.doFilter(frame.frame, frame.channel);
+                else
+                    f = frame.frame;
+                if(f != null) {
+                    out.write(f.dump(frame.channel, localTimeBase));
+                    if(newTime >= localTimeBase)
+                        localTimeBase = newTime;
+                }
+            }
+            return localTimeBase;
+        }
+    }
+
+    private final AtomicReferenceArray<Batch> ring = new AtomicReferenceArray<Batch>(RING_SIZE);
+    volatile long published;
+    private volatile OutputClient[] ringClients = new OutputClient[0];
+    final Object ringLock = new Object();
+
+    //Copy the queued frames into the ring. Images are copied since the video device reuses its buffer.
+    private void publishBatch()
+    {
+        long seq = published + 1;
+        int slot = (int)(seq % RING_SIZE);
+        waitLosslessClients(seq);
+
+        //Reuse the image arrays of the batch being overwritten, unless a lossy client still looks at it.
+        //The slot is cleared before looking at the pins, so a client pinning it later sees it gone.
+        Batch old = ring.getAndSet(slot, null);
+        int[][] pool = null;
+        if(old != null) {
+            pool = old.images;
+            for(OutputClient c : ringClients)
+                if(c.pinned == old.sequence)
+                    pool = null;
+        }
+        int poolUsed = 0;
+
+        OutputPair[] pairs = new OutputPair[frames.size()];
+        List<int[]> images = new ArrayList<int[]>();
+        int i = 0;
+        for(OutputPair p : frames) {
+            OutputFrame f = p.frame;
+            if(f instanceof OutputFrameImage && ((OutputFrameImage)f).getImageData() != null) {
+                OutputFrameImage img = (OutputFrameImage)f;
+                int size = img.getWidth() * img.getHeight();
+                int[] copy = null;
+                if(pool != null && poolUsed < pool.length && pool[poolUsed].length >= size)
+                    copy = pool[poolUsed++];
+                else
+                    copy = new int[size];
+                System.arraycopy(img.getImageData(), 0, copy, 0, size);
+                images.add(copy);
+                f = new OutputFrameImage(img.getTime(), (short)img.getWidth(), (short)img.getHeight(), copy);
+            }
+            pairs[i++] = new OutputPair(p.channel, f);
+        }
+
+        Batch batch = new Batch(seq, pairs, images.toArray(new int[images.size()][]));
+        batch.tags = new IdentityHashMap<OutputClient, Object>();
+        for(OutputClient c : ringClients)
+            if(c.tagger != null)
+                batch.tags.put(c, c.tagger.tagBatch(batch));
+        ring.set(slot, batch);
+        published = seq;
+        synchronized(ringLock) {
+            ringLock.notifyAll();
+        }
+    }
+
+    //A lossless client taking no batch for this long while the emulator waits for it gets detached.
+    private static final long LOSSLESS_STUCK_NANOS = 30000000000L;
+
+    //Block while some lossless client has not finished the batch that slot of seq still holds.
+    private void waitLosslessClients(long seq)
+    {
+        synchronized(ringLock) {
+            OutputClient stalled = null;
+            long start = 0;
+            long progressCursor = 0;
+            long progressTime = 0;
+            while(true) {
+                OutputClient behind = null;
+                for(OutputClient c : ringClients)
+                    if(c.mode == OutputClient.LOSSLESS && c.cursor <= seq - RING_SIZE)
+                        behind = c;
+                long now = System.nanoTime();
+                if(behind != stalled && stalled != null)
+                    stalled.noteStallTime(now - start);
+                if(behind == null)
+                    return;
+                if(behind != stalled) {
+                    stalled = behind;
+                    stalled.noteStall();
+                    start = now;
+                    progressCursor = behind.cursor;
+                    progressTime = now;
+                } else if(behind.cursor != progressCursor) {
+                    progressCursor = behind.cursor;
+                    progressTime = now;
+                } else if(now - progressTime > LOSSLESS_STUCK_NANOS) {
+                    System.err.println("Error: Output client took no frames for " +
+                        (LOSSLESS_STUCK_NANOS / 1000000000) + "s, detaching it.");
+                    stalled.noteStallTime(now - start);
+                    stalled = null;
+                    dropRingClient(behind);
+                    continue;
+                }
+                try {
+                    ringLock.wait(1000);
+                } catch(InterruptedException e) {
+                }
+            }
+        }
+    }
+
+    //Detach stuck client. It gets no more batches, and waiting for one waits for interrupt.
+    private void dropRingClient(OutputClient c)
+    {
+        c.dropped = true;
+        c.server = null;
+        ringClientDestroy(c);
+        synchronized(c) {
+            c.notifyAll();
+        }
+    }
+
+    //Wait for a batch after the one the client saw last. Returns null if interrupted or not waiting and none there.
+    Batch clientNextBatch(OutputClient c, boolean wait)
+    {
+        if(wait)
+            synchronized(ringLock) {
+                while(published < c.cursor && c.server != null)
+                    try {
+                        ringLock.wait();
+                    } catch(InterruptedException e) {
+                        return null;
+                    }
+            }
+        long newest = published;
+        if(newest < c.cursor)
+            return null;
+        long lag = newest - c.cursor;
+        if(c.mode == OutputClient.LOSSLESS) {
+            c.noteBatch(lag, 0);
+            return ring.get((int)(c.cursor % RING_SIZE));
+        }
+        //Lossy: take the newest batch and pin it so its images don't get reused under us.
+        while(true) {
+            Batch b = ring.get((int)(newest % RING_SIZE));
+            c.pinned = newest;
+            if(b != null && b.sequence == newest && b == ring.get((int)(newest % RING_SIZE))) {
+                c.noteBatch(lag, newest - c.cursor);
+                c.cursor = newest;
+                return b;
+            }
+            c.pinned = -1;
+            Thread.yield();
+            newest = published;
+        }
+    }
+
+    static void clientDoneBatch(OutputClient c)
+    {
+        c.cursor++;
+        c.pinned = -1;
+        OutputStatic serv = c.server;
+        if(c.mode == OutputClient.LOSSLESS && serv != null)
+            synchronized(serv.ringLock) {
+                serv.ringLock.notifyAll();
+            }
+    }
+
+    static Object clientBatchTag(OutputClient c, Batch b)
+    {
+        return b.tags.get(c);
+    }
+
+    protected void ringClientNew(OutputClient c)
+    {
+        synchronized(ringLock) {
+            c.cursor = published + 1;
+            OutputClient[] n = Arrays.copyOf(ringClients, ringClients.length + 1);
+            n[ringClients.length] = c;
+            ringClients = n;
+        }
+    }
+
+    protected void ringClientDestroy(OutputClient c)
+    {
+        synchronized(ringLock) {
+            int j = 0;
+            OutputClient[] n = new OutputClient[ringClients.length];
+            for(OutputClient x : ringClients)
+                if(x != c)
+                    n[j++] = x;
+            ringClients = Arrays.copyOf(n, j);
+            ringLock.notifyAll();
+        }
+    }
+
+    //One line of lag statistics per ring client.
+    public List<String> getClientStatistics()
+    {
+        List<String> ret = new ArrayList<String>();
+        for(OutputClient c : ringClients)
+            ret.add(c.getStatistics());
+        return ret;
+    }
+
     volatile int clientsNew;
     volatile int clientsAquiring;
     volatile int clientsAquired;
@@ -37,6 +37,9 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import java.lang.reflect.*;
+import java.lang.invoke.*;
+import java.lang.annotation.*;
+import java.util.concurrent.atomic.AtomicLong;
 import org.jpc.Misc;
 
 import org.jpc.output.*;
@@ -52,7 +55,7 @@ import static org.jpc.Misc.moveWindow;
 import static org.jpc.Misc.openStream;
 
 //Locking this class is used for preventing termination and when terminating.
-public class LuaPlugin implements ActionListener, Plugin
+public class LuaPlugin implements ActionListener, Plugin, OutputStatic.FrameHoldHook
 {
     private JFrame window;
     private JPanel panel;
@@ -72,7 +75,7 @@ public class LuaPlugin implements ActionListener, Plugin
     private int nextHandle;
 
     //luaThread is null if Lua isn't running.
-    private Thread luaThread;
+    private volatile Thread luaThread;
     private Lua luaState;
     private volatile boolean pcRunning;
     private volatile boolean inCall;
@@ -90,6 +93,19 @@ public class LuaPlugin implements ActionListener, Plugin
 
     private VGARetraceWaiter vgaPoller;
 
+    //Synchronous frame hook. Runs on the emulator thread while the Lua thread is parked in wait_event.
+    private volatile Object frameHook;
+    private long frameHookBudget;
+    private boolean parkedInWait;           //Guarded by eventQueue.
+    private boolean frameHookActive;        //Guarded by eventQueue.
+    private final Object frameHookStatsLock = new Object();
+    private long frameHookRuns;             //Stats guarded by frameHookStatsLock.
+    private long frameHookSkipped;
+    private long frameHookOverruns;
+    private long frameHookNanos;
+    private long frameHookMaxNanos;
+    private static final int FRAME_HOOK_CHECK_INTERVAL = 1000;
+
     private boolean consoleMode;
     private boolean specialNoGUIMode;
 
@@ -159,7 +175,10 @@ public class LuaPlugin implements ActionListener, Plugin
 
     public boolean systemShutdown()
     {
-        //Just terminate the emulator.
+        //Just terminate the emulator, but stay out of its frame holds meanwhile.
+        frameHook = null;
+        if(outputConnector != null)
+            outputConnector.removeFrameHoldHook(this);
         return true;
     }
 
@@ -177,7 +196,8 @@ public class LuaPlugin implements ActionListener, Plugin
             pc = _pc;
             if(luaThread != null) {
                 screenOut = new OutputClient(outputConnector);
-                vgaPoller.reactivate();
+                if(frameHook == null)
+                    vgaPoller.reactivate();
             }
     }
 
@@ -210,74 +230,202 @@ public class LuaPlugin implements ActionListener, Plugin
         queueEvent("stop", null);
     }
 
+    //Marks static luaCB_ callback that touches neither the PC nor plugin state, and thus can be called
+    //without taking the plugin lock. The only exception is wait_event, which uses just the event queue
+    //(under its own lock) and must not hold the plugin lock while parked.
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public static @interface Unlocked
+    {
+    }
+
+    //Callback bound once per method. Statistics are shared by all objects of the class and all plugins.
+    static class CallbackEntry
+    {
+        String luaName;
+        String fullName;
+        MethodHandle handle;
+        boolean isStatic;
+        boolean locked;
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+    }
+
+    //Snapshot of callback statistics for printing.
+    private static class CallbackStat
+    {
+        CallbackEntry entry;
+        long calls;
+        long nanos;
+    }
+
+    private static Map<Class<?>, CallbackEntry[]> callbackCache = new HashMap<Class<?>, CallbackEntry[]>();
+    private static final MethodType CALLBACK_TYPE = MethodType.methodType(int.class, Lua.class, LuaPlugin.class);
+    private volatile boolean callbackProfiling;
+
     class LuaCallback extends LuaJavaCallback
     {
-        Method callbackMethod;
+        CallbackEntry entry;
+        MethodHandle handle;
         Object onObject;
 
-        LuaCallback(Object target, Method callback)
+        LuaCallback(Object target, CallbackEntry _entry)
         {
             onObject = target;
-            callbackMethod = callback;
+            entry = _entry;
+            if(entry.isStatic)
+                handle = entry.handle;
+            else
+                handle = entry.handle.bindTo(target).asType(CALLBACK_TYPE);
+        }
+
+        private int invokeCallback() throws Throwable
+        {
+            if(!callbackProfiling)
+                return (int)handle.invokeExact(luaState, LuaPlugin.this);
+            long start = System.nanoTime();
+            try {
+                return (int)handle.invokeExact(luaState, LuaPlugin.this);
+            } finally {
+                entry.calls.incrementAndGet();
+                entry.nanos.addAndGet(System.nanoTime() - start);
+            }
         }
 
         public int luaFunction(Lua l) {
-            synchronized(LuaPlugin.this) {
-                try {
+            try {
+                if(!entry.locked)
+                    return invokeCallback();
+                synchronized(LuaPlugin.this) {
                     if(!liveObjects.containsKey(onObject)) {
                         l.error("Attempted to call method on dead object");
                         return 0;
                     } else
-                        return ((Integer)callbackMethod.invoke(onObject, luaState, LuaPlugin.this)).intValue();
-                } catch(InvocationTargetException e) {
-                    if(e.getCause() instanceof LuaError)
-                        throw (LuaError)e.getCause();   //Pass runtime exceptions through.
-                    errorDialog(e.getCause(), "Error in callback", null, "Terminate Lua VM");
-                    terminateLuaVMAsync();
-                } catch(Exception e) {
-                    if(e instanceof LuaError)
-                        throw (LuaError)e;   //Pass runtime exceptions through.
-                    errorDialog(e, "Error invoking callback", null, "Terminate Lua VM");
-                    terminateLuaVMAsync();
+                        return invokeCallback();
                 }
+            } catch(LuaError e) {
+                throw e;   //Pass runtime exceptions through.
+            } catch(Error e) {
+                throw e;   //Including ThreadDeath from termination.
+            } catch(Throwable e) {
+                if(Thread.currentThread() != luaThread) {
+                    //Frame hook on emulator thread. Fail the hook, the emulator has to go on.
+                    l.error("Error in callback " + entry.fullName + ": " + e);
+                    return 0;
+                }
+                errorDialog(e, "Error in callback", null, "Terminate Lua VM");
+                terminateLuaVMAsync();
             }
-            while(true);
+            while(true);   //Wait for the Lua thread to be killed.
         }
     }
 
+    private static synchronized CallbackEntry[] getCallbacks(Class<?> clazz, boolean wantStatic)
+    {
+        CallbackEntry[] all = callbackCache.get(clazz);
+        if(all == null) {
+            java.util.List<CallbackEntry> found = new ArrayList<CallbackEntry>();
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            //Add all exported callbacks.
+            Method[] candidateMethods = clazz.getMethods();
+            for(Method candidate: candidateMethods) {
+                if(!Modifier.isPublic(candidate.getModifiers()))
+                    continue;    //Want public.
+                if(!candidate.getName().startsWith("luaCB_"))
+                    continue;   //Not this...
+                Class<?>[] paramTypes = candidate.getParameterTypes();
+                Class<?> retType = candidate.getReturnType();
+                if(retType != int.class) {
+                    System.err.println("Warning: Incorrect return type for " + candidate.getName() +
+                        ": " + retType.getName() + ".");
+                    continue;
+                }
+                if(paramTypes == null || paramTypes.length != 2) {
+                    System.err.println("Warning: Incorrect parameter type for " + candidate.getName() + ".");
+                    continue;
+                }
+                if(paramTypes[0] != Lua.class || paramTypes[1] != LuaPlugin.class) {
+                    System.err.println("Warning: Incorrect parameter type for " + candidate.getName() + ".");
+                    continue;
+                }
+                CallbackEntry e = new CallbackEntry();
+                e.luaName = candidate.getName().substring(6);
+                e.fullName = clazz.getSimpleName() + "." + e.luaName;
+                e.isStatic = Modifier.isStatic(candidate.getModifiers());
+                //Unlocked is only honored for static methods, as objects need the liveness check.
+                e.locked = !e.isStatic || candidate.getAnnotation(Unlocked.class) == null;
+                try {
+                    e.handle = lookup.unreflect(candidate);
+                } catch(IllegalAccessException f) {
+                    System.err.println("Warning: Can't access " + candidate.getName() + ": " + f.getMessage());
+                    continue;
+                }
+                found.add(e);
+            }
+            all = found.toArray(new CallbackEntry[found.size()]);
+            callbackCache.put(clazz, all);
+        }
+        int count = 0;
+        for(CallbackEntry e : all)
+            if(e.isStatic == wantStatic)
+                count++;
+        CallbackEntry[] ret = new CallbackEntry[count];
+        count = 0;
+        for(CallbackEntry e : all)
+            if(e.isStatic == wantStatic)
+                ret[count++] = e;
+        return ret;
+    }
+
     public void tableAddFunctions(Lua l, LuaTable table, Object obj, Class<?> clazz)
     {
         if(obj != null)
             clazz = obj.getClass();
-        //Add all exported callbacks.
-        Method[] candidateMethods = clazz.getMethods();
-        for(Method candidate: candidateMethods) {
-            if(obj != null && Modifier.isStatic(candidate.getModifiers()))
-                continue;    //Want non-static.
-            if(obj == null && !Modifier.isStatic(candidate.getModifiers()))
-                continue;    //Want static.
-            if(!Modifier.isPublic(candidate.getModifiers()))
-                continue;    //Want public.
-            if(!candidate.getName().startsWith("luaCB_"))
-                continue;   //Not this...
-            String luaName = candidate.getName().substring(6);
-            Class<?>[] paramTypes = candidate.getParameterTypes();
-            Class<?> retType = candidate.getReturnType();
-            if(retType != int.class) {
-                System.err.println("Warning: Incorrect return type for " + candidate.getName() +
-                    ": " + retType.getName() + ".");
-                continue;
-            }
-            if(paramTypes == null || paramTypes.length != 2) {
-                System.err.println("Warning: Incorrect parameter type for " + candidate.getName() + ".");
-                continue;
-            }
-            if(paramTypes[0] != Lua.class || paramTypes[1] != LuaPlugin.class) {
-                System.err.println("Warning: Incorrect parameter type for " + candidate.getName() + ".");
-                continue;
+        for(CallbackEntry e : getCallbacks(clazz, obj == null))
+            l.setTable(table, e.luaName, new LuaCallback(obj, e));
+    }
+
+    public void setCallbackProfiling(boolean enable)
+    {
+        callbackProfiling = enable;
+    }
+
+    public void printCallbackStats()
+    {
+        java.util.List<CallbackStat> used = new ArrayList<CallbackStat>();
+        synchronized(LuaPlugin.class) {
+            for(CallbackEntry[] entries : callbackCache.values())
+                for(CallbackEntry e : entries) {
+                    CallbackStat st = new CallbackStat();
+                    st.entry = e;
+                    st.calls = e.calls.get();
+                    st.nanos = e.nanos.get();
+                    if(st.calls > 0)
+                        used.add(st);
+                }
+        }
+        Collections.sort(used, new Comparator<CallbackStat>() {
+            public int compare(CallbackStat a, CallbackStat b)
+            {
+                return (a.nanos < b.nanos) ? 1 : ((a.nanos > b.nanos) ? -1 : 0);
             }
+        });
+        StringBuilder sb = new StringBuilder();
+        sb.append("Callback statistics (" + (callbackProfiling ? "profiling" : "not profiling") + "):\n");
+        for(CallbackStat st : used)
+            sb.append(st.entry.fullName + (st.entry.locked ? "" : " (unlocked)") + ": " + st.calls + " calls, " +
+                (st.nanos / 1000000) + "ms total, " + (st.nanos / st.calls) + "ns/call\n");
+        printConsoleMsg(sb.toString());
+    }
 
-            l.setTable(table, luaName, new LuaCallback(obj, candidate));
+    public void resetCallbackStats()
+    {
+        synchronized(LuaPlugin.class) {
+            for(CallbackEntry[] entries : callbackCache.values())
+                for(CallbackEntry e : entries) {
+                    e.calls.set(0);
+                    e.nanos.set(0);
+                }
         }
     }
 
@@ -371,6 +519,9 @@ public class LuaPlugin implements ActionListener, Plugin
 
     private void cleanupLuaResources()
     {
+        frameHook = null;
+        if(outputConnector != null)
+            outputConnector.removeFrameHoldHook(this);
         vgaPoller.deactivate();
         if(ownsVGALock) {
             screenOut.release();
@@ -433,7 +584,18 @@ public class LuaPlugin implements ActionListener, Plugin
             } else if(luaTerminateReq && luaThread != null) {
                 //This is fun... Terminate Lua VM. Sychronize in order to avoid terminating VM in
                 //inapporiate place. And yes, that thread gets killed! The interrupt is to prevent
-                //or kick the object from sleeping on VGA wait.
+                //or kick the object from sleeping on VGA wait. A frame hook running on the emulator
+                //thread uses the same Lua state and resources, let it finish first (its deadline bounds
+                //that); setting the request under the queue lock keeps new ones from starting.
+                Queue<Event> queue = eventQueue;
+                synchronized(queue) {
+                    luaTerminateReq = true;
+                    while(frameHookActive)
+                        try {
+                            queue.wait();
+                        } catch(InterruptedException e) {
+                        }
+                }
                 luaThread.interrupt();
                 synchronized(this) {
                     luaThread.stop();
@@ -638,6 +800,23 @@ public class LuaPlugin implements ActionListener, Plugin
         clearConsole();
     }
 
+    public void eci_luaplugin_callbackstats()
+    {
+        printCallbackStats();
+    }
+
+    public void eci_luaplugin_framehookstats()
+    {
+        long[] st = getFrameHookStats();
+        printConsoleMsg("Frame hook: " + st[0] + " runs, " + st[1] + " skipped, " + st[2] + " over budget, " +
+            ((st[0] > 0) ? (st[3] / st[0]) : 0) + "ns average, " + st[4] + "ns max\n");
+    }
+
+    public void eci_luaplugin_callbackprofile(Integer enable)
+    {
+        setCallbackProfiling(enable.intValue() != 0);
+    }
+
     private void invokeCommand(String cmd, String[] args)
     {
         if("luaplugin-terminate".equals(cmd) && args == null && luaThread != null) {
@@ -694,7 +873,93 @@ public class LuaPlugin implements ActionListener, Plugin
         if(screenOut != null && ownsVGALock)
             screenOut.release();
         ownsVGALock = false;
-        vgaPoller.reactivate();
+        if(frameHook == null)
+            vgaPoller.reactivate();
+    }
+
+    //Set function to call synchronously at each frame hold, or null to go back to "lock" events.
+    public void setFrameHook(Object hook, long budgetNanos)
+    {
+        frameHookBudget = budgetNanos;
+        frameHook = hook;
+        if(outputConnector != null) {
+            if(hook != null)
+                outputConnector.addFrameHoldHook(this);
+            else
+                outputConnector.removeFrameHoldHook(this);
+        }
+        if(hook != null) {
+            vgaPoller.deactivate();
+            if(screenOut != null && ownsVGALock)
+                screenOut.release();
+            ownsVGALock = false;
+        } else if(screenOut != null)
+            vgaPoller.reactivate();
+    }
+
+    public void frameHold(OutputStatic output)
+    {
+        Object hook = frameHook;
+        Lua lua = luaState;
+        Queue<Event> queue = eventQueue;
+        if(hook == null || lua == null)
+            return;
+        synchronized(queue) {
+            if(!parkedInWait || luaTerminateReq || reconnectInProgress) {
+                //Script is busy, run it next time.
+                synchronized(frameHookStatsLock) {
+                    frameHookSkipped++;
+                }
+                return;
+            }
+            frameHookActive = true;
+        }
+        long start = System.nanoTime();
+        try {
+            int top = lua.getTop();
+            lua.setDeadline(start + frameHookBudget, FRAME_HOOK_CHECK_INTERVAL);
+            lua.push(hook);
+            if(lua.pcall(0, 0, null) != 0)
+                printConsoleMsg("Error running frame hook: " + lua.value(-1) + "\n");
+            lua.setTop(top);
+        } finally {
+            lua.clearDeadline();
+            long t = System.nanoTime() - start;
+            synchronized(frameHookStatsLock) {
+                frameHookRuns++;
+                frameHookNanos += t;
+                if(t > frameHookMaxNanos)
+                    frameHookMaxNanos = t;
+                if(t > frameHookBudget)
+                    frameHookOverruns++;
+            }
+            synchronized(queue) {
+                frameHookActive = false;
+                queue.notifyAll();
+            }
+        }
+    }
+
+    //Runs, skipped frames, budget overruns, total nanoseconds and maximum nanoseconds.
+    public long[] getFrameHookStats()
+    {
+        synchronized(frameHookStatsLock) {
+            return new long[]{frameHookRuns, frameHookSkipped, frameHookOverruns, frameHookNanos,
+                frameHookMaxNanos};
+        }
+    }
+
+    public void resetFrameHookStats()
+    {
+        synchronized(frameHookStatsLock) {
+            frameHookRuns = frameHookSkipped = frameHookOverruns = frameHookNanos = frameHookMaxNanos = 0;
+        }
+    }
+
+    //True if called from the thread running the Lua script (and not e.g. from a frame hook).
+    public boolean onLuaThread()
+    {
+        return Thread.currentThread() == luaThread;
     }
 
     public boolean getOwnsVGALock()
@@ -823,14 +1088,22 @@ public class LuaPlugin implements ActionListener, Plugin
 
     public Event waitEvent()
     {
-        synchronized(eventQueue) {
+        Queue<Event> queue = eventQueue;
+        synchronized(queue) {
             Event e = null;
-            while((e = eventQueue.poll()) == null && !luaTerminateReq && !reconnectInProgress)
-                try {
-                    eventQueue.wait();
-                } catch(Exception f) {
-                    return null;
-                }
+            parkedInWait = true;
+            try {
+                //Never leave while a frame hook is using the Lua state.
+                while(frameHookActive || ((e = queue.poll()) == null && !luaTerminateReq && !reconnectInProgress))
+                    try {
+                        queue.wait();
+                    } catch(Exception f) {
+                        if(!frameHookActive)
+                            return null;
+                    }
+            } finally {
+                parkedInWait = false;
+            }
             return e;
         }
     }
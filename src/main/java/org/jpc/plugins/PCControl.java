@@ -45,9 +45,15 @@ import org.jpc.emulator.HardwareComponent;
 import org.jpc.emulator.PC;
 import org.jpc.emulator.EventRecorder;
 import org.jpc.emulator.TraceTrap;
+import org.jpc.emulator.GuestProfiler;
+import org.jpc.emulator.TraceRecorder;
+import org.jpc.emulator.StateFingerprint;
+import org.jpc.emulator.MemoryWatcher;
+import org.jpc.emulator.ExecutionBreakpoints;
 import org.jpc.emulator.DriveSet;
 import org.jpc.emulator.DisplayController;
 import org.jpc.emulator.memory.PhysicalAddressSpace;
+import org.jpc.emulator.memory.WatchedMemory;
 import org.jpc.emulator.pci.peripheral.VGACard;
 import org.jpc.emulator.StatusDumper;
 import org.jpc.emulator.Clock;
@@ -121,6 +127,14 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
     private volatile boolean running;
     private volatile boolean waiting;
     private boolean uncompressedSave;
+    private boolean asyncVGA;
+    private GuestProfiler profiler;
+    private boolean profiling;
+    private TraceRecorder tracer;
+    private MemoryWatcher watcher;
+    private ExecutionBreakpoints breakpoints;
+    private boolean fingerprintOutput;
+    private boolean predecode;
     private static final long[] stopTime;
     private static final String[] stopLabel;
     private volatile long imminentTrapTime;
@@ -134,6 +148,8 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
     private JLabel statusBar;
     private volatile int currentResolutionWidth;
     private volatile int currentResolutionHeight;
+    private volatile double currentDisplayFps;
+    private volatile double currentEmulatedFps;
     private volatile Runnable taskToDo;
     private volatile String taskLabel;
     private boolean cycleDone;
@@ -241,6 +257,17 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
     public void reconnect(PC pc)
     {
         panel.setPC(pc);
+        if(pc != null) {
+            pc.setVGAAsyncRender(asyncVGA);
+            pc.setSpeculativeDecoding(predecode);
+            pc.setGuestProfiler(profiling ? profiler : null);
+            pc.setTraceRecorder(tracer);
+            pc.setFingerprintOutput(fingerprintOutput);
+        }
+        if(watcher != null)
+            watcher.attach(pc);
+        if(breakpoints != null)
+            breakpoints.attach(pc);
         pcStopping();  //Do the equivalent effects.
         updateStatusBar();
         updateDebug();
@@ -269,9 +296,18 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
         updateStatusBar();
     }
 
+    public void notifyFrameRate(double displayFps, double emulatedFps)
+    {
+        currentDisplayFps = displayFps;
+        currentEmulatedFps = emulatedFps;
+        updateStatusBar();
+    }
+
     private void setTrapFlags()
     {
-        pc.getTraceTrap().setTrapFlags(trapFlags);
+        //Watchpoints and breakpoints decide per point whether to trap.
+        pc.getTraceTrap().setTrapFlags(trapFlags | TraceTrap.TRACE_STOP_WATCHPOINT |
+            TraceTrap.TRACE_STOP_BREAKPOINT);
     }
 
     public void pcStarting()
@@ -439,6 +475,8 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
             }
 
             try {
+                if(breakpoints != null)
+                    breakpoints.applyPending();
                 pc.execute();
                 if(pc.getHitTraceTrap()) {
                     if(pc.getAndClearTripleFaulted())
@@ -471,6 +509,9 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
 
     public void connectPC(PC pc)
     {
+        //Blocks decoded ahead for the old PC would keep its memory around.
+        if(this.pc != null && this.pc != pc)
+            this.pc.setSpeculativeDecoding(false);
         currentProject.pc = pc;
         vPluginManager.reconnect(pc);
         this.pc = pc;
@@ -601,6 +642,248 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
         this.imminentTrapTime = time.longValue();
     }
 
+    public void eci_profiler_start(Long sampleInterval)
+    {
+        if(profiler == null)
+            profiler = new GuestProfiler(sampleInterval.longValue());
+        else
+            profiler.setSampleInterval(sampleInterval.longValue());
+        profiling = true;
+        if(pc != null)
+            pc.setGuestProfiler(profiler);
+    }
+
+    public void eci_profiler_stop()
+    {
+        profiling = false;
+        if(pc != null)
+            pc.setGuestProfiler(null);
+    }
+
+    public void eci_profiler_reset()
+    {
+        if(profiler != null)
+            profiler.reset();
+    }
+
+    public void eci_profiler_dump(String filename, Integer limit)
+    {
+        if(profiler == null)
+            return;
+        try {
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(filename)), false, "UTF-8");
+            profiler.writeReport(out, limit.intValue());
+            out.close();
+            out = new PrintStream(new BufferedOutputStream(new FileOutputStream(filename + ".folded")), false,
+                "UTF-8");
+            profiler.writeFolded(out);
+            out.close();
+            System.err.println("Informational: Profiled " + profiler.getTotalBlocks() + " blocks, " +
+                profiler.getTotalInstructions() + " instructions.");
+        } catch(IOException e) {
+            System.err.println("Error: Can't write profile: " + e.getMessage());
+        }
+    }
+
+    public void eci_trace_start(Integer records, Long lowAddress, Long highAddress, Long startTime, Long endTime)
+    {
+        try {
+            tracer = new TraceRecorder(records.intValue());
+        } catch(IllegalArgumentException e) {
+            System.err.println("Error: Can't start trace: " + e.getMessage());
+            return;
+        }
+        tracer.setAddressRange(lowAddress.longValue(), highAddress.longValue());
+        //Negative end time means no end.
+        long end = endTime.longValue();
+        tracer.setTimeWindow(startTime.longValue(), end < 0 ? Long.MAX_VALUE : end);
+        if(pc != null)
+            pc.setTraceRecorder(tracer);
+    }
+
+    public void eci_trace_stop()
+    {
+        tracer = null;
+        if(pc != null)
+            pc.setTraceRecorder(null);
+    }
+
+    public void eci_trace_dump(String filename)
+    {
+        if(tracer == null)
+            return;
+        try {
+            tracer.write(filename);
+            System.err.println("Informational: Wrote " + tracer.getRecordCount() + " trace records to " +
+                filename + ".");
+        } catch(IOException e) {
+            System.err.println("Error: Can't write trace: " + e.getMessage());
+        }
+    }
+
+    public void eci_trace_dump_on_trap(String filename)
+    {
+        if(tracer != null)
+            tracer.setTrapFile(filename);
+    }
+
+    public void eci_trace_dump_on_trap_off()
+    {
+        if(tracer != null)
+            tracer.setTrapFile(null);
+    }
+
+    public void eci_watch_add(Long address, Integer length, String mode)
+    {
+        int m = 0;
+        for(int i = 0; i < mode.length(); i++) {
+            char c = mode.charAt(i);
+            if(c == 'r')
+                m |= WatchedMemory.WATCH_READ;
+            else if(c == 'w')
+                m |= WatchedMemory.WATCH_WRITE;
+            else if(c == 'c')
+                m |= WatchedMemory.WATCH_CHANGE;
+            else if(c == 't')
+                m |= WatchedMemory.WATCH_TRAP;
+            else {
+                System.err.println("Error: Bad watch mode '" + mode + "'.");
+                return;
+            }
+        }
+        if(watcher == null) {
+            watcher = new MemoryWatcher();
+            watcher.attach(pc);
+        }
+        try {
+            watcher.addWatch(address.longValue(), length.intValue(), m);
+        } catch(IllegalArgumentException e) {
+            System.err.println("Error: Can't add watch: " + e.getMessage());
+        }
+    }
+
+    public void eci_watch_remove(Long address)
+    {
+        if(watcher != null)
+            watcher.removeWatch(address.longValue());
+    }
+
+    public void eci_watch_clear()
+    {
+        if(watcher != null)
+            watcher.clearWatches();
+    }
+
+    public void eci_watch_list()
+    {
+        if(watcher == null) {
+            vPluginManager.returnValue();
+            return;
+        }
+        long[][] w = watcher.getWatches();
+        Object[] ret = new Object[3 * w.length];
+        for(int i = 0; i < w.length; i++) {
+            ret[3 * i + 0] = w[i][0];
+            ret[3 * i + 1] = w[i][1];
+            int m = (int)w[i][2];
+            ret[3 * i + 2] = ((m & WatchedMemory.WATCH_READ) != 0 ? "r" : "") +
+                ((m & WatchedMemory.WATCH_WRITE) != 0 ? "w" : "") +
+                ((m & WatchedMemory.WATCH_CHANGE) != 0 ? "c" : "") +
+                ((m & WatchedMemory.WATCH_TRAP) != 0 ? "t" : "");
+        }
+        vPluginManager.returnValue(ret);
+    }
+
+    public void eci_watch_events()
+    {
+        if(watcher == null) {
+            vPluginManager.returnValue();
+            return;
+        }
+        long dropped = watcher.getAndClearDroppedEvents();
+        if(dropped > 0)
+            System.err.println("Warning: Dropped " + dropped + " watchpoint events.");
+        long[][] ev = watcher.takeEvents();
+        Object[] ret = new Object[6 * ev.length];
+        for(int i = 0; i < ev.length; i++)
+            for(int j = 0; j < 6; j++)
+                ret[6 * i + j] = ev[i][j];
+        vPluginManager.returnValue(ret);
+    }
+
+    public void eci_breakpoint_add(Long address, Integer physical, Integer trap)
+    {
+        if(breakpoints == null) {
+            breakpoints = new ExecutionBreakpoints();
+            breakpoints.attach(pc);
+        }
+        try {
+            breakpoints.addBreakpoint(address.longValue(), physical.intValue() != 0, trap.intValue() != 0);
+        } catch(IllegalArgumentException e) {
+            System.err.println("Error: Can't add breakpoint: " + e.getMessage());
+        }
+    }
+
+    public void eci_breakpoint_remove(Long address, Integer physical)
+    {
+        if(breakpoints != null)
+            breakpoints.removeBreakpoint(address.longValue(), physical.intValue() != 0);
+    }
+
+    public void eci_breakpoint_clear()
+    {
+        if(breakpoints != null)
+            breakpoints.clearBreakpoints();
+    }
+
+    public void eci_breakpoint_reset_hits()
+    {
+        if(breakpoints != null)
+            breakpoints.resetHits();
+    }
+
+    public void eci_breakpoint_list()
+    {
+        if(breakpoints == null) {
+            vPluginManager.returnValue();
+            return;
+        }
+        long[][] b = breakpoints.getBreakpoints();
+        Object[] ret = new Object[4 * b.length];
+        for(int i = 0; i < b.length; i++) {
+            ret[4 * i + 0] = b[i][0];
+            ret[4 * i + 1] = Boolean.valueOf(b[i][1] != 0);
+            ret[4 * i + 2] = Boolean.valueOf(b[i][2] != 0);
+            ret[4 * i + 3] = b[i][3];
+        }
+        vPluginManager.returnValue(ret);
+    }
+
+    public void eci_fingerprint()
+    {
+        if(pc == null)
+            return;
+        StateFingerprint fp = pc.getStateFingerprint();
+        long value = fp.fingerprint();
+        long[] parts = fp.getLastParts();
+        vPluginManager.returnValue(StateFingerprint.toHex(value), StateFingerprint.toHex(parts[0]),
+            StateFingerprint.toHex(parts[1]), StateFingerprint.toHex(parts[2]));
+    }
+
+    public void eci_fingerprint_output_on()
+    {
+        fingerprintOutput = true;
+        if(pc != null)
+            pc.setFingerprintOutput(true);
+    }
+
+    public void eci_fingerprint_output_off()
+    {
+        fingerprintOutput = false;
+        if(pc != null)
+            pc.setFingerprintOutput(false);
+    }
+
     public void eci_pc_start()
     {
         startExternal();
@@ -659,12 +942,8 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
                 return;
 
             addrSpace = (PhysicalAddressSpace)currentProject.pc.getComponent(PhysicalAddressSpace.class);
-            if(_size == 1)
-                ret = (long)addrSpace.getByte((int)addr) & 0xFF;
-            else if(_size == 2)
-                ret = (long)addrSpace.getWord((int)addr) & 0xFFFF;
-            else if(_size == 4)
-                ret = (long)addrSpace.getDoubleWord((int)addr) & 0xFFFFFFFFL;
+            //Not through the watches, script accesses aren't guest hits.
+            ret = addrSpace.hostRead((int)addr, (int)_size);
 
             vPluginManager.returnValue(ret);
         }
@@ -681,12 +960,7 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
                 return;
 
             addrSpace = (PhysicalAddressSpace)currentProject.pc.getComponent(PhysicalAddressSpace.class);
-            if(_size == 1)
-                addrSpace.setByte((int)addr, (byte)_value);
-            else if(_size == 2)
-                addrSpace.setWord((int)addr, (short)_value);
-            else if(_size == 4)
-                addrSpace.setDoubleWord((int)addr, (int)_value);
+            addrSpace.hostWrite((int)addr, _value, (int)_size);
         }
     }
 
@@ -701,6 +975,14 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
         String uncompress = params.get("uncompressedsave");
         if(uncompress != null)
             uncompressedSave = true;
+        if(params.get("asyncvga") != null) {
+            asyncVGA = true;
+            menuManager.setSelected("Debug"+'\u2192'+"Render VGA off-thread", true);
+        }
+        if(params.get("predecode") != null) {
+            predecode = true;
+            menuManager.setSelected("Debug"+'\u2192'+"Decode branch targets ahead", true);
+        }
         if(extramenu == null)
             return;
         try {
@@ -833,6 +1115,10 @@ public class PCControl implements Plugin, PCMonitorPanelEmbedder
               new Integer(-4)}, PROFILE_HAVE_PC | PROFILE_HAVE_HDD);
         menuManager.addMenuItem("Debug"+'\u2192'+"Hacks"+'\u2192'+"VGA_DRAW", this, "menuVGADRAW", null, PROFILE_HAVE_PC);
         menuManager.addMenuItem("Debug"+'\u2192'+"Hacks"+'\u2192'+"VGA_SCROLL_2", this, "menuVGASCROLL2", null, PROFILE_HAVE_PC);
+        menuManager.addSelectableMenuItem("Debug"+'\u2192'+"Render VGA off-thread", this, "menuAsyncVGA", null, false,
+            PROFILE_ALWAYS);
+        menuManager.addSelectableMenuItem("Debug"+'\u2192'+"Decode branch targets ahead", this, "menuPredecode", null,
+            false, PROFILE_ALWAYS);
         menuManager.addMenuItem("Debug"+'\u2192'+"Show frame rate", this, "menuFramerate", null, PROFILE_HAVE_PC);
         menuManager.addMenuItem("Debug"+'\u2192'+"Show CRTC register", this, "menuShowCRTC", null, PROFILE_HAVE_PC);
 
@@ -975,6 +1261,9 @@ e.printStackTrace();
                 text1 = text1 + ", resolution: " + currentResolutionWidth + "*" + currentResolutionHeight;
             else
                 text1 = text1 + ", resolution: <No valid signal>";
+            if(currentEmulatedFps > 0)
+                text1 = text1 + ", fps: " + String.format("%.1f", currentDisplayFps) + " shown / " +
+                    String.format("%.1f", currentEmulatedFps) + " emulated";
             if(currentProject.events.isAtMovieEnd())
                 text1 = text1 + " (At movie end)";
         } else if(taskToDo != null)
@@ -1141,6 +1430,22 @@ e.printStackTrace();
         pc.setVGAScroll2Hack();
     }
 
+    public void menuAsyncVGA(String i, Object[] args)
+    {
+        asyncVGA = !asyncVGA;
+        menuManager.setSelected("Debug"+'\u2192'+"Render VGA off-thread", asyncVGA);
+        if(pc != null)
+            pc.setVGAAsyncRender(asyncVGA);
+    }
+
+    public void menuPredecode(String i, Object[] args)
+    {
+        predecode = !predecode;
+        menuManager.setSelected("Debug"+'\u2192'+"Decode branch targets ahead", predecode);
+        if(pc != null)
+            pc.setSpeculativeDecoding(predecode);
+    }
+
     public void menuFramerate(String i, Object[] args)
     {
         VGACard card = (VGACard)pc.getComponent(VGACard.class);
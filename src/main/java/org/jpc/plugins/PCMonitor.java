@@ -133,6 +133,14 @@ public class PCMonitor implements Plugin, PCMonitorPanelEmbedder
     {
     }
 
+    public void notifyFrameRate(final double displayFps, final double emulatedFps)
+    {
+        SwingUtilities.invokeLater(new Runnable() { public void run() {
+            monitorWindow.setTitle("VGA Monitor" + Misc.emuname + " [" + String.format("%.1f", displayFps) +
+                " fps shown, " + String.format("%.1f", emulatedFps) + " fps emulated]");
+        }});
+    }
+
     public void main()
     {
         //Panel has its own thread.
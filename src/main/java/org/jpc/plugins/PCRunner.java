@@ -48,6 +48,8 @@ public class PCRunner implements Plugin
     private boolean shutDownRequest;
     private boolean vgaDrawHack;
     private boolean vgaScroll2Hack;
+    private boolean vgaAsyncRender;
+    private boolean predecode;
     private long imminentTrapTime;
 
     protected PC pc;
@@ -72,6 +74,10 @@ public class PCRunner implements Plugin
             pc.setVGADrawHack();
         if(vgaScroll2Hack)
             pc.setVGAScroll2Hack();
+        if(vgaAsyncRender)
+            pc.setVGAAsyncRender(true);
+        if(predecode)
+            pc.setSpeculativeDecoding(true);
     }
 
     public void pcStarting()
@@ -214,5 +220,9 @@ public class PCRunner implements Plugin
             this.vgaDrawHack = true;
         if(params.get("vgascroll2hack") != null)
             this.vgaScroll2Hack = true;
+        if(params.get("asyncvga") != null)
+            this.vgaAsyncRender = true;
+        if(params.get("predecode") != null)
+            this.predecode = true;
     }
 }
@@ -0,0 +1,202 @@
+/*
+    JPC-RR: A x86 PC Hardware Emulator
+    Release 1
+
+    Copyright (C) 2007-2009 Isis Innovation Limited
+    Copyright (C) 2009-2010 H. Ilari Liusvaara
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 2 as published by
+    the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with this program; if not, write to the Free Software Foundation, Inc.,
+    51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+
+    Based on JPC x86 PC Hardware emulator,
+    A project from the Physics Dept, The University of Oxford
+
+    Details about original JPC can be found at:
+
+    www-jpc.physics.ox.ac.uk
+
+*/
+
+package org.jpc.plugins;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jpc.emulator.*;
+import org.jpc.output.*;
+import org.jpc.pluginsaux.HUDRenderer;
+import org.jpc.pluginsaux.PNGSaver;
+import org.jpc.pluginsbase.Plugins;
+import org.jpc.pluginsbase.Plugin;
+import static org.jpc.Misc.parseStringToComponents;
+
+//Saves video frames, with the HUD, as a sequence of PNG files. Encoding runs on a pool of workers, so
+//emulation only waits if encoding falls behind by more than the output ring and the queue allow.
+public class PNGDumper implements Plugin
+{
+    private volatile OutputClient videoOut;
+    private volatile OutputStatic connector;
+    private volatile boolean shuttingDown;
+    private volatile boolean shutDown;
+    private volatile boolean pcRunStatus;
+    private PC pc;
+    private Thread worker;
+    private String prefix;
+    private int every;
+    private HUDRenderer renderer;
+    private ExecutorService encoders;
+    private Semaphore queueSlots;
+    private int imageFrames;
+    private int frame;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    public PNGDumper(Plugins pluginManager, String args) throws IOException
+    {
+        Map<String, String> params = parseStringToComponents(args);
+        prefix = params.get("prefix");
+        if(prefix == null)
+            throw new IOException("Output prefix setting (prefix) required for PNGDumper");
+        every = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if(params.get("every") != null)
+                every = Integer.parseInt(params.get("every"));
+            if(params.get("threads") != null)
+                threads = Integer.parseInt(params.get("threads"));
+        } catch(NumberFormatException e) {
+            throw new IOException("Bad number in PNGDumper settings: " + e.getMessage());
+        }
+        if(every < 1 || threads < 1)
+            throw new IOException("PNGDumper every and threads must be positive");
+
+        encoders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                return new Thread(r, "PNG dumper encoder");
+            }
+        });
+        queueSlots = new Semaphore(2 * threads);
+        shuttingDown = false;
+        shutDown = false;
+        pcRunStatus = false;
+        connector = pluginManager.getOutputConnector();
+        renderer = new HUDRenderer(2);
+        pluginManager.addRenderer(renderer);
+        videoOut = new OutputClient(connector, OutputClient.LOSSLESS, new OutputStatic.BatchTagger() {
+            public Object tagBatch(OutputStatic.Batch batch) { return renderer.takeOverlay(); }
+        });
+    }
+
+    public boolean systemShutdown()
+    {
+        if(pcRunStatus) {
+            return false;  //Don't shut down until after PC.
+        }
+
+        shuttingDown = true;
+        if(worker != null) {
+            synchronized(this) {
+                worker.interrupt();
+                while(!shutDown)
+                    try {
+                        wait();
+                    } catch(Exception e) {
+                    }
+            }
+        }
+        return true;
+    }
+
+    public void reconnect(PC _pc)
+    {
+        pcRunStatus = false;
+        pc = _pc;
+    }
+
+    public void pcStarting()
+    {
+        pcRunStatus = true;
+    }
+
+    public void pcStopping()
+    {
+        pcRunStatus = false;
+    }
+
+    private void dumpBatch(OutputStatic.Batch batch)
+    {
+        OutputFrameImage f = (OutputFrameImage)batch.lastFrame(OutputFrameImage.class);
+        HUDRenderer.Overlay overlay = (HUDRenderer.Overlay)videoOut.getBatchTag();
+        if(f == null || (imageFrames++ % every) != 0) {
+            videoOut.doneBatch();
+            return;
+        }
+        renderer.setBackground(f.getImageData(), f.getWidth(), f.getHeight());
+        videoOut.doneBatch();
+        final int w = renderer.getRenderWidth(overlay);
+        final int h = renderer.getRenderHeight(overlay);
+        final int[] image = renderer.getFinished(overlay);
+        if(image == null)
+            return;
+        final String name = prefix + PNGSaver.numberToString(frame++) + ".png";
+
+        //Bound the frames waiting for encoding, the ring then holds up the emulator if we fall behind.
+        queueSlots.acquireUninterruptibly();
+        encoders.execute(new Runnable() {
+            public void run()
+            {
+                try {
+                    PNGSaver.savePNG(name, image, w, h);
+                } catch(IOException e) {
+                    failures.incrementAndGet();
+                    System.err.println("Warning: Failed to save '" + name + "': " + e.getMessage());
+                } finally {
+                    queueSlots.release();
+                }
+            }
+        });
+    }
+
+    public void main()
+    {
+        worker = Thread.currentThread();
+        while(!shuttingDown) {
+            OutputStatic.Batch batch = videoOut.nextBatch(true);
+            if(batch != null)
+                dumpBatch(batch);
+        }
+        //Save what the emulator published before stopping.
+        OutputStatic.Batch batch;
+        while((batch = videoOut.nextBatch(false)) != null)
+            dumpBatch(batch);
+        System.err.println("Informational: PNGDumper output " + videoOut.getStatistics() + ".");
+        videoOut.detach();
+
+        encoders.shutdown();
+        boolean done = false;
+        while(!done)
+            try {
+                done = encoders.awaitTermination(1, TimeUnit.DAYS);
+            } catch(InterruptedException e) {
+            }
+        int failed = failures.get();
+        System.err.println("Informational: PNGDumper saved " + (frame - failed) + " frames (" + failed +
+            " failed).");
+
+        synchronized(this) {
+            shutDown = true;
+            notifyAll();
+        }
+    }
+}
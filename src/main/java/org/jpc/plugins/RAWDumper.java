@@ -77,6 +77,8 @@ public class RAWDumper implements Plugin
     private OutputStream rawOutputStream;
     private DumpFrameFilter filter;
     private HUDRenderer renderer;
+    private int frame;
+    private boolean first = true;
 
     public RAWDumper(Plugins pluginManager, String args) throws IOException
     {
@@ -96,10 +98,13 @@ public class RAWDumper implements Plugin
         shutDown = false;
         pcRunStatus = false;
         connector = pluginManager.getOutputConnector();
-        videoOut = new OutputClient(connector);
         filter = new DumpFrameFilter();
         renderer = new HUDRenderer(2);
         pluginManager.addRenderer(renderer);
+        //Every batch gets dumped, with the HUD drawn for it. May lag the emulator by up to a ring of batches.
+        videoOut = new OutputClient(connector, OutputClient.LOSSLESS, new OutputStatic.BatchTagger() {
+            public Object tagBatch(OutputStatic.Batch batch) { return renderer.takeOverlay(); }
+        });
     }
 
     public boolean systemShutdown()
@@ -138,51 +143,65 @@ public class RAWDumper implements Plugin
         pcRunStatus = false;
     }
 
+    private void dumpBatch(OutputStatic.Batch batch)
+    {
+        synchronized(this) {
+            try {
+                long base;
+                if(first)
+                    rawOutputStream.write(batch.makeChannelTable());
+                first = false;
+                OutputFrameImage previousFrame = filter.lastVideoFrame;
+                base = batch.writeFrames(rawOutputStream, filter);
+                OutputFrameImage lastFrame = filter.lastVideoFrame;
+                HUDRenderer.Overlay overlay = (HUDRenderer.Overlay)videoOut.getBatchTag();
+                if(lastFrame == null) {
+                    videoOut.doneBatch();
+                    return;
+                }
+                int w = lastFrame.getWidth();
+                int h = lastFrame.getHeight();
+                //Without a new image the renderer still has the last one, whose copy may get reused.
+                if(lastFrame != previousFrame)
+                    renderer.setBackground(lastFrame.getImageData(), w, h);
+                videoOut.doneBatch();
+                w = renderer.getRenderWidth(overlay);
+                h = renderer.getRenderHeight(overlay);
+                int[] saveBuffer = renderer.getFinished(overlay);
+                frame++;
+                long time = filter.lastTimestamp;
+                if(base > time)
+                    time = base;
+                lastFrame = new OutputFrameImage(time, (short)w, (short)h, saveBuffer);
+                rawOutputStream.write(lastFrame.dump(filter.videoChannel, base));
+                System.err.println("Informational: Saved frame #" + frame + ": " + w + "x" + h + " <" +
+                    time + ">.");
+            } catch(IOException e) {
+                videoOut.doneBatch();
+                System.err.println("Warning: Failed to save screenshot image!");
+                errorDialog(e, "Failed to save screenshot", null, "Dismiss");
+            }
+        }
+    }
+
     public void main()
     {
-        int frame = 0;
         worker = Thread.currentThread();
-        boolean first = true;
         while(!shuttingDown) {
             if(shuttingDown)
                 break;
 
-            if(videoOut.aquire()) {
-                synchronized(this) {
-                    try {
-                        long base;
-                        if(first)
-                            rawOutputStream.write(connector.makeChannelTable());
-                        first = false;
-                        base = connector.writeFrames(rawOutputStream, filter);
-                        OutputFrameImage lastFrame = filter.lastVideoFrame;
-                        if(lastFrame == null) {
-                            videoOut.releaseWaitAll();
-                            continue;
-                        }
-                        int w = lastFrame.getWidth();
-                        int h = lastFrame.getHeight();
-                        renderer.setBackground(lastFrame.getImageData(), w, h);
-                        videoOut.releaseWaitAll();
-                        w = renderer.getRenderWidth();
-                        h = renderer.getRenderHeight();
-                        int[] saveBuffer = renderer.getFinishedAndReset();
-                        frame++;
-                        long time = filter.lastTimestamp;
-                        if(base > time)
-                            time = base;
-                        lastFrame = new OutputFrameImage(time, (short)w, (short)h, saveBuffer);
-                        rawOutputStream.write(lastFrame.dump(filter.videoChannel, base));
-                        System.err.println("Informational: Saved frame #" + frame + ": " + w + "x" + h + " <" +
-                            time + ">.");
-                    } catch(IOException e) {
-                        System.err.println("Warning: Failed to save screenshot image!");
-                        errorDialog(e, "Failed to save screenshot", null, "Dismiss");
-                    }
-                }
-            }
-       }
-
+            OutputStatic.Batch batch = videoOut.nextBatch(true);
+            if(batch != null)
+                dumpBatch(batch);
+        }
+        //Write out what the emulator published before stopping.
+        OutputStatic.Batch batch;
+        while((batch = videoOut.nextBatch(false)) != null)
+            dumpBatch(batch);
+        for(String stat : connector.getClientStatistics())
+            System.err.println("Informational: Output " + stat + ".");
+        System.err.println("Informational: " + renderer.getStatistics() + ".");
 
        try {
            if(filter.gotFrame)
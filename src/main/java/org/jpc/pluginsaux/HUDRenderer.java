@@ -44,19 +44,181 @@ public class HUDRenderer
     volatile int gapBottom;
     volatile int gapRight;
     List<RenderObject> renderObjects;
+    //Guards renderObjects and the gaps, so drawing calls don't wait for a frame to be rendered.
+    private final Object submitLock;
+    //Sprites of the objects drawn in the last rendered frame, reused for objects drawn again.
+    private Map<RenderObject, Sprite> retained;
+    private int retainedWidth;
+    private int retainedHeight;
+    private long spritesReused;
+    private long spritesRasterized;
+
+    //Row bitmaps of the VGA font, 16 rows per character, bit 7 being the leftmost pixel.
+    private static final int[] glyphRows;
+
+    static
+    {
+        glyphRows = new int[256 * 16];
+        for(int i = 0; i < 256 * 16; i++)
+            glyphRows[i] = (int)(vgaFontData[i / 8] >>> (8 * (i % 8))) & 0xFF;
+    }
 
     private abstract class RenderObject
     {
-        abstract void render(int[] buffer, int w, int h);
+        //Everything the object looks like, compared to find the same object drawn in consequent frames.
+        int[] params;
+        String text;
+
+        RenderObject(int[] _params, String _text)
+        {
+            params = _params;
+            text = _text;
+        }
+
+        abstract Sprite rasterize(int w, int h);
+
+        public boolean equals(Object o)
+        {
+            if(o == null || o.getClass() != getClass())
+                return false;
+            RenderObject r = (RenderObject)o;
+            if(text == null ? r.text != null : !text.equals(r.text))
+                return false;
+            return Arrays.equals(params, r.params);
+        }
+
+        public int hashCode()
+        {
+            return Arrays.hashCode(params) * 31 + ((text != null) ? text.hashCode() : 0);
+        }
+    }
+
+    //Blend tables by channel value and alpha, shared as HUDs tend to use few colors.
+    private static final int[][] blendTables = new int[65536][];
+
+    private static synchronized int[] getBlendTable(int value, int alpha)
+    {
+        int[] table = blendTables[(value << 8) | alpha];
+        if(table != null)
+            return table;
+        table = new int[256];
+        float fA = (float)alpha / 255;
+        for(int i = 0; i < 256; i++) {
+            float old = i;
+            table[i] = (int)(value * fA + old * (1 - fA));
+        }
+        blendTables[(value << 8) | alpha] = table;
+        return table;
+    }
+
+    //Pixels of one color an object covers, as runs of buffer offsets.
+    private static class Ink
+    {
+        int color;
+        int alpha;
+        //Blended channel value for each old channel value.
+        int[] blendR;
+        int[] blendG;
+        int[] blendB;
+        int[] runs;
+        int used;
+
+        Ink(int r, int g, int b, int a)
+        {
+            r &= 0xFF;
+            g &= 0xFF;
+            b &= 0xFF;
+            alpha = a & 0xFF;
+            color = (r << 16) | (g << 8) | b;
+            runs = new int[16];
+            if(alpha == 0 || alpha == 255)
+                return;
+            blendR = getBlendTable(r, alpha);
+            blendG = getBlendTable(g, alpha);
+            blendB = getBlendTable(b, alpha);
+        }
+
+        final void add(int offset)
+        {
+            if(alpha == 0)
+                return;
+            if(used > 0 && runs[used - 2] + runs[used - 1] == offset) {
+                runs[used - 1]++;
+                return;
+            }
+            if(used == runs.length)
+                runs = Arrays.copyOf(runs, 2 * used);
+            runs[used++] = offset;
+            runs[used++] = 1;
+        }
+
+        void composite(int[] buffer)
+        {
+            if(alpha == 0) {
+                //Nothing to modify.
+            } else if(alpha == 255) {
+                for(int i = 0; i < used; i += 2)
+                    Arrays.fill(buffer, runs[i], runs[i] + runs[i + 1], color);
+            } else {
+                for(int i = 0; i < used; i += 2)
+                    for(int j = runs[i]; j < runs[i] + runs[i + 1]; j++) {
+                        int oldpx = buffer[j];
+                        buffer[j] = (blendR[(oldpx >>> 16) & 0xFF] << 16) | (blendG[(oldpx >>> 8) & 0xFF] << 8) |
+                            blendB[oldpx & 0xFF];
+                    }
+            }
+        }
+    }
+
+    //Object rasterized for a given render size. No object covers any pixel twice, so order within it is free.
+    private static class Sprite
+    {
+        int bw;
+        int bh;
+        Ink fill;
+        Ink line;
+
+        Sprite(int _bw, int _bh, int fillR, int fillG, int fillB, int fillA, int lineR, int lineG, int lineB,
+            int lineA)
+        {
+            bw = _bw;
+            bh = _bh;
+            fill = new Ink(fillR, fillG, fillB, fillA);
+            line = new Ink(lineR, lineG, lineB, lineA);
+        }
+
+        final void plot(int x, int y, boolean state)
+        {
+            if(x < 0 || y < 0 || x >= bw || y >= bh)
+                return;
+            if(state)
+                line.add(y * bw + x);
+            else
+                fill.add(y * bw + x);
+        }
+
+        void composite(int[] buffer)
+        {
+            fill.composite(buffer);
+            line.composite(buffer);
+        }
     }
 
     public HUDRenderer(int _flags)
     {
         renderObjects = new LinkedList<RenderObject>();
+        submitLock = new Object();
+        retained = new HashMap<RenderObject, Sprite>();
         lightAmp = 1;
         flags = _flags;
     }
 
+    //Lock drawing calls are made under. Holding it over several calls submits them together.
+    public Object getSubmitLock()
+    {
+        return submitLock;
+    }
+
     public synchronized void setBackground(int[] bg, int w, int h)
     {
         if(elementsAllocated < w * h) {
@@ -69,6 +231,15 @@ public class HUDRenderer
         backgroundHeight = h;
     }
 
+    //Like setBackground(), but without a copy. The caller must not change bg until it has rendered.
+    public synchronized void useBackground(int[] bg, int w, int h)
+    {
+        backgroundBuffer = bg;
+        elementsAllocated = 0;
+        backgroundWidth = w;
+        backgroundHeight = h;
+    }
+
     public synchronized int getRenderWidth()
     {
         return gapLeft + backgroundWidth + gapRight;
@@ -79,44 +250,52 @@ public class HUDRenderer
         return gapTop + backgroundHeight + gapBottom;
     }
 
-    public synchronized void REMOTE_left_gap(int _flags, int gap)
+    public void REMOTE_left_gap(int _flags, int gap)
     {
         if(((_flags & flags)) != flags)
             return;
-        if(gap > 0) {
-            gapLeft = gap;
-        } else
-            gapLeft = 0;
+        synchronized(submitLock) {
+            if(gap > 0) {
+                gapLeft = gap;
+            } else
+                gapLeft = 0;
+        }
     }
 
-    public synchronized void REMOTE_top_gap(int _flags, int gap)
+    public void REMOTE_top_gap(int _flags, int gap)
     {
         if(((_flags & flags)) != flags)
             return;
-        if(gap > 0) {
-            gapTop = gap;
-        } else
-            gapTop = 0;
+        synchronized(submitLock) {
+            if(gap > 0) {
+                gapTop = gap;
+            } else
+                gapTop = 0;
+        }
     }
 
-    public synchronized void REMOTE_right_gap(int _flags, int gap)
+    public void REMOTE_right_gap(int _flags, int gap)
     {
         if(((_flags & flags)) != flags)
             return;
-        if(gap > 0) {
-            gapRight = gap;
-        } else
-            gapRight = 0;
+        synchronized(submitLock) {
+            if(gap > 0) {
+                gapRight = gap;
+            } else
+                gapRight = 0;
+        }
     }
 
-    public synchronized void REMOTE_bottom_gap(int _flags, int gap)
+    public void REMOTE_bottom_gap(int _flags, int gap)
     {
         if(((_flags & flags)) != flags)
             return;
-        if(gap > 0) {
-            gapBottom = gap;
-        } else
-            gapBottom = 0;
+        synchronized(submitLock) {
+            if(gap > 0) {
+                gapBottom = gap;
+            } else
+                gapBottom = 0;
+        }
     }
 
     public synchronized void setLightAmplification(int factor)
@@ -124,13 +303,67 @@ public class HUDRenderer
         lightAmp = factor;
     }
 
+    //HUD drawn for one frame: gaps, light amplification and objects, detached from the renderer.
+    public static class Overlay
+    {
+        int gapLeft;
+        int gapTop;
+        int gapRight;
+        int gapBottom;
+        int lightAmp;
+        List<RenderObject> renderObjects;
+    }
+
+    //Take the HUD drawn so far and reset it, as getFinishedAndReset() does, to render it later.
+    public Overlay takeOverlay()
+    {
+        Overlay o = new Overlay();
+        synchronized(submitLock) {
+            o.gapLeft = gapLeft;
+            o.gapTop = gapTop;
+            o.gapRight = gapRight;
+            o.gapBottom = gapBottom;
+            o.lightAmp = lightAmp;
+            o.renderObjects = renderObjects;
+            renderObjects = new LinkedList<RenderObject>();
+            gapLeft = gapRight = gapTop = gapBottom = 0;
+        }
+        return o;
+    }
+
+    public synchronized int getRenderWidth(Overlay o)
+    {
+        return o.gapLeft + backgroundWidth + o.gapRight;
+    }
+
+    public synchronized int getRenderHeight(Overlay o)
+    {
+        return o.gapTop + backgroundHeight + o.gapBottom;
+    }
+
     public synchronized int[] getFinishedAndReset()
     {
-        int[] ret = null;
-        int w = getRenderWidth();
-        int h = getRenderHeight();
-        if(w * h > 0)
-            ret = new int[w * h];
+        return getFinished(takeOverlay());
+    }
+
+    //Render the background with the given overlay on top.
+    public synchronized int[] getFinished(Overlay o)
+    {
+        int w = getRenderWidth(o);
+        int h = getRenderHeight(o);
+        return getFinished(o, (w * h > 0) ? new int[w * h] : null);
+    }
+
+    //Render into ret, which has to hold getRenderWidth(o) * getRenderHeight(o) pixels.
+    public synchronized int[] getFinished(Overlay o, int[] ret)
+    {
+        int w = getRenderWidth(o);
+        int h = getRenderHeight(o);
+        int gapTop = o.gapTop;
+        int gapLeft = o.gapLeft;
+        int lightAmp = o.lightAmp;
+        if(ret != null && w * h > backgroundWidth * backgroundHeight)
+            Arrays.fill(ret, 0, w * h, 0);
 
         if(lightAmp == 1) {
             for(int y = 0; y < backgroundHeight; y++)
@@ -142,54 +375,36 @@ public class HUDRenderer
                     ret[(y + gapTop) * w + gapLeft + x] = backgroundBuffer[y * backgroundWidth + x] * lightAmp;
         }
 
-        for(RenderObject obj : renderObjects)
-            if(ret != null)
-                obj.render(ret, w, h);
-        renderObjects.clear();
-
-        gapLeft = gapRight = gapTop = gapBottom = 0;
+        if(ret == null)
+            return ret;
+
+        //Only objects not drawn identically last frame get rasterized, the rest reuse their sprites.
+        if(w != retainedWidth || h != retainedHeight)
+            retained.clear();
+        Map<RenderObject, Sprite> next = new HashMap<RenderObject, Sprite>();
+        for(RenderObject obj : o.renderObjects) {
+            Sprite s = retained.remove(obj);
+            if(s == null)
+                s = next.get(obj);
+            if(s == null) {
+                s = obj.rasterize(w, h);
+                spritesRasterized++;
+            } else
+                spritesReused++;
+            next.put(obj, s);
+            s.composite(ret);
+        }
+        retained = next;
+        retainedWidth = w;
+        retainedHeight = h;
         return ret;
     }
 
-    final void renderPixel(int[] buffer, int bw, int bh, int x, int y, boolean state, int fillR, int fillG,
-        int fillB, int fillA, int lineR, int lineG, int lineB, int lineA)
+    public synchronized String getStatistics()
     {
-        if(x < 0 || y < 0 || x >= bw || y >= bh)
-            return;
-        int useR = fillR;
-        int useG = fillG;
-        int useB = fillB;
-        int useA = fillA;
-
-        if(state) {
-            useR = lineR;
-            useG = lineG;
-            useB = lineB;
-            useA = lineA;
-        }
-        useR &= 0xFF;
-        useG &= 0xFF;
-        useB &= 0xFF;
-        useA &= 0xFF;
-
-        if(useA == 0) {
-            //Nothing to modify.
-        } else if(useA == 255) {
-            buffer[y * bw + x] = (useR << 16) | (useG << 8) | useB;
-        } else {
-            int oldpx = buffer[y * bw + x];
-            float oldR = (oldpx >>> 16) & 0xFF;
-            float oldG = (oldpx >>> 8) & 0xFF;
-            float oldB = oldpx & 0xFF;
-            float fA = (float)useA / 255;
-            useR = (int)(useR * fA + oldR * (1 - fA));
-            useG = (int)(useG * fA + oldG * (1 - fA));
-            useB = (int)(useB * fA + oldB * (1 - fA));
-            buffer[y * bw + x] = (useR << 16) | (useG << 8) | useB;
-        }
+        return "HUD objects " + spritesRasterized + " rasterized, " + spritesReused + " reused";
     }
 
-
     private class WhiteSolidBox extends RenderObject
     {
         int x;
@@ -198,31 +413,36 @@ public class HUDRenderer
         int h;
         WhiteSolidBox(int _x, int _y, int _w, int _h)
         {
+            super(new int[]{_x, _y, _w, _h}, null);
             x = _x;
             y = _y;
             w = _w;
             h = _h;
         }
 
-        void render(int[] buffer, int bw, int bh)
+        Sprite rasterize(int bw, int bh)
         {
+            Sprite s = new Sprite(bw, bh, 0, 0, 0, 0, 255, 255, 255, 255);
             for(int j = y; j < y + h; j++) {
                 if(j < 0 || j >= bh)
                     continue;
                 for(int i = x; i < x + w; i++) {
                     if(i < 0 || i >= bw)
                         continue;
-                    buffer[j * bw + i] = 0xFFFFFF;
+                    s.plot(i, j, true);
                 }
             }
+            return s;
         }
     }
 
-    public synchronized void REMOTE_white_solid_box(int _flags, int x, int y, int w, int h)
+    public void REMOTE_white_solid_box(int _flags, int x, int y, int w, int h)
     {
         if(((_flags & flags)) != flags)
             return;
-        renderObjects.add(new WhiteSolidBox(x, y, w, h));
+        synchronized(submitLock) {
+            renderObjects.add(new WhiteSolidBox(x, y, w, h));
+        }
     }
 
     private class Box extends RenderObject
@@ -243,6 +463,7 @@ public class HUDRenderer
         Box(int _x, int _y, int _w, int _h, int _thick, int lr, int lg, int lb, int la, int fr, int fg, int fb,
             int fa)
         {
+            super(new int[]{_x, _y, _w, _h, _thick, lr, lg, lb, la, fr, fg, fb, fa}, null);
             x = _x;
             y = _y;
             w = _w;
@@ -258,8 +479,9 @@ public class HUDRenderer
             fillA = fa;
         }
 
-        void render(int[] buffer, int bw, int bh)
+        Sprite rasterize(int bw, int bh)
         {
+            Sprite s = new Sprite(bw, bh, fillR, fillG, fillB, fillA, lineR, lineG, lineB, lineA);
             for(int j = y; j < y + h && j < bh; j++) {
                 if(j < 0 || j >= bh)
                     continue;
@@ -271,19 +493,21 @@ public class HUDRenderer
                         dist = x + w - i - 1;
                     if(y + h - j - 1 < dist)
                         dist = y + h - j - 1;
-                    renderPixel(buffer, bw, bh, i, j, dist < thick, fillR, fillG, fillB, fillA, lineR, lineG,
-                        lineB, lineA);
+                    s.plot(i, j, dist < thick);
                 }
             }
+            return s;
         }
     }
 
-    public synchronized void REMOTE_box(int _flags, int _x, int _y, int _w, int _h, int _thick, int lr, int lg,
+    public void REMOTE_box(int _flags, int _x, int _y, int _w, int _h, int _thick, int lr, int lg,
         int lb, int la, int fr, int fg, int fb, int fa)
     {
         if((_flags & flags) != flags)
             return;
-        renderObjects.add(new Box(_x, _y, _w, _h, _thick, lr, lg, lb, la, fr, fg, fb, fa));
+        synchronized(submitLock) {
+            renderObjects.add(new Box(_x, _y, _w, _h, _thick, lr, lg, lb, la, fr, fg, fb, fa));
+        }
     }
 
     private class Circle extends RenderObject
@@ -304,6 +528,7 @@ public class HUDRenderer
         Circle(int _x, int _y, int _r, int _thick, int lr, int lg, int lb, int la, int fr, int fg, int fb,
             int fa)
         {
+            super(new int[]{_x, _y, _r, _thick, lr, lg, lb, la, fr, fg, fb, fa}, null);
             x = _x;
             y = _y;
             r = _r;
@@ -322,8 +547,9 @@ public class HUDRenderer
             fillA = fa;
         }
 
-        void render(int[] buffer, int bw, int bh)
+        Sprite rasterize(int bw, int bh)
         {
+            Sprite s = new Sprite(bw, bh, fillR, fillG, fillB, fillA, lineR, lineG, lineB, lineA);
             for(int j = y - r; j < y + r && j < bh; j++) {
                 if(j < 0 || j >= bh)
                     continue;
@@ -335,19 +561,21 @@ public class HUDRenderer
                     long d = ox * ox + oy * oy;
                     if(d > r2outer)
                         continue;
-                    renderPixel(buffer, bw, bh, i, j, d >= r2inner, fillR, fillG, fillB, fillA, lineR, lineG,
-                        lineB, lineA);
+                    s.plot(i, j, d >= r2inner);
                 }
             }
+            return s;
         }
     }
 
-    public synchronized void REMOTE_circle(int _flags, int _x, int _y, int _r, int _thick, int lr, int lg, int lb,
+    public void REMOTE_circle(int _flags, int _x, int _y, int _r, int _thick, int lr, int lg, int lb,
         int la, int fr, int fg, int fb, int fa)
     {
         if((_flags & flags) != flags)
             return;
-        renderObjects.add(new Circle(_x, _y, _r, _thick, lr, lg, lb, la, fr, fg, fb, fa));
+        synchronized(submitLock) {
+            renderObjects.add(new Circle(_x, _y, _r, _thick, lr, lg, lb, la, fr, fg, fb, fa));
+        }
     }
 
     private class Bitmap extends RenderObject
@@ -359,6 +587,7 @@ public class HUDRenderer
         int h;
         int stride;
         int[] bitmapData;
+        boolean binary;
         int lineR;
         int lineG;
         int lineB;
@@ -368,12 +597,14 @@ public class HUDRenderer
         int fillB;
         int fillA;
 
+        //The bitmap is only parsed when rasterized, so one drawn unchanged every frame is parsed once.
         Bitmap(int _x, int _y, String bmap, int lr, int lg, int lb, int la, int fr, int fg, int fb,
-            int fa, boolean dummy)
+            int fa, boolean _binary)
         {
-            int i = 0;
+            super(new int[]{_x, _y, lr, lg, lb, la, fr, fg, fb, fa, _binary ? 1 : 0}, bmap);
             x = _x;
             y = _y;
+            binary = _binary;
             lineR = lr;
             lineG = lg;
             lineB = lb;
@@ -382,6 +613,11 @@ public class HUDRenderer
             fillG = fg;
             fillB = fb;
             fillA = fa;
+        }
+
+        private void parseBinary(String bmap)
+        {
+            int i = 0;
             w = 0;
             h = 0;
             try {
@@ -402,19 +638,8 @@ public class HUDRenderer
             }
         }
 
-        Bitmap(int _x, int _y, String bmap, int lr, int lg, int lb, int la, int fr, int fg, int fb,
-            int fa)
+        private void parseText(String bmap)
         {
-            x = _x;
-            y = _y;
-            lineR = lr;
-            lineG = lg;
-            lineB = lb;
-            lineA = la;
-            fillR = fr;
-            fillG = fg;
-            fillB = fb;
-            fillA = fa;
             int cx = 0;
             int cy = 0;
             boolean newLine = true;
@@ -468,17 +693,23 @@ public class HUDRenderer
             }
         }
 
-        void render(int[] buffer, int bw, int bh)
+        Sprite rasterize(int bw, int bh)
         {
+            Sprite s = new Sprite(bw, bh, fillR, fillG, fillB, fillA, lineR, lineG, lineB, lineA);
+            if(bitmapData == null && stride == 0) {
+                if(binary)
+                    parseBinary(text);
+                else
+                    parseText(text);
+            }
             if(bitmapData == null)
-                return;
+                return s;
             int counter = 0;
             int pixel = bitmapData[counter];
             int pixelModulus = 0;
             for(int j = y; j < y + h && j < bh; j++) {
                 for(int i = x; i < x + w; i++) {
-                    renderPixel(buffer, bw, bh, i, j, ((pixel >> pixelModulus) & 1) != 0, fillR, fillG, fillB,
-                        fillA, lineR, lineG, lineB, lineA);
+                    s.plot(i, j, ((pixel >> pixelModulus) & 1) != 0);
                     pixelModulus++;
                     if(pixelModulus == PIXELS_PER_ELEMENT) {
                         pixel = bitmapData[++counter];
@@ -490,6 +721,7 @@ public class HUDRenderer
                     pixelModulus = 0;
                 }
             }
+            return s;
         }
     }
 
@@ -497,7 +729,6 @@ public class HUDRenderer
     {
         int x;
         int y;
-        int stride;
         boolean multiline;
         String vgaChargenString;
         int lineR;
@@ -512,6 +743,7 @@ public class HUDRenderer
         VGAChargen(int _x, int _y, String text, int lr, int lg, int lb, int la, int fr, int fg, int fb,
             int fa, boolean _multiline)
         {
+            super(new int[]{_x, _y, lr, lg, lb, la, fr, fg, fb, fa, _multiline ? 1 : 0}, text);
             x = _x;
             y = _y;
             lineR = lr;
@@ -526,15 +758,18 @@ public class HUDRenderer
             multiline = _multiline;
         }
 
-        final void renderPartial(int[] buffer, int bw, int bh, int x, int y, long data)
+        final void renderGlyph(Sprite s, int x, int y, int ch)
         {
-            for(int i = 0; i < 64; i++)
-                renderPixel(buffer, bw, bh, x + 7 - (i % 8), y + (i / 8), ((data >>> i) & 1) != 0, fillR, fillG, fillB,
-                    fillA, lineR, lineG, lineB, lineA);
+            for(int j = 0; j < 16; j++) {
+                int row = glyphRows[16 * ch + j];
+                for(int i = 0; i < 8; i++)
+                    s.plot(x + i, y + j, ((row >> (7 - i)) & 1) != 0);
+            }
         }
 
-        void render(int[] buffer, int bw, int bh)
+        Sprite rasterize(int bw, int bh)
         {
+            Sprite s = new Sprite(bw, bh, fillR, fillG, fillB, fillA, lineR, lineG, lineB, lineA);
             int xbase = x, ybase = y;
             int len = vgaChargenString.length();
             for(int i = 0; i < len; i++) {
@@ -543,35 +778,41 @@ public class HUDRenderer
                     xbase = x;
                     ybase += 16;
                 } else if(!(xbase < -7 || ybase < -15 || xbase >= bw || ybase >= bh)) {
-                    renderPartial(buffer, bw, bh, xbase, ybase, vgaFontData[2 * ch + 0]);
-                    renderPartial(buffer, bw, bh, xbase, ybase + 8, vgaFontData[2 * ch + 1]);
+                    renderGlyph(s, xbase, ybase, ch);
                     xbase += 8;
                 }
             }
+            return s;
         }
     }
 
-    public synchronized void REMOTE_bitmap(int _flags, int _x, int _y, String bmap, int lr, int lg, int lb, int la,
+    public void REMOTE_bitmap(int _flags, int _x, int _y, String bmap, int lr, int lg, int lb, int la,
         int fr, int fg, int fb, int fa)
     {
         if((_flags & flags) != flags)
             return;
-        renderObjects.add(new Bitmap(_x, _y, bmap, lr, lg, lb, la, fr, fg, fb, fa));
+        synchronized(submitLock) {
+            renderObjects.add(new Bitmap(_x, _y, bmap, lr, lg, lb, la, fr, fg, fb, fa, false));
+        }
     }
 
-    public synchronized void REMOTE_bitmap_binary(int _flags, int _x, int _y, String bmap, int lr, int lg, int lb,
+    public void REMOTE_bitmap_binary(int _flags, int _x, int _y, String bmap, int lr, int lg, int lb,
         int la, int fr, int fg, int fb, int fa)
     {
         if((_flags & flags) != flags)
             return;
-        renderObjects.add(new Bitmap(_x, _y, bmap, lr, lg, lb, la, fr, fg, fb, fa, true));
+        synchronized(submitLock) {
+            renderObjects.add(new Bitmap(_x, _y, bmap, lr, lg, lb, la, fr, fg, fb, fa, true));
+        }
     }
 
-    public synchronized void REMOTE_vga_chargen(int _flags, int _x, int _y, String text, int lr, int lg, int lb, int la,
+    public void REMOTE_vga_chargen(int _flags, int _x, int _y, String text, int lr, int lg, int lb, int la,
         int fr, int fg, int fb, int fa, boolean multiline)
     {
         if((_flags & flags) != flags)
             return;
-        renderObjects.add(new VGAChargen(_x, _y, text, lr, lg, lb, la, fr, fg, fb, fa, multiline));
+        synchronized(submitLock) {
+            renderObjects.add(new VGAChargen(_x, _y, text, lr, lg, lb, la, fr, fg, fb, fa, multiline));
+        }
     }
 }
@@ -32,6 +32,7 @@ package org.jpc.pluginsaux;
 import org.jpc.emulator.PC;
 import org.jpc.diskimages.DiskImage;
 import org.jpc.emulator.DriveSet;
+import org.jpc.emulator.memory.codeblock.CodeBlockManager;
 import static org.jpc.Misc.errorDialog;
 
 import javax.swing.*;
@@ -172,6 +173,7 @@ public class PCConfigDialog implements ActionListener, WindowListener
             addOption("Initial RTC time", "INITTIME", "1000000000000");
             addOption("CPU freq. divider", "CPUDIVIDER", "50");
             addOption("Memory size (4KiB pages)", "MEMSIZE", "4096");
+            addOption("Instructions per codeblock", "BLOCKLIMIT", "1000");
             addOption("Modules", "MODULES", "org.jpc.modules.BasicFPU,org.jpc.modules.SoundCard,org.jpc.modules.GMIDIInterface");
             addBoolean("Emulate I/O delay", "IOPORTDELAY");
             addBoolean("Emulate VGA Hretrace", "VGAHRETRACE");
@@ -362,6 +364,19 @@ public class PCConfigDialog implements ActionListener, WindowListener
                 hw.memoryPages = 4096;
             }
 
+            String blockLimitS = textFor("BLOCKLIMIT");
+            try {
+                hw.blockLimit = Integer.parseInt(blockLimitS, 10);
+                if(hw.blockLimit < 2 || hw.blockLimit > 10000)
+                   throw new Exception("Invalid codeblock size value (bounds are 2 and 10000).");
+                if(hw.blockLimit == CodeBlockManager.DEFAULT_BLOCK_LIMIT)
+                    hw.blockLimit = 0;
+            } catch(Exception e) {
+                if(blockLimitS != null)
+                    throw e;
+                hw.blockLimit = 0;
+            }
+
             String bootArg = (String)bootDevice.getSelectedItem();
             bootArg = bootArg.toLowerCase();
             if (bootArg.equals("fda"))
@@ -59,12 +59,20 @@ public class PCMonitorPanel implements ActionListener, MouseListener
     private PC pc;
     private OutputClient outputClient;
     private volatile boolean signalCheck;
+    //Swing paints buffer while the monitor thread renders into backBuffer, swapped under imageLock.
     private BufferedImage buffer;
+    private BufferedImage backBuffer;
+    private final Object imageLock = new Object();
     private int ssSeq;
-    private int[] renderBuffer;
     private int renderBufferW;
     private int renderBufferH;
     private int[] rawImageData;
+    private int[] backImageData;
+    private boolean paintPending;
+    private int framesPainted;
+    private long rateCheckTime;
+    private int rateCheckPainted;
+    private long rateCheckBatches;
     private int screenWidth, screenHeight;
     private MonitorPanel monitorPanel;
     private Thread monitorThread;
@@ -82,13 +90,16 @@ public class PCMonitorPanel implements ActionListener, MouseListener
         monitorPanel.setDoubleBuffered(false);
         monitorPanel.requestFocusInWindow();
         outputServer = serv;
-        outputClient = new OutputClient(serv);
 
         monitorPanel.setInputMap(JPanel.WHEN_FOCUSED, null);
 
         embedder = embedWhere;
         renderer = new HUDRenderer(1);
         embedder.notifyRenderer(renderer);
+        //Display only needs the newest frame, with the HUD drawn for it.
+        outputClient = new OutputClient(serv, OutputClient.LOSSY, new OutputStatic.BatchTagger() {
+            public Object tagBatch(OutputStatic.Batch batch) { return renderer.takeOverlay(); }
+        });
         menusNeeded = new ArrayList<JMenu>();
         JMenu lamp;
         JMenuItem lampx;
@@ -177,42 +188,76 @@ public class PCMonitorPanel implements ActionListener, MouseListener
         while (true)  //JVM will kill us.
         {
             synchronized(this) {
-                if(outputClient.aquire()) {
-                    OutputFrame f = outputServer.lastFrame(OutputFrameImage.class);
+                OutputStatic.Batch batch = outputClient.nextBatch(true);
+                if(batch != null) {
+                    OutputFrame f = batch.lastFrame(OutputFrameImage.class);
+                    HUDRenderer.Overlay overlay = (HUDRenderer.Overlay)outputClient.getBatchTag();
                     if(f != null)
                         lastFrame = (OutputFrameImage)f;
                     else {
-                        outputClient.releaseWaitAll();
+                        outputClient.doneBatch();
                         continue;
                     }
                     int w = lastFrame.getWidth();
                     int h = lastFrame.getHeight();
                     embedder.notifyFrameReceived(w, h);
-                    int[] buffer = lastFrame.getImageData();
-                    renderer.setBackground(buffer, w, h);
-                    outputClient.releaseWaitAll();
-                    w = renderBufferW = renderer.getRenderWidth();
-                    h = renderBufferH = renderer.getRenderHeight();
-                    renderBuffer = renderer.getFinishedAndReset();
+                    //The batch stays pinned until rendered, so the frame is used in place.
+                    renderer.useBackground(lastFrame.getImageData(), w, h);
+                    w = renderer.getRenderWidth(overlay);
+                    h = renderer.getRenderHeight(overlay);
                     if(w > 0 && h > 0 && (w != screenWidth || h != screenHeight)) {
                         resizeDisplay(w, h, false);
                         embedder.notifySizeChange(w, h);
                     }
-                    if(renderBuffer == null)
+                    if(w <= 0 || h <= 0) {
+                        outputClient.doneBatch();
                         continue;
-
-                    for(int y = 0; y < h; y++) {
-                        int offset = y * w;
-                        if(w > 0)
-                            System.arraycopy(renderBuffer, offset, rawImageData, offset, w);
                     }
 
+                    //Render straight into the image Swing doesn't paint, then swap. If the last frame never
+                    //got painted, it is dropped in favour of this one.
+                    renderer.getFinished(overlay, backImageData);
+                    outputClient.doneBatch();
+                    synchronized(imageLock) {
+                        BufferedImage tmp = this.buffer;
+                        this.buffer = backBuffer;
+                        backBuffer = tmp;
+                        int[] tmp2 = rawImageData;
+                        rawImageData = backImageData;
+                        backImageData = tmp2;
+                        renderBufferW = w;
+                        renderBufferH = h;
+                        paintPending = true;
+                    }
                     monitorPanel.repaint(0, 0, w, h);
+                    updateFrameRate();
                 }
             }
         }
     }
 
+    //Report display and emulated frame rates to the embedder about once a second.
+    private void updateFrameRate()
+    {
+        long now = System.nanoTime();
+        if(rateCheckTime == 0) {
+            rateCheckTime = now;
+            return;
+        }
+        if(now - rateCheckTime < 1000000000L)
+            return;
+        int painted;
+        synchronized(imageLock) {
+            painted = framesPainted;
+        }
+        long batches = outputClient.getBatches() + outputClient.getSkipped();
+        double seconds = (now - rateCheckTime) / 1e9;
+        embedder.notifyFrameRate((painted - rateCheckPainted) / seconds, (batches - rateCheckBatches) / seconds);
+        rateCheckTime = now;
+        rateCheckPainted = painted;
+        rateCheckBatches = batches;
+    }
+
     public void resizeDisplay(int width, int height, boolean repaint)
     {
         monitorPanel.setPreferredSize(new Dimension(width, height));
@@ -220,10 +265,15 @@ public class PCMonitorPanel implements ActionListener, MouseListener
         monitorPanel.setMinimumSize(new Dimension(width, height));
 
         if(width > 0 && height > 0) {
-            buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-            buffer.setAccelerationPriority(1);
-            DataBufferInt buf = (DataBufferInt) buffer.getRaster().getDataBuffer();
-            rawImageData = buf.getData();
+            synchronized(imageLock) {
+                buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                buffer.setAccelerationPriority(1);
+                rawImageData = ((DataBufferInt)buffer.getRaster().getDataBuffer()).getData();
+                backBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                backBuffer.setAccelerationPriority(1);
+                backImageData = ((DataBufferInt)backBuffer.getRaster().getDataBuffer()).getData();
+                renderBufferW = renderBufferH = 0;
+            }
         }
         screenWidth = width;
         screenHeight = height;
@@ -263,9 +313,12 @@ public class PCMonitorPanel implements ActionListener, MouseListener
         int[] buffer = null;
 
         if(asRendered) {
-            w = renderBufferW;
-            h = renderBufferH;
-            buffer = renderBuffer;
+            synchronized(imageLock) {
+                w = renderBufferW;
+                h = renderBufferH;
+                if(w * h > 0)
+                    buffer = Arrays.copyOf(rawImageData, w * h);
+            }
         } else {
             if(lastFrame != null) {
                 w = lastFrame.getWidth();
@@ -324,7 +377,12 @@ public class PCMonitorPanel implements ActionListener, MouseListener
                     g.fillRect(0, s2h, s1.width, s1.height - s2h);
                 clearBackground = false;
             }
-            g.drawImage(buffer, 0, 0, null);
+            synchronized(imageLock) {
+                g.drawImage(buffer, 0, 0, null);
+                if(paintPending)
+                    framesPainted++;
+                paintPending = false;
+            }
             Dimension s = getSize();
             g.setColor(getBackground());
             g.fillRect(s2w, 0, s.width - s2w, s2h);
@@ -34,6 +34,7 @@ public interface PCMonitorPanelEmbedder
 {
     public abstract void notifySizeChange(int w, int h);
     public abstract void notifyFrameReceived(int w, int h);
+    public abstract void notifyFrameRate(double displayFps, double emulatedFps);
     public abstract void notifyRenderer(HUDRenderer r);
     public abstract void sendMessage(String msg);
 }
@@ -29,6 +29,8 @@
 
 package org.jpc.pluginsaux;
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 import static org.jpc.Misc.errorDialog;
 
@@ -76,8 +78,12 @@ public class PNGSaver
         FileOutputStream stream = new FileOutputStream(file);
         BufferedOutputStream buffered = new BufferedOutputStream(stream);
         DataOutputStream dataOut = new DataOutputStream(buffered);
-        PNGSaver.savePNG(dataOut, pixelData, width, height);
-        buffered.flush();
+        try {
+            PNGSaver.savePNG(dataOut, pixelData, width, height);
+            buffered.flush();
+        } finally {
+            stream.close();
+        }
     }
 
     private static void flushChunk(DataOutput out, int chunkType, byte[] content, int limitLength) throws IOException
@@ -107,6 +113,127 @@ public class PNGSaver
         out.writeInt(crcV);
     }
 
+    //Rows are filtered and deflated in groups of at least this many bytes, groups in parallel.
+    private final static int GROUP_BYTES = 256 * 1024;
+    private final static int WINDOW_SIZE = 32768;
+    private static ExecutorService encoders;
+
+    private static synchronized ExecutorService getEncoders()
+    {
+        if(encoders == null)
+            encoders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "PNG encoder");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        return encoders;
+    }
+
+    private static int paeth(int a, int b, int c)
+    {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if(pa <= pb && pa <= pc)
+            return a;
+        else if(pb <= pc)
+            return b;
+        else
+            return c;
+    }
+
+    private static void rowBytes(int[] pixelData, int width, int row, byte[] out)
+    {
+        for(int i = 0; i < width; i++) {
+            int px = pixelData[row * width + i];
+            out[3 * i + 0] = (byte)(px >> 16);
+            out[3 * i + 1] = (byte)(px >> 8);
+            out[3 * i + 2] = (byte)px;
+        }
+    }
+
+    //Filter rows [firstRow, lastRow), picking for each row the filter with the smallest sum of absolute values.
+    static byte[] filterRows(int[] pixelData, int width, int firstRow, int lastRow)
+    {
+        int stride = 3 * width;
+        byte[] filtered = new byte[(lastRow - firstRow) * (stride + 1)];
+        byte[] prev = new byte[stride];
+        byte[] cur = new byte[stride];
+        long[] cost = new long[5];
+        if(firstRow > 0)
+            rowBytes(pixelData, width, firstRow - 1, prev);
+        int ptr = 0;
+        for(int row = firstRow; row < lastRow; row++) {
+            rowBytes(pixelData, width, row, cur);
+            Arrays.fill(cost, 0);
+            for(int i = 0; i < stride; i++) {
+                int x = cur[i] & 0xFF;
+                int a = (i >= 3) ? (cur[i - 3] & 0xFF) : 0;
+                int b = prev[i] & 0xFF;
+                int c = (i >= 3) ? (prev[i - 3] & 0xFF) : 0;
+                cost[0] += Math.abs((byte)x);
+                cost[1] += Math.abs((byte)(x - a));
+                cost[2] += Math.abs((byte)(x - b));
+                cost[3] += Math.abs((byte)(x - ((a + b) >> 1)));
+                cost[4] += Math.abs((byte)(x - paeth(a, b, c)));
+            }
+            int filter = 0;
+            for(int i = 1; i < 5; i++)
+                if(cost[i] < cost[filter])
+                    filter = i;
+            filtered[ptr++] = (byte)filter;
+            for(int i = 0; i < stride; i++) {
+                int x = cur[i] & 0xFF;
+                int a = (i >= 3) ? (cur[i - 3] & 0xFF) : 0;
+                int b = prev[i] & 0xFF;
+                int c = (i >= 3) ? (prev[i - 3] & 0xFF) : 0;
+                switch(filter) {
+                case 0:  filtered[ptr++] = (byte)x; break;
+                case 1:  filtered[ptr++] = (byte)(x - a); break;
+                case 2:  filtered[ptr++] = (byte)(x - b); break;
+                case 3:  filtered[ptr++] = (byte)(x - ((a + b) >> 1)); break;
+                default: filtered[ptr++] = (byte)(x - paeth(a, b, c)); break;
+                }
+            }
+            byte[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return filtered;
+    }
+
+    //Raw deflate of one group, primed with the end of the previous one. All but the last group end in a sync
+    //flush, so the groups concatenate into one deflate stream (as pigz does it).
+    static byte[] deflateGroup(byte[] data, byte[] previous, boolean last)
+    {
+        Deflater deflate = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        byte[] buffer = new byte[65536];
+        if(previous != null) {
+            int dictLen = Math.min(WINDOW_SIZE, previous.length);
+            deflate.setDictionary(previous, previous.length - dictLen, dictLen);
+        }
+        deflate.setInput(data);
+        if(last) {
+            deflate.finish();
+            while(!deflate.finished())
+                out.write(buffer, 0, deflate.deflate(buffer));
+        } else {
+            int n;
+            do {
+                n = deflate.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, n);
+            } while(n == buffer.length);
+        }
+        deflate.end();
+        return out.toByteArray();
+    }
+
     public static void savePNG(DataOutput out, int[] pixelData, int width, int height) throws IOException
     {
         byte[] pngMagic = new byte[]{-119, 80, 78, 71, 13, 10, 26, 10};
@@ -114,16 +241,9 @@ public class PNGSaver
         int iendType = 0x49454E44;
         int idatType = 0x49444154;
         int compressedChunkLen = 32768;
-        int tempBufferLen = 10000;
-        byte[] tempBuffer = new byte[tempBufferLen];
         byte[] ihdrContent = new byte[]{25, 25, 25, 25, 25, 25, 25, 25, 8, 2, 0, 0, 0};
         byte[] compressed = new byte[compressedChunkLen];
         int compressedFill = 0;
-        int pixelIterator = 0;
-        int outputSize = 0;
-        boolean filterMarker = false;
-        boolean finished = false;
-        Deflater deflate = new Deflater();
 
         out.write(pngMagic);
 
@@ -136,6 +256,8 @@ public class PNGSaver
             System.err.println("Warning: Invalid video input data.");
             pixelData = new int[width * height];
         }
+        final int[] pixels = pixelData;
+        final int w = width;
 
         //Write the IHDR.
         ihdrContent[0] = (byte)((width >>> 24) & 0xFF);
@@ -148,39 +270,69 @@ public class PNGSaver
         ihdrContent[7] = (byte)((height & 0xFF));
         flushChunk(out, ihdrType, ihdrContent, -1);
 
-        //Write the IDAT chunk(s).
-        while(!deflate.finished()) {
-            if(deflate.needsInput()) {
-                if(pixelIterator == width * height) {
-                    if(!finished) {
-                        deflate.finish();
-                    }
-                    finished = true;
-                } else {
-                     int tempFill = 0;
-                     while(tempFill < tempBufferLen && pixelIterator < width * height) {
-                         if(pixelIterator % width == 0 && !filterMarker) {
-                             tempBuffer[tempFill++] = 0;    //No filtering.
-                             filterMarker = true;
-                         }
-                         if(tempFill > tempBufferLen - 3)
-                             break;                         //Doesn't fit.
-                         filterMarker = false;
-                         tempBuffer[tempFill++] = (byte)((pixelData[pixelIterator] >> 16) & 0xFF);
-                         tempBuffer[tempFill++] = (byte)((pixelData[pixelIterator] >> 8) & 0xFF);
-                         tempBuffer[tempFill++] = (byte)((pixelData[pixelIterator]) & 0xFF);
-                         pixelIterator++;
-                     }
-                     outputSize += tempFill;
-                     deflate.setInput(tempBuffer, 0, tempFill);
+        //Filter, then deflate the row groups. Both steps of one group only need the rows before it.
+        int groupRows = Math.max(1, GROUP_BYTES / (3 * width + 1));
+        //An empty image still needs its (empty) zlib stream.
+        final int groups = Math.max(1, (height + groupRows - 1) / groupRows);
+        final byte[][] filtered = new byte[groups][];
+        byte[][] deflated = new byte[groups][];
+        try {
+            if(groups == 1) {
+                filtered[0] = filterRows(pixelData, width, 0, height);
+                deflated[0] = deflateGroup(filtered[0], null, true);
+            } else {
+                ExecutorService pool = getEncoders();
+                List<Future<byte[]>> tasks = new ArrayList<Future<byte[]>>();
+                for(int i = 0; i < groups; i++) {
+                    final int first = i * groupRows;
+                    final int last = Math.min(height, first + groupRows);
+                    tasks.add(pool.submit(new Callable<byte[]>() {
+                        public byte[] call() { return filterRows(pixels, w, first, last); }
+                    }));
                 }
+                for(int i = 0; i < groups; i++)
+                    filtered[i] = tasks.get(i).get();
+                tasks.clear();
+                for(int i = 0; i < groups; i++) {
+                    final int group = i;
+                    tasks.add(pool.submit(new Callable<byte[]>() {
+                        public byte[] call()
+                        {
+                            return deflateGroup(filtered[group], (group > 0) ? filtered[group - 1] : null,
+                                group == groups - 1);
+                        }
+                    }));
+                }
+                for(int i = 0; i < groups; i++)
+                    deflated[i] = tasks.get(i).get();
             }
-            if(compressedFill == compressedChunkLen) {
-                //Flush IDAT.
-                flushChunk(out, idatType, compressed, -1);
-                compressedFill = 0;
-            } else {
-                compressedFill += deflate.deflate(compressed, compressedFill, compressedChunkLen - compressedFill);
+        } catch(InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while encoding PNG");
+        } catch(ExecutionException e) {
+            throw new IOException("PNG encoding failed: " + e.getCause().getMessage());
+        }
+
+        //Wrap the deflate stream as zlib: header, the groups and Adler-32 of all the filtered data.
+        Adler32 adler = new Adler32();
+        for(int i = 0; i < groups; i++)
+            adler.update(filtered[i]);
+        int check = (int)adler.getValue();
+        deflated[0] = concat(new byte[]{0x78, (byte)0x9C}, deflated[0]);
+        deflated[groups - 1] = concat(deflated[groups - 1], new byte[]{(byte)(check >>> 24), (byte)(check >>> 16),
+            (byte)(check >>> 8), (byte)check});
+
+        //Write the IDAT chunk(s).
+        for(int i = 0; i < groups; i++) {
+            byte[] data = deflated[i];
+            for(int j = 0; j < data.length;) {
+                int n = Math.min(data.length - j, compressedChunkLen - compressedFill);
+                System.arraycopy(data, j, compressed, compressedFill, n);
+                compressedFill += n;
+                j += n;
+                if(compressedFill == compressedChunkLen) {
+                    flushChunk(out, idatType, compressed, -1);
+                    compressedFill = 0;
+                }
             }
         }
         if(compressedFill > 0) {
@@ -193,6 +345,13 @@ public class PNGSaver
         flushChunk(out, iendType, null, -1);
     }
 
+    private static byte[] concat(byte[] a, byte[] b)
+    {
+        byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
     //main function for testing.
     public static void main(String[] args)
     {